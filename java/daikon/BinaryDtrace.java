@@ -0,0 +1,890 @@
+package daikon;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Daikon's binary data trace format. A binary trace holds the same information as a textual
+ * {@code .dtrace} file, but its samples are much cheaper to write and to parse: program points are
+ * identified by number, variable names are not repeated, and values are stored in binary rather
+ * than as text.
+ *
+ * <p>A binary trace starts with the bytes of {@link #MAGIC}, followed by a sequence of records.
+ * Each record is a one-byte kind, a four-byte length, and then that many bytes of payload. All
+ * numbers are big-endian, and every string is a four-byte length followed by that many bytes of
+ * UTF-8 (a length of -1 means null). The kinds of record are:
+ *
+ * <dl>
+ *   <dt>{@link #TEXT}
+ *   <dd>Text in the format of a textual {@code .dtrace} file: declarations, comparability and
+ *       version information, and comments. Declarations are rare, so they are not worth encoding
+ *       in binary, and this way Daikon reads them with the same code as always.
+ *   <dt>{@link #PPT}
+ *   <dd>An entry of the dictionary of program points: the program point's number (an int), its
+ *       name, the number of variables in its samples (an int), and for each variable its name and
+ *       its type (a byte, one of {@link #LONG} through {@link #STRING_ARRAY}). The names are the
+ *       names from the declaration, without the escapes of the textual format. A program point is
+ *       entered in the dictionary before its first sample and after its declaration.
+ *   <dt>{@link #SAMPLE}
+ *   <dd>The number of the program point (an int), a flag byte that says whether an invocation
+ *       nonce follows, the nonce (an int) if so, and then for each variable, in the order of the
+ *       dictionary entry, its modified bit (a byte, as in {@link ValueTuple}) and, unless the
+ *       modified bit says that the value is missing, the value.
+ * </dl>
+ *
+ * A {@link #LONG} or {@link #DOUBLE} value is eight bytes and a {@link #STRING} value is a string,
+ * which may not be null. The array types are a four-byte length and then the elements; the
+ * elements of a {@link #STRING_ARRAY} may be null. Integral, boolean, and hashcode values are all
+ * stored as {@link #LONG}s.
+ *
+ * <p>The format does not compress the data; a binary trace, like a textual one, may be compressed
+ * with gzip.
+ *
+ * <p>{@link FileIO} reads binary traces wherever it reads textual ones. Chicory writes them when
+ * given its {@code --dtrace-binary} option, and {@link daikon.tools.DtraceConvert} converts traces
+ * from one format to the other.
+ */
+public final class BinaryDtrace {
+
+  /** This class is a collection of methods; it should never be instantiated. */
+  private BinaryDtrace() {
+    throw new Error("do not instantiate");
+  }
+
+  /** The bytes at the beginning of every binary trace. The last byte is the format version. */
+  @SuppressWarnings("mutable") // never modified
+  static final byte[] MAGIC = {(byte) 0x89, 'D', 'T', 'R', 'A', 'C', 'E', 1};
+
+  // Kinds of record.
+
+  /** A record of text in the format of a textual trace. */
+  public static final byte TEXT = 1;
+  /** A record that enters a program point in the dictionary. */
+  public static final byte PPT = 2;
+  /** A record that holds a sample. */
+  public static final byte SAMPLE = 3;
+
+  // Types of value.
+
+  /** An integral, boolean, or hashcode value. */
+  public static final byte LONG = 1;
+  /** A floating-point value. */
+  public static final byte DOUBLE = 2;
+  /** A string. */
+  public static final byte STRING = 3;
+  /** An array of integral, boolean, or hashcode values. */
+  public static final byte LONG_ARRAY = 4;
+  /** An array of floating-point values. */
+  public static final byte DOUBLE_ARRAY = 5;
+  /** An array of strings, some of which may be null. */
+  public static final byte STRING_ARRAY = 6;
+
+  /** The modified bit of a missing value, which is not stored. Same as {@link ValueTuple}. */
+  public static final int MISSING = 2;
+
+  /**
+   * Returns the type in which values of a representation type are stored.
+   *
+   * @param rep_type the name of a representation type, such as "int" or "java.lang.String[]"
+   * @return the type in which values of rep_type are stored, or -1 if the binary format cannot
+   *     store them
+   */
+  public static byte type_of_rep(String rep_type) {
+    boolean is_array = rep_type.endsWith("[]");
+    String base = is_array ? rep_type.substring(0, rep_type.length() - 2) : rep_type;
+    switch (base) {
+      case "int":
+      case "boolean":
+      case "char":
+      case "hashcode":
+        return is_array ? LONG_ARRAY : LONG;
+      case "double":
+        return is_array ? DOUBLE_ARRAY : DOUBLE;
+      case "java.lang.String":
+        return is_array ? STRING_ARRAY : STRING;
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Returns true if the stream is positioned at the beginning of a binary trace. The stream is
+   * left where it was.
+   *
+   * @param in a stream that supports mark and reset
+   * @return true if the next bytes of in are {@link #MAGIC}
+   * @throws IOException if there is trouble reading in
+   */
+  public static boolean is_binary(BufferedInputStream in) throws IOException {
+    in.mark(MAGIC.length);
+    byte[] start = new byte[MAGIC.length];
+    int len = 0;
+    while (len < start.length) {
+      int n = in.read(start, len, start.length - len);
+      if (n == -1) {
+        break;
+      }
+      len += n;
+    }
+    in.reset();
+    return Arrays.equals(start, MAGIC);
+  }
+
+  /** A growable buffer into which a record's payload is encoded. */
+  private static final class RecordBuffer {
+    /** The encoded bytes; only the first {@link #len} of them are used. */
+    byte[] buf = new byte[4096];
+    /** The number of bytes encoded so far. */
+    int len = 0;
+
+    /**
+     * Makes room for more bytes.
+     *
+     * @param n the number of bytes that are about to be added
+     */
+    void ensure(int n) {
+      if (len + n > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(len + n, 2 * buf.length));
+      }
+    }
+
+    /**
+     * Appends a byte.
+     *
+     * @param b the byte to append
+     */
+    void put_byte(int b) {
+      ensure(1);
+      buf[len++] = (byte) b;
+    }
+
+    /**
+     * Appends an int.
+     *
+     * @param v the int to append
+     */
+    void put_int(int v) {
+      ensure(4);
+      buf[len++] = (byte) (v >>> 24);
+      buf[len++] = (byte) (v >>> 16);
+      buf[len++] = (byte) (v >>> 8);
+      buf[len++] = (byte) v;
+    }
+
+    /**
+     * Appends a long.
+     *
+     * @param v the long to append
+     */
+    void put_long(long v) {
+      ensure(8);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        buf[len++] = (byte) (v >>> shift);
+      }
+    }
+
+    /**
+     * Appends a string.
+     *
+     * @param s the string to append, or null
+     */
+    void put_string(@Nullable String s) {
+      if (s == null) {
+        put_int(-1);
+        return;
+      }
+      byte[] bytes = s.getBytes(UTF_8);
+      put_int(bytes.length);
+      ensure(bytes.length);
+      System.arraycopy(bytes, 0, buf, len, bytes.length);
+      len += bytes.length;
+    }
+  }
+
+  /**
+   * Writes a binary trace. Text such as declarations is written to {@link #text}; samples are
+   * written with {@link #begin_sample}, a call that writes each value, and {@link #end_sample}.
+   * Text and samples appear in the trace in the order in which they were written.
+   */
+  public static class Writer implements Closeable, Flushable {
+
+    /** Where the trace is written. */
+    private final OutputStream out;
+
+    /** The payload of the sample that is being written. */
+    private final RecordBuffer sample = new RecordBuffer();
+
+    /** Text that has been written but not yet put in a {@link #TEXT} record. */
+    private final ByteArrayOutputStream pending_text = new ByteArrayOutputStream();
+
+    /** The stream returned by {@link #text}. */
+    private final PrintStream text;
+
+    /** The number of program points entered in the dictionary so far. */
+    private int num_ppts = 0;
+
+    /** True once the writer has been closed. */
+    private boolean closed = false;
+
+    /**
+     * Creates a Writer and writes the beginning of the trace.
+     *
+     * @param out where to write the trace; should be buffered
+     * @throws IOException if there is trouble writing to out
+     */
+    @SuppressWarnings("nullness:method.invocation.invalid") // TextStream uses only final fields
+    public Writer(OutputStream out) throws IOException {
+      this.out = out;
+      out.write(MAGIC);
+      text = new PrintStream(new TextStream(), false, "UTF-8");
+    }
+
+    /**
+     * Returns a stream for text in the format of a textual trace, such as declarations and
+     * comments. Closing the stream closes the writer.
+     *
+     * @return a stream for the text of the trace
+     */
+    public PrintStream text() {
+      return text;
+    }
+
+    /**
+     * Enters a program point in the dictionary.
+     *
+     * @param ppt_name the name of the program point
+     * @param var_names the names of the variables in each sample, in order
+     * @param var_types the type of each variable, one of {@link #LONG} through {@link
+     *     #STRING_ARRAY}
+     * @return the number of the program point, to be passed to {@link #begin_sample}
+     * @throws IOException if there is trouble writing the trace
+     */
+    public int declare_ppt(String ppt_name, String[] var_names, byte[] var_types)
+        throws IOException {
+      assert var_names.length == var_types.length;
+      int id = num_ppts++;
+      RecordBuffer rec = new RecordBuffer();
+      rec.put_int(id);
+      rec.put_string(ppt_name);
+      rec.put_int(var_names.length);
+      for (int i = 0; i < var_names.length; i++) {
+        rec.put_string(var_names[i]);
+        rec.put_byte(var_types[i]);
+      }
+      write_record(PPT, rec);
+      return id;
+    }
+
+    /**
+     * Starts a sample that has no invocation nonce.
+     *
+     * @param ppt_id the number of the program point, as returned by {@link #declare_ppt}
+     */
+    public void begin_sample(int ppt_id) {
+      sample.len = 0;
+      sample.put_int(ppt_id);
+      sample.put_byte(0);
+    }
+
+    /**
+     * Starts a sample.
+     *
+     * @param ppt_id the number of the program point, as returned by {@link #declare_ppt}
+     * @param nonce the invocation nonce
+     */
+    public void begin_sample(int ppt_id, int nonce) {
+      sample.len = 0;
+      sample.put_int(ppt_id);
+      sample.put_byte(1);
+      sample.put_int(nonce);
+    }
+
+    /** Adds a missing value to the current sample. */
+    public void write_missing() {
+      sample.put_byte(MISSING);
+    }
+
+    /**
+     * Adds a {@link #LONG} value to the current sample.
+     *
+     * @param mod the modified bit
+     * @param v the value
+     */
+    public void write_long(int mod, long v) {
+      sample.put_byte(mod);
+      sample.put_long(v);
+    }
+
+    /**
+     * Adds a {@link #DOUBLE} value to the current sample.
+     *
+     * @param mod the modified bit
+     * @param v the value
+     */
+    public void write_double(int mod, double v) {
+      sample.put_byte(mod);
+      sample.put_long(Double.doubleToRawLongBits(v));
+    }
+
+    /**
+     * Adds a {@link #STRING} value to the current sample.
+     *
+     * @param mod the modified bit
+     * @param v the value
+     */
+    public void write_string(int mod, String v) {
+      sample.put_byte(mod);
+      sample.put_string(v);
+    }
+
+    /**
+     * Adds a {@link #LONG_ARRAY} value to the current sample.
+     *
+     * @param mod the modified bit
+     * @param v the value
+     */
+    public void write_long_array(int mod, long[] v) {
+      sample.put_byte(mod);
+      sample.put_int(v.length);
+      sample.ensure(8 * v.length);
+      for (long elt : v) {
+        sample.put_long(elt);
+      }
+    }
+
+    /**
+     * Adds a {@link #DOUBLE_ARRAY} value to the current sample.
+     *
+     * @param mod the modified bit
+     * @param v the value
+     */
+    public void write_double_array(int mod, double[] v) {
+      sample.put_byte(mod);
+      sample.put_int(v.length);
+      sample.ensure(8 * v.length);
+      for (double elt : v) {
+        sample.put_long(Double.doubleToRawLongBits(elt));
+      }
+    }
+
+    /**
+     * Adds a {@link #STRING_ARRAY} value to the current sample.
+     *
+     * @param mod the modified bit
+     * @param v the value
+     */
+    public void write_string_array(int mod, @Nullable String[] v) {
+      sample.put_byte(mod);
+      sample.put_int(v.length);
+      for (String elt : v) {
+        sample.put_string(elt);
+      }
+    }
+
+    /**
+     * Adds a value of any type to the current sample.
+     *
+     * @param type the type of the variable, one of {@link #LONG} through {@link #STRING_ARRAY}
+     * @param mod the modified bit; if it is {@link #MISSING}, val is ignored
+     * @param val the value: a Long, Double, String, long[], double[], or String[], as in a {@link
+     *     ValueTuple}; null if it is missing
+     */
+    public void write_value(byte type, int mod, @Nullable Object val) {
+      if (mod == MISSING || val == null) {
+        write_missing();
+        return;
+      }
+      switch (type) {
+        case LONG:
+          write_long(mod, ((Long) val).longValue());
+          break;
+        case DOUBLE:
+          write_double(mod, ((Double) val).doubleValue());
+          break;
+        case STRING:
+          write_string(mod, (String) val);
+          break;
+        case LONG_ARRAY:
+          write_long_array(mod, (long[]) val);
+          break;
+        case DOUBLE_ARRAY:
+          write_double_array(mod, (double[]) val);
+          break;
+        case STRING_ARRAY:
+          write_string_array(mod, (String[]) val);
+          break;
+        default:
+          throw new IllegalArgumentException("Bad type " + type);
+      }
+    }
+
+    /**
+     * Writes the current sample to the trace.
+     *
+     * @throws IOException if there is trouble writing the trace
+     */
+    public void end_sample() throws IOException {
+      write_record(SAMPLE, sample);
+    }
+
+    /**
+     * Writes a record, preceded by a record holding any pending text.
+     *
+     * @param kind the kind of the record
+     * @param rec the payload of the record
+     * @throws IOException if there is trouble writing the trace
+     */
+    private void write_record(byte kind, RecordBuffer rec) throws IOException {
+      write_pending_text();
+      write_header(kind, rec.len);
+      out.write(rec.buf, 0, rec.len);
+    }
+
+    /**
+     * Writes the kind and length of a record.
+     *
+     * @param kind the kind of the record
+     * @param len the length of the record's payload
+     * @throws IOException if there is trouble writing the trace
+     */
+    private void write_header(byte kind, int len) throws IOException {
+      out.write(kind);
+      out.write(len >>> 24);
+      out.write(len >>> 16);
+      out.write(len >>> 8);
+      out.write(len);
+    }
+
+    /**
+     * Puts the text written since the last record into a {@link #TEXT} record.
+     *
+     * @throws IOException if there is trouble writing the trace
+     */
+    private void write_pending_text() throws IOException {
+      if (pending_text.size() > 0) {
+        write_header(TEXT, pending_text.size());
+        pending_text.writeTo(out);
+        pending_text.reset();
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      write_pending_text();
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) {
+        closed = true;
+        flush();
+        out.close();
+      }
+    }
+
+    /** The stream underneath {@link #text}. */
+    private class TextStream extends OutputStream {
+      @Override
+      public void write(int b) {
+        pending_text.write(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        pending_text.write(b, off, len);
+      }
+
+      @Override
+      public void flush() throws IOException {
+        Writer.this.flush();
+      }
+
+      @Override
+      public void close() throws IOException {
+        Writer.this.close();
+      }
+    }
+  }
+
+  /** An entry of the dictionary of program points. */
+  public static final class PptEntry {
+    /** The number of the program point. */
+    public final int id;
+    /** The name of the program point. */
+    public final String name;
+    /** The names of the variables in each sample. */
+    public final String[] var_names;
+    /** The type of each variable, one of {@link #LONG} through {@link #STRING_ARRAY}. */
+    public final byte[] var_types;
+
+    /**
+     * Creates a PptEntry.
+     *
+     * @param id the number of the program point
+     * @param name the name of the program point
+     * @param var_names the names of the variables in each sample
+     * @param var_types the type of each variable
+     */
+    public PptEntry(int id, String name, String[] var_names, byte[] var_types) {
+      this.id = id;
+      this.name = name;
+      this.var_names = var_names;
+      this.var_types = var_types;
+    }
+  }
+
+  /**
+   * Reads a binary trace one record at a time. {@link #next_record} reads a record and returns its
+   * kind; the record's contents are then decoded by the other methods, in the order in which they
+   * appear in the record.
+   */
+  public static class Reader implements Closeable {
+
+    /** Where the trace is read from. */
+    private final DataInputStream in;
+
+    /** The payload of the current record. */
+    private byte[] buf = new byte[4096];
+
+    /** The position in {@link #buf} of the next byte to decode. */
+    private int pos = 0;
+
+    /** The length of the payload of the current record. */
+    private int limit = 0;
+
+    /** The number of records read so far. */
+    private int record_number = 0;
+
+    /** The program point of the current sample; set by {@link #read_sample_header}. */
+    private int sample_ppt = -1;
+
+    /** The invocation nonce of the current sample, or null; set by {@link #read_sample_header}. */
+    private @Nullable Integer sample_nonce = null;
+
+    /**
+     * Creates a Reader and reads the beginning of the trace.
+     *
+     * @param in the trace
+     * @throws IOException if in is not a binary trace, or there is trouble reading it
+     */
+    public Reader(InputStream in) throws IOException {
+      this.in = new DataInputStream(in);
+      byte[] start = new byte[MAGIC.length];
+      try {
+        this.in.readFully(start);
+      } catch (EOFException e) {
+        throw new IOException("Not a binary trace: too short");
+      }
+      if (!Arrays.equals(start, MAGIC)) {
+        throw new IOException("Not a binary trace (or an unsupported version of the format)");
+      }
+    }
+
+    /**
+     * Returns the number of records read so far, which is the number of the current record.
+     *
+     * @return the number of records read so far
+     */
+    public int record_number() {
+      return record_number;
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return the kind of the record, or -1 at the end of the trace
+     * @throws IOException if there is trouble reading the trace, or the trace ends in the middle of
+     *     a record
+     */
+    public int next_record() throws IOException {
+      int kind = in.read();
+      if (kind == -1) {
+        return -1;
+      }
+      int len;
+      try {
+        len = in.readInt();
+        if (len < 0) {
+          throw new IOException("Bad length " + len + " of record " + (record_number + 1));
+        }
+        // Grow the buffer only as the bytes arrive, so that a corrupt length in a truncated trace
+        // is reported as the end of the trace rather than as an enormous allocation.
+        int read = 0;
+        while (read < len) {
+          if (buf.length == read) {
+            buf = Arrays.copyOf(buf, (int) Math.min(len, 2L * buf.length));
+          }
+          int n = Math.min(len, buf.length) - read;
+          in.readFully(buf, read, n);
+          read += n;
+        }
+      } catch (EOFException e) {
+        throw new EOFException("Trace ends in the middle of record " + (record_number + 1));
+      }
+      record_number++;
+      pos = 0;
+      limit = len;
+      return kind;
+    }
+
+    /**
+     * Returns the contents of a {@link #TEXT} record.
+     *
+     * @return the text of the current record
+     */
+    public String read_text() {
+      String result = new String(buf, pos, limit - pos, UTF_8);
+      pos = limit;
+      return result;
+    }
+
+    /**
+     * Decodes a {@link #PPT} record.
+     *
+     * @return the dictionary entry in the current record
+     * @throws IOException if the record is malformed
+     */
+    public PptEntry read_ppt() throws IOException {
+      int id = read_int();
+      String name = read_string();
+      if (name == null) {
+        throw new IOException("Missing program point name in record " + record_number);
+      }
+      // Each variable is at least a string length and a type.
+      int num_vars = read_length(5);
+      String[] var_names = new String[num_vars];
+      byte[] var_types = new byte[num_vars];
+      for (int i = 0; i < num_vars; i++) {
+        String var_name = read_string();
+        if (var_name == null) {
+          throw new IOException("Missing variable name in record " + record_number);
+        }
+        var_names[i] = var_name;
+        var_types[i] = (byte) read_byte();
+      }
+      return new PptEntry(id, name, var_names, var_types);
+    }
+
+    /**
+     * Decodes the beginning of a {@link #SAMPLE} record. The values are then read with {@link
+     * #read_mod} and {@link #read_value}.
+     *
+     * @throws IOException if the record is malformed
+     */
+    public void read_sample_header() throws IOException {
+      sample_ppt = read_int();
+      if (read_byte() != 0) {
+        sample_nonce = read_int();
+      } else {
+        sample_nonce = null;
+      }
+    }
+
+    /**
+     * Returns the program point of the current sample.
+     *
+     * @return the number of the program point of the current sample
+     */
+    public int sample_ppt() {
+      return sample_ppt;
+    }
+
+    /**
+     * Returns the invocation nonce of the current sample.
+     *
+     * @return the invocation nonce of the current sample, or null if it has none
+     */
+    public @Nullable Integer sample_nonce() {
+      return sample_nonce;
+    }
+
+    /**
+     * Decodes the modified bit of the next value of the current sample.
+     *
+     * @return the modified bit
+     * @throws IOException if the record is malformed
+     */
+    public int read_mod() throws IOException {
+      int mod = read_byte();
+      if (mod < 0 || mod > MISSING) {
+        throw new IOException("Bad modbit " + mod + " in record " + record_number);
+      }
+      return mod;
+    }
+
+    /**
+     * Decodes a value of the current sample. The value is not interned.
+     *
+     * @param type the type of the value, one of {@link #LONG} through {@link #STRING_ARRAY}
+     * @return the value: a Long, Double, String, long[], double[], or String[]
+     * @throws IOException if the record is malformed
+     */
+    public Object read_value(byte type) throws IOException {
+      switch (type) {
+        case LONG:
+          return read_long();
+        case DOUBLE:
+          return read_double();
+        case STRING:
+          {
+            String s = read_string();
+            if (s == null) {
+              throw new IOException("Null string value in record " + record_number);
+            }
+            return s;
+          }
+        case LONG_ARRAY:
+          {
+            long[] result = new long[read_length(8)];
+            for (int i = 0; i < result.length; i++) {
+              result[i] = read_long();
+            }
+            return result;
+          }
+        case DOUBLE_ARRAY:
+          {
+            double[] result = new double[read_length(8)];
+            for (int i = 0; i < result.length; i++) {
+              result[i] = read_double();
+            }
+            return result;
+          }
+        case STRING_ARRAY:
+          {
+            // Each element is at least a string length.
+            @Nullable String[] result = new String[read_length(4)];
+            for (int i = 0; i < result.length; i++) {
+              result[i] = read_string();
+            }
+            return result;
+          }
+        default:
+          throw new IOException("Bad type " + type + " in record " + record_number);
+      }
+    }
+
+    /**
+     * Makes sure that the current record has more bytes.
+     *
+     * @param n the number of bytes that are about to be decoded
+     * @throws IOException if the record has fewer than n bytes left
+     */
+    private void need(int n) throws IOException {
+      if (n > limit - pos) {
+        throw new IOException("Record " + record_number + " is too short");
+      }
+    }
+
+    /**
+     * Decodes a byte.
+     *
+     * @return the next byte of the record, as an unsigned value
+     * @throws IOException if the record is too short
+     */
+    private int read_byte() throws IOException {
+      need(1);
+      return buf[pos++] & 0xff;
+    }
+
+    /**
+     * Decodes an int.
+     *
+     * @return the next int of the record
+     * @throws IOException if the record is too short
+     */
+    private int read_int() throws IOException {
+      need(4);
+      int result =
+          ((buf[pos] & 0xff) << 24)
+              | ((buf[pos + 1] & 0xff) << 16)
+              | ((buf[pos + 2] & 0xff) << 8)
+              | (buf[pos + 3] & 0xff);
+      pos += 4;
+      return result;
+    }
+
+    /**
+     * Decodes the length of an array or list, which may not be negative. The elements follow, so the
+     * rest of the record must be long enough to hold them; this keeps a corrupt length from causing
+     * an enormous allocation.
+     *
+     * @param element_bytes the smallest number of bytes that encodes an element
+     * @return the length
+     * @throws IOException if the record is too short or the length is negative
+     */
+    private int read_length(int element_bytes) throws IOException {
+      int len = read_int();
+      if (len < 0) {
+        throw new IOException("Bad length " + len + " in record " + record_number);
+      }
+      if (len > (limit - pos) / element_bytes) {
+        throw new IOException(
+            "Length " + len + " is too large for the rest of record " + record_number);
+      }
+      return len;
+    }
+
+    /**
+     * Decodes a long.
+     *
+     * @return the next long of the record
+     * @throws IOException if the record is too short
+     */
+    private long read_long() throws IOException {
+      need(8);
+      long result = 0;
+      for (int i = 0; i < 8; i++) {
+        result = (result << 8) | (buf[pos++] & 0xff);
+      }
+      return result;
+    }
+
+    /**
+     * Decodes a double.
+     *
+     * @return the next double of the record
+     * @throws IOException if the record is too short
+     */
+    private double read_double() throws IOException {
+      return Double.longBitsToDouble(read_long());
+    }
+
+    /**
+     * Decodes a string.
+     *
+     * @return the next string of the record, or null
+     * @throws IOException if the record is too short
+     */
+    private @Nullable String read_string() throws IOException {
+      int len = read_int();
+      if (len == -1) {
+        return null;
+      }
+      if (len < 0) {
+        throw new IOException("Bad string length " + len + " in record " + record_number);
+      }
+      need(len);
+      String result = new String(buf, pos, len, UTF_8);
+      pos += len;
+      return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
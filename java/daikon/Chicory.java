@@ -35,6 +35,13 @@ public class Chicory {
   @Option("File in which to put dtrace output")
   public static @MonotonicNonNull File dtrace_file = null;
 
+  /**
+   * Write the dtrace file in Daikon's binary format (see {@link BinaryDtrace}), which is faster to
+   * write and to read than the textual format. Not used with {@code --daikon-online}.
+   */
+  @Option("Write the dtrace file in Daikon's binary format")
+  public static boolean dtrace_binary = false;
+
   /** Also see Daikon's {@code --var-omit-pattern} command-line argument. */
   @Option("Omit variables that match this regular expression.")
   public static @Nullable Pattern omit_var = null;
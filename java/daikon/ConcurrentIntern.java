@@ -0,0 +1,1121 @@
+package daikon;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.logging.Logger;
+import org.checkerframework.checker.interning.qual.Interned;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.checker.nullness.qual.PolyNull;
+import org.plumelib.util.Intern;
+
+/**
+ * Interning of the values that flow through Daikon's inference engine: the elements of {@link
+ * ValueTuple#vals}, derived values, and the values that invariants store.
+ *
+ * <p>Values are interned by the thread that reads the trace (or by several parser threads), while
+ * invariants intern values, and assert that values are interned, on the inference threads. The
+ * tables in plume's {@link Intern} are not synchronized, so all Daikon code that runs while a trace
+ * is processed should intern through this class rather than calling plume's {@code Intern}
+ * directly.
+ *
+ * <p>plume's tables remain the canonical ones: a value interned here is identical to the value
+ * interned directly by plume (as in the unit tests and in code that runs before or after the trace
+ * is processed). This class keeps a cache of plume's interned values in front of them. Each cache
+ * is split into {@link #NUM_STRIPES} stripes by the hash of the value, and each stripe has its own
+ * lock, so threads that intern values that are already cached, as almost all are, rarely wait for
+ * one another. A value that is not cached yet is interned by plume, and plume's canonical value is
+ * then cached. plume keeps one unsynchronized table for each type, which cannot be split, so the
+ * calls of plume for a type are serialized by a lock of the corresponding table here; threads that
+ * miss on values of different types do not wait for one another. Like plume's tables, the caches
+ * hold their values weakly, and a value is dropped from both at the same time when it is
+ * garbage-collected.
+ *
+ * <p>The values are equal exactly when plume's {@code Intern} considers them equal. In particular,
+ * all NaNs are one value, and so are 0.0 and -0.0; likewise for the elements of a double[]. Strings
+ * are interned by the JVM.
+ *
+ * <p>{@link #statistics} describes the number of lookups in each table, how many of them found an
+ * existing value, and the number and approximate size of the values. Daikon logs it after reading
+ * the trace when {@link #debug} is enabled ({@code --dbg daikon.ConcurrentIntern}).
+ */
+public final class ConcurrentIntern {
+
+  /** This class is a collection of methods; it does not represent anything. */
+  private ConcurrentIntern() {
+    throw new Error("do not instantiate");
+  }
+
+  /** Debug tracer. */
+  public static final Logger debug = Logger.getLogger("daikon.ConcurrentIntern");
+
+  /** The number of stripes of each table. Must be a power of 2. */
+  static final int NUM_STRIPES = 64;
+
+  /** The number of bits needed to number the stripes. */
+  private static final int STRIPE_BITS = Integer.numberOfTrailingZeros(NUM_STRIPES);
+
+  /** The canonical NaN, which is plume's. */
+  private static final @Interned Double internedDoubleNaN = Intern.internedDouble(Double.NaN);
+
+  /** The canonical zero, for both 0.0 and -0.0, which is plume's. */
+  private static final @Interned Double internedDoubleZero = Intern.internedDouble(0.0);
+
+  /** Interned Integers. */
+  private static final IntegerTable integers = new IntegerTable();
+
+  /** Interned Longs. */
+  private static final LongTable longs = new LongTable();
+
+  /** Interned Doubles, other than NaN and zero. */
+  private static final DoubleTable doubles = new DoubleTable();
+
+  /** Interned int[]s. */
+  private static final IntArrayTable int_arrays = new IntArrayTable();
+
+  /** Interned long[]s. */
+  private static final LongArrayTable long_arrays = new LongArrayTable();
+
+  /** Interned double[]s. */
+  private static final DoubleArrayTable double_arrays = new DoubleArrayTable();
+
+  /** Interned String[]s. */
+  private static final ObjectArrayTable string_arrays =
+      new ObjectArrayTable("String[]", String[].class);
+
+  /** Interned Object[]s. */
+  private static final ObjectArrayTable object_arrays =
+      new ObjectArrayTable("Object[]", Object[].class);
+
+  /** Every table, for {@link #statistics}. */
+  private static final Table<?>[] tables = {
+    integers, longs, doubles, int_arrays, long_arrays, double_arrays, string_arrays, object_arrays
+  };
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Tables
+  ///
+
+  /**
+   * A weak reference to an interned value, in a hash chain of a {@link Stripe}.
+   *
+   * @param <T> the type of the value
+   */
+  private static final class Entry<T> extends WeakReference<T> {
+    /** The hash of the value. */
+    final int hash;
+
+    /** The estimated size of the value and of this entry, in bytes. */
+    final int bytes;
+
+    /** The next entry in the chain, or null. */
+    @Nullable Entry<T> next;
+
+    /**
+     * Creates an entry.
+     *
+     * @param value the interned value
+     * @param hash the hash of the value
+     * @param bytes the estimated size of the value and of this entry
+     * @param next the next entry in the chain
+     * @param queue where the entry is enqueued once value has been collected
+     */
+    Entry(T value, int hash, int bytes, @Nullable Entry<T> next, ReferenceQueue<T> queue) {
+      super(value, queue);
+      this.hash = hash;
+      this.bytes = bytes;
+      this.next = next;
+    }
+  }
+
+  /**
+   * The part of a table that holds the values whose hashes select it: a hash table with chaining.
+   * Every field is guarded by the stripe itself.
+   *
+   * @param <T> the type of the values
+   */
+  private static final class Stripe<T> {
+    /** The initial number of buckets. Must be a power of 2. */
+    static final int INITIAL_BUCKETS = 16;
+
+    /** The hash chains. The length is a power of 2. */
+    @Nullable Entry<T>[] buckets = new_buckets(INITIAL_BUCKETS);
+
+    /** The number of entries, including those whose values have been collected. */
+    int size = 0;
+
+    /** The estimated size of the values and their entries, in bytes. */
+    long bytes = 0;
+
+    /** The number of lookups that found an existing value. */
+    long hits = 0;
+
+    /** The number of lookups that added a value. */
+    long misses = 0;
+
+    /** The entries whose values have been collected. */
+    final ReferenceQueue<T> queue = new ReferenceQueue<>();
+
+    /**
+     * Returns an array of empty hash chains.
+     *
+     * @param <T> the type of the values
+     * @param n the number of chains
+     * @return an array of n nulls
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"}) // generic array creation
+    static <T> @Nullable Entry<T>[] new_buckets(int n) {
+      return (@Nullable Entry<T>[]) new Entry[n];
+    }
+
+    /**
+     * Returns the index of the chain for a hash.
+     *
+     * @param hash a hash
+     * @param n the number of chains
+     * @return the index of the chain that holds the values with the given hash
+     */
+    static int index(int hash, int n) {
+      return (hash ^ (hash >>> 16)) & (n - 1);
+    }
+
+    /**
+     * Removes the entries whose values have been collected, then returns the chain for a hash.
+     *
+     * @param hash a hash
+     * @return the first entry that may hold a value with the given hash
+     */
+    @Nullable Entry<T> chain(int hash) {
+      expunge();
+      return buckets[index(hash, buckets.length)];
+    }
+
+    /**
+     * Adds a value that is not yet in this stripe, and counts a lookup that did not find it.
+     *
+     * @param value the value
+     * @param hash the hash of the value
+     * @param value_bytes the estimated size of the value, in bytes
+     */
+    void add(T value, int hash, int value_bytes) {
+      if (size >= buckets.length - (buckets.length >>> 2)) {
+        resize();
+      }
+      int i = index(hash, buckets.length);
+      int entry_bytes = value_bytes + ENTRY_BYTES;
+      buckets[i] = new Entry<>(value, hash, entry_bytes, buckets[i], queue);
+      size++;
+      bytes += entry_bytes;
+      misses++;
+    }
+
+    /** Doubles the number of chains. */
+    private void resize() {
+      @Nullable Entry<T>[] old_buckets = buckets;
+      @Nullable Entry<T>[] new_buckets = new_buckets(old_buckets.length * 2);
+      for (Entry<T> e : old_buckets) {
+        while (e != null) {
+          Entry<T> next = e.next;
+          int i = index(e.hash, new_buckets.length);
+          e.next = new_buckets[i];
+          new_buckets[i] = e;
+          e = next;
+        }
+      }
+      buckets = new_buckets;
+    }
+
+    /** Removes the entries whose values have been collected. */
+    @SuppressWarnings("unchecked") // only entries are registered with the queue
+    void expunge() {
+      for (Reference<? extends T> ref; (ref = queue.poll()) != null; ) {
+        Entry<T> dead = (Entry<T>) ref;
+        int i = index(dead.hash, buckets.length);
+        Entry<T> prev = null;
+        for (Entry<T> e = buckets[i]; e != null; prev = e, e = e.next) {
+          if (e == dead) {
+            if (prev == null) {
+              buckets[i] = e.next;
+            } else {
+              prev.next = e.next;
+            }
+            size--;
+            bytes -= e.bytes;
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * The estimated size of an {@link Entry} and its slot in a chain array, in bytes, assuming
+   * compressed references.
+   */
+  static final int ENTRY_BYTES = 48;
+
+  /** The estimated size of a boxed Integer, Long, or Double, in bytes. */
+  static final int BOX_BYTES = 16;
+
+  /**
+   * Returns the estimated size of an array, in bytes, assuming compressed references.
+   *
+   * @param length the number of elements
+   * @param element_bytes the size of each element
+   * @return the size of the array, including its header, rounded up to a multiple of 8
+   */
+  static int array_bytes(int length, int element_bytes) {
+    return (16 + length * element_bytes + 7) & ~7;
+  }
+
+  /**
+   * A set of interned values of one type, split into stripes.
+   *
+   * @param <T> the type of the values
+   */
+  private abstract static class Table<T> {
+    /** The name of the type of the values, for {@link #statistics}. */
+    final String name;
+
+    /** The stripes. */
+    final Stripe<T>[] stripes;
+
+    /**
+     * Guards the calls of plume's {@link Intern} for the type of this table. Taken while holding the
+     * lock of a stripe of this table.
+     */
+    final Object plume_lock = new Object();
+
+    /**
+     * Creates an empty table.
+     *
+     * @param name the name of the type of the values
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"}) // generic array creation
+    Table(String name) {
+      this.name = name;
+      stripes = (Stripe<T>[]) new Stripe[NUM_STRIPES];
+      for (int i = 0; i < NUM_STRIPES; i++) {
+        stripes[i] = new Stripe<T>();
+      }
+    }
+
+    /**
+     * Returns the stripe that holds the values with a given hash. It is selected by the high bits
+     * of a mix of the hash, and the chain within the stripe by the low bits of the hash.
+     *
+     * @param hash a hash
+     * @return the stripe for the hash
+     */
+    final Stripe<T> stripe(int hash) {
+      return stripes[(hash * 0x9E3779B9) >>> (32 - STRIPE_BITS)];
+    }
+
+    /**
+     * Returns the statistics of this table.
+     *
+     * @return the statistics of this table
+     */
+    final TableStatistics statistics() {
+      long hits = 0;
+      long misses = 0;
+      long size = 0;
+      long bytes = 0;
+      for (Stripe<T> stripe : stripes) {
+        synchronized (stripe) {
+          stripe.expunge();
+          hits += stripe.hits;
+          misses += stripe.misses;
+          size += stripe.size;
+          bytes += stripe.bytes;
+        }
+      }
+      return new TableStatistics(name, hits, misses, size, bytes);
+    }
+  }
+
+  /** A table of Integers. */
+  private static final class IntegerTable extends Table<Integer> {
+    /** Creates an empty table. */
+    IntegerTable() {
+      super("Integer");
+    }
+
+    /**
+     * Returns the interned Integer equal to a.
+     *
+     * @param a an Integer
+     * @return the interned Integer equal to a
+     */
+    @Interned Integer intern(Integer a) {
+      int v = a.intValue();
+      int hash = Integer.hashCode(v);
+      Stripe<Integer> stripe = stripe(hash);
+      synchronized (stripe) {
+        for (Entry<Integer> e = stripe.chain(hash); e != null; e = e.next) {
+          Integer candidate = e.get();
+          if (candidate != null && candidate.intValue() == v) {
+            stripe.hits++;
+            return candidate;
+          }
+        }
+        Integer result;
+        synchronized (plume_lock) {
+          result = Intern.intern(a);
+        }
+        stripe.add(result, hash, BOX_BYTES);
+        return result;
+      }
+    }
+  }
+
+  /** A table of Longs. */
+  private static final class LongTable extends Table<Long> {
+    /** Creates an empty table. */
+    LongTable() {
+      super("Long");
+    }
+
+    /**
+     * Returns the interned Long with a given value. Does not allocate if there is one.
+     *
+     * @param v the value
+     * @param a a Long with value v to intern if there is none yet, or null to create one
+     * @return the interned Long with value v
+     */
+    @SuppressWarnings("interning") // interning method
+    @Interned Long intern(long v, @Nullable Long a) {
+      int hash = Long.hashCode(v);
+      Stripe<Long> stripe = stripe(hash);
+      synchronized (stripe) {
+        for (Entry<Long> e = stripe.chain(hash); e != null; e = e.next) {
+          Long candidate = e.get();
+          if (candidate != null && candidate.longValue() == v) {
+            stripe.hits++;
+            return candidate;
+          }
+        }
+        Long result;
+        synchronized (plume_lock) {
+          result = (a != null) ? Intern.intern(a) : Intern.internedLong(v);
+        }
+        stripe.add(result, hash, BOX_BYTES);
+        return result;
+      }
+    }
+  }
+
+  /** A table of Doubles other than NaN and zero, which are compared by value. */
+  private static final class DoubleTable extends Table<Double> {
+    /** Creates an empty table. */
+    DoubleTable() {
+      super("Double");
+    }
+
+    /**
+     * Returns the interned Double with a given value. Does not allocate if there is one.
+     *
+     * @param v the value; not NaN or zero
+     * @param a a Double with value v to intern if there is none yet, or null to create one
+     * @return the interned Double with value v
+     */
+    @SuppressWarnings("interning") // interning method
+    @Interned Double intern(double v, @Nullable Double a) {
+      int hash = Double.hashCode(v);
+      Stripe<Double> stripe = stripe(hash);
+      synchronized (stripe) {
+        for (Entry<Double> e = stripe.chain(hash); e != null; e = e.next) {
+          Double candidate = e.get();
+          if (candidate != null && candidate.doubleValue() == v) {
+            stripe.hits++;
+            return candidate;
+          }
+        }
+        Double result;
+        synchronized (plume_lock) {
+          result = (a != null) ? Intern.intern(a) : Intern.internedDouble(v);
+        }
+        stripe.add(result, hash, BOX_BYTES);
+        return result;
+      }
+    }
+  }
+
+  /**
+   * A table of arrays, in which a value may be looked up by a range of another array without
+   * copying the range.
+   *
+   * @param <A> the type of the arrays
+   */
+  private abstract static class ArrayTable<A> extends Table<A> {
+    /**
+     * Creates an empty table.
+     *
+     * @param name the name of the type of the arrays
+     */
+    ArrayTable(String name) {
+      super(name);
+    }
+
+    /**
+     * Returns the length of an array.
+     *
+     * @param a an array
+     * @return the length of a
+     */
+    abstract int length(A a);
+
+    /**
+     * Returns the hash of a range of an array. Equal ranges have equal hashes.
+     *
+     * @param a an array
+     * @param start the index of the first element of the range
+     * @param end the index just past the last element of the range
+     * @return the hash of a[start..end-1]
+     */
+    abstract int hash(A a, int start, int end);
+
+    /**
+     * Returns true if an array equals a range of another array.
+     *
+     * @param candidate an array
+     * @param a an array
+     * @param start the index of the first element of the range
+     * @param end the index just past the last element of the range
+     * @return true if candidate has the same elements as a[start..end-1]
+     */
+    abstract boolean equals(A candidate, A a, int start, int end);
+
+    /**
+     * Returns a copy of a range of an array.
+     *
+     * @param a an array
+     * @param start the index of the first element of the range
+     * @param end the index just past the last element of the range
+     * @return a new array with the elements of a[start..end-1]
+     */
+    abstract A copy(A a, int start, int end);
+
+    /**
+     * Returns the estimated size of an array, in bytes.
+     *
+     * @param a an array
+     * @return the estimated size of a
+     */
+    abstract int bytes(A a);
+
+    /**
+     * Returns plume's interned array equal to an array. Must be called while holding {@link
+     * #plume_lock}.
+     *
+     * @param a an array
+     * @return the interned array with the elements of a
+     */
+    abstract A plume_intern(A a);
+
+    /**
+     * Returns the interned array equal to a range of an array. The range is copied only if there
+     * is no such array yet, and not at all if it is all of a.
+     *
+     * @param a an array
+     * @param start the index of the first element of the range
+     * @param end the index just past the last element of the range
+     * @return the interned array with the elements of a[start..end-1]
+     */
+    @SuppressWarnings("interning") // interning method
+    final @Interned A intern(A a, int start, int end) {
+      int hash = hash(a, start, end);
+      Stripe<A> stripe = stripe(hash);
+      synchronized (stripe) {
+        for (Entry<A> e = stripe.chain(hash); e != null; e = e.next) {
+          if (e.hash == hash) {
+            A candidate = e.get();
+            if (candidate != null && equals(candidate, a, start, end)) {
+              stripe.hits++;
+              return candidate;
+            }
+          }
+        }
+        A result = (start == 0 && end == length(a)) ? a : copy(a, start, end);
+        synchronized (plume_lock) {
+          result = plume_intern(result);
+        }
+        stripe.add(result, hash, bytes(result));
+        return result;
+      }
+    }
+  }
+
+  /** A table of int[]s. */
+  private static final class IntArrayTable extends ArrayTable<int[]> {
+    /** Creates an empty table. */
+    IntArrayTable() {
+      super("int[]");
+    }
+
+    @Override
+    int length(int[] a) {
+      return a.length;
+    }
+
+    @Override
+    int hash(int[] a, int start, int end) {
+      int result = 1;
+      for (int i = start; i < end; i++) {
+        result = 31 * result + a[i];
+      }
+      return result;
+    }
+
+    @Override
+    boolean equals(int[] candidate, int[] a, int start, int end) {
+      if (candidate.length != end - start) {
+        return false;
+      }
+      for (int i = start; i < end; i++) {
+        if (candidate[i - start] != a[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    int[] copy(int[] a, int start, int end) {
+      return Arrays.copyOfRange(a, start, end);
+    }
+
+    @Override
+    int bytes(int[] a) {
+      return array_bytes(a.length, 4);
+    }
+
+    @Override
+    int[] plume_intern(int[] a) {
+      return Intern.intern(a);
+    }
+  }
+
+  /** A table of long[]s. */
+  private static final class LongArrayTable extends ArrayTable<long[]> {
+    /** Creates an empty table. */
+    LongArrayTable() {
+      super("long[]");
+    }
+
+    @Override
+    int length(long[] a) {
+      return a.length;
+    }
+
+    @Override
+    int hash(long[] a, int start, int end) {
+      int result = 1;
+      for (int i = start; i < end; i++) {
+        result = 31 * result + Long.hashCode(a[i]);
+      }
+      return result;
+    }
+
+    @Override
+    boolean equals(long[] candidate, long[] a, int start, int end) {
+      if (candidate.length != end - start) {
+        return false;
+      }
+      for (int i = start; i < end; i++) {
+        if (candidate[i - start] != a[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    long[] copy(long[] a, int start, int end) {
+      return Arrays.copyOfRange(a, start, end);
+    }
+
+    @Override
+    int bytes(long[] a) {
+      return array_bytes(a.length, 8);
+    }
+
+    @Override
+    long[] plume_intern(long[] a) {
+      return Intern.intern(a);
+    }
+  }
+
+  /**
+   * A table of double[]s. Elements are compared with {@code ==}, except that NaN equals NaN; so 0.0
+   * equals -0.0.
+   */
+  private static final class DoubleArrayTable extends ArrayTable<double[]> {
+    /** Creates an empty table. */
+    DoubleArrayTable() {
+      super("double[]");
+    }
+
+    @Override
+    int length(double[] a) {
+      return a.length;
+    }
+
+    @Override
+    int hash(double[] a, int start, int end) {
+      int result = 1;
+      for (int i = start; i < end; i++) {
+        double v = a[i];
+        // Equal elements must have equal hashes.
+        int h = (v == 0 || Double.isNaN(v)) ? 0 : Double.hashCode(v);
+        result = 31 * result + h;
+      }
+      return result;
+    }
+
+    @Override
+    boolean equals(double[] candidate, double[] a, int start, int end) {
+      if (candidate.length != end - start) {
+        return false;
+      }
+      for (int i = start; i < end; i++) {
+        double c = candidate[i - start];
+        double v = a[i];
+        if (c != v && !(Double.isNaN(c) && Double.isNaN(v))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    double[] copy(double[] a, int start, int end) {
+      return Arrays.copyOfRange(a, start, end);
+    }
+
+    @Override
+    int bytes(double[] a) {
+      return array_bytes(a.length, 8);
+    }
+
+    @Override
+    double[] plume_intern(double[] a) {
+      return Intern.intern(a);
+    }
+  }
+
+  /**
+   * A table of arrays of objects, whose elements are compared with {@code equals}. The arrays in a
+   * table all have the same class.
+   */
+  private static final class ObjectArrayTable extends ArrayTable<@Nullable Object[]> {
+    /** The class of the arrays. */
+    final Class<? extends @Nullable Object[]> type;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param name the name of the type of the arrays
+     * @param type the class of the arrays
+     */
+    ObjectArrayTable(String name, Class<? extends @Nullable Object[]> type) {
+      super(name);
+      this.type = type;
+    }
+
+    @Override
+    int length(@Nullable Object[] a) {
+      return a.length;
+    }
+
+    @Override
+    int hash(@Nullable Object[] a, int start, int end) {
+      int result = 1;
+      for (int i = start; i < end; i++) {
+        result = 31 * result + Objects.hashCode(a[i]);
+      }
+      return result;
+    }
+
+    @Override
+    boolean equals(@Nullable Object[] candidate, @Nullable Object[] a, int start, int end) {
+      if (candidate.length != end - start) {
+        return false;
+      }
+      for (int i = start; i < end; i++) {
+        if (!Objects.equals(candidate[i - start], a[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    @Nullable Object[] copy(@Nullable Object[] a, int start, int end) {
+      return Arrays.copyOfRange(a, start, end, type);
+    }
+
+    @Override
+    int bytes(@Nullable Object[] a) {
+      return array_bytes(a.length, 4);
+    }
+
+    @Override
+    @SuppressWarnings("interning") // the elements of an interned array are interned
+    @Nullable Object[] plume_intern(@Nullable Object[] a) {
+      if (type == String[].class) {
+        return Intern.intern((@Interned String[]) a);
+      } else {
+        return Intern.intern((@Nullable @Interned Object[]) a);
+      }
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Statistics
+  ///
+
+  /** The statistics of one table, as of when they were taken. */
+  public static final class TableStatistics {
+    /** The type of the values in the table. */
+    public final String name;
+
+    /** The number of lookups that found an existing value. */
+    public final long hits;
+
+    /** The number of lookups that added a value. */
+    public final long misses;
+
+    /** The number of values in the table. */
+    public final long size;
+
+    /** The estimated size of the values and of the table's entries for them, in bytes. */
+    public final long bytes;
+
+    /**
+     * Creates statistics.
+     *
+     * @param name the type of the values in the table
+     * @param hits the number of lookups that found an existing value
+     * @param misses the number of lookups that added a value
+     * @param size the number of values in the table
+     * @param bytes the estimated size of the values and the entries, in bytes
+     */
+    TableStatistics(String name, long hits, long misses, long size, long bytes) {
+      this.name = name;
+      this.hits = hits;
+      this.misses = misses;
+      this.size = size;
+      this.bytes = bytes;
+    }
+
+    /**
+     * Returns the fraction of lookups that found an existing value.
+     *
+     * @return the hit rate, or 0 if there were no lookups
+     */
+    public double hit_rate() {
+      long lookups = hits + misses;
+      return (lookups == 0) ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%-8s %,12d lookups, %6.2f%% hits, %,9d values, %,12d bytes",
+          name, hits + misses, 100 * hit_rate(), size, bytes);
+    }
+  }
+
+  /**
+   * Returns the statistics of every table. Values are counted until they are collected and found to
+   * be collected, so the sizes may include some unused values.
+   *
+   * @return the statistics of each table
+   */
+  public static List<TableStatistics> table_statistics() {
+    List<TableStatistics> result = new ArrayList<>(tables.length);
+    for (Table<?> table : tables) {
+      result.add(table.statistics());
+    }
+    return result;
+  }
+
+  /**
+   * Returns a description of the statistics of every table, one per line.
+   *
+   * @return a description of the statistics of every table
+   */
+  public static String statistics() {
+    StringBuilder sb = new StringBuilder("Interned values:");
+    for (TableStatistics stats : table_statistics()) {
+      sb.append(Global.lineSep).append("  ").append(stats);
+    }
+    return sb.toString();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Interning
+  ///
+
+  /**
+   * Returns true if the argument is interned. Like plume's {@code Intern.isInterned}, this interns
+   * a value of a supported type that has no interned equivalent yet, and so returns true for it.
+   *
+   * @param value the value to test
+   * @return true if value is interned
+   */
+  public static boolean isInterned(@Nullable Object value) {
+    if (value == null) {
+      return true;
+    } else if (value instanceof String
+        || value instanceof String[]
+        || value instanceof Integer
+        || value instanceof Long
+        || value instanceof int[]
+        || value instanceof long[]
+        || value instanceof Double
+        || value instanceof double[]
+        || value instanceof Object[]) {
+      return intern(value) == value;
+    } else {
+      return true;
+    }
+  }
+
+  /**
+   * Intern a String. Strings are interned by the JVM, which is already thread-safe.
+   *
+   * @param a the string to intern
+   * @return an interned version of the argument
+   */
+  @SuppressWarnings("interning") // interning method
+  public static @Interned @PolyNull String intern(@PolyNull String a) {
+    return (a == null) ? null : a.intern();
+  }
+
+  /**
+   * Intern a Long.
+   *
+   * @param a the value to intern
+   * @return an interned version of the argument
+   */
+  public static @Interned Long intern(Long a) {
+    return longs.intern(a.longValue(), a);
+  }
+
+  /**
+   * Returns an interned Long with value i.
+   *
+   * @param i the value
+   * @return an interned Long with value i
+   */
+  public static @Interned Long internedLong(long i) {
+    return longs.intern(i, null);
+  }
+
+  /**
+   * Returns an interned Long with value parsed from the string.
+   *
+   * @param s the string to parse
+   * @return an interned Long parsed from s
+   */
+  public static @Interned Long internedLong(String s) {
+    return intern(Long.decode(s));
+  }
+
+  /**
+   * Intern a Double.
+   *
+   * @param a the value to intern
+   * @return an interned version of the argument
+   */
+  public static @Interned Double intern(Double a) {
+    double d = a.doubleValue();
+    if (Double.isNaN(d)) {
+      return internedDoubleNaN;
+    }
+    if (d == 0) {
+      return internedDoubleZero;
+    }
+    return doubles.intern(d, a);
+  }
+
+  /**
+   * Returns an interned Double with value d.
+   *
+   * @param d the value
+   * @return an interned Double with value d
+   */
+  public static @Interned Double internedDouble(double d) {
+    if (Double.isNaN(d)) {
+      return internedDoubleNaN;
+    }
+    if (d == 0) {
+      return internedDoubleZero;
+    }
+    return doubles.intern(d, null);
+  }
+
+  /**
+   * Returns an interned Double with value parsed from the string.
+   *
+   * @param s the string to parse
+   * @return an interned Double parsed from s
+   */
+  public static @Interned Double internedDouble(String s) {
+    return internedDouble(Double.parseDouble(s));
+  }
+
+  /**
+   * Intern an int[].
+   *
+   * @param a the array to intern
+   * @return an interned version of the argument
+   */
+  public static int @Interned [] intern(int[] a) {
+    return int_arrays.intern(a, 0, a.length);
+  }
+
+  /**
+   * Intern a long[].
+   *
+   * @param a the array to intern
+   * @return an interned version of the argument
+   */
+  public static long @Interned [] intern(long[] a) {
+    return long_arrays.intern(a, 0, a.length);
+  }
+
+  /**
+   * Intern a double[].
+   *
+   * @param a the array to intern
+   * @return an interned version of the argument
+   */
+  public static double @Interned [] intern(double[] a) {
+    return double_arrays.intern(a, 0, a.length);
+  }
+
+  /**
+   * Intern a String[]. The elements must already be interned.
+   *
+   * @param a the array to intern
+   * @return an interned version of the argument
+   */
+  @SuppressWarnings("interning") // interning method
+  public static @Nullable @Interned String @Interned [] intern(
+      @Nullable @Interned String[] a) {
+    return (@Interned String[]) string_arrays.intern(a, 0, a.length);
+  }
+
+  /**
+   * Intern an Object[]. The elements must already be interned.
+   *
+   * @param a the array to intern
+   * @return an interned version of the argument
+   */
+  @SuppressWarnings("interning") // interning method
+  public static @Nullable @Interned Object @Interned [] intern(
+      @Nullable @Interned Object[] a) {
+    return object_arrays.intern(a, 0, a.length);
+  }
+
+  /**
+   * Intern an object of any of the types that this class handles: String, Integer, Long, Double,
+   * and arrays of int, long, double, String, and Object.
+   *
+   * @param a the object to intern
+   * @return an interned version of the argument
+   * @throws IllegalArgumentException if a has some other type
+   */
+  @SuppressWarnings("interning") // polymorphic delegation
+  public static @Interned @PolyNull Object intern(@PolyNull Object a) {
+    if (a == null) {
+      return null;
+    } else if (a instanceof String) {
+      return intern((String) a);
+    } else if (a instanceof String[]) {
+      return intern((@Interned String[]) a);
+    } else if (a instanceof Integer) {
+      return integers.intern((Integer) a);
+    } else if (a instanceof Long) {
+      return intern((Long) a);
+    } else if (a instanceof int[]) {
+      return intern((int[]) a);
+    } else if (a instanceof long[]) {
+      return intern((long[]) a);
+    } else if (a instanceof Double) {
+      return intern((Double) a);
+    } else if (a instanceof double[]) {
+      return intern((double[]) a);
+    } else if (a instanceof Object[]) {
+      return intern((@Interned Object[]) a);
+    } else {
+      throw new IllegalArgumentException(
+          "Arguments of type " + a.getClass() + " cannot be interned");
+    }
+  }
+
+  /**
+   * Interns each element of the array, in place. The array itself is not interned.
+   *
+   * @param a the array whose elements to intern
+   * @return a, all of whose elements are now interned
+   */
+  @SuppressWarnings("interning") // interning method
+  public static @Interned String[] internStrings(String[] a) {
+    for (int i = 0; i < a.length; i++) {
+      if (a[i] != null) {
+        a[i] = a[i].intern();
+      }
+    }
+    return a;
+  }
+
+  /**
+   * Returns an interned subsequence of seq from start (inclusive) to end (exclusive). The
+   * subsequence is looked up without being copied; it is copied only if it is not yet interned.
+   *
+   * @param seq the sequence whose subsequence to intern
+   * @param start the index of the first element
+   * @param end the index just past the last element
+   * @return an interned subsequence of seq
+   */
+  public static long @Interned [] internSubsequence(long @Interned [] seq, int start, int end) {
+    return long_arrays.intern(seq, start, end);
+  }
+
+  /**
+   * Returns an interned subsequence of seq from start (inclusive) to end (exclusive). The
+   * subsequence is looked up without being copied; it is copied only if it is not yet interned.
+   *
+   * @param seq the sequence whose subsequence to intern
+   * @param start the index of the first element
+   * @param end the index just past the last element
+   * @return an interned subsequence of seq
+   */
+  public static double @Interned [] internSubsequence(
+      double @Interned [] seq, int start, int end) {
+    return double_arrays.intern(seq, start, end);
+  }
+
+  /**
+   * Returns an interned subsequence of seq from start (inclusive) to end (exclusive). The
+   * subsequence is looked up without being copied; it is copied only if it is not yet interned.
+   *
+   * @param seq the sequence whose subsequence to intern
+   * @param start the index of the first element
+   * @param end the index just past the last element
+   * @return an interned subsequence of seq
+   */
+  @SuppressWarnings("interning") // interning method
+  public static @Nullable @Interned String @Interned [] internSubsequence(
+      @Nullable @Interned String @Interned [] seq, int start, int end) {
+    return (@Interned String[]) string_arrays.intern(seq, start, end);
+  }
+}
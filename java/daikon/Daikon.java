@@ -151,6 +151,7 @@ import daikon.inv.unary.string.PrintableString;
 import daikon.inv.unary.stringsequence.CommonStringSequence;
 import daikon.inv.unary.stringsequence.EltOneOfString;
 import daikon.inv.unary.stringsequence.OneOfStringSequence;
+import daikon.simplify.LemmaCache;
 import daikon.split.ContextSplitterFactory;
 import daikon.split.PptSplitter;
 import daikon.split.SpinfoFile;
@@ -252,6 +253,19 @@ public final class Daikon {
    */
   public static boolean dkconfig_print_sample_totals = false;
 
+  /**
+   * Integer. The number of threads that add samples to program points. When this is 1, samples are
+   * processed on the thread that reads the trace files. When it is larger, the trace is still read
+   * and parsed once, on one thread, but the samples are handed to this many worker threads, each of
+   * which owns a subset of the program points (see {@link ParallelProcessor}). The same number of
+   * threads merges invariants up the dataflow hierarchy (see {@link ParallelMerge}). The invariants
+   * are the same either way. Values larger than 1 are ignored when the dataflow hierarchy is
+   * disabled or discarded invariants are being printed, and the merge is serial when {@code
+   * daikon.PptTopLevel.remove_merged_invs} is set. Samples are also processed serially when
+   * program points may be spilled to disk (see {@link SpillingProcessor#dkconfig_heap_budget}).
+   */
+  public static int dkconfig_inference_threads = 1;
+
   // All these variables really need to be organized better.
 
   public static final String lineSep = Global.lineSep;
@@ -374,6 +388,19 @@ public final class Daikon {
   // file.
   public static @Nullable File inv_file;
 
+  /**
+   * If non-null, the state of inference is written to this file after the data trace files have
+   * been read (see {@link FileIO#write_checkpoint}), so that a later run can resume from it.
+   */
+  public static @Nullable File checkpoint_file;
+
+  /**
+   * If non-null, inference resumes from the state in this checkpoint file (see {@link
+   * FileIO#read_checkpoint}) rather than starting from scratch. The data trace files of this run
+   * supply further samples to the restored program points.
+   */
+  public static @Nullable File resume_file;
+
   // Whether we want the memory monitor activated
   private static boolean use_mem_monitor = false;
 
@@ -416,6 +443,8 @@ public final class Daikon {
   public static final String output_num_samples_SWITCH = "output_num_samples";
   public static final String files_from_SWITCH = "files_from";
   public static final String omit_from_output_SWITCH = "omit_from_output";
+  public static final String checkpoint_SWITCH = "checkpoint";
+  public static final String resume_SWITCH = "resume";
   // Control invariant detection
   public static final String conf_limit_SWITCH = "conf_limit";
   public static final String list_type_SWITCH = "list_type";
@@ -575,18 +604,26 @@ public final class Daikon {
     static final long serialVersionUID = 20050923L;
 
     public static String error_at_line_file(LineNumberReader reader, String filename, Throwable e) {
+      return error_at_line_file(reader.getLineNumber(), filename, e);
+    }
+
+    public static String error_at_line_file(int lineNumber, String filename, Throwable e) {
       String msg = e.getMessage();
       if (msg == null) {
         msg = " of type " + e.getClass() + " with no detail message";
       }
-      return error_at_line_file(reader, filename, msg);
+      return error_at_line_file(lineNumber, filename, msg);
     }
 
     public static String error_at_line_file(LineNumberReader reader, String filename, String msg) {
+      return error_at_line_file(reader.getLineNumber(), filename, msg);
+    }
+
+    public static String error_at_line_file(int lineNumber, String filename, String msg) {
       if (msg == null) {
         throw new Error("Null message supplied to error_at_line_file()");
       }
-      return "Error at line " + reader.getLineNumber() + " in file " + filename + ": " + msg;
+      return "Error at line " + lineNumber + " in file " + filename + ": " + msg;
     }
 
     /// Constructors that take a Throwable
@@ -605,7 +642,7 @@ public final class Daikon {
     }
 
     public UserError(Throwable e, FileIO.ParseState state) {
-      this(e, error_at_line_file(state.reader, state.filename, e));
+      this(e, error_at_line_file(state.get_linenum(), state.filename, e));
     }
 
     public UserError(Throwable e, LineNumberReader reader, String filename) {
@@ -627,7 +664,7 @@ public final class Daikon {
     }
 
     public UserError(String msg, FileIO.ParseState state) {
-      super(error_at_line_file(state.reader, state.filename, msg));
+      super(error_at_line_file(state.get_linenum(), state.filename, msg));
     }
 
     public UserError(String msg, LineNumberReader reader, String filename) {
@@ -710,7 +747,10 @@ public final class Daikon {
     Set<String> dtrace_files = files.dtrace;
     Set<File> spinfo_files = files.spinfo;
     Set<File> map_files = files.map;
-    if (server_dir == null && (decls_files.size() == 0) && (dtrace_files.size() == 0)) {
+    if (server_dir == null
+        && resume_file == null
+        && (decls_files.size() == 0)
+        && (dtrace_files.size() == 0)) {
       System.out.println("No .decls or .dtrace files specified");
       throw new Daikon.UserError("No .decls or .dtrace files specified");
     }
@@ -761,7 +801,11 @@ public final class Daikon {
 
     // Load declarations and splitters
     load_spinfo_files(spinfo_files);
-    all_ppts = load_decls_files(decls_files);
+    if (resume_file != null) {
+      all_ppts = load_checkpoint(resume_file, decls_files);
+    } else {
+      all_ppts = load_decls_files(decls_files);
+    }
     load_map_files(map_files);
 
     all_ppts.trimToSize();
@@ -926,6 +970,8 @@ public final class Daikon {
     // Reset statics.  Unfortunately, these must match the settings where
     // these are declared and I don't know how to do that automatically.
     inv_file = null;
+    checkpoint_file = null;
+    resume_file = null;
     no_text_output = false;
     show_progress = false;
     output_format = OutputFormat.DAIKON;
@@ -991,6 +1037,8 @@ public final class Daikon {
           new LongOpt(output_num_samples_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
           new LongOpt(files_from_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           new LongOpt(omit_from_output_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt(checkpoint_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
+          new LongOpt(resume_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           // Control invariant detection
           new LongOpt(conf_limit_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           new LongOpt(list_type_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
@@ -1086,6 +1134,16 @@ public final class Daikon {
               omit_types[f.charAt(i)] = true;
             }
             omit_from_output = true;
+          } else if (checkpoint_SWITCH.equals(option_name)) {
+            checkpoint_file = new File(getOptarg(g));
+            if (!UtilPlume.canCreateAndWrite(checkpoint_file)) {
+              throw new Daikon.UserError("Cannot write to checkpoint file " + checkpoint_file);
+            }
+          } else if (resume_SWITCH.equals(option_name)) {
+            resume_file = new File(getOptarg(g));
+            if (!resume_file.canRead()) {
+              throw new Daikon.UserError("Cannot read checkpoint file " + resume_file);
+            }
           }
           // Control invariant detection
           else if (conf_limit_SWITCH.equals(option_name)) {
@@ -1754,10 +1812,17 @@ public final class Daikon {
 
   /**
    * Creates invariants for upper program points by merging together the invariants from all of the
-   * lower points.
+   * lower points. When {@link #dkconfig_inference_threads} is greater than 1, independent program
+   * points are merged concurrently (see {@link ParallelMerge}).
    */
   public static void createUpperPpts(PptMap all_ppts) {
 
+    if (dkconfig_inference_threads > 1 && ParallelMerge.is_supported()) {
+      ParallelMerge.merge(all_ppts, dkconfig_inference_threads);
+      // The loop below merges any ppts on or above a cycle in the hierarchy,
+      // and returns immediately for all others.
+    }
+
     // Process each ppt that doesn't have a parent
     // (mergeInvs is called on a root, and recursively processes children)
     for (PptTopLevel ppt : all_ppts.pptIterable()) {
@@ -2043,6 +2108,43 @@ public final class Daikon {
     }
   }
 
+  /**
+   * Restores the program points, and the state of inference over them, from a checkpoint file.
+   * Then reads the given declaration files, whose program points are added to the restored ones.
+   *
+   * @param checkpoint a file written by {@link FileIO#write_checkpoint}
+   * @param decl_files declaration files
+   * @return the program points
+   */
+  private static PptMap load_checkpoint(File checkpoint, Set<File> decl_files) {
+    long startTime = System.nanoTime();
+    if (!Daikon.dkconfig_quiet) {
+      System.out.print("Reading checkpoint file ");
+    }
+    PptMap all_ppts;
+    try {
+      all_ppts = FileIO.read_checkpoint(checkpoint);
+    } catch (IOException e) {
+      throw new Daikon.UserError(e, "Error reading checkpoint file " + checkpoint);
+    }
+    restore_splitters(all_ppts);
+    try {
+      for (File file : decl_files) {
+        FileIO.read_declaration_file(file, all_ppts);
+      }
+    } catch (IOException e) {
+      throw new Daikon.UserError(e, "Error parsing decl file");
+    }
+    if (!Daikon.dkconfig_quiet) {
+      System.out.println(
+          "\r(read " + UtilPlume.nplural(all_ppts.size(), "program point") + " and their state)");
+    }
+    long duration = System.nanoTime() - startTime;
+    debugProgress.fine(
+        "Time spent on load_checkpoint: " + TimeUnit.NANOSECONDS.toSeconds(duration));
+    return all_ppts;
+  }
+
   private static void load_spinfo_files(Set<File> spinfo_files) {
     if (PptSplitter.dkconfig_disable_splitting || spinfo_files.isEmpty()) {
       return;
@@ -2117,6 +2219,36 @@ public final class Daikon {
     Global.debugSplit.fine("<<exit>>  setup_splitters");
   }
 
+  /**
+   * Restores the splitters of program points that were read from a checkpoint file. Splitters are
+   * not serialized (they may be classes compiled at run time), so each one is looked up again, just
+   * as {@link #setup_splitters} does.
+   *
+   * @param all_ppts the program points read from a checkpoint file
+   */
+  static void restore_splitters(PptMap all_ppts) {
+    for (PptTopLevel ppt : all_ppts.pptIterable()) {
+      if (!ppt.has_splitters()) {
+        continue;
+      }
+      SplitterFactory.load_splitters(ppt, spinfoFiles);
+      Splitter[] pconds;
+      if (SplitterList.dkconfig_all_splitters) {
+        pconds = SplitterList.get_all();
+      } else {
+        pconds = SplitterList.get(ppt.name());
+      }
+      for (PptSplitter ppt_split : ppt.splitters) {
+        if (!ppt_split.restore_splitter(pconds)) {
+          throw new Daikon.UserError(
+              "No splitter for "
+                  + ppt_split.ppts[0].name()
+                  + "; supply the same splitter info files as the run that wrote the checkpoint");
+        }
+      }
+    }
+  }
+
   ///////////////////////////////////////////////////////////////////////////
   // Infer invariants over the trace data
 
@@ -2260,7 +2392,20 @@ public final class Daikon {
                 + UtilPlume.nplural(dtrace_files.size(), "dtrace file")
                 + ":");
       }
-      FileIO.read_data_trace_files(dtrace_files, all_ppts);
+      if (SpillingProcessor.is_enabled() && SpillingProcessor.is_supported()) {
+        SpillingProcessor processor = new SpillingProcessor();
+        FileIO.read_data_trace_files(dtrace_files, all_ppts, processor, true);
+        processor.restore_all();
+      } else if (dkconfig_inference_threads > 1 && ParallelProcessor.is_supported()) {
+        ParallelProcessor processor = new ParallelProcessor(dkconfig_inference_threads);
+        try {
+          FileIO.read_data_trace_files(dtrace_files, all_ppts, processor, true);
+        } finally {
+          processor.shutdown();
+        }
+      } else {
+        FileIO.read_data_trace_files(dtrace_files, all_ppts);
+      }
       // Final update, so "100%", not "99.70%", is the last thing printed.
       // (This doesn't seem to achieve that, though...)
       fileio_progress.display();
@@ -2269,6 +2414,9 @@ public final class Daikon {
       if (!Daikon.dkconfig_quiet) {
         System.out.println();
       }
+      if (ConcurrentIntern.debug.isLoggable(Level.FINE)) {
+        ConcurrentIntern.debug.fine(ConcurrentIntern.statistics());
+      }
       // System.out.print("Creating implications "); // XXX untested code
       // for (PptTopLevel ppt : all_ppts) {
       //   System.out.print('.');
@@ -2289,6 +2437,18 @@ public final class Daikon {
       monitor.stop();
     }
 
+    // The checkpoint must precede postprocessing, which changes the program points in ways that
+    // further samples cannot be added to.
+    if (checkpoint_file != null) {
+      assert FileIO.new_decl_format != null
+          : "@AssumeAssertion(nullness): read data, so new_decl_format is set";
+      try {
+        FileIO.write_checkpoint(all_ppts, checkpoint_file);
+      } catch (IOException e) {
+        throw new RuntimeException("Error while writing checkpoint file: " + checkpoint_file, e);
+      }
+    }
+
     if (FileIO.dkconfig_read_samples_only) {
       throw new Daikon.NormalTermination(
           String.format("Finished reading %d samples", FileIO.samples_processed));
@@ -2479,11 +2639,11 @@ public final class Daikon {
     System.out.print("Invoking Simplify to identify redundant invariants");
     System.out.flush();
     long startTime = System.nanoTime();
+    List<PptTopLevel> ppts = new ArrayList<>();
     for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
-      ppt.mark_implied_via_simplify(all_ppts);
-      System.out.print(".");
-      System.out.flush();
+      ppts.add(ppt);
     }
+    PptTopLevel.mark_implied_via_simplify(all_ppts, ppts);
     long duration = System.nanoTime() - startTime;
     System.out.println(TimeUnit.NANOSECONDS.toSeconds(duration));
 
@@ -2491,6 +2651,19 @@ public final class Daikon {
     if (PptTopLevel.getProverStack() != null) {
       PptTopLevel.getProverStack().closeSession();
     }
+
+    // Keep Simplify's answers for the next run, if requested
+    LemmaCache cache = LemmaCache.configured();
+    if (cache != null) {
+      if (debugTrace.isLoggable(Level.FINE)) {
+        debugTrace.fine(cache.toString());
+      }
+      try {
+        cache.save();
+      } catch (IOException e) {
+        System.err.println("Could not save the Simplify answers: " + e);
+      }
+    }
   }
 
   /** Initialize NIS suppression. */
@@ -0,0 +1,606 @@
+package daikon;
+
+import daikon.FileIO.ParseState;
+import daikon.FileIO.RecordType;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.LineNumberReader;
+import java.io.StringReader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.checker.nullness.qual.RequiresNonNull;
+
+/**
+ * Reads a trace file on threads of its own, so that reading the file overlaps with invariant
+ * inference on the thread that calls {@link FileIO#read_data_trace_file}. The work is divided
+ * among three stages, each on its own thread:
+ *
+ * <ol>
+ *   <li>If the file is compressed, the inflater decompresses it ({@link #inflate}).
+ *   <li>The splitter divides the text into records, each of which ends at a blank line.
+ *   <li>The parser parses each record, as {@link FileIO#read_data_trace_record} does, into a
+ *       {@link ValueTuple}.
+ * </ol>
+ *
+ * Adjacent stages are connected by queues of at most {@link FileIO#dkconfig_pipeline_capacity}
+ * elements, which bounds the memory used by work in flight. The samples are returned by {@link
+ * #take}, in the order in which they appear in the trace.
+ *
+ * <p>A record that is not a sample, such as a declaration, changes state that inference uses, such
+ * as the set of program points. Before it parses such a record, the parser waits until the thread
+ * that performs inference has taken every earlier sample and is waiting for the next one.
+ *
+ * <p>A binary trace (see {@link BinaryDtrace}) is only inflated on a thread of its own; it is split
+ * and parsed by {@link FileIO#read_data_trace_record} as usual.
+ */
+final class DtracePipeline implements FileIO.SampleSource {
+
+  /** The size of the blocks of decompressed bytes that the inflater hands to the splitter. */
+  static final int BLOCK_SIZE = 1 << 16;
+
+  /** The number of elements that each queue may hold. */
+  private final int capacity;
+
+  /** The name of the trace file, for the names of the threads. */
+  private final String filename;
+
+  /** The decompressed trace, if the inflater has been started. */
+  private @Nullable InflatedStream inflated = null;
+
+  /** The records, from the splitter to the parser. */
+  private final BlockingQueue<Chunk> chunks;
+
+  /** The parsed samples, from the parser to the thread that performs inference. */
+  private final BlockingQueue<Item> items;
+
+  /** The parser thread, once it has been started. */
+  private @MonotonicNonNull Thread parser = null;
+
+  /** The line at which the sample most recently returned by {@link #take} ends. */
+  private volatile int consumer_linenum = 0;
+
+  /** Set when the pipeline is closed; the stages stop as soon as they notice it. */
+  private volatile boolean closed = false;
+
+  /**
+   * The first exception thrown by a stage, or null. It is thrown by {@link #take} once every sample
+   * before it has been returned.
+   */
+  private volatile @Nullable Throwable failure = null;
+
+  /**
+   * Creates a pipeline. Its stages are started by {@link #inflate} and {@link #start}.
+   *
+   * @param filename the name of the trace file, for the names of the threads
+   * @param capacity the number of elements that each queue between stages may hold
+   */
+  DtracePipeline(String filename, int capacity) {
+    if (capacity < 1) {
+      throw new Daikon.UserError("The capacity of the dtrace pipeline must be at least 1");
+    }
+    this.filename = filename;
+    this.capacity = capacity;
+    chunks = new ArrayBlockingQueue<>(capacity);
+    items = new ArrayBlockingQueue<>(capacity);
+  }
+
+  /**
+   * Starts the inflater, which reads the given stream on its own thread.
+   *
+   * @param compressed a stream that decompresses the trace file
+   * @return a stream of the decompressed bytes
+   */
+  InputStream inflate(InputStream compressed) {
+    InflatedStream result = new InflatedStream(compressed);
+    inflated = result;
+    Thread inflater = new Thread(result::run, "dtrace-inflate " + filename);
+    inflater.setDaemon(true);
+    inflater.start();
+    return result;
+  }
+
+  /**
+   * Starts the splitter and the parser. The parser reads records into {@code state}, which must be
+   * {@link FileIO#data_trace_state} until the pipeline is closed; its reader is replaced by a reader
+   * of each record in turn.
+   *
+   * @param state the state of the trace file
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  void start(ParseState state) {
+    LineNumberReader reader = state.reader;
+    Thread splitter = new Thread(() -> split(reader), "dtrace-split " + filename);
+    Thread parser = new Thread(() -> parse(state), "dtrace-parse " + filename);
+    this.parser = parser;
+    splitter.setDaemon(true);
+    parser.setDaemon(true);
+    splitter.start();
+    parser.start();
+  }
+
+  /**
+   * Returns true if the current thread is the parser.
+   *
+   * @return true if the current thread is the parser
+   */
+  boolean is_parser_thread() {
+    return Thread.currentThread() == parser;
+  }
+
+  /**
+   * Returns the line at which the sample most recently returned by {@link #take} ends.
+   *
+   * @return the line of the sample that is being processed
+   */
+  int consumer_linenum() {
+    return consumer_linenum;
+  }
+
+  /**
+   * Returns the next sample in the trace, or a record of type EOF or TRUNCATED at the end of the
+   * trace. Blocks until it is available.
+   *
+   * @return the next sample, or the end of the trace
+   * @throws IOException if the trace could not be read
+   */
+  @Override
+  public Item take() throws IOException {
+    while (true) {
+      Item item;
+      try {
+        item = items.take();
+      } catch (InterruptedException e) {
+        throw new Error(e);
+      }
+      if (item.barrier != null) {
+        // The parser may now change the program points.
+        item.barrier.countDown();
+        continue;
+      }
+      if (item.rtype == RecordType.ERROR) {
+        Throwable e = failure;
+        assert e != null : "@AssumeAssertion(nullness): set before the ERROR item is queued";
+        if (e instanceof IOException) {
+          throw (IOException) e;
+        } else if (e instanceof RuntimeException) {
+          throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+          throw (Error) e;
+        } else {
+          throw new Error(e);
+        }
+      }
+      consumer_linenum = item.linenum;
+      return item;
+    }
+  }
+
+  /** Stops every stage. The pipeline may not be used afterward. */
+  @Override
+  public void close() {
+    closed = true;
+    if (inflated != null) {
+      inflated.close();
+    }
+  }
+
+  /**
+   * Puts an element on a queue, waiting for room if necessary.
+   *
+   * @param <T> the type of the elements of the queue
+   * @param queue the queue
+   * @param element the element to put
+   * @return false if the pipeline was closed before there was room
+   */
+  private <T> boolean put(BlockingQueue<T> queue, T element) {
+    try {
+      while (!queue.offer(element, 100, TimeUnit.MILLISECONDS)) {
+        if (closed) {
+          return false;
+        }
+      }
+      return true;
+    } catch (InterruptedException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Takes an element from a queue, waiting for one if necessary.
+   *
+   * @param <T> the type of the elements of the queue
+   * @param queue the queue
+   * @return the element, or null if the pipeline was closed before there was one
+   */
+  private <T> @Nullable T poll(BlockingQueue<T> queue) {
+    try {
+      while (true) {
+        T result = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (result != null) {
+          return result;
+        }
+        if (closed) {
+          return null;
+        }
+      }
+    } catch (InterruptedException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Records the exception thrown by a stage, unless an earlier stage has already failed.
+   *
+   * @param e the exception
+   */
+  private void fail(Throwable e) {
+    synchronized (this) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+  }
+
+  /**
+   * The body of the splitter: divides the text of the trace into records.
+   *
+   * @param reader the text of the trace
+   */
+  private void split(LineNumberReader reader) {
+    StringBuilder text = new StringBuilder();
+    int first_line = 0;
+    @Nullable String header = null;
+    try {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if (line.equals("")) {
+          if (text.length() > 0) {
+            // Keep the blank line, which the parser expects at the end of a sample.
+            text.append('\n');
+            if (!put(chunks, new Chunk(text.toString(), first_line, header))) {
+              return;
+            }
+            text.setLength(0);
+            header = null;
+          }
+          continue;
+        }
+        if (text.length() == 0) {
+          first_line = reader.getLineNumber();
+        }
+        if (header == null && !FileIO.isComment(line)) {
+          header = line;
+        }
+        text.append(line).append('\n');
+      }
+      if (text.length() > 0) {
+        if (!put(chunks, new Chunk(text.toString(), first_line, header))) {
+          return;
+        }
+      }
+      put(chunks, Chunk.END);
+    } catch (EOFException e) {
+      if (text.length() > 0) {
+        // The file ends in the middle of a record.
+        put(chunks, Chunk.UNEXPECTED_END);
+      } else {
+        fail(e);
+        put(chunks, Chunk.FAILED);
+      }
+    } catch (Throwable e) {
+      fail(e);
+      put(chunks, Chunk.FAILED);
+    }
+  }
+
+  /**
+   * The body of the parser: parses each record into a sample.
+   *
+   * @param state the state of the trace file
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  private void parse(ParseState state) {
+    try {
+      while (true) {
+        Chunk chunk = poll(chunks);
+        if (chunk == null) {
+          return;
+        }
+        if (chunk == Chunk.END || chunk == Chunk.UNEXPECTED_END) {
+          if (chunk == Chunk.UNEXPECTED_END) {
+            System.out.println();
+            System.out.println(
+                "WARNING: Unexpected EOF while processing "
+                    + "trace file - last record of trace file ignored");
+          }
+          put(items, Item.end(RecordType.EOF));
+          return;
+        }
+        if (chunk == Chunk.FAILED) {
+          put(items, Item.end(RecordType.ERROR));
+          return;
+        }
+
+        if (chunk.header != null && !FileIO.is_sample_header(chunk.header)) {
+          CountDownLatch barrier = new CountDownLatch(1);
+          if (!put(items, new Item(barrier))) {
+            return;
+          }
+          while (!barrier.await(100, TimeUnit.MILLISECONDS)) {
+            if (closed) {
+              return;
+            }
+          }
+        }
+
+        LineNumberReader reader = new LineNumberReader(new StringReader(chunk.text));
+        reader.setLineNumber(chunk.first_line - 1);
+        state.reader = reader;
+        while (true) {
+          FileIO.read_data_trace_record(state);
+          if (state.rtype == RecordType.SAMPLE) {
+            assert state.ppt != null : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
+            assert state.vt != null : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
+            Item item = new Item(state.ppt, state.vt, state.nonce, reader.getLineNumber());
+            if (!put(items, item)) {
+              return;
+            }
+          } else if (state.rtype == RecordType.TRUNCATED) {
+            put(items, Item.end(RecordType.TRUNCATED));
+            return;
+          } else if (state.rtype == RecordType.EOF) {
+            break;
+          }
+        }
+      }
+    } catch (Throwable e) {
+      fail(e);
+      put(items, Item.end(RecordType.ERROR));
+    }
+  }
+
+  /** A record of the trace, as divided by the splitter. */
+  private static final class Chunk {
+    /** The text of the record, including the blank line that ends it, if any. */
+    final String text;
+
+    /** The line of the trace file at which the record starts. */
+    final int first_line;
+
+    /** The first line of the record that is not a comment, or null if there is none. */
+    final @Nullable String header;
+
+    /** The end of the trace. */
+    static final Chunk END = new Chunk("", 0, null);
+
+    /** The end of a trace whose last record is incomplete. */
+    static final Chunk UNEXPECTED_END = new Chunk("", 0, null);
+
+    /** The end of a trace that could not be read; see {@link DtracePipeline#failure}. */
+    static final Chunk FAILED = new Chunk("", 0, null);
+
+    /**
+     * Creates a chunk.
+     *
+     * @param text the text of the record
+     * @param first_line the line of the trace file at which the record starts
+     * @param header the first line of the record that is not a comment, or null
+     */
+    Chunk(String text, int first_line, @Nullable String header) {
+      this.text = text;
+      this.first_line = first_line;
+      this.header = header;
+    }
+  }
+
+  /** An element of the queue read by {@link #take}. */
+  static final class Item {
+    /** The type of the item: SAMPLE, EOF, TRUNCATED, or ERROR. */
+    final RecordType rtype;
+
+    /** The program point of a sample. */
+    final @Nullable PptTopLevel ppt;
+
+    /** The values of a sample. */
+    final @Nullable ValueTuple vt;
+
+    /** The nonce of a sample, or null if it has none. */
+    final @Nullable Integer nonce;
+
+    /** The line at which a sample ends, for error messages. */
+    final int linenum;
+
+    /**
+     * If non-null, the item is not returned by {@link #take}, which instead counts down the latch to
+     * tell the parser that every earlier sample has been taken.
+     */
+    final @Nullable CountDownLatch barrier;
+
+    /**
+     * Creates an item for a sample.
+     *
+     * @param ppt the program point
+     * @param vt the values
+     * @param nonce the nonce, or null
+     * @param linenum the line at which the sample ends
+     */
+    Item(PptTopLevel ppt, ValueTuple vt, @Nullable Integer nonce, int linenum) {
+      this.rtype = RecordType.SAMPLE;
+      this.ppt = ppt;
+      this.vt = vt;
+      this.nonce = nonce;
+      this.linenum = linenum;
+      this.barrier = null;
+    }
+
+    /**
+     * Creates an item that waits for the parser.
+     *
+     * @param barrier the latch to count down once the item is taken
+     */
+    Item(CountDownLatch barrier) {
+      this.rtype = RecordType.NULL;
+      this.ppt = null;
+      this.vt = null;
+      this.nonce = null;
+      this.linenum = 0;
+      this.barrier = barrier;
+    }
+
+    /**
+     * Creates an item for the end of the trace.
+     *
+     * @param rtype EOF, TRUNCATED, or ERROR
+     */
+    private Item(RecordType rtype) {
+      this.rtype = rtype;
+      this.ppt = null;
+      this.vt = null;
+      this.nonce = null;
+      this.linenum = 0;
+      this.barrier = null;
+    }
+
+    /**
+     * Returns an item for the end of the trace.
+     *
+     * @param rtype EOF, TRUNCATED, or ERROR
+     * @return an item for the end of the trace
+     */
+    static Item end(RecordType rtype) {
+      return new Item(rtype);
+    }
+  }
+
+  /**
+   * The decompressed bytes of the trace, which are read from the compressed stream on the inflater
+   * thread and handed to the reader of this stream in blocks.
+   */
+  private final class InflatedStream extends InputStream {
+
+    /** The stream that decompresses the trace. */
+    private final InputStream compressed;
+
+    /** The blocks of decompressed bytes. An empty block marks the end of the trace. */
+    private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(capacity);
+
+    /** The exception that ended the inflater, or null. */
+    private volatile @Nullable IOException error = null;
+
+    /** The block being read, or null if the end of the trace has been reached. */
+    private byte @Nullable [] block = new byte[0];
+
+    /** The index of the next byte to read in {@link #block}. */
+    private int pos = 0;
+
+    /**
+     * Creates a stream of the bytes of the given stream, which are read by {@link #run}.
+     *
+     * @param compressed the stream that decompresses the trace
+     */
+    InflatedStream(InputStream compressed) {
+      this.compressed = compressed;
+    }
+
+    /** The body of the inflater. */
+    void run() {
+      try {
+        while (true) {
+          byte[] buf = new byte[BLOCK_SIZE];
+          int len = 0;
+          while (len < buf.length) {
+            int n = compressed.read(buf, len, buf.length - len);
+            if (n < 0) {
+              break;
+            }
+            len += n;
+          }
+          if (len == 0) {
+            break;
+          }
+          if (len < buf.length) {
+            byte[] shorter = new byte[len];
+            System.arraycopy(buf, 0, shorter, 0, len);
+            buf = shorter;
+          }
+          if (!put(blocks, buf)) {
+            return;
+          }
+        }
+      } catch (IOException e) {
+        error = e;
+      } finally {
+        try {
+          compressed.close();
+        } catch (IOException e) {
+          // The trace has already been read, or the pipeline has failed.
+        }
+      }
+      put(blocks, new byte[0]);
+    }
+
+    /**
+     * Makes the next block current, if the current one has been read.
+     *
+     * @return false at the end of the trace
+     * @throws IOException if the inflater failed
+     */
+    private boolean fill() throws IOException {
+      while (block != null && pos == block.length) {
+        byte[] next = poll(blocks);
+        if (next == null) {
+          throw new IOException("The dtrace pipeline was closed");
+        }
+        if (next.length == 0) {
+          block = null;
+          IOException e = error;
+          if (e != null) {
+            throw e;
+          }
+        } else {
+          block = next;
+          pos = 0;
+        }
+      }
+      return block != null;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      assert block != null : "@AssumeAssertion(nullness): fill() returned true";
+      return block[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      assert block != null : "@AssumeAssertion(nullness): fill() returned true";
+      int n = Math.min(len, block.length - pos);
+      System.arraycopy(block, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return (block == null) ? 0 : block.length - pos;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
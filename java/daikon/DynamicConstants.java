@@ -13,10 +13,13 @@ import daikon.inv.unary.sequence.OneOfSequence;
 import daikon.inv.unary.string.OneOfString;
 import daikon.inv.unary.stringsequence.OneOfStringSequence;
 import daikon.suppress.NIS;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -181,6 +184,17 @@ public class DynamicConstants implements Serializable {
       this.vi = vi;
     }
 
+    // Interning is lost when an object is serialized and deserialized.
+    // Manually re-intern any interned fields upon deserialization.
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      in.defaultReadObject();
+      if (val instanceof String[]) {
+        val = ConcurrentIntern.intern(ConcurrentIntern.internStrings((String[]) val));
+      } else if (val != null) {
+        val = ConcurrentIntern.intern(val);
+      }
+    }
+
     /**
      * Returns whether the specified variable is currently a constant OR was a constant at the
      * beginning of constants processing.
@@ -284,12 +298,13 @@ public class DynamicConstants implements Serializable {
 
     // System.out.println("DynamicConstants.add : " + vt.toString(ppt.var_infos));
 
-    List<Constant> non_missing = new ArrayList<>();
-    List<Constant> non_con = new ArrayList<>();
+    // Created only when needed, since most samples change no constant.
+    @Nullable List<Constant> non_missing = null;
+    @Nullable List<Constant> non_con = null;
 
     // Check each constant, destroy any that are missing or different
-    for (Iterator<Constant> i = con_list.iterator(); i.hasNext(); ) {
-      Constant con = i.next();
+    for (int i = 0; i < con_list.size(); i++) {
+      Constant con = con_list.get(i);
       assert con.constant;
       con.checkRep();
 
@@ -310,10 +325,14 @@ public class DynamicConstants implements Serializable {
                 + count);
       }
       if (missing(con.vi, vt) || (con.val != con.vi.getValue(vt))) {
-        i.remove();
+        con_list.remove(i);
+        i--;
         con.constant = false;
         con.previously_constant = true;
         assert all_vars[con.vi.varinfo_index].constant == false;
+        if (non_con == null) {
+          non_con = new ArrayList<>();
+        }
         non_con.add(con);
       } else {
         con.count += count;
@@ -325,8 +344,8 @@ public class DynamicConstants implements Serializable {
     // If a variable is missing out of bounds, leave it on this list
     // forever (guaranteeing that invariants will never be instantiated over
     // it).
-    for (Iterator<Constant> i = missing_list.iterator(); i.hasNext(); ) {
-      Constant con = i.next();
+    for (int i = 0; i < missing_list.size(); i++) {
+      Constant con = missing_list.get(i);
       con.checkRep();
       if (con.vi.missingOutOfBounds()) {
         continue;
@@ -341,7 +360,8 @@ public class DynamicConstants implements Serializable {
       // the variable is not missing, so it is non-null
       assert val != null;
 
-      i.remove();
+      missing_list.remove(i);
+      i--;
       con.always_missing = false;
       if (Debug.logDetail()) {
         Debug.log(
@@ -369,6 +389,9 @@ public class DynamicConstants implements Serializable {
         con_list.add(con);
       } else {
         // This variable truly is missing; has seen a missing value in the past.
+        if (non_missing == null) {
+          non_missing = new ArrayList<>();
+        }
         non_missing.add(con);
         con.previous_missing = true;
       }
@@ -376,6 +399,16 @@ public class DynamicConstants implements Serializable {
 
     sample_cnt += count;
 
+    if (non_con == null && non_missing == null) {
+      return;
+    }
+    if (non_con == null) {
+      non_con = Collections.emptyList();
+    }
+    if (non_missing == null) {
+      non_missing = Collections.emptyList();
+    }
+
     // Create slices over newly non-constant and non-missing variables
     instantiate_new_views(non_con, non_missing);
 
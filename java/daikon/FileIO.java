@@ -14,9 +14,13 @@ import daikon.config.Configuration;
 import daikon.derive.ValueAndModified;
 import daikon.diff.InvMap;
 import daikon.inv.Invariant;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -26,6 +30,7 @@ import java.io.ObjectInputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.Serializable;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
@@ -42,11 +47,13 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Scanner;
 import java.util.StringJoiner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
+import org.checkerframework.checker.initialization.qual.UnderInitialization;
 import org.checkerframework.checker.interning.qual.Interned;
 import org.checkerframework.checker.interning.qual.UsesObjectEquals;
 import org.checkerframework.checker.lock.qual.GuardSatisfied;
@@ -124,10 +131,13 @@ public final class FileIO {
   public static int dkconfig_max_line_number = 0;
 
   /**
-   * Boolean. When false, don't count the number of lines in the dtrace file before reading. This
-   * will disable the percentage progress printout.
+   * Boolean. When true, count the number of lines in the dtrace file before reading it, so that the
+   * progress display can show exactly what fraction of the file's lines have been read. Counting
+   * requires reading (and, for a compressed file, decompressing) the whole file an extra time. When
+   * false, the progress display estimates the fraction from the number of bytes of the file, as
+   * stored on disk, that have been consumed.
    */
-  public static boolean dkconfig_count_lines = true;
+  public static boolean dkconfig_count_lines = false;
 
   /**
    * Boolean. When true, only read the samples, but don't process them. Used to gather timing
@@ -158,6 +168,31 @@ public final class FileIO {
    */
   public static long dkconfig_dtrace_line_count = 0;
 
+  /**
+   * Integer. If positive, each dtrace file is read on threads of its own while invariants are
+   * inferred on the main thread: one thread decompresses a compressed file, one divides the text
+   * into records, and one parses the records into samples. The value is the number of blocks,
+   * records, or samples that may wait between one thread and the next. If 0, the file is read on
+   * the main thread. See {@link DtracePipeline}.
+   */
+  public static int dkconfig_pipeline_capacity = 0;
+
+  /**
+   * Integer. If greater than 1, an uncompressed textual dtrace file is mapped into memory and
+   * divided into ranges of about {@link #dkconfig_parse_range_size} bytes, and this many threads
+   * parse the ranges at the same time while invariants are inferred on the main thread. Files to
+   * which this applies are not read by a pipeline (see {@link #dkconfig_pipeline_capacity}). If 0
+   * or 1, files are not mapped. See {@link MappedDtrace}.
+   */
+  public static int dkconfig_parse_threads = 0;
+
+  /**
+   * Integer. The number of bytes in each of the ranges into which a dtrace file is divided when it
+   * is parsed by several threads; see {@link #dkconfig_parse_threads}. A range is extended to the
+   * end of the record in which it would otherwise end.
+   */
+  public static int dkconfig_parse_range_size = 1 << 22;
+
   /** True if declaration records are in the new format -- that is, decl-version 2.0. */
   // Set by read_decl_version; by read_data_trace_record if the file is non-empty;
   // by read_serialized_pptmap; and by InvMap.readObject.
@@ -189,6 +224,10 @@ public final class FileIO {
   // modified since this program point was last executed.
   static HashMap<PptTopLevel, String[]> ppt_to_value_reps = new HashMap<>();
 
+  // Like ppt_to_value_reps, but for binary traces (see BinaryDtrace), which
+  // contain values rather than their text.
+  static HashMap<PptTopLevel, @Nullable Object[]> ppt_to_values = new HashMap<>();
+
   // For debugging purposes: printing out a modified trace file with
   // changed modbits.
   private static boolean to_write_nonce = false;
@@ -1141,15 +1180,24 @@ public final class FileIO {
    */
   public static class Processor {
     /**
-     * Process a data sample record. This default implementation calls {@link
-     * FileIO#process_sample(PptMap, PptTopLevel, ValueTuple, Integer)}.
+     * Holds the repeats of samples passed to the default {@link #process_sample}. A subclass that
+     * adds samples to program points itself may use it too; it is flushed by the default {@link
+     * #process_eof} and {@link #process_truncated}.
+     */
+    final SampleCoalescer coalescer = new SampleCoalescer();
+
+    /**
+     * Process a data sample record. This default implementation does what {@link
+     * FileIO#process_sample(PptMap, PptTopLevel, ValueTuple, Integer)} does, except that
+     * consecutive identical samples at a program point are supplied to it at once (see {@link
+     * SampleCoalescer}).
      *
      * @see FileIO#process_sample(PptMap, PptTopLevel, ValueTuple, Integer)
      */
     @RequiresNonNull("FileIO.data_trace_state")
     public void process_sample(
         PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, @Nullable Integer nonce) {
-      FileIO.process_sample(all_ppts, ppt, vt, nonce);
+      FileIO.process_sample(all_ppts, ppt, vt, nonce, coalescer);
     }
 
     /** Process a program point declaration record. */
@@ -1173,11 +1221,21 @@ public final class FileIO {
     /** Process a comment. */
     public void process_comment(String comment) {}
 
-    /** Process indication of end of file. */
-    public void process_eof() {}
+    /**
+     * Process indication of end of file. This default implementation supplies the samples held by
+     * the coalescer.
+     */
+    public void process_eof() {
+      coalescer.flush_all();
+    }
 
-    /** Process indication of exceeding file size limit. */
-    public void process_truncated() {}
+    /**
+     * Process indication of exceeding file size limit. This default implementation supplies the
+     * samples held by the coalescer.
+     */
+    public void process_truncated() {
+      coalescer.flush_all();
+    }
 
     /** Process continuable error. */
     public void process_error() {}
@@ -1243,9 +1301,44 @@ public final class FileIO {
     /** Input stream. */
     public LineNumberReader reader;
 
-    /** Total number of lines in the input file. */
+    /** Total number of lines in the input file, or 0 if they were not counted. */
     public long total_lines;
 
+    /**
+     * Counts the bytes consumed from the input file as it is read, or null if the input is not a
+     * file. For a compressed file, the count is of compressed bytes.
+     */
+    public @Nullable CountingInputStream bytes_read;
+
+    /** Total number of bytes in the input file, or 0 if unknown. */
+    public long total_bytes;
+
+    /**
+     * The records of the input file, if it is a binary trace (see {@link BinaryDtrace}); otherwise
+     * null. While a binary trace is read, {@link #reader} reads the text of the current {@link
+     * BinaryDtrace#TEXT} record.
+     */
+    public BinaryDtrace.@Nullable Reader binary;
+
+    /**
+     * The dictionary of program points of a binary trace, indexed by program point number. Elements
+     * are null for numbers that have not been defined.
+     */
+    ArrayList<@Nullable BinaryPpt> binary_ppts = new ArrayList<>();
+
+    /**
+     * The threads that read the input file, if it is read by a pipeline (see {@link
+     * #dkconfig_pipeline_capacity}); otherwise null.
+     */
+    @Nullable DtracePipeline pipeline;
+
+    /**
+     * The threads that parse the input file, if it is mapped into memory (see {@link
+     * #dkconfig_parse_threads}); otherwise null. If non-null, {@link #reader} reads each record
+     * that those threads leave to the thread that processes samples.
+     */
+    @Nullable MappedDtrace mapped;
+
     /** Comparability format, either VarComparability.IMPLICIT or VarComparability.NONE. */
     public int varcomp_format;
 
@@ -1273,10 +1366,33 @@ public final class FileIO {
     public @Nullable Object payload; // used when status=COMMENT
 
     /** Start parsing the given file. */
-    @SuppressWarnings("StaticAssignmentInConstructor") // for progress output
     public ParseState(
         String raw_filename, boolean decl_file_p, boolean ppts_may_be_new, PptMap ppts)
         throws IOException {
+      this(raw_filename, decl_file_p, ppts_may_be_new, ppts, false, false);
+    }
+
+    /**
+     * Start parsing the given file.
+     *
+     * @param raw_filename the file
+     * @param decl_file_p true if the file is a declaration file
+     * @param ppts_may_be_new true if ppts may be new; see {@link #ppts_may_be_new}
+     * @param ppts all of the ppts seen so far
+     * @param pipelined if true, create a {@link #pipeline} and decompress the file on its thread
+     * @param mapped if true, the file is read by a {@link #mapped} rather than by the reader, which
+     *     the caller must set
+     * @throws IOException if the file cannot be opened
+     */
+    @SuppressWarnings("StaticAssignmentInConstructor") // for progress output
+    ParseState(
+        String raw_filename,
+        boolean decl_file_p,
+        boolean ppts_may_be_new,
+        PptMap ppts,
+        boolean pipelined,
+        boolean mapped)
+        throws IOException {
       // Pretty up raw_filename for use in messages
       if (raw_filename.equals("-")) {
         filename = "standard input";
@@ -1293,6 +1409,12 @@ public final class FileIO {
 
       boolean is_url = raw_filename.startsWith("file:") || raw_filename.startsWith("jar:");
 
+      DtracePipeline pipeline = null;
+      if (pipelined) {
+        pipeline = new DtracePipeline(filename, dkconfig_pipeline_capacity);
+      }
+      this.pipeline = pipeline;
+
       // Do we need to count the lines in the file?
       total_lines = 0;
       boolean count_lines = dkconfig_count_lines;
@@ -1334,13 +1456,28 @@ public final class FileIO {
         URL url = new URL(raw_filename);
         InputStream stream = url.openStream();
         if (raw_filename.endsWith(".gz")) {
-          GZIPInputStream gzip_stream = new GZIPInputStream(stream);
-          reader = new LineNumberReader(new InputStreamReader(gzip_stream, UTF_8));
-        } else {
-          reader = new LineNumberReader(new InputStreamReader(stream, UTF_8));
+          stream = new GZIPInputStream(stream);
+          if (pipeline != null) {
+            stream = pipeline.inflate(stream);
+          }
         }
+        reader = open_reader(stream);
+      } else if (mapped) {
+        total_bytes = new File(raw_filename).length();
+        reader = new LineNumberReader(new StringReader(""));
       } else {
-        reader = UtilPlume.lineNumberFileReader(raw_filename);
+        // Read the file directly (rather than via UtilPlume.lineNumberFileReader) so that the
+        // progress display can tell how much of it has been consumed.
+        total_bytes = new File(raw_filename).length();
+        bytes_read = new CountingInputStream(new FileInputStream(raw_filename));
+        InputStream stream = bytes_read;
+        if (raw_filename.endsWith(".gz")) {
+          stream = new GZIPInputStream(stream);
+          if (pipeline != null) {
+            stream = pipeline.inflate(stream);
+          }
+        }
+        reader = open_reader(stream);
       }
 
       varcomp_format = VarComparability.IMPLICIT;
@@ -1348,8 +1485,41 @@ public final class FileIO {
       ppt = null;
     }
 
-    /** Returns the current line number in the input file, or -1 if not available. */
+    /**
+     * Returns a reader for a trace. If the trace is binary, sets {@link #binary} and returns a
+     * reader of no text.
+     *
+     * @param stream the trace, already uncompressed
+     * @return a reader for the text of the trace
+     */
+    private LineNumberReader open_reader(
+        @UnderInitialization(Object.class) ParseState this, InputStream stream)
+        throws IOException {
+      BufferedInputStream buffered = new BufferedInputStream(stream);
+      if (BinaryDtrace.is_binary(buffered)) {
+        binary = new BinaryDtrace.Reader(buffered);
+        return new LineNumberReader(new StringReader(""));
+      }
+      return new LineNumberReader(new InputStreamReader(buffered, UTF_8));
+    }
+
+    /**
+     * Returns the current line number in the input file, or -1 if not available. For a binary
+     * trace, returns the number of the current record instead. If the file is read by a {@link
+     * #pipeline} or a {@link #mapped}, returns (except while a record is parsed) the line at which
+     * the sample that is being processed ends.
+     */
     public int get_linenum() {
+      if (binary != null) {
+        return binary.record_number();
+      }
+      if (pipeline != null && !pipeline.is_parser_thread()) {
+        // The parser is ahead of the sample that is being processed.
+        return pipeline.consumer_linenum();
+      }
+      if (mapped != null && !mapped.is_parser_thread()) {
+        return mapped.consumer_linenum();
+      }
       return reader.getLineNumber();
     }
 
@@ -1366,19 +1536,84 @@ public final class FileIO {
       if (reader == null) {
         line = "?";
       } else {
-        long lineNum = reader.getLineNumber();
+        long lineNum = get_linenum();
         line = String.valueOf(lineNum);
         if (total_lines > 0) {
           double frac = lineNum / (double) total_lines;
           String percent = pctFmt.format(frac);
           line = line + ", " + percent;
+        } else if (bytes_read != null && total_bytes > 0) {
+          // The decoders read ahead of the parser, so this slightly overestimates the progress.
+          double frac = Math.min(1.0, bytes_read.count() / (double) total_bytes);
+          String percent = pctFmt.format(frac);
+          line = line + ", ~" + percent;
         }
       }
-      return "Reading " + filename + " (line " + line + ") ...";
+      String unit = (binary == null) ? "line" : "record";
+      return "Reading " + filename + " (" + unit + " " + line + ") ...";
     }
 
     public String line_file_message() {
-      return String.format(" at line %d in file %s", reader.getLineNumber(), filename);
+      return String.format(
+          " at %s %d in file %s", (binary == null ? "line" : "record"), get_linenum(), filename);
+    }
+  }
+
+  /**
+   * An input stream that counts the bytes read through it. The count may be read from any thread,
+   * such as the one that displays progress.
+   */
+  public static class CountingInputStream extends FilterInputStream {
+
+    /** The number of bytes read or skipped so far. */
+    private volatile long count = 0;
+
+    /**
+     * Creates a CountingInputStream.
+     *
+     * @param in the stream to read from
+     */
+    public CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    /**
+     * Returns the number of bytes read or skipped so far.
+     *
+     * @return the number of bytes read or skipped so far
+     */
+    public long count() {
+      return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int result = in.read();
+      if (result != -1) {
+        count++;
+      }
+      return result;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int result = in.read(b, off, len);
+      if (result > 0) {
+        count += result;
+      }
+      return result;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long result = in.skip(n);
+      count += result;
+      return result;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
     }
   }
 
@@ -1435,8 +1670,22 @@ public final class FileIO {
               + ((Daikon.ppt_omit_regexp != null) ? " " + Daikon.ppt_omit_regexp.pattern() : ""));
     }
 
-    ParseState data_trace_state = new ParseState(filename, is_decl_file, ppts_may_be_new, all_ppts);
+    boolean mapped =
+        dkconfig_parse_threads > 1
+            && !is_decl_file
+            && !Global.debugPrintDtrace
+            && dkconfig_max_line_number == 0
+            && MappedDtrace.can_map(filename);
+    boolean pipelined =
+        dkconfig_pipeline_capacity > 0 && !is_decl_file && !Global.debugPrintDtrace && !mapped;
+    ParseState data_trace_state =
+        new ParseState(filename, is_decl_file, ppts_may_be_new, all_ppts, pipelined, mapped);
     FileIO.data_trace_state = data_trace_state;
+    if (mapped) {
+      data_trace_state.mapped =
+          new MappedDtrace(
+              filename, data_trace_state, dkconfig_parse_threads, dkconfig_parse_range_size);
+    }
 
     // Used for debugging: write new data trace file.
     if (Global.debugPrintDtrace) {
@@ -1444,53 +1693,166 @@ public final class FileIO {
           new PrintWriter(Files.newBufferedWriter(new File(filename + ".debug").toPath(), UTF_8));
     }
 
+    SampleSource source = data_trace_state.mapped;
+    DtracePipeline pipeline = data_trace_state.pipeline;
+    if (pipeline != null && data_trace_state.binary == null) {
+      pipeline.start(data_trace_state);
+      source = pipeline;
+    }
+    // A binary trace is only decompressed by the pipeline.
+
+    try {
+      process_data_trace_records(data_trace_state, processor, source);
+    } finally {
+      if (data_trace_state.pipeline != null) {
+        data_trace_state.pipeline.close();
+      }
+      if (data_trace_state.mapped != null) {
+        data_trace_state.mapped.close();
+      }
+    }
+
+    if (Global.debugPrintDtrace) {
+      assert Global.dtraceWriter != null
+          : "@AssumeAssertion(nullness): dependent: set if debugPrintDtrace is true";
+      Global.dtraceWriter.close();
+    }
+
+    Daikon.progress = "Finished reading " + data_trace_state.filename;
+
+    clear_data_trace_state();
+  }
+
+  /**
+   * The samples of a trace file that is read by threads other than the one that processes the
+   * samples: a {@link DtracePipeline} or a {@link MappedDtrace}.
+   */
+  interface SampleSource extends Closeable {
+
+    /**
+     * Returns the next sample in the trace, or a record of type EOF or TRUNCATED at the end of the
+     * trace. Blocks until it is available. Must be called by the thread that processes samples.
+     *
+     * @return the next sample, or the end of the trace
+     * @throws IOException if the trace could not be read
+     */
+    DtracePipeline.Item take() throws IOException;
+
+    /** Stops every thread that reads the trace. The source may not be used afterward. */
+    @Override
+    void close();
+  }
+
+  /**
+   * Reads every record of a dtrace file and passes each sample to the processor.
+   *
+   * @param data_trace_state the state of the file
+   * @param processor the processor
+   * @param source if non-null, the threads that read the file; otherwise it is read on this thread
+   * @throws IOException if the file cannot be read
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  private static void process_data_trace_records(
+      ParseState data_trace_state, Processor processor, @Nullable SampleSource source)
+      throws IOException {
     while (true) {
-      read_data_trace_record(data_trace_state);
+      RecordType rtype;
+      PptTopLevel ppt;
+      ValueTuple vt;
+      Integer nonce;
+      if (source == null) {
+        read_data_trace_record(data_trace_state);
+        rtype = data_trace_state.rtype;
+        ppt = data_trace_state.ppt;
+        vt = data_trace_state.vt;
+        nonce = data_trace_state.nonce;
+      } else {
+        DtracePipeline.Item item = source.take();
+        rtype = item.rtype;
+        ppt = item.ppt;
+        vt = item.vt;
+        nonce = item.nonce;
+      }
 
-      if (data_trace_state.rtype == RecordType.SAMPLE) {
-        assert data_trace_state.ppt != null
-            : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
-        assert data_trace_state.vt != null
-            : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
+      if (rtype == RecordType.SAMPLE) {
+        assert ppt != null : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
+        assert vt != null : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
         // Nonce may be null
         samples_processed++;
         // Add orig and derived variables; pass to inference (add_and_flow)
         try {
-          processor.process_sample(
-              data_trace_state.all_ppts,
-              data_trace_state.ppt,
-              data_trace_state.vt,
-              data_trace_state.nonce);
+          processor.process_sample(data_trace_state.all_ppts, ppt, vt, nonce);
         } catch (Error e) {
-          // e.printStackTrace();
-          if (!dkconfig_continue_after_file_exception) {
-            throw new Daikon.UserError(e, data_trace_state);
-          } else {
-            System.out.println();
-            System.out.println(
-                "WARNING: Error while processing trace file; subsequent records ignored.");
-            System.out.print("Ignored backtrace:");
-            e.printStackTrace(System.out);
-            System.out.println();
-          }
+          report_processing_error(e, data_trace_state, processor.coalescer);
+        }
+      } else if (rtype == RecordType.EOF) {
+        // The processor may supply samples that it held back.
+        try {
+          processor.process_eof();
+        } catch (Error e) {
+          report_processing_error(e, data_trace_state, processor.coalescer);
+        }
+        break;
+      } else if (rtype == RecordType.TRUNCATED) {
+        try {
+          processor.process_truncated();
+        } catch (Error e) {
+          report_processing_error(e, data_trace_state, processor.coalescer);
         }
-      } else if ((data_trace_state.rtype == RecordType.EOF)
-          || (data_trace_state.rtype == RecordType.TRUNCATED)) {
         break;
       } else {
         // don't need to do anything explicit for other records found
       }
     }
+  }
 
-    if (Global.debugPrintDtrace) {
-      assert Global.dtraceWriter != null
-          : "@AssumeAssertion(nullness): dependent: set if debugPrintDtrace is true";
-      Global.dtraceWriter.close();
+  /**
+   * Reports an error thrown while a sample was processed: throws a UserError, or prints a warning
+   * if {@link #dkconfig_continue_after_file_exception} is set. An error thrown while the coalescer
+   * was supplying a run of samples is reported at the first sample of the run.
+   *
+   * @param e the error
+   * @param data_trace_state the state of the file being read
+   * @param coalescer the coalescer of the processor
+   */
+  private static void report_processing_error(
+      Error e, ParseState data_trace_state, SampleCoalescer coalescer) {
+    // e.printStackTrace();
+    if (!dkconfig_continue_after_file_exception) {
+      String filename = coalescer.supplying_filename();
+      if (filename == null) {
+        throw new Daikon.UserError(e, data_trace_state);
+      }
+      throw new Daikon.UserError(
+          e, Daikon.UserError.error_at_line_file(coalescer.supplying_linenum(), filename, e));
+    } else {
+      System.out.println();
+      System.out.println("WARNING: Error while processing trace file; subsequent records ignored.");
+      System.out.print("Ignored backtrace:");
+      e.printStackTrace(System.out);
+      System.out.println();
     }
+  }
 
-    Daikon.progress = "Finished reading " + data_trace_state.filename;
-
-    clear_data_trace_state();
+  /**
+   * Returns true if a record whose first line (other than comments) is the given line may be a
+   * sample. Other records, such as declarations, change the program points, so {@link
+   * DtracePipeline} processes them only when inference is not running.
+   *
+   * @param line the first line of a record that is not a comment
+   * @return false if the record is known not to be a sample
+   */
+  static boolean is_sample_header(String line) {
+    if (new_decl_format == null) {
+      // The file format is not yet known.
+      return false;
+    }
+    return !(line.startsWith("decl-version")
+        || line.startsWith("input-language")
+        || is_declaration_header(line)
+        || line.equals("VarComparability")
+        || line.startsWith("var-comparability")
+        || line.equals("ListImplementors"));
   }
 
   /**
@@ -1513,6 +1875,19 @@ public final class FileIO {
   @RequiresNonNull("FileIO.data_trace_state")
   // not guaranteed: File might be empty  EnsuresNonNull("FileIO.new_decl_format")
   public static void read_data_trace_record(ParseState state) throws IOException {
+    if (state.binary != null) {
+      read_binary_record(state, state.binary);
+    } else {
+      read_text_record(state);
+    }
+  }
+
+  /**
+   * Read a single record from the text of a trace file (or, for a binary trace, from the text of
+   * the current {@link BinaryDtrace#TEXT} record). See {@link #read_data_trace_record}.
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  private static void read_text_record(ParseState state) throws IOException {
 
     // Abstract out the test result into a variable because Java doesn't
     // permit suppressing warnings on a statement.  Yuck.
@@ -1604,9 +1979,7 @@ public final class FileIO {
         state.rtype = RecordType.LIST_IMPLEMENTORS;
         return;
       }
-      String ppt_name = line;
-      if (new_decl_format) ppt_name = unescape_decl(line); // interning bugfix: no need to intern
-      ppt_name = user_mod_ppt_name(ppt_name);
+      String ppt_name = sample_ppt_name(line);
       if (!ppt_included(ppt_name)) {
         // System.out.printf("skipping ppt %s%n", line);
         while ((line != null) && !line.equals("")) line = reader.readLine();
@@ -1659,37 +2032,10 @@ public final class FileIO {
       int vals_array_size = ppt.var_infos.length - ppt.num_static_constant_vars;
 
       // Read an invocation nonce if one exists
-      Integer nonce;
-
-      boolean nonce_exists;
-      {
-        String nonce_header_peekahead;
-        // arbitrary number, hopefully big enough; catch exceptions
-        reader.mark(1000);
-        try {
-          nonce_header_peekahead = reader.readLine();
-        } catch (Exception e) {
-          nonce_header_peekahead = null;
-        }
-        reader.reset();
-        nonce_exists = NONCE_HEADER.equals(nonce_header_peekahead);
-      }
-      if (!nonce_exists) {
-        nonce = null;
-      } else {
-        @SuppressWarnings("nullness") // nonce_exists is true, so readLine() returns non-null
-        @NonNull String nonce_header = reader.readLine(); // read & discard header
-        assert NONCE_HEADER.equals(nonce_header);
-        String nonce_number = reader.readLine();
-        if (nonce_number == null) {
-          throw new Daikon.UserError("File ended while trying to read nonce", state);
-        }
-        nonce = Integer.valueOf(nonce_number);
-
-        if (Global.debugPrintDtrace) {
-          to_write_nonce = true;
-          nonce_value = nonce.toString();
-        }
+      Integer nonce = read_nonce(reader, state);
+      if (nonce != null && Global.debugPrintDtrace) {
+        to_write_nonce = true;
+        nonce_value = nonce.toString();
       }
 
       @Nullable Object[] vals = new @Nullable Object[vals_array_size];
@@ -1698,7 +2044,7 @@ public final class FileIO {
       // Read a single record from the trace file;
       // fills up vals and mods arrays by side effect.
       try {
-        read_vals_and_mods_from_trace_file(reader, state.filename, ppt, vals, mods);
+        read_vals_and_mods_from_trace_file(reader, state.filename, ppt, vals, mods, null);
       } catch (IOException e) {
         String nextLine = reader.readLine();
         if ((e instanceof EOFException) || (nextLine == null)) {
@@ -1736,6 +2082,384 @@ public final class FileIO {
     return;
   }
 
+  /**
+   * Returns the name of the program point of a sample, given the first line of the sample record.
+   *
+   * @param line the first line of a sample record
+   * @return the name of the sample's program point
+   */
+  static String sample_ppt_name(String line) {
+    assert new_decl_format != null : "@AssumeAssertion(nullness): set before any sample is read";
+    String ppt_name = line;
+    if (new_decl_format) ppt_name = unescape_decl(line); // interning bugfix: no need to intern
+    return user_mod_ppt_name(ppt_name);
+  }
+
+  /**
+   * Reads the invocation nonce of a sample, if it has one. The reader is positioned after the
+   * first line of the sample record.
+   *
+   * @param reader the text of the sample record
+   * @param state the state of the file, for error messages
+   * @return the nonce, or null if the sample has none
+   */
+  private static @Nullable Integer read_nonce(LineNumberReader reader, ParseState state)
+      throws IOException {
+    String nonce_header_peekahead;
+    // arbitrary number, hopefully big enough; catch exceptions
+    reader.mark(1000);
+    try {
+      nonce_header_peekahead = reader.readLine();
+    } catch (Exception e) {
+      nonce_header_peekahead = null;
+    }
+    reader.reset();
+    if (!NONCE_HEADER.equals(nonce_header_peekahead)) {
+      return null;
+    }
+    @SuppressWarnings("nullness") // the header was peeked, so readLine() returns non-null
+    @NonNull String nonce_header = reader.readLine(); // read & discard header
+    assert NONCE_HEADER.equals(nonce_header);
+    String nonce_number = reader.readLine();
+    if (nonce_number == null) {
+      throw new Daikon.UserError("File ended while trying to read nonce", state);
+    }
+    return Integer.valueOf(nonce_number);
+  }
+
+  /**
+   * Reads the rest of a sample record, as {@link #read_text_record} does, but on a thread of a
+   * {@link MappedDtrace} rather than the one that processes samples. The modbits are left as the
+   * trace gives them, without regard to the previous sample at the program point, and the text of
+   * each value is stored instead, so that {@link #update_modbits} can set the modbits once the
+   * earlier samples have been read. The reader is positioned after the first line of the record.
+   *
+   * @param reader the text of the sample record
+   * @param filename the name of the trace file
+   * @param ppt the program point of the sample
+   * @param vals where to store the values; its length is the number of values of the program point
+   * @param mods where to store the modbits; its length is that of vals
+   * @param value_reps where to store the text of each value; its length is the number of variables
+   *     of the program point in the trace
+   * @return the nonce, or null if the sample has none
+   * @throws IOException if the record cannot be read
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  static @Nullable Integer read_sample_values(
+      LineNumberReader reader,
+      String filename,
+      PptTopLevel ppt,
+      @Nullable Object[] vals,
+      int[] mods,
+      String[] value_reps)
+      throws IOException {
+    Integer nonce = read_nonce(reader, data_trace_state);
+    read_vals_and_mods_from_trace_file(reader, filename, ppt, vals, mods, value_reps);
+    return nonce;
+  }
+
+  /**
+   * Sets the modbits of a sample that was read by {@link #read_sample_values}, as {@link
+   * #read_text_record} would have set them, and marks the variables whose values are missing as
+   * {@link VarInfo#canBeMissing}. Must be called on the samples in the order in which they appear
+   * in the trace, on the thread that processes them, so that the threads that read samples never
+   * write to the shared variables.
+   *
+   * @param ppt the program point of the sample
+   * @param value_reps the text of each value of the sample
+   * @param mods the modbits of the sample, as they appear in the trace; they are updated
+   */
+  static void update_modbits(PptTopLevel ppt, String[] value_reps, int[] mods) {
+    String[] oldvalue_reps = ppt_to_value_reps.get(ppt);
+    for (int i = 0; i < value_reps.length; i++) {
+      mods[i] = modbit(mods[i], value_reps[i], (oldvalue_reps == null) ? null : oldvalue_reps[i]);
+    }
+    ppt_to_value_reps.put(ppt, value_reps);
+    for (VarInfo vi : ppt.var_infos) {
+      int i = vi.value_index;
+      if (!vi.is_static_constant
+          && i < value_reps.length
+          && mods[i] == ValueTuple.MISSING_NONSENSICAL) {
+        vi.canBeMissing = true;
+      }
+    }
+  }
+
+  /**
+   * Returns the modbit of a value, given its modbit in the trace and the text of the value of the
+   * same variable in the previous sample at the program point.
+   *
+   * @param mod the modbit in the trace
+   * @param value_rep the text of the value
+   * @param old_value_rep the text of the previous value, or null if there is none
+   * @return the modbit of the value
+   */
+  private static int modbit(int mod, String value_rep, @Nullable String old_value_rep) {
+    if (mod == ValueTuple.MISSING_NONSENSICAL) {
+      return mod;
+    }
+    if (value_rep.equals(old_value_rep)) {
+      return dkconfig_add_changed ? mod : ValueTuple.UNMODIFIED;
+    }
+    return ValueTuple.MODIFIED;
+  }
+
+  /**
+   * Read a single record of any type from a binary trace (see {@link BinaryDtrace}), as {@link
+   * #read_data_trace_record} does for a textual one. Records of text are read by {@link
+   * #read_text_record}; entries of the dictionary of program points are processed but not
+   * returned. Where a textual trace would give a line number, such as for {@link
+   * #dkconfig_max_line_number}, a binary trace gives the number of the record instead.
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  private static void read_binary_record(ParseState state, BinaryDtrace.Reader binary)
+      throws IOException {
+    while (true) {
+      // Finish the text of the current TEXT record, if any
+      read_text_record(state);
+      if (state.rtype != RecordType.EOF) {
+        return;
+      }
+
+      // stop at a specified point in the file
+      if ((dkconfig_max_line_number > 0) && (binary.record_number() >= dkconfig_max_line_number)) {
+        state.rtype = RecordType.TRUNCATED;
+        return;
+      }
+
+      int kind;
+      try {
+        kind = binary.next_record();
+      } catch (EOFException e) {
+        System.out.println();
+        System.out.println(
+            "WARNING: Unexpected EOF while processing "
+                + "trace file - last record of trace file ignored");
+        kind = -1;
+      }
+      switch (kind) {
+        case -1:
+          state.rtype = RecordType.EOF;
+          return;
+        case BinaryDtrace.TEXT:
+          state.reader = new LineNumberReader(new StringReader(binary.read_text()));
+          break;
+        case BinaryDtrace.PPT:
+          read_binary_ppt(state, binary.read_ppt());
+          break;
+        case BinaryDtrace.SAMPLE:
+          if (read_binary_sample(state, binary)) {
+            state.rtype = RecordType.SAMPLE;
+            return;
+          }
+          break;
+        default:
+          throw new Daikon.UserError("Unknown kind of record " + kind, state);
+      }
+    }
+  }
+
+  /** A program point of a binary trace, as given by its entry in the trace's dictionary. */
+  static final class BinaryPpt {
+    /**
+     * The program point. Null if the program point is skipped because of --ppt-select-pattern or
+     * --ppt-omit-pattern.
+     */
+    final @Nullable PptTopLevel ppt;
+
+    /** The type of each variable in the trace, as in {@link BinaryDtrace.PptEntry#var_types}. */
+    final byte[] types;
+
+    /**
+     * For each variable in the trace, the variable of the program point, or null if the variable
+     * is skipped because of --var-select-pattern or --var-omit-pattern.
+     */
+    final @Nullable VarInfo[] vars;
+
+    /**
+     * Creates a BinaryPpt.
+     *
+     * @param ppt the program point, or null if it is skipped
+     * @param types the type of each variable in the trace
+     * @param vars the variable for each variable in the trace, or null if it is skipped
+     */
+    BinaryPpt(@Nullable PptTopLevel ppt, byte[] types, @Nullable VarInfo[] vars) {
+      this.ppt = ppt;
+      this.types = types;
+      this.vars = vars;
+    }
+  }
+
+  /**
+   * Processes an entry of the dictionary of program points of a binary trace: matches the
+   * variables of the entry to those of the declaration.
+   *
+   * @param state the state of the parser
+   * @param entry the entry of the dictionary
+   */
+  private static void read_binary_ppt(ParseState state, BinaryDtrace.PptEntry entry) {
+    String ppt_name = user_mod_ppt_name(entry.name);
+    int num_vars = entry.var_names.length;
+    @Nullable VarInfo[] vars = new VarInfo[num_vars];
+    PptTopLevel ppt = null;
+    if (ppt_included(ppt_name)) {
+      ppt = state.all_ppts.get(ppt_name);
+      if (ppt == null) {
+        throw new Daikon.UserError(
+            "No declaration was provided for program point " + ppt_name, state);
+      }
+      VarInfo[] vis = ppt.var_infos;
+      int vi_index = 0;
+      int val_index = 0;
+      for (int i = 0; i < num_vars; i++) {
+        String var_name = entry.var_names[i];
+        if (!var_included(var_name)) {
+          continue;
+        }
+        while ((vi_index < vis.length) && vis[vi_index].is_static_constant) {
+          vi_index++;
+        }
+        if (val_index >= ppt.num_tracevars) {
+          throw new Daikon.UserError(
+              "Mismatch between declaration and trace.  Unexpected variable "
+                  + var_name
+                  + " for program point "
+                  + ppt.name(),
+              state);
+        }
+        VarInfo vi = vis[vi_index];
+        assert val_index == vi.value_index;
+        if (!var_name.equals(vi.str_name())) {
+          throw new Daikon.UserError(
+              "Mismatch between declaration and trace.  Expected variable "
+                  + vi.name()
+                  + ", got "
+                  + var_name
+                  + " for program point "
+                  + ppt.name(),
+              state);
+        }
+        if (entry.var_types[i] != BinaryDtrace.type_of_rep(vi.rep_type.format())) {
+          throw new Daikon.UserError(
+              "Mismatch between declaration and trace.  Variable "
+                  + vi.name()
+                  + " of type "
+                  + vi.rep_type
+                  + " has binary type "
+                  + entry.var_types[i]
+                  + " for program point "
+                  + ppt.name(),
+              state);
+        }
+        vars[i] = vi;
+        vi_index++;
+        val_index++;
+      }
+      if (val_index != ppt.num_tracevars) {
+        while (vis[vi_index].is_static_constant) {
+          vi_index++;
+        }
+        throw new Daikon.UserError(
+            "Mismatch between declaration and trace.  Expected variable "
+                + vis[vi_index].name()
+                + " for program point "
+                + ppt.name(),
+            state);
+      }
+    }
+
+    if (entry.id < 0) {
+      throw new Daikon.UserError("Bad program point number " + entry.id, state);
+    }
+    while (state.binary_ppts.size() <= entry.id) {
+      state.binary_ppts.add(null);
+    }
+    state.binary_ppts.set(entry.id, new BinaryPpt(ppt, entry.var_types, vars));
+  }
+
+  /**
+   * Reads a sample from a binary trace, setting the ppt, nonce, and vt fields of the state, as
+   * {@link #read_vals_and_mods_from_trace_file} does for a textual trace. The modified bits are
+   * computed in the same way, except that values rather than their text are compared.
+   *
+   * @param state the state of the parser
+   * @param binary the binary trace, positioned at the beginning of a {@link BinaryDtrace#SAMPLE}
+   *     record
+   * @return false if the sample was skipped because of --ppt-select-pattern or --ppt-omit-pattern
+   */
+  private static boolean read_binary_sample(ParseState state, BinaryDtrace.Reader binary)
+      throws IOException {
+    binary.read_sample_header();
+    int id = binary.sample_ppt();
+    BinaryPpt bppt = (id >= 0 && id < state.binary_ppts.size()) ? state.binary_ppts.get(id) : null;
+    if (bppt == null) {
+      throw new Daikon.UserError("Sample for undefined program point number " + id, state);
+    }
+    PptTopLevel ppt = bppt.ppt;
+    if (ppt == null) {
+      return false;
+    }
+    if (state.is_decl_file) {
+      throw new Daikon.UserError(
+          String.format(
+              "Declaration files should not contain samples, but file %s does at record %d: %s",
+              state.filename, binary.record_number(), ppt.name()),
+          state);
+    }
+
+    // As for a textual trace, leave space for orig and derived variables.
+    int vals_array_size = ppt.var_infos.length - ppt.num_static_constant_vars;
+    @Nullable Object[] vals = new @Nullable Object[vals_array_size];
+    int[] mods = new int[vals_array_size];
+
+    @Nullable Object[] old_vals = ppt_to_values.get(ppt);
+    if (old_vals == null) {
+      // The nulls in this array compare non-equal to every value in the trace.
+      old_vals = new @Nullable Object[ppt.num_tracevars];
+      ppt_to_values.put(ppt, old_vals);
+    }
+
+    for (int i = 0; i < bppt.types.length; i++) {
+      int mod = binary.read_mod();
+      Object val = null;
+      if (mod != ValueTuple.MISSING_NONSENSICAL) {
+        val = binary.read_value(bppt.types[i]);
+      }
+      VarInfo vi = bppt.vars[i];
+      if (vi == null) {
+        continue;
+      }
+      int val_index = vi.value_index;
+      if (val == null) {
+        vi.canBeMissing = true;
+      } else {
+        if (val instanceof String[]) {
+          // First, intern each String in the array, then intern the array
+          val = ConcurrentIntern.intern(ConcurrentIntern.internStrings((String[]) val));
+        } else {
+          val = ConcurrentIntern.intern(val);
+        }
+        // Set the modbit now, depending on whether the value of the variable
+        // has been changed or not.
+        if (val == old_vals[val_index] || Objects.deepEquals(val, old_vals[val_index])) {
+          if (!dkconfig_add_changed) {
+            mod = ValueTuple.UNMODIFIED;
+          }
+        } else {
+          mod = ValueTuple.MODIFIED;
+        }
+      }
+      vals[val_index] = val;
+      mods[val_index] = mod;
+      old_vals[val_index] = val;
+    }
+
+    state.ppt = ppt;
+    state.nonce = binary.sample_nonce();
+    state.vt = ValueTuple.makeUninterned(vals, mods);
+    return true;
+  }
+
   /**
    * Add orig() and derived variables to vt (by side effect), then supply it to the program point
    * for flowing.
@@ -1745,13 +2469,62 @@ public final class FileIO {
   @RequiresNonNull("FileIO.data_trace_state")
   public static void process_sample(
       PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, @Nullable Integer nonce) {
+    process_sample(all_ppts, ppt, vt, nonce, null);
+  }
+
+  /**
+   * Like {@link #process_sample(PptMap, PptTopLevel, ValueTuple, Integer)}, but supplies the sample
+   * through a coalescer, which may hold it until a different sample arrives at ppt.
+   *
+   * @param vt trace data only; modified by side effect to add derived vars
+   * @param coalescer if non-null, holds repeated samples; otherwise the sample is supplied at once
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  static void process_sample(
+      PptMap all_ppts,
+      PptTopLevel ppt,
+      ValueTuple vt,
+      @Nullable Integer nonce,
+      @Nullable SampleCoalescer coalescer) {
+
+    ValueTuple full_vt = prepare_sample(all_ppts, ppt, vt, nonce);
+    if (full_vt == null) {
+      return;
+    }
+
+    if (coalescer == null) {
+      add_sample(ppt, full_vt, 1);
+    } else {
+      coalescer.add(ppt, full_vt, data_trace_state.filename, data_trace_state.get_linenum());
+    }
+
+    if (Global.debugPrintDtrace) {
+      assert Global.dtraceWriter != null
+          : "@AssumeAssertion(nullness): dependent: set if debugPrintDtrace is true";
+      Global.dtraceWriter.close();
+    }
+  }
+
+  /**
+   * The first half of {@link #process_sample}: add orig() and derived variables to vt (by side
+   * effect) and intern the result. This uses state that is shared across program points (such as
+   * the values saved at procedure entries), so it must be called for the samples in the order in
+   * which they appear in the trace.
+   *
+   * @param vt trace data only; modified by side effect to add derived vars
+   * @return the complete, interned sample, or null if the sample should not be supplied to the
+   *     program point
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  public static @Nullable ValueTuple prepare_sample(
+      PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, @Nullable Integer nonce) {
 
     // Add orig variables.  This must be above the check below because
     // it saves away the orig values from enter points for later use
     // by exit points.
     boolean ignore = compute_orig_variables(ppt, vt.vals, vt.mods, nonce);
     if (ignore) {
-      return;
+      return null;
     }
 
     // Only process the leaves of the ppt tree.
@@ -1774,7 +2547,7 @@ public final class FileIO {
           || ppt.ppt_name.isObjectInstanceSynthetic()
           || ppt.ppt_name.isClassStaticSynthetic()
           || ppt.ppt_name.isGlobalPoint()) {
-        return;
+        return null;
       }
 
       if (ppt.ppt_name.isExitPoint() && ppt.ppt_name.isCombinedExitPoint()) {
@@ -1797,24 +2570,33 @@ public final class FileIO {
 
     // If we are only reading the sample, don't process them
     if (dkconfig_read_samples_only) {
-      return;
+      return null;
     }
 
-    @SuppressWarnings({
-      "UnusedVariable",
-      "nullness:flowexpr.parse.error"
-    }) // https://tinyurl.com/cfissue/862
-    Object dummy = ppt.add_bottom_up(vt, 1);
+    return vt;
+  }
+
+  /**
+   * The second half of {@link #process_sample}: supply a sample returned by {@link #prepare_sample}
+   * to the program point for flowing. Different program points do not share any state here, so
+   * samples for different leaf program points may be added concurrently, as long as the samples for
+   * any one program point are added in trace order.
+   *
+   * @param ppt the program point
+   * @param vt the complete, interned sample
+   * @param count the number of consecutive times the sample was seen at ppt
+   */
+  @SuppressWarnings({
+    "nullness:flowexpr.parse.error",
+    "nullness:contracts.precondition.not.satisfied"
+  }) // https://tinyurl.com/cfissue/862
+  static void add_sample(PptTopLevel ppt, ValueTuple vt, int count) {
+
+    ppt.add_bottom_up(vt, count);
 
     if (debugVars.isLoggable(Level.FINE)) {
       debugVars.fine(ppt.name() + " vars: " + Debug.int_vars(ppt, vt));
     }
-
-    if (Global.debugPrintDtrace) {
-      assert Global.dtraceWriter != null
-          : "@AssumeAssertion(nullness): dependent: set if debugPrintDtrace is true";
-      Global.dtraceWriter.close();
-    }
   }
 
   /** Returns true if this procedure has an unmatched entry. */
@@ -1917,18 +2699,22 @@ public final class FileIO {
   // This procedure reads a single record from a trace file and
   // fills up vals and mods by side effect.  The ppt name and
   // invocation nonce (if any) have already been read.
+  // If value_reps is non-null, the text of each value is stored in it
+  // and the modbits are left as in the trace (see update_modbits).
   @RequiresNonNull("FileIO.data_trace_state")
   private static void read_vals_and_mods_from_trace_file(
       LineNumberReader reader,
       String filename,
       PptTopLevel ppt,
       @Nullable Object[] vals,
-      int[] mods)
+      int[] mods,
+      String @Nullable [] value_reps)
       throws IOException {
     VarInfo[] vis = ppt.var_infos;
     int num_tracevars = ppt.num_tracevars;
 
-    /*NNC:@Nullable*/ String[] oldvalue_reps = ppt_to_value_reps.get(ppt);
+    /*NNC:@Nullable*/ String[] oldvalue_reps =
+        (value_reps != null) ? value_reps : ppt_to_value_reps.get(ppt);
     if (oldvalue_reps == null) {
       // We've not encountered this program point before.  The nulls in
       // this array will compare non-equal to whatever is in the trace
@@ -2065,16 +2851,10 @@ public final class FileIO {
       // MISSING_FLOW is only found during flow algorithm
       assert mod != ValueTuple.MISSING_FLOW : "Data trace value can't be missing due to flow";
 
-      if (mod != ValueTuple.MISSING_NONSENSICAL) {
+      if (value_reps == null) {
         // Set the modbit now, depending on whether the value of the variable
         // has been changed or not.
-        if (value_rep.equals(oldvalue_reps[val_index])) {
-          if (!dkconfig_add_changed) {
-            mod = ValueTuple.UNMODIFIED;
-          }
-        } else {
-          mod = ValueTuple.MODIFIED;
-        }
+        mod = modbit(mod, value_rep, oldvalue_reps[val_index]);
       }
 
       mods[val_index] = mod;
@@ -2121,7 +2901,10 @@ public final class FileIO {
                 "Var %s ppt %s at line %d missing%n", vi, ppt.name(), FileIO.get_linenum());
             System.out.printf("val_index = %d, mods[val_index] = %d%n", val_index, mods[val_index]);
           }
-          vi.canBeMissing = true;
+          // On a thread of a MappedDtrace, update_modbits does this instead.
+          if (value_reps == null) {
+            vi.canBeMissing = true;
+          }
         }
         vals[val_index] = null;
       } else {
@@ -2145,7 +2928,9 @@ public final class FileIO {
             // if any array value is nonsensical, the whole array is
             // treated as nonsensical.
             mods[val_index] = ValueTuple.MISSING_NONSENSICAL;
-            vi.canBeMissing = true;
+            if (value_reps == null) {
+              vi.canBeMissing = true;
+            }
           }
         } catch (Daikon.UserError e) {
           throw e;
@@ -2170,7 +2955,9 @@ public final class FileIO {
 
     // Does oldvalue_reps now have no null elements???
     oldvalue_reps = castNonNullDeep(oldvalue_reps); // https://tinyurl.com/cfissue/986
-    ppt_to_value_reps.put(ppt, oldvalue_reps);
+    if (value_reps == null) {
+      ppt_to_value_reps.put(ppt, oldvalue_reps);
+    }
 
     if (Global.debugPrintDtrace) {
       assert Global.dtraceWriter != null
@@ -2248,7 +3035,7 @@ public final class FileIO {
                         : "; at "
                             + data_trace_state.filename
                             + " line "
-                            + data_trace_state.reader.getLineNumber()));
+                            + data_trace_state.get_linenum()));
             invoc = call_stack.pop();
           }
         } else {
@@ -2269,7 +3056,7 @@ public final class FileIO {
                       nonce,
                       ppt.name(),
                       data_trace_state.filename,
-                      data_trace_state.reader.getLineNumber()));
+                      data_trace_state.get_linenum()));
             }
           }
           invoc = call_hashmap.get(nonce);
@@ -2379,37 +3166,7 @@ public final class FileIO {
       throws IOException {
 
     try {
-      Object obj = UtilPlume.readObject(file);
-      if (obj instanceof FileIO.SerialFormat) {
-        SerialFormat record = (SerialFormat) obj;
-        if (use_saved_config) {
-          Configuration.getInstance().overlap(record.config);
-        }
-        FileIO.new_decl_format = record.new_decl_format;
-        // System.err.printf("Setting FileIO.new_decl_format to %b%n",
-        //                   FileIO.new_decl_format);
-        return record.map;
-      } else if (obj instanceof InvMap) {
-        // System.err.printf("Restoring an InvMap%n");
-        InvMap invs = (InvMap) obj;
-        PptMap ppts = new PptMap();
-        for (PptTopLevel ppt : invs.pptIterable()) {
-          PptTopLevel nppt = new PptTopLevel(ppt.name, ppt.var_infos);
-          nppt.set_sample_number(ppt.num_samples());
-          ppts.add(nppt);
-          List<Invariant> inv_list = invs.get(ppt);
-          for (Invariant inv : inv_list) {
-            PptSlice slice = nppt.get_or_instantiate_slice(inv.ppt.var_infos);
-            inv.ppt = slice;
-            slice.addInvariant(inv);
-          }
-        }
-        assert FileIO.new_decl_format != null
-            : "@AssumeAssertion(nullness): InvMap.readObject() sets FileIO.new_decl_format";
-        return ppts;
-      } else {
-        throw new IOException("Unexpected serialized file type: " + obj.getClass());
-      }
+      return read_serialized_pptmap(UtilPlume.readObject(file), use_saved_config);
     } catch (ClassNotFoundException e) {
       throw (IOException) new IOException("Error while loading inv file").initCause(e);
     } catch (InvalidClassException e) {
@@ -2422,6 +3179,149 @@ public final class FileIO {
     // } catch (OptionalDataException e) {    // already extends IOException
   }
 
+  /**
+   * Returns the PptMap of an object read from a serialized invariant file, as {@link
+   * #read_serialized_pptmap(File,boolean)} does. For callers that have already read the object, as
+   * to check whether it is an InvMap.
+   *
+   * @param obj the object read from the file
+   * @param use_saved_config if true, the configuration saved in the file is applied
+   * @return the program points in the file
+   * @throws IOException if obj is not from a serialized invariant file
+   */
+  public static PptMap read_serialized_pptmap(Object obj, boolean use_saved_config)
+      throws IOException {
+    if (obj instanceof FileIO.SerialFormat) {
+      SerialFormat record = (SerialFormat) obj;
+      // Several threads may read files at once (see MergeTree).
+      synchronized (FileIO.class) {
+        if (use_saved_config) {
+          Configuration.getInstance().overlap(record.config);
+        }
+        FileIO.new_decl_format = record.new_decl_format;
+      }
+      // System.err.printf("Setting FileIO.new_decl_format to %b%n",
+      //                   FileIO.new_decl_format);
+      return record.map;
+    } else if (obj instanceof InvMap) {
+      // System.err.printf("Restoring an InvMap%n");
+      InvMap invs = (InvMap) obj;
+      PptMap ppts = new PptMap();
+      for (PptTopLevel ppt : invs.pptIterable()) {
+        PptTopLevel nppt = new PptTopLevel(ppt.name, ppt.var_infos);
+        nppt.set_sample_number(ppt.num_samples());
+        ppts.add(nppt);
+        List<Invariant> inv_list = invs.get(ppt);
+        for (Invariant inv : inv_list) {
+          PptSlice slice = nppt.get_or_instantiate_slice(inv.ppt.var_infos);
+          inv.ppt = slice;
+          slice.addInvariant(inv);
+        }
+      }
+      assert FileIO.new_decl_format != null
+          : "@AssumeAssertion(nullness): InvMap.readObject() sets FileIO.new_decl_format";
+      return ppts;
+    } else {
+      throw new IOException("Unexpected serialized file type: " + obj.getClass());
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Checkpoint files
+  ///
+
+  /**
+   * The state of inference after the data trace files have been read, and before any
+   * postprocessing: the program points with their slices, invariants, modbit trackers, value sets,
+   * dynamic constants, and equality sets (suppressions are the absence of the suppressed
+   * invariants), plus the reader state that computes modbits from the previous values at each
+   * program point. A later run of Daikon can restore it and continue to read samples from new data
+   * trace files; see {@link Daikon#resume_file}.
+   */
+  static final class CheckpointFormat implements Serializable {
+    // We are Serializable, so we specify a version to allow changes to
+    // method signatures without breaking serialization.  If you add or
+    // remove fields, you should change this number to the current date.
+    static final long serialVersionUID = 20261018L;
+
+    /** The program points. */
+    PptMap map;
+
+    /** The configuration of the run that wrote the checkpoint. */
+    Configuration config;
+
+    /** The value of {@link FileIO#new_decl_format}. */
+    boolean new_decl_format;
+
+    /** The value of {@link FileIO#samples_processed}. */
+    int samples_processed;
+
+    /** The value of {@link FileIO#ppt_to_value_reps}. */
+    HashMap<PptTopLevel, String[]> ppt_to_value_reps;
+
+    /** The value of {@link FileIO#ppt_to_values}. */
+    HashMap<PptTopLevel, @Nullable Object[]> ppt_to_values;
+
+    @RequiresNonNull("FileIO.new_decl_format")
+    CheckpointFormat(PptMap map) {
+      this.map = map;
+      this.config = Configuration.getInstance();
+      this.new_decl_format = FileIO.new_decl_format;
+      this.samples_processed = FileIO.samples_processed;
+      this.ppt_to_value_reps = FileIO.ppt_to_value_reps;
+      this.ppt_to_values = FileIO.ppt_to_values;
+    }
+  }
+
+  /**
+   * Writes the state of inference to a checkpoint file. Must be called after the data trace files
+   * have been read and before the program points are postprocessed (for example, before combined
+   * exit points or the upper program points of the dataflow hierarchy are created).
+   *
+   * @param map the program points
+   * @param file the file to write; it is compressed if its name ends in ".gz"
+   * @throws IOException if there is trouble writing the file
+   */
+  @RequiresNonNull("FileIO.new_decl_format")
+  public static void write_checkpoint(PptMap map, File file) throws IOException {
+    UtilPlume.writeObject(new CheckpointFormat(map), file);
+  }
+
+  /**
+   * Restores the state of inference from a checkpoint file written by {@link #write_checkpoint}, so
+   * that reading data trace files continues from it. Also restores the configuration of the run
+   * that wrote the checkpoint, because inference must continue with the same settings.
+   *
+   * @param file the checkpoint file
+   * @return the program points
+   * @throws IOException if there is trouble reading the file, or it is not a checkpoint
+   */
+  @EnsuresNonNull("FileIO.new_decl_format")
+  public static PptMap read_checkpoint(File file) throws IOException {
+    Object obj;
+    try {
+      obj = UtilPlume.readObject(file);
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Error while loading checkpoint file " + file, e);
+    } catch (InvalidClassException e) {
+      throw new IOException(
+          "The checkpoint file "
+              + file
+              + " was written by a different version of Daikon.  Please regenerate it.",
+          e);
+    }
+    if (!(obj instanceof CheckpointFormat)) {
+      throw new IOException(file + " is not a checkpoint file: " + obj.getClass());
+    }
+    CheckpointFormat record = (CheckpointFormat) obj;
+    Configuration.getInstance().overlap(record.config);
+    FileIO.new_decl_format = record.new_decl_format;
+    FileIO.samples_processed = record.samples_processed;
+    FileIO.ppt_to_value_reps = record.ppt_to_value_reps;
+    FileIO.ppt_to_values = record.ppt_to_values;
+    return record.map;
+  }
+
   /**
    * Returns whether or not the specified ppt name should be included in processing. Ppts can be
    * excluded because they match the omit_regexp, don't match ppt_regexp, or are greater than
@@ -2556,8 +3456,7 @@ public final class FileIO {
    * @param orig the name of a declaration
    * @return the representation of the name in a declaration file
    */
-  @SuppressWarnings("UnusedMethod")
-  private static String escape_decl(String orig) {
+  public static String escape_decl(String orig) {
     return orig.replace("\\", "\\\\")
         .replace(" ", "\\_")
         .replace("\n", "\\n") // not lineSep
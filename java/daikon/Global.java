@@ -76,6 +76,8 @@ public final class Global {
   public static int derived_variables = 0;
 
   /// Invariant inference
+  // Inference and printing may run on several threads, so update these
+  // while holding the lock on Global.class.
   public static int implied_noninstantiated_invariants = 0;
   public static int implied_false_noninstantiated_invariants = 0;
   public static int subexact_noninstantiated_invariants = 0;
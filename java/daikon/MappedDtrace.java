@@ -0,0 +1,661 @@
+package daikon;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import daikon.DtracePipeline.Item;
+import daikon.FileIO.ParseState;
+import daikon.FileIO.RecordType;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.checker.nullness.qual.RequiresNonNull;
+
+/**
+ * Reads an uncompressed textual trace file on several threads. The file is mapped into memory and
+ * divided into ranges of bytes, each of which ends just after a blank line and so consists of
+ * whole records. Several threads parse ranges at the same time, as {@link
+ * FileIO#read_data_trace_record} would, and {@link #take} returns the samples in the order in
+ * which they appear in the trace.
+ *
+ * <p>The threads only parse samples of program points that have already been declared. A record
+ * that is not a sample, such as a declaration, changes state that inference uses, and a sample
+ * that cannot be parsed may be an error that must be reported at the right line. The threads leave
+ * the text of such a record to {@link #take}, which reads it on the thread that processes samples
+ * once every earlier sample has been returned. So are the records before the first sample.
+ *
+ * <p>Two things about a sample depend on the samples before it, and both are settled when the
+ * sample is returned rather than when it is parsed. Whether a value was modified depends on the
+ * value at the previous sample at the same program point (see {@link FileIO#update_modbits}). An
+ * exit is matched with its entry, through {@link FileIO#call_hashmap}, when it is processed; since
+ * samples are processed in trace order, an entry and its exit may be in different ranges.
+ */
+final class MappedDtrace implements FileIO.SampleSource {
+
+  /** The number of bytes of the file in each of its mappings into memory. */
+  static final int MAPPING_SIZE = 1 << 30;
+
+  /** The name of the trace file, for the names of the threads. */
+  private final String filename;
+
+  /** The state of the trace file, which is {@link FileIO#data_trace_state}. */
+  private final ParseState state;
+
+  /** The contents of the file. Element i holds the bytes from {@code i * MAPPING_SIZE} on. */
+  private final MappedByteBuffer[] mappings;
+
+  /** The number of bytes in the file. */
+  private final long size;
+
+  /** The number of bytes in each range, before it is extended to the end of a record. */
+  private final int range_size;
+
+  /** The number of threads that parse ranges. */
+  private final int num_threads;
+
+  /** The threads that parse ranges, once the records before the first sample have been read. */
+  private @MonotonicNonNull ExecutorService pool = null;
+
+  /** The ranges that have been handed to the threads and not yet taken, in trace order. */
+  private final ArrayDeque<Future<Range>> pending = new ArrayDeque<>();
+
+  /** The offset of the first byte of the ranges, which follows the records read by {@link #start}. */
+  private long first_range = 0;
+
+  /** The offset at which the next range to be handed to the threads nominally starts. */
+  private long next_range = 0;
+
+  /**
+   * The program points whose samples the threads may parse, by name. Replaced whenever a
+   * declaration adds a program point.
+   */
+  private volatile Map<String, PptTopLevel> ppts = Collections.emptyMap();
+
+  /** The range whose samples are being returned, or null. */
+  private @Nullable Range current = null;
+
+  /** The index in {@link #current} of the next segment to return. */
+  private int next_segment = 0;
+
+  /** The number of lines before {@link #current}. */
+  private int lines_before = 0;
+
+  /** Samples that {@link #take} has read itself, and the end of the trace, to be returned next. */
+  private final ArrayDeque<Item> ready = new ArrayDeque<>();
+
+  /** True once every range has been taken. */
+  private boolean at_end = false;
+
+  /** The line at which the sample most recently returned by {@link #take} ends. */
+  private volatile int consumer_linenum = 0;
+
+  /** The thread that is reading a record in {@link #read_records}, or null. */
+  private volatile @Nullable Thread parser = null;
+
+  /** Set when the reader is closed; the threads stop as soon as they notice it. */
+  private volatile boolean closed = false;
+
+  /**
+   * Maps a trace file into memory. The threads are started by the first call to {@link #take}.
+   *
+   * @param filename the name of the trace file, which {@link #can_map} accepts
+   * @param state the state of the trace file, which must be {@link FileIO#data_trace_state} until
+   *     the reader is closed
+   * @param num_threads the number of threads that parse ranges
+   * @param range_size the number of bytes in each range
+   * @throws IOException if the file cannot be mapped
+   */
+  MappedDtrace(String filename, ParseState state, int num_threads, int range_size)
+      throws IOException {
+    if (range_size < 1) {
+      throw new Daikon.UserError("The size of the ranges of a dtrace file must be at least 1");
+    }
+    this.filename = filename;
+    this.state = state;
+    this.num_threads = num_threads;
+    this.range_size = range_size;
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      size = channel.size();
+      mappings = new MappedByteBuffer[(int) ((size + MAPPING_SIZE - 1) / MAPPING_SIZE)];
+      for (int i = 0; i < mappings.length; i++) {
+        long start = (long) i * MAPPING_SIZE;
+        mappings[i] =
+            channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAPPING_SIZE, size - start));
+      }
+    }
+  }
+
+  /**
+   * Returns true if the named trace file can be read by a MappedDtrace: it is a non-empty file
+   * that is neither compressed nor binary.
+   *
+   * @param filename the name of a trace file
+   * @return true if the file can be mapped
+   */
+  static boolean can_map(String filename) {
+    if (filename.equals("-")
+        || filename.equals("+")
+        || filename.startsWith("file:")
+        || filename.startsWith("jar:")
+        || filename.endsWith(".gz")) {
+      return false;
+    }
+    File file = new File(filename);
+    if (!file.isFile() || file.length() == 0) {
+      return false;
+    }
+    try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(file))) {
+      return !BinaryDtrace.is_binary(in);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns true if the current thread is reading a record of the trace itself, so that the line
+   * number of its reader is the line being read.
+   *
+   * @return true if the current thread is reading a record
+   */
+  boolean is_parser_thread() {
+    return Thread.currentThread() == parser;
+  }
+
+  /**
+   * Returns the line at which the sample most recently returned by {@link #take} ends.
+   *
+   * @return the line of the sample that is being processed
+   */
+  int consumer_linenum() {
+    return consumer_linenum;
+  }
+
+  @Override
+  public Item take() throws IOException {
+    if (pool == null) {
+      start();
+    }
+    while (true) {
+      Item item = ready.poll();
+      if (item != null) {
+        if (item.rtype == RecordType.SAMPLE) {
+          consumer_linenum = item.linenum;
+        }
+        return item;
+      }
+      if (at_end) {
+        return Item.end(RecordType.EOF);
+      }
+      if (current == null || next_segment == current.segments.size()) {
+        if (current != null) {
+          lines_before += current.num_lines;
+        }
+        current = next_range();
+        next_segment = 0;
+        if (current == null) {
+          at_end = true;
+        }
+        continue;
+      }
+
+      Segment segment = current.segments.get(next_segment);
+      current.segments.set(next_segment, null);
+      next_segment++;
+      assert segment != null : "@AssumeAssertion(nullness): each segment is taken once";
+      if (segment.text != null) {
+        read_records(segment.text, lines_before + segment.linenum);
+        continue;
+      }
+      assert segment.ppt != null && segment.vals != null && segment.mods != null
+          : "@AssumeAssertion(nullness): dependent: a segment has either text or a sample";
+      assert segment.value_reps != null : "@AssumeAssertion(nullness): dependent: a sample";
+      FileIO.update_modbits(segment.ppt, segment.value_reps, segment.mods);
+      ValueTuple vt = ValueTuple.makeUninterned(segment.vals, segment.mods);
+      int linenum = lines_before + segment.linenum;
+      consumer_linenum = linenum;
+      return new Item(segment.ppt, vt, segment.nonce, linenum);
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    if (pool != null) {
+      pool.shutdownNow();
+    }
+    pending.clear();
+  }
+
+  /**
+   * Reads the records before the first sample, which usually declare the program points, and then
+   * starts the threads.
+   *
+   * @throws IOException if a record cannot be read
+   */
+  private void start() throws IOException {
+    long pos = 0;
+    int line = 0;
+    while (pos < size) {
+      long end = record_end(pos, size);
+      String text = text(pos, end);
+      String header = read_header(new LineNumberReader(new StringReader(text)));
+      if (header != null && FileIO.is_sample_header(header)) {
+        break;
+      }
+      read_records(text, line);
+      line += count_lines(text);
+      pos = end;
+    }
+    first_range = pos;
+    next_range = pos;
+    lines_before = line;
+    ppts = program_points();
+
+    AtomicInteger thread_number = new AtomicInteger();
+    pool =
+        Executors.newFixedThreadPool(
+            num_threads,
+            r -> {
+              Thread t =
+                  new Thread(r, "dtrace-range " + filename + " " + thread_number.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            });
+    schedule();
+  }
+
+  /** Hands ranges to the threads, so that twice as many ranges as threads are being parsed. */
+  private void schedule() {
+    assert pool != null : "@AssumeAssertion(nullness): called after start()";
+    while (pending.size() < 2 * num_threads && next_range < size) {
+      long nominal = next_range;
+      next_range += range_size;
+      pending.add(
+          pool.submit(
+              () -> {
+                long start = (nominal == first_range) ? nominal : boundary_after(nominal);
+                return parse_range(start, boundary_after(nominal + range_size));
+              }));
+    }
+  }
+
+  /**
+   * Returns the next range, once it has been parsed, or null if every range has been taken.
+   *
+   * @return the next range, or null
+   * @throws IOException if a range could not be read
+   */
+  private @Nullable Range next_range() throws IOException {
+    Future<Range> future = pending.poll();
+    if (future == null) {
+      return null;
+    }
+    schedule();
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      throw new Error(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      } else {
+        throw new Error(cause);
+      }
+    }
+  }
+
+  /**
+   * Reads records on this thread, as {@link FileIO#read_data_trace_record} does, and queues their
+   * samples to be returned by {@link #take}.
+   *
+   * @param text the text of the records
+   * @param lines_before the number of lines in the trace before the text
+   * @throws IOException if a record cannot be read
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  private void read_records(String text, int lines_before) throws IOException {
+    LineNumberReader reader = new LineNumberReader(new StringReader(text));
+    reader.setLineNumber(lines_before);
+    state.reader = reader;
+    parser = Thread.currentThread();
+    try {
+      while (true) {
+        FileIO.read_data_trace_record(state);
+        if (state.rtype == RecordType.SAMPLE) {
+          assert state.ppt != null : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
+          assert state.vt != null : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
+          ready.add(new Item(state.ppt, state.vt, state.nonce, reader.getLineNumber()));
+        } else if (state.rtype == RecordType.TRUNCATED) {
+          ready.add(Item.end(RecordType.TRUNCATED));
+          at_end = true;
+          break;
+        } else if (state.rtype == RecordType.EOF) {
+          break;
+        }
+      }
+    } finally {
+      parser = null;
+    }
+    if (state.all_ppts.size() != ppts.size()) {
+      ppts = program_points();
+    }
+  }
+
+  /**
+   * Returns the program points that have been declared, by name.
+   *
+   * @return a map from the name of each program point to the program point
+   */
+  private Map<String, PptTopLevel> program_points() {
+    Map<String, PptTopLevel> result = new HashMap<>();
+    for (PptTopLevel ppt : state.all_ppts.all_ppts()) {
+      result.put(ppt.name(), ppt);
+    }
+    return result;
+  }
+
+  /**
+   * Parses the records in a range of the file. Runs on one of the threads.
+   *
+   * @param start the offset of the first byte of the range
+   * @param end the offset just past the last byte of the range
+   * @return the parsed range
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  private Range parse_range(long start, long end) {
+    Range range = new Range();
+    int line = 0;
+    long pos = start;
+    while (pos < end && !closed) {
+      long record_end = record_end(pos, end);
+      String text = text(pos, record_end);
+      parse_record(text, line, range.segments);
+      line += count_lines(text);
+      pos = record_end;
+    }
+    range.num_lines = line;
+    return range;
+  }
+
+  /**
+   * Parses one record, if it is a sample of a known program point, and adds it to the given
+   * segments. Otherwise adds the text of the record, to be read by {@link #take}.
+   *
+   * @param text the text of the record, which may start with blank lines and comments
+   * @param lines_before the number of lines in the range before the record
+   * @param segments where to put the record
+   */
+  @RequiresNonNull("FileIO.data_trace_state")
+  private void parse_record(String text, int lines_before, List<@Nullable Segment> segments) {
+    LineNumberReader reader = new LineNumberReader(new StringReader(text));
+    reader.setLineNumber(lines_before);
+    try {
+      String header = read_header(reader);
+      if (header == null) {
+        return;
+      }
+      if (!FileIO.is_sample_header(header)) {
+        segments.add(new Segment(text, lines_before));
+        return;
+      }
+      String ppt_name = FileIO.sample_ppt_name(header);
+      if (!FileIO.ppt_included(ppt_name)) {
+        return;
+      }
+      PptTopLevel ppt = ppts.get(ppt_name);
+      if (ppt == null) {
+        segments.add(new Segment(text, lines_before));
+        return;
+      }
+      int num_vals = ppt.var_infos.length - ppt.num_static_constant_vars;
+      @Nullable Object[] vals = new @Nullable Object[num_vals];
+      int[] mods = new int[num_vals];
+      String[] value_reps = new String[ppt.num_tracevars];
+      Integer nonce = FileIO.read_sample_values(reader, filename, ppt, vals, mods, value_reps);
+      segments.add(new Segment(ppt, vals, mods, value_reps, nonce, reader.getLineNumber()));
+    } catch (IOException | RuntimeException | AssertionError e) {
+      // Read the record again on the thread that processes samples, which reports the problem.
+      segments.add(new Segment(text, lines_before));
+    }
+  }
+
+  /**
+   * Reads the first line of a record that is neither blank nor a comment.
+   *
+   * @param reader the text of the record
+   * @return the first line of the record that is not blank or a comment, or null if there is none
+   * @throws IOException if the text cannot be read
+   */
+  private static @Nullable String read_header(LineNumberReader reader) throws IOException {
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      if (!line.equals("") && !FileIO.isComment(line)) {
+        return line;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the byte at the given offset in the file.
+   *
+   * @param pos an offset in the file
+   * @return the byte at pos
+   */
+  private byte byte_at(long pos) {
+    return mappings[(int) (pos / MAPPING_SIZE)].get((int) (pos % MAPPING_SIZE));
+  }
+
+  /**
+   * Returns the offset of the start of the line after the one that contains the given offset.
+   *
+   * @param pos an offset in the file
+   * @param limit the offset at which to stop looking
+   * @return the offset after the next newline at or after pos, or limit if there is none before it
+   */
+  private long next_line(long pos, long limit) {
+    while (pos < limit) {
+      if (byte_at(pos++) == '\n') {
+        return pos;
+      }
+    }
+    return limit;
+  }
+
+  /**
+   * Returns true if the line that starts at the given offset is blank.
+   *
+   * @param pos the offset of the start of a line
+   * @param limit the offset of the end of the text
+   * @return true if the line at pos is empty
+   */
+  private boolean is_blank_line(long pos, long limit) {
+    byte b = byte_at(pos);
+    return b == '\n' || (b == '\r' && pos + 1 < limit && byte_at(pos + 1) == '\n');
+  }
+
+  /**
+   * Returns the offset just after the record that starts at the given offset: after the first
+   * blank line that follows a line that is not blank.
+   *
+   * @param pos the offset of the start of a line
+   * @param limit the offset at which to stop looking
+   * @return the offset of the end of the record, or limit
+   */
+  private long record_end(long pos, long limit) {
+    boolean seen_text = false;
+    while (pos < limit) {
+      boolean blank = is_blank_line(pos, limit);
+      pos = next_line(pos, limit);
+      if (blank && seen_text) {
+        return pos;
+      }
+      seen_text |= !blank;
+    }
+    return limit;
+  }
+
+  /**
+   * Returns the first boundary between records at or after the given offset: the start of the
+   * first line that follows a blank line and starts at or after pos.
+   *
+   * @param pos an offset in the file
+   * @return the offset of a boundary between records, or the size of the file
+   */
+  private long boundary_after(long pos) {
+    if (pos >= size) {
+      return size;
+    }
+    if (pos > 0 && byte_at(pos - 1) != '\n') {
+      pos = next_line(pos, size);
+    }
+    while (pos < size) {
+      boolean blank = is_blank_line(pos, size);
+      pos = next_line(pos, size);
+      if (blank) {
+        return pos;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Returns the text of part of the file.
+   *
+   * @param start the offset of the first byte
+   * @param end the offset just past the last byte
+   * @return the text between start and end
+   */
+  private String text(long start, long end) {
+    byte[] bytes = new byte[(int) (end - start)];
+    int done = 0;
+    while (done < bytes.length) {
+      long pos = start + done;
+      ByteBuffer mapping = mappings[(int) (pos / MAPPING_SIZE)].duplicate();
+      int offset = (int) (pos % MAPPING_SIZE);
+      int n = Math.min(bytes.length - done, mapping.limit() - offset);
+      mapping.position(offset);
+      mapping.get(bytes, done, n);
+      done += n;
+    }
+    return new String(bytes, UTF_8);
+  }
+
+  /**
+   * Returns the number of line terminators in some text.
+   *
+   * @param text some text
+   * @return the number of newlines in text
+   */
+  private static int count_lines(String text) {
+    int result = 0;
+    for (int i = text.indexOf('\n'); i != -1; i = text.indexOf('\n', i + 1)) {
+      result++;
+    }
+    return result;
+  }
+
+  /** The records of a range of the file, as parsed by one of the threads. */
+  private static final class Range {
+
+    /** The records, in order. Each is set to null once it has been taken. */
+    final List<@Nullable Segment> segments = new ArrayList<>();
+
+    /** The number of lines in the range. */
+    int num_lines = 0;
+  }
+
+  /** A sample parsed by one of the threads, or the text of a record that the threads left. */
+  private static final class Segment {
+
+    /** The text of a record that must be read by {@link #take}, or null for a parsed sample. */
+    final @Nullable String text;
+
+    /**
+     * For a sample, the line of the range at which it ends; for text, the number of lines in the
+     * range before it.
+     */
+    final int linenum;
+
+    /** The program point of a sample. */
+    final @Nullable PptTopLevel ppt;
+
+    /** The values of a sample. */
+    final @Nullable Object @Nullable [] vals;
+
+    /** The modbits of a sample, as they appear in the trace. */
+    final int @Nullable [] mods;
+
+    /** The text of each value of a sample, from which {@link FileIO#update_modbits} sets mods. */
+    final String @Nullable [] value_reps;
+
+    /** The nonce of a sample, or null if it has none. */
+    final @Nullable Integer nonce;
+
+    /**
+     * Creates a segment for a record that must be read by {@link #take}.
+     *
+     * @param text the text of the record
+     * @param lines_before the number of lines in the range before the record
+     */
+    Segment(String text, int lines_before) {
+      this.text = text;
+      this.linenum = lines_before;
+      this.ppt = null;
+      this.vals = null;
+      this.mods = null;
+      this.value_reps = null;
+      this.nonce = null;
+    }
+
+    /**
+     * Creates a segment for a parsed sample.
+     *
+     * @param ppt the program point
+     * @param vals the values
+     * @param mods the modbits, as they appear in the trace
+     * @param value_reps the text of each value
+     * @param nonce the nonce, or null
+     * @param linenum the line of the range at which the sample ends
+     */
+    Segment(
+        PptTopLevel ppt,
+        @Nullable Object[] vals,
+        int[] mods,
+        String[] value_reps,
+        @Nullable Integer nonce,
+        int linenum) {
+      this.text = null;
+      this.linenum = linenum;
+      this.ppt = ppt;
+      this.vals = vals;
+      this.mods = mods;
+      this.value_reps = value_reps;
+      this.nonce = nonce;
+    }
+  }
+}
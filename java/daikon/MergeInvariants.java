@@ -38,6 +38,15 @@ public final class MergeInvariants {
 
   public static @Nullable File output_inv_file;
 
+  /**
+   * Integer. If greater than 1, the invariant files are read on this many threads, and merged
+   * pairwise in a tree rather than all at once: pairs of files are merged, then pairs of the
+   * results, and so on (see {@link MergeTree}). Only a few files and partial results are in memory
+   * at a time, rather than every file. If 0 or 1, or if splitters are used, every file is read
+   * before any is merged.
+   */
+  public static int dkconfig_threads = 0;
+
   private static String usage =
       UtilPlume.joinLines(
           "Usage: java daikon.MergeInvariants [OPTION]... FILE",
@@ -188,14 +197,26 @@ public final class MergeInvariants {
     Daikon.setup_proto_invs();
     NIS.init_ni_suppression();
 
-    // Read in each of the specified maps
+    // With more than two files, merge them pairwise in a tree if requested.
+    // Splitters can't be written out, so a template that has them can't be copied.
+    boolean use_tree =
+        dkconfig_threads > 1
+            && inv_files.size() > 2
+            && splitter_files.isEmpty()
+            && ParallelMerge.is_supported();
+
+    // Read in each of the specified maps, and a description of where each came from
     List<PptMap> pptmaps = new ArrayList<>();
-    for (File file : inv_files) {
-      debugProgress.fine("Processing " + file);
-      PptMap ppts = FileIO.read_serialized_pptmap(file, true);
-      ppts.repCheck();
-      pptmaps.add(ppts);
-      Debug.check(ppts, "After initial reading of " + file);
+    List<String> sources = new ArrayList<>();
+    if (!use_tree) {
+      for (File file : inv_files) {
+        debugProgress.fine("Processing " + file);
+        PptMap ppts = FileIO.read_serialized_pptmap(file, true);
+        ppts.repCheck();
+        pptmaps.add(ppts);
+        sources.add(file.toString());
+        Debug.check(ppts, "After initial reading of " + file);
+      }
     }
 
     // Merged ppt map (result of merging each specified inv file)
@@ -209,30 +230,12 @@ public final class MergeInvariants {
 
       // Read in each of the maps again to build a template that contains all
       // of the program points from each map.
-      for (File file : inv_files) {
-        debugProgress.fine("Reading " + file + " as merge template");
-        if (merge_ppts == null) {
-          merge_ppts = FileIO.read_serialized_pptmap(file, true);
-        } else {
-          PptMap pmap = FileIO.read_serialized_pptmap(file, true);
-          for (PptTopLevel ppt : pmap.pptIterable()) {
-            if (merge_ppts.containsName(ppt.name())) {
-              // System.out.printf("Not adding ppt %s from %s%n", ppt, file);
-              continue;
-            }
-            merge_ppts.add(ppt);
-            // System.out.printf("Adding ppt %s from %s%n", ppt, file);
-
-            // Make sure that the parents of this ppt are already in
-            // the map.  This will be true if all possible children of
-            // any ppt are always included in the same invariant file.
-            // For example, all possible enter/exit points should be
-            // included with each object point.  This is true for Chicory
-            // as long as ppt filtering didn't remove some ppts.
-            for (PptRelation rel : ppt.parents) {
-              assert merge_ppts.get(rel.parent.name()) == rel.parent : ppt + " - " + rel;
-            }
-          }
+      if (use_tree) {
+        merge_ppts = MergeTree.read_template(inv_files, dkconfig_threads);
+      } else {
+        for (File file : inv_files) {
+          debugProgress.fine("Reading " + file + " as merge template");
+          merge_ppts = add_to_template(merge_ppts, FileIO.read_serialized_pptmap(file, true));
         }
       }
       assert merge_ppts != null
@@ -256,6 +259,11 @@ public final class MergeInvariants {
       PptRelation.init_hierarchy(merge_ppts);
     }
 
+    if (use_tree) {
+      debugProgress.fine("Merging the inv files pairwise");
+      pptmaps = new MergeTree(merge_ppts, dkconfig_threads).reduce(inv_files, sources);
+    }
+
     // Create a hierarchy between the merge exitNN points and the
     // corresponding points in each of the specified maps.  This
     // should only be created at the exitNN points (i.e., the leaves)
@@ -265,11 +273,7 @@ public final class MergeInvariants {
     for (PptTopLevel ppt : merge_ppts.pptIterable()) {
 
       // Skip everything that is not a final exit point
-      if (!ppt.ppt_name.isExitPoint()) {
-        assert ppt.children.size() > 0 : ppt;
-        continue;
-      }
-      if (ppt.ppt_name.isCombinedExitPoint()) {
+      if (!is_merge_leaf(ppt)) {
         assert ppt.children.size() > 0 : ppt;
         continue;
       }
@@ -277,61 +281,7 @@ public final class MergeInvariants {
       // System.out.printf("Including ppt %s, %d children%n", ppt,
       //                   ppt.children.size());
 
-      // Splitters should not have any children to begin with
-      if (ppt.has_splitters()) {
-        assert ppt.splitters != null; // because ppt.has_splitters() = true
-        for (PptSplitter ppt_split : ppt.splitters) {
-          for (PptTopLevel p : ppt_split.ppts) {
-            assert p.children.size() == 0 : p;
-          }
-        }
-      }
-
-      // Loop over each of the input ppt maps, looking for the same ppt
-      for (int j = 0; j < pptmaps.size(); j++) {
-        PptMap pmap = pptmaps.get(j);
-        PptTopLevel child = pmap.get(ppt.name());
-        // System.out.printf("found child %s from pmap %d%n", child, j);
-        if (child == null) {
-          continue;
-        }
-        if (child.equality_view == null) {
-          System.out.println(
-              "equality_view == null in child ppt: "
-                  + child.name()
-                  + " ("
-                  + inv_files.get(j)
-                  + ")");
-        } else if (child.equality_view.invs == null) {
-          System.out.println(
-              "equality_view.invs == null in child ppt: "
-                  + child.name()
-                  + " ("
-                  + inv_files.get(j)
-                  + ")"
-                  + " samples = "
-                  + child.num_samples());
-        }
-
-        // Remove the equality invariants added during equality post
-        // processing.  These are not over leaders and will cause problems
-        // in the merge
-        child.remove_equality_invariants();
-        child.in_merge = false;
-
-        // Remove implications, they don't merge correctly
-        child.remove_implications();
-
-        // If the ppt has splitters, attach the child's splitters to the
-        // splitters.  Don't attach the ppt itself, as its invariants can
-        // be built from the invariants in the splitters.
-        if (ppt.has_splitters()) {
-          assert ppt.splitters != null; // because ppt.has_splitters() = true
-          setup_conditional_merge(ppt, child);
-        } else {
-          PptRelation.newMergeChildRel(ppt, child);
-        }
-      }
+      add_merge_children(ppt, pptmaps, sources);
 
       // Make sure at least one child was found
       assert ppt.children.size() > 0 : ppt;
@@ -379,15 +329,8 @@ public final class MergeInvariants {
     // Remove the PptRelation links so that when the file is written
     // out it only includes the new information
     for (PptTopLevel ppt : merge_ppts.pptIterable()) {
-      if (!ppt.ppt_name.isExitPoint()) {
-        continue;
-      }
-      if (ppt.ppt_name.isCombinedExitPoint()) {
-        continue;
-      }
-      ppt.children.clear();
-      for (PptConditional cond : ppt.cond_iterable()) {
-        cond.children.clear();
+      if (is_merge_leaf(ppt)) {
+        remove_merge_children(ppt);
       }
     }
 
@@ -406,6 +349,128 @@ public final class MergeInvariants {
     }
   }
 
+  /**
+   * Adds to a merge template the program points of an invariant file that the template does not
+   * already have.
+   *
+   * @param merge_ppts the template, or null if no file has been read yet
+   * @param pmap the program points of an invariant file
+   * @return the template, which is pmap if merge_ppts is null
+   */
+  static PptMap add_to_template(@Nullable PptMap merge_ppts, PptMap pmap) {
+    if (merge_ppts == null) {
+      return pmap;
+    }
+    for (PptTopLevel ppt : pmap.pptIterable()) {
+      if (merge_ppts.containsName(ppt.name())) {
+        // System.out.printf("Not adding ppt %s%n", ppt);
+        continue;
+      }
+      merge_ppts.add(ppt);
+      // System.out.printf("Adding ppt %s%n", ppt);
+
+      // Make sure that the parents of this ppt are already in
+      // the map.  This will be true if all possible children of
+      // any ppt are always included in the same invariant file.
+      // For example, all possible enter/exit points should be
+      // included with each object point.  This is true for Chicory
+      // as long as ppt filtering didn't remove some ppts.
+      for (PptRelation rel : ppt.parents) {
+        assert merge_ppts.get(rel.parent.name()) == rel.parent : ppt + " - " + rel;
+      }
+    }
+    return merge_ppts;
+  }
+
+  /**
+   * Returns true if the program point is one that the program points of the same name in the
+   * invariant files are attached to: a final exit point. The invariants at every other program
+   * point are built from those at these.
+   *
+   * @param ppt a program point of the merge template
+   * @return true if ppt is a final exit point
+   */
+  static boolean is_merge_leaf(PptTopLevel ppt) {
+    return ppt.ppt_name.isExitPoint() && !ppt.ppt_name.isCombinedExitPoint();
+  }
+
+  /**
+   * Makes the program point of the same name in each of the maps a child of a final exit point of
+   * the merge template, or, if the exit point has splitters, makes their conditional program points
+   * children of its conditional program points.
+   *
+   * @param ppt a final exit point of the merge template
+   * @param pptmaps the maps whose program points to merge into ppt
+   * @param sources a description of where each of pptmaps came from, for diagnostics
+   */
+  static void add_merge_children(PptTopLevel ppt, List<PptMap> pptmaps, List<String> sources) {
+
+    // Splitters should not have any children to begin with
+    if (ppt.has_splitters()) {
+      assert ppt.splitters != null; // because ppt.has_splitters() = true
+      for (PptSplitter ppt_split : ppt.splitters) {
+        for (PptTopLevel p : ppt_split.ppts) {
+          assert p.children.size() == 0 : p;
+        }
+      }
+    }
+
+    // Loop over each of the input ppt maps, looking for the same ppt
+    for (int j = 0; j < pptmaps.size(); j++) {
+      PptMap pmap = pptmaps.get(j);
+      PptTopLevel child = pmap.get(ppt.name());
+      // System.out.printf("found child %s from pmap %d%n", child, j);
+      if (child == null) {
+        continue;
+      }
+      if (child.equality_view == null) {
+        System.out.println(
+            "equality_view == null in child ppt: " + child.name() + " (" + sources.get(j) + ")");
+      } else if (child.equality_view.invs == null) {
+        System.out.println(
+            "equality_view.invs == null in child ppt: "
+                + child.name()
+                + " ("
+                + sources.get(j)
+                + ")"
+                + " samples = "
+                + child.num_samples());
+      }
+
+      // Remove the equality invariants added during equality post
+      // processing.  These are not over leaders and will cause problems
+      // in the merge
+      child.remove_equality_invariants();
+      child.in_merge = false;
+
+      // Remove implications, they don't merge correctly
+      child.remove_implications();
+
+      // If the ppt has splitters, attach the child's splitters to the
+      // splitters.  Don't attach the ppt itself, as its invariants can
+      // be built from the invariants in the splitters.
+      if (ppt.has_splitters()) {
+        assert ppt.splitters != null; // because ppt.has_splitters() = true
+        setup_conditional_merge(ppt, child);
+      } else {
+        PptRelation.newMergeChildRel(ppt, child);
+      }
+    }
+  }
+
+  /**
+   * Removes the relations that {@link #add_merge_children} added, so that the merged program point
+   * no longer refers to the program points it was merged from.
+   *
+   * @param ppt a final exit point of the merge template
+   */
+  static void remove_merge_children(PptTopLevel ppt) {
+    ppt.children.clear();
+    for (PptConditional cond : ppt.cond_iterable()) {
+      cond.children.clear();
+    }
+  }
+
   /**
    * Ses up the specified relation beteween each of the conditionals in ppt and the matching
    * conditionals in child. Each must have the same number of splitters setup in the same order. The
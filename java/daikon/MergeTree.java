@@ -0,0 +1,431 @@
+package daikon;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Merges many invariant files pairwise in a tree, on several threads; used by {@link
+ * MergeInvariants} when {@link MergeInvariants#dkconfig_threads} is greater than 1.
+ *
+ * <p>The files are the leaves of a binary tree, in the order given. Each inner node is the merge of
+ * its two children: a map of the final exit points only, each merged (by {@link
+ * PptTopLevel#mergeInvs}) from the exit points of the same name in the two children, exactly as
+ * {@link MergeInvariants} merges them from every file at once. The last two nodes are not merged
+ * here; MergeInvariants merges them under the whole hierarchy, as it would two files. Because the
+ * tree's shape depends only on the number of files, the result does not depend on the order in
+ * which the threads finish.
+ *
+ * <p>Each thread reads a file and then merges it with its sibling, and the result with that
+ * result's sibling, and so on, as long as the sibling is ready; otherwise it leaves the result for
+ * the thread that produces the sibling. At most as many files are read at once as there are
+ * threads, so only a few files and at most one partial result per level of the tree are in memory
+ * at a time, rather than every file.
+ */
+public class MergeTree {
+
+  /** Debug tracer. */
+  public static final Logger debug = Logger.getLogger("daikon.MergeTree");
+
+  /**
+   * The final exit points of the merge template, with no invariants, each serialized on its own
+   * and detached from the rest of the hierarchy, in the order of the template. Each merge starts
+   * from fresh copies of those that it merges, rather than of the whole template.
+   */
+  private final Map<String, byte[]> leaf_templates = new LinkedHashMap<>();
+
+  /** The number of threads that read and merge files. */
+  private final int num_threads;
+
+  /**
+   * The number of nodes at each level of the tree; element 0 is the number of files, and the last
+   * element is 2. Set by {@link #reduce}.
+   */
+  private int[] level_sizes = new int[0];
+
+  /** The invariant files being merged, for diagnostics. Set by {@link #reduce}. */
+  private List<File> inv_files = new ArrayList<>();
+
+  /** The nodes that are waiting for their siblings, indexed by {@link #key}. */
+  private final Map<Long, Node> waiting = new HashMap<>();
+
+  /** The two nodes at the top of the tree, once they are ready. */
+  private final @Nullable Node[] top = new Node[2];
+
+  /** The number of pairs of nodes merged. */
+  private final AtomicInteger num_merged = new AtomicInteger();
+
+  /**
+   * The first exception or error thrown while reading or merging, or null. Once it is set, no more
+   * files are read.
+   */
+  private volatile @Nullable Throwable failure = null;
+
+  /** A node of the tree: the program points of a file, or of the merge of several. */
+  static final class Node {
+    /** The program points. */
+    final PptMap ppts;
+
+    /** The index of the first file that this node covers. */
+    final int first;
+
+    /** The index of the last file that this node covers. */
+    final int last;
+
+    /**
+     * Creates a node.
+     *
+     * @param ppts the program points
+     * @param first the index of the first file that the node covers
+     * @param last the index of the last file that the node covers
+     */
+    Node(PptMap ppts, int first, int last) {
+      this.ppts = ppts;
+      this.first = first;
+      this.last = last;
+    }
+  }
+
+  /**
+   * Creates a tree merger.
+   *
+   * @param merge_ppts the merge template: every program point of every file, with no invariants.
+   *     It is not changed.
+   * @param num_threads the number of threads that read and merge files; must be at least 1
+   * @throws IOException if the template cannot be serialized
+   */
+  public MergeTree(PptMap merge_ppts, int num_threads) throws IOException {
+    if (num_threads < 1) {
+      throw new Daikon.UserError("The number of merge threads must be at least 1");
+    }
+    this.num_threads = num_threads;
+    // Detach the exit points in a copy, so that each can be serialized without the others.
+    PptMap copy = (PptMap) deserialize(serialize(merge_ppts));
+    for (PptTopLevel ppt : copy.pptIterable()) {
+      if (MergeInvariants.is_merge_leaf(ppt)) {
+        ppt.parents.clear();
+        ppt.children.clear();
+        leaf_templates.put(ppt.name(), serialize(ppt));
+      }
+    }
+  }
+
+  /**
+   * Serializes an object.
+   *
+   * @param obj the object
+   * @return the serialized form of obj
+   * @throws IOException if obj cannot be serialized
+   */
+  private static byte[] serialize(Object obj) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(obj);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Deserializes an object.
+   *
+   * @param bytes the serialized form of an object
+   * @return a new copy of the object
+   */
+  private static Object deserialize(byte[] bytes) {
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return in.readObject();
+    } catch (IOException | ClassNotFoundException e) {
+      throw new Error("Cannot copy the merge template", e);
+    }
+  }
+
+  /**
+   * Returns the number of nodes at each level of a tree over the given number of files. A level
+   * with an odd number of nodes passes its last node up to the next level unmerged.
+   *
+   * @param num_files the number of files; must be at least 2
+   * @return the number of nodes at each level, ending with 2
+   */
+  static int[] level_sizes(int num_files) {
+    assert num_files >= 2 : num_files;
+    List<Integer> sizes = new ArrayList<>();
+    for (int size = num_files; size > 2; size = (size + 1) / 2) {
+      sizes.add(size);
+    }
+    sizes.add(2);
+    int[] result = new int[sizes.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = sizes.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the key in {@link #waiting} of a node.
+   *
+   * @param level the level of the node; 0 for a file
+   * @param index the index of the node within its level
+   * @return the key of the node
+   */
+  private static long key(int level, int index) {
+    return ((long) level << 32) | index;
+  }
+
+  /**
+   * Reads the invariant files on several threads, and returns a template for merging them: a map
+   * with every program point of every file, the first file that has it supplying it, cleaned of its
+   * invariants.
+   *
+   * @param inv_files the invariant files
+   * @param num_threads the number of threads that read files; must be at least 1
+   * @return the merge template
+   * @throws IOException if a file cannot be read
+   */
+  public static PptMap read_template(List<File> inv_files, int num_threads) throws IOException {
+    ExecutorService pool = new_pool(num_threads, "template");
+    try {
+      // Read ahead of the file being added, but add them in order.
+      Deque<Future<PptMap>> pending = new ArrayDeque<>();
+      int next = 0;
+      PptMap merge_ppts = null;
+      while (next < inv_files.size() || !pending.isEmpty()) {
+        while (next < inv_files.size() && pending.size() < num_threads) {
+          File file = inv_files.get(next++);
+          pending.add(
+              pool.submit(
+                  () -> {
+                    MergeInvariants.debugProgress.fine("Reading " + file + " as merge template");
+                    return FileIO.read_serialized_pptmap(file, true);
+                  }));
+        }
+        PptMap pmap = get(pending.remove());
+        merge_ppts = MergeInvariants.add_to_template(merge_ppts, pmap);
+      }
+      assert merge_ppts != null
+          : "@AssumeAssertion(nullness): inv_files is non-empty, so for-loop body executed";
+      return merge_ppts;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Returns the result of a task, rethrowing whatever it threw.
+   *
+   * @param future the task
+   * @return the result of the task
+   * @throws IOException if the task threw one
+   */
+  private static PptMap get(Future<PptMap> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      throw new Error(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      } else {
+        throw new Error(cause);
+      }
+    }
+  }
+
+  /**
+   * Creates a pool of daemon threads.
+   *
+   * @param num_threads the number of threads
+   * @param purpose what the threads do, for their names
+   * @return a new pool
+   */
+  private static ExecutorService new_pool(int num_threads, String purpose) {
+    AtomicInteger thread_number = new AtomicInteger();
+    return Executors.newFixedThreadPool(
+        num_threads,
+        r -> {
+          Thread t = new Thread(r, "merge " + purpose + " " + thread_number.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        });
+  }
+
+  /**
+   * Reads the invariant files and merges them pairwise until two maps remain, which are returned.
+   *
+   * @param inv_files the invariant files; there must be at least 3
+   * @param sources where to put a description of where each of the returned maps came from
+   * @return the two maps at the top of the tree, the first covering the earlier files
+   * @throws IOException if a file cannot be read
+   */
+  public List<PptMap> reduce(List<File> inv_files, List<String> sources) throws IOException {
+    this.level_sizes = level_sizes(inv_files.size());
+    this.inv_files = inv_files;
+    ExecutorService pool = new_pool(num_threads, "worker");
+    Semaphore permits = new Semaphore(num_threads);
+    try {
+      for (int i = 0; i < inv_files.size() && failure == null; i++) {
+        permits.acquire();
+        File file = inv_files.get(i);
+        int index = i;
+        pool.execute(
+            () -> {
+              try {
+                if (failure == null) {
+                  MergeInvariants.debugProgress.fine("Processing " + file);
+                  PptMap ppts = FileIO.read_serialized_pptmap(file, true);
+                  ppts.repCheck();
+                  offer(0, index, new Node(ppts, index, index));
+                }
+              } catch (Throwable e) {
+                synchronized (this) {
+                  if (failure == null) {
+                    failure = e;
+                  }
+                }
+              } finally {
+                permits.release();
+              }
+            });
+      }
+      // Wait for every task to finish.
+      permits.acquire(num_threads);
+    } catch (InterruptedException e) {
+      throw new Error(e);
+    } finally {
+      pool.shutdown();
+    }
+    Throwable e = failure;
+    if (e instanceof IOException) {
+      throw (IOException) e;
+    } else if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    } else if (e != null) {
+      throw (Error) e;
+    }
+
+    if (debug.isLoggable(Level.FINE)) {
+      debug.fine(
+          "Merged "
+              + num_merged.get()
+              + " pairs of maps from "
+              + inv_files.size()
+              + " files on "
+              + num_threads
+              + " threads");
+    }
+    List<PptMap> result = new ArrayList<>(2);
+    for (Node node : top) {
+      assert node != null : "@AssumeAssertion(nullness): every task finished without failure";
+      result.add(node.ppts);
+      sources.add(describe(node));
+    }
+    return result;
+  }
+
+  /**
+   * Makes a node available to be merged with its sibling. If the sibling is ready, merges the two
+   * and offers the result at the next level up, and so on; otherwise leaves the node for the thread
+   * that produces the sibling.
+   *
+   * @param level the level of the node; 0 for a file
+   * @param index the index of the node within its level
+   * @param node the node
+   */
+  private void offer(int level, int index, Node node) {
+    while (level < level_sizes.length - 1) {
+      int sibling = index ^ 1;
+      if (sibling >= level_sizes[level]) {
+        // The last node of a level with an odd number of nodes has no sibling.
+        level++;
+        index >>= 1;
+        continue;
+      }
+      Node other;
+      synchronized (waiting) {
+        other = waiting.remove(key(level, sibling));
+        if (other == null) {
+          waiting.put(key(level, index), node);
+          return;
+        }
+      }
+      if (failure != null) {
+        return;
+      }
+      node = (index < sibling) ? merge_pair(node, other) : merge_pair(other, node);
+      level++;
+      index >>= 1;
+    }
+    top[index] = node;
+  }
+
+  /**
+   * Merges two nodes: returns a map of fresh copies of the final exit points of the template, each
+   * merged from the exit points of the same name in the two nodes.
+   *
+   * @param a the node that covers the earlier files
+   * @param b the node that covers the later files
+   * @return the merge of a and b
+   */
+  private Node merge_pair(Node a, Node b) {
+    if (debug.isLoggable(Level.FINE)) {
+      debug.fine("Merging " + describe(a) + " with " + describe(b));
+    }
+    List<PptMap> pptmaps = Arrays.asList(a.ppts, b.ppts);
+    List<String> sources = Arrays.asList(describe(a), describe(b));
+    PptMap result = new PptMap();
+    for (Map.Entry<String, byte[]> leaf : leaf_templates.entrySet()) {
+      String name = leaf.getKey();
+      if (!a.ppts.containsName(name) && !b.ppts.containsName(name)) {
+        continue;
+      }
+      PptTopLevel ppt = (PptTopLevel) deserialize(leaf.getValue());
+      // The tree is not used when there are splitters; see MergeInvariants.
+      assert !ppt.has_splitters() : ppt;
+      MergeInvariants.add_merge_children(ppt, pptmaps, sources);
+      ppt.mergeInvs();
+
+      // Detach the merged exit point from the two nodes, which can then be collected.
+      ppt.children.clear();
+      result.add(ppt);
+    }
+    num_merged.incrementAndGet();
+    return new Node(result, a.first, b.last);
+  }
+
+  /**
+   * Returns a description of the files that a node covers, for diagnostics.
+   *
+   * @param node a node
+   * @return a description of the files that node covers
+   */
+  private String describe(Node node) {
+    if (node.first == node.last) {
+      return inv_files.get(node.first).toString();
+    }
+    return "merge of " + inv_files.get(node.first) + " to " + inv_files.get(node.last);
+  }
+}
@@ -1,5 +1,9 @@
 package daikon;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.BitSet;
@@ -10,8 +14,10 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 // "ModBitTracker" is a poor name for this class, since it tracks
 // whether a value is missing, not whether it is modified.
 /**
- * ModBitTracker maintains a BitSet for each variable at a program point. The BitSet indicates, for
- * each sample seen in order, whether that variable was present or not.
+ * ModBitTracker maintains a sequence of bits for each variable at a program point. The bits
+ * indicate, for each sample seen in order, whether that variable was present or not. The bits are
+ * run-length encoded (see {@link RunLengthBitSet}), so the memory used grows with the number of
+ * times that a variable changes between present and missing, not with the number of samples.
  */
 public class ModBitTracker implements Serializable, Cloneable {
   // We are Serializable, so we specify a version to allow changes to
@@ -19,30 +25,43 @@ public class ModBitTracker implements Serializable, Cloneable {
   // remove fields, you should change this number to the current date.
   static final long serialVersionUID = 20031014L;
 
+  /**
+   * The serialized form, which predates run-length encoding: modbits_arrays is written as an array
+   * of BitSets, so that .inv files remain readable by and from other versions of Daikon.
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("num_vars", int.class),
+    new ObjectStreamField("num_samples", int.class),
+    new ObjectStreamField("modbits_arrays", BitSet[].class),
+    new ObjectStreamField("index", int[].class),
+    new ObjectStreamField("num_sets", int.class),
+    new ObjectStreamField("this_bits", boolean[].class),
+    new ObjectStreamField("this_bits_valid", boolean[].class),
+    new ObjectStreamField("this_bits_exception_index", int[].class),
+  };
+
   // Should make this a configuration option.
   private static boolean debug = false;
 
-  /** The maximum number of BitSets; the size of modbits_arrays. */
+  /** The maximum number of bit sets; the size of modbits_arrays. */
   private int num_vars;
-  /** The size of each BitSet in modbits_arrays. */
+  /** The size of each bit set in modbits_arrays. */
   private int num_samples;
 
-  /** The BitSets themselves. */
-  // In the future, I could imagine trying to optimize this with (say)
-  // run-length encoding; but it's probably not worth it.
+  /** The bit sets themselves. */
   // All elements of modbits_arrays at or past num_sets are null.
-  private @Nullable BitSet[] modbits_arrays;
+  private @Nullable RunLengthBitSet[] modbits_arrays;
 
   /**
-   * Conceptually, there is a BitSet per variable. In actuality, when two different variables have
-   * the same modbits, they can share a single BitSet; we say the variables are in an equivalence
-   * set. "index" indicates, for each variable, which BitSet it should use; it is the identifier of
+   * Conceptually, there is a bit set per variable. In actuality, when two different variables have
+   * the same modbits, they can share a single bit set; we say the variables are in an equivalence
+   * set. "index" indicates, for each variable, which bit set it should use; it is the identifier of
    * the variable's equivalence set.
    */
   private int[] index;
 
   /**
-   * The number of BitSets (equivalence sets) in use. All elements of modbits_arrays before this
+   * The number of bit sets (equivalence sets) in use. All elements of modbits_arrays before this
    * index are non-null, and all elements at or past this index are null.
    */
   private int num_sets;
@@ -61,9 +80,9 @@ public class ModBitTracker implements Serializable, Cloneable {
   public ModBitTracker(int num_vars) {
     assert num_vars >= 0;
     this.num_vars = num_vars;
-    modbits_arrays = new @Nullable BitSet[num_vars];
+    modbits_arrays = new @Nullable RunLengthBitSet[num_vars];
     if (num_vars > 0) {
-      modbits_arrays[0] = new BitSet();
+      modbits_arrays[0] = new RunLengthBitSet();
       num_sets = 1;
     } else {
       num_sets = 0;
@@ -101,40 +120,70 @@ public class ModBitTracker implements Serializable, Cloneable {
     }
     for (int i = 0; i < num_vars; i++) {
       if (i < num_sets) {
-        assert modbits_arrays[i] != null;
-        // Can't make this assertion, as there is no method that tells
-        // the highest index that has been used in the BitSet.  (size()
-        // gives physical size.)
-        // assert modbits_arrays[i].size() == num_samples
-        //                   : "modbits_arrays.[" + i + "].size() == "
-        //                   + modbits_arrays[i].size()
-        //                   + ", num_samples == " + num_samples;
+        RunLengthBitSet bs = modbits_arrays[i];
+        assert bs != null;
+        assert bs.size() == num_samples
+            : "modbits_arrays[" + i + "].size() == " + bs.size() + ", num_samples == " + num_samples;
       } else {
         assert modbits_arrays[i] == null;
       }
     }
   }
 
-  /**
-   * Returns a BitSet of modbit values for the given variable. The caller must not modify the
-   * returned value!
-   */
+  /** Returns the modbit values for the given variable. The caller must not modify the result! */
   @SuppressWarnings(
-      "nullness") // application invariant: index[varindex] is an index for a non-null BitSet in
+      "nullness") // application invariant: index[varindex] is an index for a non-null bit set in
   // modbits_arrays
-  public BitSet get(int varindex) {
+  private RunLengthBitSet bits(int varindex) {
     return modbits_arrays[index[varindex]];
   }
 
+  /**
+   * Returns a BitSet of modbit values for the given variable. The BitSet is a new copy of the
+   * variable's compressed bits, so this is expensive for a program point with many samples; prefer
+   * the other accessors, such as {@link #get(int, int)} and {@link #cardinality(int)}.
+   */
+  public BitSet get(int varindex) {
+    return bits(varindex).toBitSet();
+  }
+
   /** Returns the modbit for the given variable and sample number. */
   public boolean get(int varindex, int sampleno) {
-    return get(varindex).get(sampleno);
+    return bits(varindex).get(sampleno);
+  }
+
+  /** Returns the number of samples in which the given variable is present. */
+  public int cardinality(int varindex) {
+    return bits(varindex).cardinality();
+  }
+
+  /** Returns the number of samples in which both of the given variables are present. */
+  public int intersectionCardinality(int varindex1, int varindex2) {
+    if (index[varindex1] == index[varindex2]) {
+      return cardinality(varindex1);
+    }
+    return RunLengthBitSet.intersectionCardinality(bits(varindex1), bits(varindex2));
+  }
+
+  /** Returns the number of samples in which all three of the given variables are present. */
+  public int intersectionCardinality(int varindex1, int varindex2, int varindex3) {
+    if (index[varindex1] == index[varindex2]) {
+      return intersectionCardinality(varindex1, varindex3);
+    } else if (index[varindex1] == index[varindex3] || index[varindex2] == index[varindex3]) {
+      return intersectionCardinality(varindex1, varindex2);
+    }
+    return RunLengthBitSet.intersectionCardinality(
+        bits(varindex1), bits(varindex2), bits(varindex3));
   }
 
-  /** Split the specified equivalence set into two pieces. Returns the index of the copy. */
+  /**
+   * Split the specified equivalence set into two pieces. Returns the index of the copy. The copy
+   * takes space proportional to the number of runs in the equivalence set's bits, not to the
+   * number of samples.
+   */
   private int split(int split_index) {
     @SuppressWarnings("nullness") // application invariant: split_index is in range
-    @NonNull BitSet bs = (BitSet) modbits_arrays[split_index].clone();
+    @NonNull RunLengthBitSet bs = modbits_arrays[split_index].clone();
     modbits_arrays[num_sets] = bs;
     num_sets++;
     return num_sets - 1;
@@ -181,11 +230,62 @@ public class ModBitTracker implements Serializable, Cloneable {
     }
     for (int i = 0; i < num_sets; i++) {
       @SuppressWarnings("nullness") // application invariant: non-null up to index=num_sets
-      @NonNull BitSet bs = modbits_arrays[i];
-      bs.set(num_samples, num_samples + count, this_bits[i]);
+      @NonNull RunLengthBitSet bs = modbits_arrays[i];
+      bs.append(this_bits[i], count);
     }
     num_samples += count;
 
     if (debug) checkRep();
   }
+
+  /**
+   * Writes this in its serialized form, in which each equivalence set's bits are a BitSet. Every
+   * run-length encoded set is expanded into a full BitSet with one bit per sample, so .inv, spill,
+   * and checkpoint files do not get the savings of run-length encoding.
+   *
+   * @param out the stream to write to
+   * @throws IOException if the stream cannot be written
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    @Nullable BitSet[] bitsets = new @Nullable BitSet[modbits_arrays.length];
+    for (int i = 0; i < num_sets; i++) {
+      @SuppressWarnings("nullness") // application invariant: non-null up to index=num_sets
+      @NonNull RunLengthBitSet bs = modbits_arrays[i];
+      bitsets[i] = bs.toBitSet();
+    }
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("num_vars", num_vars);
+    fields.put("num_samples", num_samples);
+    fields.put("modbits_arrays", bitsets);
+    fields.put("index", index);
+    fields.put("num_sets", num_sets);
+    fields.put("this_bits", this_bits);
+    fields.put("this_bits_valid", this_bits_valid);
+    fields.put("this_bits_exception_index", this_bits_exception_index);
+    out.writeFields();
+  }
+
+  /**
+   * Reads what {@link #writeObject} wrote, re-encoding each BitSet by runs.
+   *
+   * @param in the stream to read from
+   * @throws IOException if the stream cannot be read
+   * @throws ClassNotFoundException if a class in the stream cannot be found
+   */
+  @SuppressWarnings("nullness") // the fields are non-null in any stream written by writeObject
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    num_vars = fields.get("num_vars", 0);
+    num_samples = fields.get("num_samples", 0);
+    BitSet[] bitsets = (BitSet[]) fields.get("modbits_arrays", null);
+    index = (int[]) fields.get("index", null);
+    num_sets = fields.get("num_sets", 0);
+    this_bits = (boolean[]) fields.get("this_bits", null);
+    this_bits_valid = (boolean[]) fields.get("this_bits_valid", null);
+    this_bits_exception_index = (int[]) fields.get("this_bits_exception_index", null);
+    modbits_arrays = new @Nullable RunLengthBitSet[bitsets.length];
+    for (int i = 0; i < num_sets; i++) {
+      modbits_arrays[i] = RunLengthBitSet.fromBitSet(bitsets[i], num_samples);
+    }
+  }
 }
@@ -0,0 +1,276 @@
+package daikon;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Merges invariants up the dataflow hierarchy on several threads; the parallel counterpart of the
+ * recursive {@link PptTopLevel#mergeInvs} calls made by {@link Daikon#createUpperPpts}.
+ *
+ * <p>A program point is merged from its children, so it can be merged as soon as all of its
+ * children have been, and program points in different subtrees of the hierarchy can be merged at
+ * the same time. Each program point is a task in a fork/join pool; the task that merges the last
+ * child of a program point forks the program point's own task. Thus each program point is still
+ * merged exactly once (as {@link PptTopLevel#invariants_merged} ensures for the serial merge), and
+ * only after every one of its children, however many parents they have.
+ *
+ * <p>Merging reads the children, and merging more than one child also temporarily adds the
+ * NI-suppressed invariants to each child (see {@link PptTopLevel#merge_invs_multiple_children}).
+ * So a program point holds a lock on each of its children while it is merged; parents that share a
+ * child are merged one at a time. The locks are always taken in the same order.
+ *
+ * <p>The serial merge uses {@link PptTopLevel#in_merge} to break cycles in the hierarchy. A program
+ * point on a cycle (or above one) never becomes ready here; {@link Daikon#createUpperPpts} merges
+ * such program points serially afterward, as it would have without this class.
+ */
+public class ParallelMerge {
+
+  /** Debug tracer. */
+  public static final Logger debug = Logger.getLogger("daikon.ParallelMerge");
+
+  /** A program point in the hierarchy, with its scheduling state. */
+  static final class Node {
+
+    /** The program point. */
+    final PptTopLevel ppt;
+
+    /** The order in which locks on program points are taken. */
+    final int index;
+
+    /** Held while a parent of this program point is merged. */
+    final ReentrantLock lock = new ReentrantLock();
+
+    /** The distinct children of this program point, in the order that locks on them are taken. */
+    Node[] children = new Node[0];
+
+    /** The distinct parents of this program point. */
+    final List<Node> parents = new ArrayList<>();
+
+    /** The number of children that have not yet been merged. */
+    final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Creates a node.
+     *
+     * @param ppt the program point
+     * @param index the order of the node's lock
+     */
+    Node(PptTopLevel ppt, int index) {
+      this.ppt = ppt;
+      this.index = index;
+    }
+  }
+
+  /**
+   * The first exception or error thrown while merging a program point, or null. Once it is set, no
+   * more program points are merged.
+   */
+  private volatile @Nullable Throwable failure = null;
+
+  /** The number of program points merged by the pool. */
+  private final AtomicInteger num_merged = new AtomicInteger();
+
+  /** The number of tasks that have been created but have not finished. */
+  private final AtomicInteger num_tasks = new AtomicInteger();
+
+  /** Released when the last task finishes. */
+  private final CountDownLatch done = new CountDownLatch(1);
+
+  /**
+   * Returns true if the hierarchy can be merged concurrently under the current configuration. When
+   * merged invariants are removed from the children, the result depends on the order in which the
+   * parents of a program point are merged, and when discarded invariants are printed the reasons
+   * are recorded in a shared map; both require a serial merge.
+   *
+   * @return true if {@link #merge} may be used
+   */
+  public static boolean is_supported() {
+    return !PptTopLevel.dkconfig_remove_merged_invs && !PrintInvariants.print_discarded_invariants;
+  }
+
+  /**
+   * Merges the invariants of every program point that is reachable from a root of the hierarchy
+   * and is not on or above a cycle.
+   *
+   * @param all_ppts the program points
+   * @param num_threads the number of threads that merge program points; must be at least 1
+   */
+  public static void merge(PptMap all_ppts, int num_threads) {
+    if (num_threads < 1) {
+      throw new Daikon.UserError("The number of inference threads must be at least 1");
+    }
+    new ParallelMerge().run(build_graph(all_ppts), num_threads);
+  }
+
+  /**
+   * Returns a node for every program point that is reachable from a root of the hierarchy.
+   *
+   * @param all_ppts the program points
+   * @return the nodes, in the order in which they were reached
+   */
+  static List<Node> build_graph(PptMap all_ppts) {
+    Map<PptTopLevel, Node> nodes = new IdentityHashMap<>();
+    List<Node> result = new ArrayList<>();
+    Deque<Node> worklist = new ArrayDeque<>();
+    for (PptTopLevel ppt : all_ppts.pptIterable()) {
+      if (ppt.parents.size() == 0) {
+        Node node = new Node(ppt, result.size());
+        nodes.put(ppt, node);
+        result.add(node);
+        worklist.add(node);
+      }
+    }
+    while (!worklist.isEmpty()) {
+      Node node = worklist.remove();
+      List<Node> children = new ArrayList<>();
+      for (PptRelation rel : node.ppt.children) {
+        Node child = nodes.get(rel.child);
+        if (child == null) {
+          child = new Node(rel.child, result.size());
+          nodes.put(rel.child, child);
+          result.add(child);
+          worklist.add(child);
+        }
+        // A program point can be the child of another more than once.
+        if (!children.contains(child)) {
+          children.add(child);
+          child.parents.add(node);
+        }
+      }
+      node.children = children.toArray(new Node[children.size()]);
+      Arrays.sort(node.children, Comparator.comparingInt(n -> n.index));
+      node.pending.set(node.children.length);
+    }
+    return result;
+  }
+
+  /**
+   * Merges the program points of a graph in a pool of threads, and waits for the merge to finish.
+   *
+   * @param nodes the program points
+   * @param num_threads the number of threads
+   */
+  void run(List<Node> nodes, int num_threads) {
+    List<MergeTask> leaves = new ArrayList<>();
+    for (Node node : nodes) {
+      if (node.children.length == 0) {
+        leaves.add(new MergeTask(node));
+      }
+    }
+    if (leaves.isEmpty()) {
+      return;
+    }
+    num_tasks.set(leaves.size());
+    ForkJoinPool pool = new ForkJoinPool(num_threads);
+    try {
+      for (MergeTask task : leaves) {
+        pool.execute(task);
+      }
+      done.await();
+    } catch (InterruptedException e) {
+      throw new Error(e);
+    } finally {
+      pool.shutdown();
+    }
+    Throwable e = failure;
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    } else if (e != null) {
+      throw (Error) e;
+    }
+    if (debug.isLoggable(Level.FINE)) {
+      debug.fine(
+          "Merged "
+              + num_merged.get()
+              + " of "
+              + nodes.size()
+              + " program points on "
+              + num_threads
+              + " threads");
+    }
+  }
+
+  /** Merges one program point, then schedules each of its parents that is ready to be merged. */
+  final class MergeTask extends RecursiveAction {
+
+    static final long serialVersionUID = 20261018L;
+
+    /** The program point to merge; all of its children have been merged. */
+    final Node node;
+
+    /**
+     * Creates a task that merges a program point.
+     *
+     * @param node the program point, whose children have been merged
+     */
+    MergeTask(Node node) {
+      this.node = node;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        if (failure == null) {
+          merge_and_schedule();
+        }
+      } finally {
+        if (num_tasks.decrementAndGet() == 0) {
+          done.countDown();
+        }
+      }
+    }
+
+    /** Merges the program point, then forks a task for each parent that is ready to be merged. */
+    void merge_and_schedule() {
+      try {
+        if (node.children.length > 0) {
+          merge_locked();
+        }
+      } catch (RuntimeException | Error e) {
+        synchronized (ParallelMerge.this) {
+          if (failure == null) {
+            failure = e;
+          }
+        }
+        return;
+      }
+      for (Node parent : node.parents) {
+        if (parent.pending.decrementAndGet() == 0) {
+          num_tasks.incrementAndGet();
+          new MergeTask(parent).fork();
+        }
+      }
+    }
+
+    /** Merges the program point while holding the locks on its children. */
+    void merge_locked() {
+      int locked = 0;
+      try {
+        for (Node child : node.children) {
+          child.lock.lock();
+          locked++;
+        }
+        node.ppt.mergeInvs();
+        num_merged.incrementAndGet();
+      } finally {
+        for (int i = locked - 1; i >= 0; i--) {
+          node.children[i].lock.unlock();
+        }
+      }
+    }
+  }
+}
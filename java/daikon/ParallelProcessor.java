@@ -0,0 +1,360 @@
+package daikon;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.checkerframework.checker.interning.qual.Interned;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.checker.nullness.qual.RequiresNonNull;
+
+/**
+ * A {@link FileIO.Processor} that performs invariant inference on several threads while the trace
+ * is read on the current thread.
+ *
+ * <p>Each sample is read, parsed, and completed with its orig() and derived variables in trace
+ * order on the reading thread, exactly as {@link FileIO#process_sample} does; this is the part of
+ * sample processing that depends on state shared by all program points, such as the values saved at
+ * procedure entries. The completed sample is then handed to one of a fixed set of worker threads,
+ * which supplies it to {@link PptTopLevel#add_bottom_up} through the worker's own {@link
+ * SampleCoalescer}. Each worker owns a shard of the program points: all of the program points of a
+ * procedure go to the same worker, and the samples of each program point are added in trace order.
+ * Leaf program points do not interact until {@link Daikon#createUpperPpts} merges them, so the
+ * invariants are the same as those of a serial run.
+ *
+ * <p>The processor waits for the workers to catch up at the end of each trace file, so that errors
+ * are reported for the file in which they occurred. Call {@link #shutdown} once all of the trace
+ * files have been read.
+ */
+public class ParallelProcessor extends FileIO.Processor {
+
+  /** Debug tracer. */
+  public static final Logger debug = Logger.getLogger("daikon.ParallelProcessor");
+
+  /** The number of samples handed to a worker at once. */
+  static final int BATCH_SIZE = 256;
+
+  /**
+   * The number of batches that may wait for a worker. When a worker falls this far behind, the
+   * reading thread blocks, which bounds the memory used by samples in flight.
+   */
+  static final int QUEUE_CAPACITY = 16;
+
+  /** The worker threads. */
+  private final Worker[] workers;
+
+  /** Map from a procedure name to the worker that owns the procedure's program points. */
+  private final Map<@Interned String, Worker> proc_workers = new HashMap<>();
+
+  /** The worker to which the next new procedure is assigned. */
+  private int next_worker = 0;
+
+  /**
+   * The first exception thrown by a worker, or null. Once it is set, workers discard their samples
+   * until the reading thread reports the exception.
+   */
+  private volatile @Nullable RuntimeException failure = null;
+
+  /**
+   * Creates a processor and starts its worker threads.
+   *
+   * @param num_threads the number of worker threads; must be at least 1
+   */
+  public ParallelProcessor(int num_threads) {
+    if (num_threads < 1) {
+      throw new Daikon.UserError("The number of inference threads must be at least 1");
+    }
+    workers = new Worker[num_threads];
+    for (int i = 0; i < num_threads; i++) {
+      workers[i] = new Worker(i);
+      workers[i].start();
+    }
+  }
+
+  /**
+   * Returns true if samples can be processed concurrently under the current configuration. Without
+   * the dataflow hierarchy, each numbered exit also adds its samples to the combined exit, and when
+   * discarded invariants are printed the reasons are recorded in a shared map; both require samples
+   * to be processed serially.
+   *
+   * @return true if a ParallelProcessor may be used
+   */
+  public static boolean is_supported() {
+    return Daikon.use_dataflow_hierarchy && !PrintInvariants.print_discarded_invariants;
+  }
+
+  @Override
+  @RequiresNonNull("FileIO.data_trace_state")
+  public void process_sample(
+      PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, @Nullable Integer nonce) {
+
+    check_failure();
+
+    ValueTuple full_vt = FileIO.prepare_sample(all_ppts, ppt, vt, nonce);
+    if (full_vt == null) {
+      return;
+    }
+
+    Worker worker = proc_workers.get(ppt.ppt_name.getNameWithoutPoint());
+    if (worker == null) {
+      worker = workers[next_worker];
+      next_worker = (next_worker + 1) % workers.length;
+      proc_workers.put(ppt.ppt_name.getNameWithoutPoint(), worker);
+      if (debug.isLoggable(Level.FINE)) {
+        debug.fine("Procedure " + ppt.ppt_name.getNameWithoutPoint() + " -> worker " + worker.id);
+      }
+    }
+
+    FileIO.ParseState state = FileIO.data_trace_state;
+    worker.pending.add(new Sample(ppt, full_vt, state.filename, state.get_linenum()));
+    if (worker.pending.size() >= BATCH_SIZE) {
+      worker.submit(new Batch(worker.pending, null));
+      worker.pending = new ArrayList<>(BATCH_SIZE);
+    }
+  }
+
+  @Override
+  public void process_eof() {
+    await_workers();
+    check_failure();
+  }
+
+  @Override
+  public void process_truncated() {
+    await_workers();
+    check_failure();
+  }
+
+  /**
+   * Waits for the workers to process every sample that has been read, then stops the worker
+   * threads. The processor may not be used afterward.
+   */
+  public void shutdown() {
+    await_workers();
+    for (Worker worker : workers) {
+      worker.submit(Batch.SHUTDOWN);
+    }
+    for (Worker worker : workers) {
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        throw new Error(e);
+      }
+    }
+    check_failure();
+  }
+
+  /** Hands every pending sample to its worker and waits until all of them have been processed. */
+  private void await_workers() {
+    CountDownLatch done = new CountDownLatch(workers.length);
+    for (Worker worker : workers) {
+      worker.submit(new Batch(worker.pending, done));
+      worker.pending = new ArrayList<>(BATCH_SIZE);
+    }
+    try {
+      done.await();
+    } catch (InterruptedException e) {
+      throw new Error(e);
+    }
+  }
+
+  /**
+   * If a worker has failed, throws its exception. Samples that were read after the failing one are
+   * discarded first, so that processing stops as it would in a serial run.
+   */
+  private void check_failure() {
+    RuntimeException e = failure;
+    if (e == null) {
+      return;
+    }
+    for (Worker worker : workers) {
+      worker.pending.clear();
+    }
+    await_workers();
+    failure = null;
+    throw e;
+  }
+
+  /** A sample waiting to be supplied to its program point. */
+  private static final class Sample {
+    /** The program point. */
+    final PptTopLevel ppt;
+    /** The complete, interned sample. */
+    final ValueTuple vt;
+    /** The trace file from which the sample was read, for error messages. */
+    final String filename;
+    /** The line at which the sample ends, for error messages. */
+    final int linenum;
+
+    /**
+     * Creates a sample.
+     *
+     * @param ppt the program point
+     * @param vt the complete, interned sample
+     * @param filename the trace file from which the sample was read
+     * @param linenum the line at which the sample ends
+     */
+    Sample(PptTopLevel ppt, ValueTuple vt, String filename, int linenum) {
+      this.ppt = ppt;
+      this.vt = vt;
+      this.filename = filename;
+      this.linenum = linenum;
+    }
+  }
+
+  /** A group of samples handed to a worker at once. */
+  private static final class Batch {
+    /** Tells a worker to exit. */
+    static final Batch SHUTDOWN = new Batch(new ArrayList<Sample>(), null);
+
+    /** The samples, in trace order. */
+    final List<Sample> samples;
+
+    /** If non-null, counted down after the samples have been processed. */
+    final @Nullable CountDownLatch done;
+
+    /**
+     * Creates a batch.
+     *
+     * @param samples the samples, in trace order
+     * @param done if non-null, counted down after the samples have been processed
+     */
+    Batch(List<Sample> samples, @Nullable CountDownLatch done) {
+      this.samples = samples;
+      this.done = done;
+    }
+  }
+
+  /** A thread that adds samples to the program points of its shard. */
+  private final class Worker extends Thread {
+    /** The index of this worker. */
+    final int id;
+
+    /** Batches waiting to be processed. */
+    final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /** Samples read for this worker but not yet submitted. Used only by the reading thread. */
+    List<Sample> pending = new ArrayList<>(BATCH_SIZE);
+
+    /** Holds the repeats of the samples of this worker's program points. */
+    private final SampleCoalescer coalescer = new SampleCoalescer();
+
+    /**
+     * Creates a worker.
+     *
+     * @param id the index of the worker
+     */
+    Worker(int id) {
+      super("Daikon inference " + id);
+      this.id = id;
+      setDaemon(true);
+    }
+
+    /**
+     * Queues a batch for this worker, waiting if the worker is too far behind.
+     *
+     * @param batch the batch to queue
+     */
+    void submit(Batch batch) {
+      try {
+        queue.put(batch);
+      } catch (InterruptedException e) {
+        throw new Error(e);
+      }
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        Batch batch;
+        try {
+          batch = queue.take();
+        } catch (InterruptedException e) {
+          return;
+        }
+        if (batch == Batch.SHUTDOWN) {
+          return;
+        }
+        for (Sample sample : batch.samples) {
+          if (failure == null) {
+            process(sample);
+          }
+        }
+        if (batch.done != null) {
+          // The reading thread is waiting for every sample to be supplied.
+          if (failure == null) {
+            flush();
+          } else {
+            coalescer.discard_all();
+          }
+          batch.done.countDown();
+        }
+      }
+    }
+
+    /**
+     * Adds one sample to its program point, or holds it if it repeats the previous one. Records or
+     * reports any error as {@link FileIO#read_data_trace_file} does for a serial run.
+     *
+     * @param sample the sample to add
+     */
+    private void process(Sample sample) {
+      try {
+        coalescer.add(sample.ppt, sample.vt, sample.filename, sample.linenum);
+      } catch (Error e) {
+        report(e, sample);
+      } catch (RuntimeException e) {
+        failure = e;
+      }
+    }
+
+    /** Supplies the samples held by the coalescer, recording or reporting any error. */
+    private void flush() {
+      try {
+        coalescer.flush_all();
+      } catch (Error e) {
+        report(e, null);
+      } catch (RuntimeException e) {
+        failure = e;
+      }
+    }
+
+    /**
+     * Records or reports an error thrown while samples were supplied, as {@link
+     * FileIO#read_data_trace_file} does for a serial run.
+     *
+     * <p>The error is reported at the first sample of the run that the coalescer was supplying,
+     * which may have been read well before the sample being processed.
+     *
+     * @param e the error
+     * @param sample the sample being processed, or null if held samples were being supplied
+     */
+    private void report(Error e, @Nullable Sample sample) {
+      String filename = coalescer.supplying_filename();
+      int linenum = coalescer.supplying_linenum();
+      if (filename == null) {
+        assert sample != null : "@AssumeAssertion(nullness): held samples fail only when supplied";
+        filename = sample.filename;
+        linenum = sample.linenum;
+      }
+      if (!FileIO.dkconfig_continue_after_file_exception) {
+        failure =
+            new Daikon.UserError(e, Daikon.UserError.error_at_line_file(linenum, filename, e));
+      } else {
+        synchronized (System.out) {
+          System.out.println();
+          System.out.println(
+              "WARNING: Error while processing trace file; subsequent records ignored.");
+          System.out.print("Ignored backtrace:");
+          e.printStackTrace(System.out);
+          System.out.println();
+        }
+      }
+    }
+  }
+}
@@ -51,6 +51,21 @@ public final class PptConditional extends PptTopLevel {
     }
   }
 
+  /**
+   * Restores the splitter of a conditional program point that has been deserialized (splitters are
+   * not serialized; see {@link #splitter}), if this program point was created for it.
+   *
+   * @param splitter an uninstantiated splitter for the parent program point
+   * @return true if this program point was created for splitter, and it has been restored
+   */
+  public boolean restore_splitter(Splitter splitter) {
+    if (!name.equals(ctor_name_helper(parent, splitter, splitter_inverse))) {
+      return false;
+    }
+    this.splitter = splitter.instantiateSplitter(this);
+    return true;
+  }
+
   private static VarInfo[] ctor_vis_helper(PptTopLevel parent) {
     return (VarInfo.arrayclone_simple(parent.var_infos));
   }
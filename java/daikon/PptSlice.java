@@ -141,7 +141,10 @@ public abstract class PptSlice extends Ppt {
     if (Debug.logOn()) inv.log("Removed from slice: %s", inv.format());
     boolean removed = invs.remove(inv);
     assert removed : "inv " + inv + " not in ppt " + name();
-    Global.falsified_invariants++;
+    // Slices of different program points are falsified on different threads.
+    synchronized (Global.class) {
+      Global.falsified_invariants++;
+    }
     if (invs.size() == 0) {
       if (Debug.logDetail()) log("last invariant removed");
     }
@@ -159,7 +162,9 @@ public abstract class PptSlice extends Ppt {
       int old_invs_size = invs.size();
       invs.removeAll(to_remove);
       assert old_invs_size - invs.size() == to_remove.size();
-      Global.falsified_invariants += to_remove.size();
+      synchronized (Global.class) {
+        Global.falsified_invariants += to_remove.size();
+      }
       if (invs.size() == 0) {
         if (Debug.logDetail()) log("last invariant removed");
       }
@@ -173,12 +178,39 @@ public abstract class PptSlice extends Ppt {
    *
    * @return a List of Invariants that weakened due to the processing
    */
-  abstract List<Invariant> add(ValueTuple full_vt, int count);
+  List<Invariant> add(ValueTuple full_vt, int count) {
+    List<Invariant> weakened = new ArrayList<>();
+    add(full_vt, count, weakened);
+    return weakened;
+  }
+
+  /**
+   * Like {@link #add(ValueTuple, int)}, but appends the invariants that the sample weakened or
+   * falsified to a list supplied by the caller, so that a caller that reuses the list allocates
+   * nothing for a sample that changes no invariant.
+   *
+   * @param full_vt the sample
+   * @param count the number of times the sample was seen
+   * @param weakened where to add the invariants that the sample weakened or falsified
+   */
+  abstract void add(ValueTuple full_vt, int count, List<Invariant> weakened);
 
   /** Removes any falsified invariants from our list. */
   @RequiresNonNull("NIS.suppressor_map")
   protected void remove_falsified() {
 
+    // Most samples falsify nothing, so look before making an iterator.
+    boolean any_false = false;
+    for (int i = 0; i < invs.size(); i++) {
+      if (invs.get(i).is_false()) {
+        any_false = true;
+        break;
+      }
+    }
+    if (!any_false) {
+      return;
+    }
+
     // Remove the dead invariants
     for (Iterator<Invariant> iFalsified = invs.iterator(); iFalsified.hasNext(); ) {
       Invariant inv = iFalsified.next();
@@ -254,7 +254,7 @@ public class PptSlice0 extends PptSlice {
   }
 
   @Override
-  public List<Invariant> add(ValueTuple vt, int count) {
+  void add(ValueTuple vt, int count, List<Invariant> weakened) {
     throw new Error("Shouldn't get called");
   }
 }
@@ -240,10 +240,8 @@ public class PptSliceEquality extends PptSlice {
   }
 
   /**
-   * Returns a List of Invariants that have been weakened/destroyed. However, this handles the
+   * Adds the Invariants that have been weakened/destroyed to weakened. However, this handles the
    * creation of new Equality invariants and the instantiation of other invariants.
-   *
-   * @return a List of invariants that have been weakened
    */
   // The basic approach is as follows:
   //    - Loop through each equality set
@@ -253,14 +251,14 @@ public class PptSliceEquality extends PptSlice {
   //        - Create new slices and invariants (call CopyInvsFromLeader)
   //
   @Override
-  public List<Invariant> add(ValueTuple vt, int count) {
+  void add(ValueTuple vt, int count, List<Invariant> weakened) {
 
-    ArrayList<Equality> allNewInvs = new ArrayList<>();
-    ArrayList<Invariant> weakenedInvs = new ArrayList<>();
+    // Created only when some set splits, which is rare after the first few samples.
+    @Nullable ArrayList<Equality> allNewInvs = null;
 
     // Loop through each existing equality invariant
-    for (Invariant invar : invs) {
-      Equality inv = (Equality) invar;
+    for (int i = 0; i < invs.size(); i++) {
+      Equality inv = (Equality) invs.get(i);
 
       // Add this sample to the invariant and track any vars that fall
       // out of the set.
@@ -297,17 +295,20 @@ public class PptSliceEquality extends PptSlice {
         }
 
         // Create new slices and invariants for each new leader
-        weakenedInvs.addAll(copyInvsFromLeader(inv.leader(), newInvsLeaders));
+        weakened.addAll(copyInvsFromLeader(inv.leader(), newInvsLeaders));
 
         // Keep track of all of the new invariants created.
+        if (allNewInvs == null) {
+          allNewInvs = new ArrayList<>();
+        }
         allNewInvs.addAll(newInvs);
       }
     }
 
     // Add all of the new equality sets to our list
-    invs.addAll(allNewInvs);
-
-    return weakenedInvs;
+    if (allNewInvs != null) {
+      invs.addAll(allNewInvs);
+    }
   }
 
   /**
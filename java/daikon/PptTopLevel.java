@@ -36,7 +36,6 @@ import daikon.inv.DiscardInfo;
 import daikon.inv.Equality;
 import daikon.inv.Implication;
 import daikon.inv.Invariant;
-import daikon.inv.InvariantStatus;
 import daikon.inv.OutputFormat;
 import daikon.inv.ValueSet;
 import daikon.inv.binary.twoScalar.FloatEqual;
@@ -64,7 +63,9 @@ import daikon.inv.unary.sequence.OneOfSequence;
 import daikon.inv.unary.stringsequence.OneOfStringSequence;
 import daikon.simplify.InvariantLemma;
 import daikon.simplify.Lemma;
+import daikon.simplify.LemmaCache;
 import daikon.simplify.LemmaStack;
+import daikon.simplify.LemmaStackPool;
 import daikon.simplify.SessionManager;
 import daikon.simplify.SimplifyError;
 import daikon.split.PptSplitter;
@@ -73,13 +74,17 @@ import daikon.split.SplitterList;
 import daikon.split.misc.ReturnTrueSplitter;
 import daikon.suppress.NIS;
 import daikon.suppress.NISuppressionSet;
+import daikon.suppress.SuppressionContext;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -142,6 +147,43 @@ public class PptTopLevel extends Ppt {
   // remove fields, you should change this number to the current date.
   static final long serialVersionUID = 20071129L;
 
+  /**
+   * The serialized form. It is that of the default form, except that views is written as it was
+   * stored before {@link SliceIndex}: a map from lists of varinfo_index values to slices. This
+   * keeps .inv files readable by and from other versions of Daikon. A field added to the class
+   * must be added here, and to {@link #writeObject} and {@link #readObject}, unless it is
+   * transient.
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("type", PptType.class),
+    new ObjectStreamField("instantiated_inv_cnt", int.class),
+    new ObjectStreamField("instantiated_slice_cnt", int.class),
+    new ObjectStreamField("flags", EnumSet.class),
+    new ObjectStreamField("name", String.class),
+    new ObjectStreamField("ppt_name", PptName.class),
+    new ObjectStreamField("constants", DynamicConstants.class),
+    new ObjectStreamField("num_declvars", int.class),
+    new ObjectStreamField("num_tracevars", int.class),
+    new ObjectStreamField("num_orig_vars", int.class),
+    new ObjectStreamField("num_static_constant_vars", int.class),
+    new ObjectStreamField("values_num_samples", int.class),
+    new ObjectStreamField("mbtracker", ModBitTracker.class),
+    new ObjectStreamField("value_sets", ValueSet[].class),
+    new ObjectStreamField("views", Map.class),
+    new ObjectStreamField("splitters", ArrayList.class),
+    new ObjectStreamField("children", List.class),
+    new ObjectStreamField("parents", List.class),
+    new ObjectStreamField("parent_relations", List.class),
+    new ObjectStreamField("invariants_merged", boolean.class),
+    new ObjectStreamField("in_merge", boolean.class),
+    new ObjectStreamField("invariants_removed", boolean.class),
+    new ObjectStreamField("joiner_view", PptSlice0.class),
+    new ObjectStreamField("equality_view", PptSliceEquality.class),
+    new ObjectStreamField("redundant_invs", Set.class),
+    new ObjectStreamField("redundant_invs_equality", Set.class),
+    new ObjectStreamField("paramVars", Set.class),
+  };
+
   // Variables starting with dkconfig_ should only be set via the
   // daikon.config.Configuration interface.
   /**
@@ -157,13 +199,6 @@ public class PptTopLevel extends Ppt {
    */
   public static boolean dkconfig_remove_merged_invs = false;
 
-  /**
-   * Boolean. Needed by the NIS.falsified method when keeping stats to figure out how many falsified
-   * invariants are antecedents. Only the first pass of processing with the sample is counted toward
-   * the stats.
-   */
-  public static boolean first_pass_with_sample = true;
-
   /** Ppt attributes (specified in decl records) */
   public enum PptFlags {
     STATIC,
@@ -262,13 +297,62 @@ public class PptTopLevel extends Ppt {
   ValueSet[] value_sets;
 
   /**
-   * All the Views (that is, slices) on this are stored as values in the HashMap. Indexed by a
-   * Arrays.asList array list of Integers holding varinfo_index values.
+   * All the Views (that is, slices) on this, indexed by the varinfo_index values of their variables
+   * (see {@link SliceIndex}).
    *
    * <p>For a client to access this private variable, it should use {@link #viewsAsCollection},
-   * {@link #views_iterable}, or {@link #views_iterator}.
+   * {@link #views_iterable}, {@link #views_iterator}, or {@link #views_slot}.
+   */
+  private SliceIndex views;
+
+  /**
+   * Passed by {@link #add_bottom_up} to the slices, which add to it the invariants that a sample
+   * weakens or falsifies. add_bottom_up has no use for them, so this list discards them and stays
+   * empty; it may be shared by all threads.
+   */
+  private static final List<Invariant> discarded_invs =
+      new AbstractList<Invariant>() {
+        @Override
+        public boolean add(Invariant inv) {
+          return true;
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends Invariant> invs) {
+          return false;
+        }
+
+        @Override
+        public Invariant get(int index) {
+          throw new IndexOutOfBoundsException("Index: " + index);
+        }
+
+        @Override
+        public int size() {
+          return 0;
+        }
+      };
+
+  /**
+   * The slices as of the start of a pass of add_bottom_up's loop that removes falsified invariants.
+   * Reused from sample to sample; its elements are null between passes.
    */
-  private Map<List<Integer>, PptSlice> views;
+  private transient @Nullable PptSlice @Nullable [] views_snapshot;
+
+  /**
+   * The sample held by a {@link SampleCoalescer} for this program point, or null. It is the most
+   * recent sample, and {@link #coalesced_count} copies of it have not yet been supplied.
+   */
+  transient @Nullable ValueTuple coalesced_vt;
+
+  /** The number of times coalesced_vt has been seen since it was last supplied. */
+  transient int coalesced_count;
+
+  /** The trace file of the first unsupplied copy of coalesced_vt, for error messages. */
+  transient @Nullable String coalesced_filename;
+
+  /** The line of the first unsupplied copy of coalesced_vt, for error messages. */
+  transient int coalesced_linenum;
 
   /** List of all of the splitters for this ppt. */
   // Not List because List doesn't support the trimToSize() method.
@@ -420,15 +504,96 @@ public class PptTopLevel extends Ppt {
     init_vars();
   }
 
-  /** Restore/Create interns when reading serialized object. */
+  /** Writes the fields listed in {@link #serialPersistentFields}. */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    Map<List<Integer>, PptSlice> views_map = new LinkedHashMap<>();
+    for (PptSlice slice : views.values()) {
+      List<Integer> indices = new ArrayList<>(slice.var_infos.length);
+      for (VarInfo vi : slice.var_infos) {
+        indices.add(vi.varinfo_index);
+      }
+      views_map.put(indices, slice);
+    }
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("type", type);
+    fields.put("instantiated_inv_cnt", instantiated_inv_cnt);
+    fields.put("instantiated_slice_cnt", instantiated_slice_cnt);
+    fields.put("flags", flags);
+    fields.put("name", name);
+    fields.put("ppt_name", ppt_name);
+    fields.put("constants", constants);
+    fields.put("num_declvars", num_declvars);
+    fields.put("num_tracevars", num_tracevars);
+    fields.put("num_orig_vars", num_orig_vars);
+    fields.put("num_static_constant_vars", num_static_constant_vars);
+    fields.put("values_num_samples", values_num_samples);
+    fields.put("mbtracker", mbtracker);
+    fields.put("value_sets", value_sets);
+    fields.put("views", views_map);
+    fields.put("splitters", splitters);
+    fields.put("children", children);
+    fields.put("parents", parents);
+    fields.put("parent_relations", parent_relations);
+    fields.put("invariants_merged", invariants_merged);
+    fields.put("in_merge", in_merge);
+    fields.put("invariants_removed", invariants_removed);
+    fields.put("joiner_view", joiner_view);
+    fields.put("equality_view", equality_view);
+    fields.put("redundant_invs", redundant_invs);
+    fields.put("redundant_invs_equality", redundant_invs_equality);
+    fields.put("paramVars", paramVars);
+    out.writeFields();
+  }
+
+  /**
+   * Reads the fields written by {@link #writeObject}, rebuilding views from its serialized form.
+   * Restore/Create interns when reading serialized object.
+   */
+  @SuppressWarnings("unchecked") // the serialized form is written by writeObject
   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
-    in.defaultReadObject();
-    if (name != null) {
-      try {
-        ReflectionPlume.setFinalField(this, "name", name.intern());
-      } catch (Exception e) {
-        throw new Error("unexpected error setting name", e);
-      }
+    ObjectInputStream.GetField fields = in.readFields();
+    type = (PptType) fields.get("type", null);
+    instantiated_inv_cnt = fields.get("instantiated_inv_cnt", 0);
+    instantiated_slice_cnt = fields.get("instantiated_slice_cnt", 0);
+    flags = (EnumSet<PptFlags>) fields.get("flags", null);
+    constants = (DynamicConstants) fields.get("constants", null);
+    num_declvars = fields.get("num_declvars", 0);
+    num_tracevars = fields.get("num_tracevars", 0);
+    num_orig_vars = fields.get("num_orig_vars", 0);
+    num_static_constant_vars = fields.get("num_static_constant_vars", 0);
+    values_num_samples = fields.get("values_num_samples", 0);
+    mbtracker = (ModBitTracker) fields.get("mbtracker", null);
+    value_sets = (ValueSet[]) fields.get("value_sets", null);
+    splitters = (ArrayList<PptSplitter>) fields.get("splitters", null);
+    children = (List<PptRelation>) fields.get("children", null);
+    parents = (List<PptRelation>) fields.get("parents", null);
+    parent_relations = (List<ParentRelation>) fields.get("parent_relations", null);
+    invariants_merged = fields.get("invariants_merged", false);
+    in_merge = fields.get("in_merge", false);
+    invariants_removed = fields.get("invariants_removed", false);
+    joiner_view = (PptSlice0) fields.get("joiner_view", null);
+    equality_view = (PptSliceEquality) fields.get("equality_view", null);
+    redundant_invs = (Set<Invariant>) fields.get("redundant_invs", null);
+    redundant_invs_equality = (Set<VarInfo>) fields.get("redundant_invs_equality", null);
+    paramVars = (Set<VarInfo>) fields.get("paramVars", null);
+
+    // The slices' VarInfos may not be completely deserialized yet, so the slices are indexed by the
+    // keys of the map rather than by their own variables.
+    Map<List<Integer>, PptSlice> views_map =
+        (Map<List<Integer>, PptSlice>) fields.get("views", null);
+    views = new SliceIndex();
+    if (views_map != null) {
+      for (Map.Entry<List<Integer>, PptSlice> entry : views_map.entrySet()) {
+        views.put(SliceIndex.key(entry.getKey()), entry.getValue());
+      }
+    }
+
+    String name = (String) fields.get("name", null);
+    try {
+      ReflectionPlume.setFinalField(this, "name", (name == null) ? null : name.intern());
+      ReflectionPlume.setFinalField(this, "ppt_name", fields.get("ppt_name", null));
+    } catch (Exception e) {
+      throw new Error("unexpected error setting name", e);
     }
   }
 
@@ -466,7 +631,7 @@ public class PptTopLevel extends Ppt {
       assert (vi.value_index == -1) || !vi.is_static_constant;
     }
 
-    views = new LinkedHashMap<>();
+    views = new SliceIndex();
 
     num_declvars = var_infos.length;
     num_tracevars = val_idx;
@@ -551,9 +716,7 @@ public class PptTopLevel extends Ppt {
     if (vi1.is_static_constant) {
       return mbtracker.num_samples();
     }
-    BitSet b1 = mbtracker.get(vi1.value_index);
-    int num_slice_samples = b1.cardinality();
-    return num_slice_samples;
+    return mbtracker.cardinality(vi1.value_index);
   }
 
   /** Return the number of samples where vi1 and vi2 are both present (not missing). */
@@ -564,10 +727,7 @@ public class PptTopLevel extends Ppt {
     if (vi2.is_static_constant) {
       return num_samples(vi1);
     }
-    BitSet b1 = mbtracker.get(vi1.value_index);
-    BitSet b2 = mbtracker.get(vi2.value_index);
-    int num_slice_samples = UtilPlume.intersectionCardinality(b1, b2);
-    return num_slice_samples;
+    return mbtracker.intersectionCardinality(vi1.value_index, vi2.value_index);
   }
 
   /** Return the number of samples where vi1, vi2, and vi3 are all present (not missing). */
@@ -581,11 +741,8 @@ public class PptTopLevel extends Ppt {
     if (vi3.is_static_constant) {
       return num_samples(vi1, vi2);
     }
-    BitSet b1 = mbtracker.get(vi1.value_index);
-    BitSet b2 = mbtracker.get(vi2.value_index);
-    BitSet b3 = mbtracker.get(vi3.value_index);
-    int num_slice_samples = UtilPlume.intersectionCardinality(b1, b2, b3);
-    return num_slice_samples;
+    return mbtracker.intersectionCardinality(
+        vi1.value_index, vi2.value_index, vi3.value_index);
   }
 
   /** The number of distinct values that have been seen. */
@@ -616,7 +773,7 @@ public class PptTopLevel extends Ppt {
         num_samples(vi1, vi2, vi3), num_values(vi1) * num_values(vi2) * num_values(vi3));
   }
 
-  // Get the actual views from the HashMap
+  // Get the actual views from the SliceIndex
   Collection<PptSlice> viewsAsCollection() {
     return views.values();
   }
@@ -996,7 +1153,6 @@ public class PptTopLevel extends Ppt {
    *
    * @param vt the set of values for this to see
    * @param count the number of samples that vt represents
-   * @return the set of all invariants weakened or falsified by this sample
    */
   @SuppressWarnings({
     "flowexpr.parse.error",
@@ -1007,7 +1163,7 @@ public class PptTopLevel extends Ppt {
     "NIS.suppressor_map_suppression_count",
     "NIS.all_suppressions"
   })
-  public @Nullable Set<Invariant> add_bottom_up(ValueTuple vt, int count) {
+  public void add_bottom_up(ValueTuple vt, int count) {
     // Doable, but commented out for efficiency
     // repCheck();
 
@@ -1032,7 +1188,7 @@ public class PptTopLevel extends Ppt {
     // stop early if there are no vars
     if (var_infos.length == 0) {
       assert vt.size() == 0;
-      return null;
+      return;
     }
 
     // If there are conditional program points, add the sample there instead
@@ -1042,7 +1198,7 @@ public class PptTopLevel extends Ppt {
         ppt_split.add_bottom_up(vt, count);
       }
       if (Daikon.use_dataflow_hierarchy) {
-        return null;
+        return;
       }
     }
 
@@ -1064,9 +1220,6 @@ public class PptTopLevel extends Ppt {
       NIS.clear_stats();
     }
 
-    // Set of invariants weakened by this sample
-    Set<Invariant> weakened_invs = new LinkedHashSet<>();
-
     // Instantiate slices and invariants if this is the first sample
     if (values_num_samples == 0) {
       debugFlow.fine("  Instantiating views for the first time");
@@ -1079,7 +1232,7 @@ public class PptTopLevel extends Ppt {
     if (Daikon.use_equality_optimization) {
       assert equality_view != null
           : "@AssumeAssertion(nullness): dependent: non-null if use_equality_optimization==true";
-      weakened_invs.addAll(equality_view.add(vt, count));
+      equality_view.add(vt, count, discarded_invs);
     }
 
     // Add samples to constants, adding new invariants as required
@@ -1092,14 +1245,9 @@ public class PptTopLevel extends Ppt {
     instantiated_slice_cnt = views.size();
 
     if (debugInstantiate.isLoggable(Level.FINE) && values_num_samples == 0) {
-      int slice1_cnt = 0;
-      int slice2_cnt = 0;
-      int slice3_cnt = 0;
-      for (PptSlice slice : views_iterable()) {
-        if (slice instanceof PptSlice1) slice1_cnt++;
-        else if (slice instanceof PptSlice2) slice2_cnt++;
-        else if (slice instanceof PptSlice3) slice3_cnt++;
-      }
+      int slice1_cnt = views.size(1);
+      int slice2_cnt = views.size(2);
+      int slice3_cnt = views.size(3);
       System.out.println("ppt " + name());
       debugInstantiate.fine("slice1 (" + slice1_cnt + ") slices");
       for (PptSlice slice : views_iterable()) {
@@ -1163,17 +1311,18 @@ public class PptTopLevel extends Ppt {
     }
 
     // Add the sample to each slice
-    for (PptSlice slice : views_iterable()) {
-      if (slice.invs.size() == 0) {
+    for (int i = 0; i < views.slots(); i++) {
+      PptSlice slice = views.slot(i);
+      if (slice == null || slice.invs.size() == 0) {
         continue;
       }
-      weakened_invs.addAll(slice.add(vt, count));
+      slice.add(vt, count, discarded_invs);
     }
 
     // Create any newly unsuppressed invariants
     NIS.process_falsified_invs(this, vt);
 
-    // NIS.newly_falsified is a list of invariants that are falsified by
+    // nis_context.newly_falsified is a list of invariants that are falsified by
     // the current sample when using the falsified method of processing
     // suppressions.  The newly falsified invariants are added back to
     // the slices so that they can be processed.  Thus, the falsified method
@@ -1183,32 +1332,45 @@ public class PptTopLevel extends Ppt {
     // ordered.  This loop should be executed at least once, regardless of
     // the algorithm for processing suppressions, hence the do loop.  For,
     // the antecedents method, the loop is executed only once because
-    // the NIS.newly_falsified list will be empty.
+    // the nis_context.newly_falsified list will be empty.
 
+    SuppressionContext nis_context = NIS.context();
     do {
       // Remove any falsified invariants.  Make a copy of the original slices
       // since NISuppressions will add new slices/invariants as others are
       // falsified.
-      PptSlice[] slices = views.values().toArray(new @Nullable PptSlice[views.values().size()]);
-      for (int i = 0; i < slices.length; i++) {
-        slices[i].remove_falsified();
+      int num_slices = views.slots();
+      @Nullable PptSlice[] slices = views_snapshot;
+      if (slices == null || slices.length < num_slices) {
+        slices = new @Nullable PptSlice[num_slices];
+        views_snapshot = slices;
+      }
+      for (int i = 0; i < num_slices; i++) {
+        slices[i] = views.slot(i);
+      }
+      for (int i = 0; i < num_slices; i++) {
+        PptSlice slice = slices[i];
+        if (slice != null) {
+          slice.remove_falsified();
+          slices[i] = null;
+        }
       }
 
       // Apply the sample to any invariants created by non-instantiating
       // suppressions. This must happen before we remove slices without
       // invariants below.
       NIS.apply_samples(vt, count);
-      first_pass_with_sample = false;
-    } while (NIS.newly_falsified.size() != 0);
+      nis_context.first_pass_with_sample = false;
+    } while (nis_context.newly_falsified.size() != 0);
 
-    first_pass_with_sample = true;
+    nis_context.first_pass_with_sample = true;
 
     // Remove slices from the list if all of their invariants have died.
-    // (Removal requires use of old-style for loop and Iterator.)
-    for (Iterator<PptSlice> itor = views_iterator(); itor.hasNext(); ) {
-      PptSlice view = itor.next();
-      if (view.invs.size() == 0) {
-        itor.remove();
+    // (Removal leaves the positions of the other slices alone.)
+    for (int i = 0; i < views.slots(); i++) {
+      PptSlice view = views.slot(i);
+      if (view != null && view.invs.size() == 0) {
+        views.remove_slot(i);
         if (Global.debugInfer.isLoggable(Level.FINE)) {
           Global.debugInfer.fine("add(ValueTulple,int): slice died: " + name() + view.varNames());
         }
@@ -1234,60 +1396,6 @@ public class PptTopLevel extends Ppt {
         }
       }
     }
-
-    return weakened_invs;
-  }
-
-  /**
-   * Adds a sample to each invariant in the list. Returns the list of weakened invariants. This
-   * should only be called when the sample has already been added to the slice containing each
-   * invariant. Otherwise the statistics kept in the slice will be incorrect.
-   *
-   * @param inv_list the invariants to add the sample to
-   * @param vt the sample
-   * @param count how many instances of the sample to add
-   * @return the invariants that were weakened
-   */
-  public List<Invariant> inv_add(List<Invariant> inv_list, ValueTuple vt, int count) {
-
-    // // Slices containing these invariants
-    // Set<PptSlice> slices = new LinkedHashSet<>();
-
-    // List of invariants weakened by this sample
-    List<Invariant> weakened_invs = new ArrayList<>();
-
-    // Loop through each invariant
-    inv_loop:
-    for (Invariant inv : inv_list) {
-      if (Debug.logDetail()) {
-        inv.log("Processing in inv_add");
-      }
-
-      // Skip falsified invariants (shouldn't happen)
-      if (inv.is_false()) {
-        continue;
-      }
-
-      // Skip any invariants with a missing variable
-      for (int j = 0; j < inv.ppt.var_infos.length; j++) {
-        if (inv.ppt.var_infos[j].isMissing(vt)) continue inv_loop;
-      }
-
-      // // Add the slice containing this invariant to the set of slices
-      // slices.add(inv.ppt);
-
-      // Get the values and add them to the invariant.
-      InvariantStatus result = inv.add_sample(vt, count);
-
-      if (result == InvariantStatus.FALSIFIED) {
-        inv.falsify();
-        weakened_invs.add(inv);
-      } else if (result == InvariantStatus.WEAKENED) {
-        weakened_invs.add(inv);
-      }
-    }
-
-    return weakened_invs;
   }
 
   /**
@@ -1365,9 +1473,12 @@ public class PptTopLevel extends Ppt {
 
     int inv_cnt = 0;
 
-    for (Iterator<PptSlice> j = views_iterator(); j.hasNext(); ) {
-      PptSlice slice = j.next();
-      inv_cnt += slice.invs.size();
+    // Called on every sample, so avoid making an iterator.
+    for (int i = 0; i < views.slots(); i++) {
+      PptSlice slice = views.slot(i);
+      if (slice != null) {
+        inv_cnt += slice.invs.size();
+      }
     }
     return inv_cnt;
   }
@@ -1562,25 +1673,13 @@ public class PptTopLevel extends Ppt {
     }
   }
 
-  /**
-   * Given an array of VarInfos, return a List representing that array, to be used as an index in
-   * the views hashtable.
-   */
-  private List<Integer> sliceIndex(VarInfo[] vis) {
-    List<Integer> result = new ArrayList<>(vis.length);
-    for (int i = 0; i < vis.length; i++) {
-      result.add(vis[i].varinfo_index);
-    }
-    return result;
-  }
-
   /** Add a single slice to the views variable. */
   public void addSlice(PptSlice slice) {
 
     // System.out.printf("Adding slice %s to ppt %s%n", slice, this);
 
     // Make sure the slice doesn't already exist (should never happen)
-    PptSlice cslice = findSlice(slice.var_infos);
+    PptSlice cslice = views.get(SliceIndex.key(slice.var_infos));
     if (cslice != null) {
       System.out.println("Trying to add slice " + slice);
       System.out.println("but, slice " + cslice + " already exists");
@@ -1593,14 +1692,14 @@ public class PptTopLevel extends Ppt {
     // Make sure that the slice is valid (they are not always valid)
     // slice.repCheck();
 
-    views.put(sliceIndex(slice.var_infos), slice);
+    views.put(slice);
     if (Debug.logOn()) slice.log("Adding slice");
   }
 
   /** Remove a slice from this PptTopLevel. */
   public void removeSlice(PptSlice slice) {
-    Object o = views.remove(sliceIndex(slice.var_infos));
-    assert o != null;
+    boolean removed = views.remove(slice);
+    assert removed;
   }
 
   /** Remove a list of invariants. */
@@ -1615,7 +1714,7 @@ public class PptTopLevel extends Ppt {
    * of its invariants were falsified).
    */
   public @Nullable PptSlice1 findSlice(VarInfo v) {
-    return (PptSlice1) findSlice(new VarInfo[] {v});
+    return (PptSlice1) views.get(SliceIndex.key(v.varinfo_index));
   }
 
   /**
@@ -1624,7 +1723,7 @@ public class PptTopLevel extends Ppt {
    */
   public @Nullable PptSlice2 findSlice(VarInfo v1, VarInfo v2) {
     assert v1.varinfo_index <= v2.varinfo_index;
-    return (PptSlice2) findSlice(new VarInfo[] {v1, v2});
+    return (PptSlice2) views.get(SliceIndex.key(v1.varinfo_index, v2.varinfo_index));
   }
 
   /**
@@ -1647,7 +1746,8 @@ public class PptTopLevel extends Ppt {
   public @Nullable PptSlice3 findSlice(VarInfo v1, VarInfo v2, VarInfo v3) {
     assert v1.varinfo_index <= v2.varinfo_index;
     assert v2.varinfo_index <= v3.varinfo_index;
-    return (PptSlice3) findSlice(new VarInfo[] {v1, v2, v3});
+    return (PptSlice3)
+        views.get(SliceIndex.key(v1.varinfo_index, v2.varinfo_index, v3.varinfo_index));
   }
 
   /**
@@ -1691,10 +1791,11 @@ public class PptTopLevel extends Ppt {
 
   /** Find a pptSlice with an assumed ordering. */
   public @Nullable PptSlice findSlice(VarInfo[] vis) {
-    if (vis.length > 3) {
-      throw new RuntimeException("Bad length " + vis.length);
+    if (vis.length == 0) {
+      // No slice is over zero variables; PptSlice0 (for implications) is not a view.
+      return null;
     }
-    return views.get(sliceIndex(vis));
+    return views.get(SliceIndex.key(vis));
   }
 
   /**
@@ -2895,19 +2996,62 @@ public class PptTopLevel extends Ppt {
   @SuppressWarnings("nullness") // reinitialization if error occurs
   public void mark_implied_via_simplify(PptMap all_ppts) {
     try {
-      if (proverStack == null) proverStack = new LemmaStack();
-      markImpliedViaSimplify_int(
-          new SimplifyInclusionTester() {
-            @Override
-            public boolean include(Invariant inv) {
-              return InvariantFilters.defaultFilters().shouldKeep(inv) == null;
-            }
-          });
+      if (proverStack == null) proverStack = new LemmaStack(LemmaCache.configured());
+      mark_implied_via_simplify(proverStack);
     } catch (SimplifyError e) {
       proverStack = null;
     }
   }
 
+  /**
+   * Use the Simplify theorem prover to flag invariants that are logically implied by others,
+   * using the given lemma stack. Considers only invariants that pass isWorthPrinting. The stack is
+   * cleared when the check is done.
+   *
+   * @param prover the lemma stack to use
+   * @throws SimplifyError if Simplify fails
+   */
+  public void mark_implied_via_simplify(LemmaStack prover) throws SimplifyError {
+    markImpliedViaSimplify_int(
+        prover,
+        new SimplifyInclusionTester() {
+          @Override
+          public boolean include(Invariant inv) {
+            return InvariantFilters.defaultFilters().shouldKeep(inv) == null;
+          }
+        });
+  }
+
+  /**
+   * Use the Simplify theorem prover to flag invariants that are logically implied by others, at
+   * each of the given program points. If {@link LemmaStackPool#dkconfig_sessions} is greater than
+   * 1, the program points are divided among that many Simplify processes; otherwise, each is
+   * checked in turn by {@link #mark_implied_via_simplify(PptMap)}. Either way, a program point is
+   * given up on if Simplify fails while checking it.
+   *
+   * @param all_ppts all the program points
+   * @param ppts the program points to check
+   */
+  public static void mark_implied_via_simplify(PptMap all_ppts, List<PptTopLevel> ppts) {
+    if (LemmaStackPool.dkconfig_sessions <= 1) {
+      for (PptTopLevel ppt : ppts) {
+        ppt.mark_implied_via_simplify(all_ppts);
+        System.out.print(".");
+        System.out.flush();
+      }
+      return;
+    }
+    // Create the filters before the threads can race to.
+    InvariantFilters.defaultFilters();
+    LemmaStackPool.forEach(
+        ppts,
+        (prover, ppt) -> {
+          ppt.mark_implied_via_simplify(prover);
+          System.out.print(".");
+          System.out.flush();
+        });
+  }
+
   /**
    * Returns true if there was a problem with Simplify formatting (such as the invariant not having
    * a Simplify representation).
@@ -2924,8 +3068,8 @@ public class PptTopLevel extends Ppt {
    *
    * @param test the predicate about whether an invariant is relevant
    */
-  @RequiresNonNull("proverStack")
-  private void markImpliedViaSimplify_int(SimplifyInclusionTester test) throws SimplifyError {
+  private void markImpliedViaSimplify_int(LemmaStack prover, SimplifyInclusionTester test)
+      throws SimplifyError {
     SessionManager.debugln("Simplify checking " + ppt_name);
 
     // Create the list of invariants from this ppt which are
@@ -3018,28 +3162,28 @@ public class PptTopLevel extends Ppt {
         // We could also consider testing if the controlling invariant
         // was removed by Simplify, but what would the point be?  Also,
         // these "intermediate goals" might help out Simplify.
-        proverStack.pushLemma(new InvariantLemma(inv));
+        prover.pushLemma(new InvariantLemma(inv));
 
         // If this is the :::OBJECT ppt, also restate all of them in
         // orig terms, since the conditions also held upon entry.
         if (ppt.ppt_name.isObjectInstanceSynthetic()) {
-          proverStack.pushLemma(InvariantLemma.makeLemmaAddOrig(inv));
+          prover.pushLemma(InvariantLemma.makeLemmaAddOrig(inv));
         }
       }
     }
 
-    if (proverStack.checkForContradiction() == 'T') {
+    if (prover.checkForContradiction() == 'T') {
       if (LemmaStack.dkconfig_remove_contradictions) {
         System.err.println(
             "Warning: " + ppt_name + " background is contradictory, removing some parts");
-        proverStack.removeContradiction();
+        prover.removeContradiction();
       } else {
         System.err.println("Warning: " + ppt_name + " background is contradictory, giving up");
         return;
       }
     }
 
-    int backgroundMark = proverStack.markLevel();
+    int backgroundMark = prover.markLevel();
 
     /*NNC:@MonotonicNonNull*/ InvariantLemma[] lemmas = new InvariantLemma[invs.length];
     for (int i = 0; i < invs.length; i++) {
@@ -3072,16 +3216,16 @@ public class PptTopLevel extends Ppt {
     }
 
     for (int i = 0; i < invs.length; i++) {
-      proverStack.pushLemma(lemmas[i]);
+      prover.pushLemma(lemmas[i]);
     }
 
     // If the background is necessarily false, we are in big trouble
-    if (proverStack.checkForContradiction() == 'T') {
+    if (prover.checkForContradiction() == 'T') {
       // Uncomment to punt on contradictions
       if (!LemmaStack.dkconfig_remove_contradictions) {
         System.err.println("Warning: " + ppt_name + " invariants are contradictory, giving up");
         if (LemmaStack.dkconfig_print_contradictions) {
-          LemmaStack.printLemmas(System.err, proverStack.minimizeContradiction());
+          LemmaStack.printLemmas(System.err, prover.minimizeContradiction());
         }
       }
       System.err.println("Warning: " + ppt_name + " invariants are contradictory, axing some");
@@ -3089,10 +3233,10 @@ public class PptTopLevel extends Ppt {
       int worstWheel = 0;
       do {
         // But try to recover anyway
-        List<Lemma> problems = proverStack.minimizeContradiction();
+        List<Lemma> problems = prover.minimizeContradiction();
         if (LemmaStack.dkconfig_print_contradictions) {
           System.err.println("Minimal set:");
-          LemmaStack.printLemmas(System.err, proverStack.minimizeContradiction());
+          LemmaStack.printLemmas(System.err, prover.minimizeContradiction());
           System.err.println();
         }
         if (problems.size() == 0) {
@@ -3123,7 +3267,7 @@ public class PptTopLevel extends Ppt {
         int index = worst.size() - 1 - offsetFromEnd;
         Lemma bad = worst.get(index);
         demerits.remove(bad);
-        proverStack.popToMark(backgroundMark);
+        prover.popToMark(backgroundMark);
         boolean isInvariant = false;
         for (int i = 0; i < lemmas.length; i++) {
           @SuppressWarnings("interning") // list membership
@@ -3132,23 +3276,23 @@ public class PptTopLevel extends Ppt {
             present[i] = false;
             isInvariant = true;
           } else if (present[i]) {
-            proverStack.pushLemma(lemmas[i]);
+            prover.pushLemma(lemmas[i]);
           }
         }
-        if (!isInvariant) proverStack.removeLemma(bad);
+        if (!isInvariant) prover.removeLemma(bad);
         if (LemmaStack.dkconfig_print_contradictions) {
           System.err.println("Removing " + bad.summarize());
         } else if (Daikon.no_text_output && Daikon.show_progress) {
           System.err.print("x");
         }
-      } while (proverStack.checkForContradiction() == 'T');
+      } while (prover.checkForContradiction() == 'T');
     }
 
-    proverStack.popToMark(backgroundMark);
+    prover.popToMark(backgroundMark);
 
-    flagRedundantRecursive(lemmas, present, 0, lemmas.length - 1);
+    flagRedundantRecursive(prover, lemmas, present, 0, lemmas.length - 1);
 
-    proverStack.clear();
+    prover.clear();
   }
 
   /**
@@ -3158,20 +3302,20 @@ public class PptTopLevel extends Ppt {
    * @param start first index to check, inclusive
    * @param end last index to check, inclusive
    */
-  @RequiresNonNull("proverStack")
   private void flagRedundantRecursive(
-      InvariantLemma[] lemmas, boolean[] present, int start, int end) throws SimplifyError {
+      LemmaStack prover, InvariantLemma[] lemmas, boolean[] present, int start, int end)
+      throws SimplifyError {
     assert start <= end;
 
     if (start == end) {
       // Base case: check a single invariant
       int checking = start;
-      if (proverStack.checkLemma(lemmas[checking]) == 'T') {
+      if (prover.checkLemma(lemmas[checking]) == 'T') {
         //         System.err.println("-------------------------");
         //         System.err.println(lemmas[checking].summarize() +
         //                            " is redundant because of");
         //         LemmaStack.printLemmas(System.err,
-        //                                proverStack.minimizeProof(lemmas[checking]));
+        //                                prover.minimizeProof(lemmas[checking]));
         flagRedundant(lemmas[checking].invariant);
         present[checking] = false;
       }
@@ -3181,20 +3325,20 @@ public class PptTopLevel extends Ppt {
       // Recursive case: divide and conquer
       int first_half_end = (start + end) / 2;
       int second_half_start = first_half_end + 1;
-      int mark = proverStack.markLevel();
+      int mark = prover.markLevel();
       // First, assume the first half and check the second half
       for (int i = start; i <= first_half_end; i++) {
-        if (present[i]) proverStack.pushLemma(lemmas[i]);
+        if (present[i]) prover.pushLemma(lemmas[i]);
       }
-      flagRedundantRecursive(lemmas, present, second_half_start, end);
-      proverStack.popToMark(mark);
+      flagRedundantRecursive(prover, lemmas, present, second_half_start, end);
+      prover.popToMark(mark);
       // Now, assume what's left of the second half, and check the
       // first half.
       for (int i = second_half_start; i <= end; i++) {
-        if (present[i]) proverStack.pushLemma(lemmas[i]);
+        if (present[i]) prover.pushLemma(lemmas[i]);
       }
-      flagRedundantRecursive(lemmas, present, start, first_half_end);
-      proverStack.popToMark(mark);
+      flagRedundantRecursive(prover, lemmas, present, start, first_half_end);
+      prover.popToMark(mark);
     }
   }
 
@@ -3277,6 +3421,27 @@ public class PptTopLevel extends Ppt {
     return viewsAsCollection();
   }
 
+  /**
+   * Returns one more than the largest position that {@link #views_slot} accepts. Code that runs on
+   * every sample can visit the slices with these two methods instead of allocating an iterator.
+   *
+   * @return the number of positions of slices, including positions of removed slices
+   */
+  public int views_slot_count() {
+    return views.slots();
+  }
+
+  /**
+   * Returns the slice at a position. Removing a slice does not change the positions of the others,
+   * but adding one may.
+   *
+   * @param pos a position less than {@link #views_slot_count}
+   * @return the slice at pos, or null if the slice there has been removed
+   */
+  public @Nullable PptSlice views_slot(int pos) {
+    return views.slot(pos);
+  }
+
   /** Iterate over all of the invariants at this ppt (but not any implications). */
   public Iterator<Invariant> invariants_iterator() {
     return new CollectionsPlume.MergedIterator<Invariant>(views_iterator_iterator());
@@ -3401,9 +3566,10 @@ public class PptTopLevel extends Ppt {
     // they should. When the VarInfo was fully unserialized, the key's
     // hashCode then changed to the correct one, messing up the
     // indexing in a hard-to-debug way. -SMcC
-    for (List<Integer> this_key : views.keySet()) {
-      assert views.containsKey(this_key);
-    }
+    // The keys are now primitive, and are serialized along with the
+    // slices rather than recomputed from their VarInfos, but the check
+    // is cheap.
+    views.repCheck();
 
     // System.out.printf("equality for %s = %s%n", this, equality_view);
 
@@ -4094,7 +4260,7 @@ public class PptTopLevel extends Ppt {
     for (int i = 0; i < var_infos.length; i++) {
       var_infos[i].equalitySet = null;
     }
-    views = new HashMap<>();
+    views = new SliceIndex();
     // parents = new ArrayList();
     // children = new ArrayList();
     invariants_merged = false;
@@ -4105,6 +4271,85 @@ public class PptTopLevel extends Ppt {
     values_num_samples = 0;
   }
 
+  /**
+   * The inference state of a program point that has been moved out of it: everything that grows as
+   * samples are added. See {@link #release_state} and {@link SpillingProcessor}.
+   */
+  static final class InferenceState implements Serializable {
+    // We are Serializable, so we specify a version to allow changes to
+    // method signatures without breaking serialization.  If you add or
+    // remove fields, you should change this number to the current date.
+    static final long serialVersionUID = 20261018L;
+
+    /** The ppt's views. */
+    SliceIndex views;
+    /** The ppt's equality view. */
+    @Nullable PptSliceEquality equality_view;
+    /** The ppt's dynamic constants. */
+    @Nullable DynamicConstants constants;
+    /** The ppt's modbits. */
+    ModBitTracker mbtracker;
+    /** The ppt's value sets. */
+    ValueSet[] value_sets;
+    /** The equality set of each of the ppt's variables, indexed like var_infos. */
+    @Nullable Equality[] equality_sets;
+
+    /**
+     * Creates a record of a program point's inference state.
+     *
+     * @param ppt the program point
+     */
+    InferenceState(PptTopLevel ppt) {
+      views = ppt.views;
+      equality_view = ppt.equality_view;
+      constants = ppt.constants;
+      mbtracker = ppt.mbtracker;
+      value_sets = ppt.value_sets;
+      equality_sets = new @Nullable Equality[ppt.var_infos.length];
+      for (int i = 0; i < ppt.var_infos.length; i++) {
+        equality_sets[i] = ppt.var_infos[i].equalitySet;
+      }
+    }
+  }
+
+  /**
+   * Removes this program point's inference state (its slices, equality sets, dynamic constants,
+   * modbits, and value sets) and returns it. The program point may not be used until the state is
+   * given back by {@link #restore_state}; in the meantime the state can be serialized on its own.
+   *
+   * @return the removed state
+   */
+  @SuppressWarnings("nullness") // the ppt is not used until its state is restored
+  InferenceState release_state() {
+    InferenceState state = new InferenceState(this);
+    views = null;
+    equality_view = null;
+    constants = null;
+    mbtracker = null;
+    value_sets = null;
+    for (VarInfo vi : var_infos) {
+      vi.equalitySet = null;
+    }
+    return state;
+  }
+
+  /**
+   * Gives back the inference state removed by {@link #release_state}.
+   *
+   * @param state the state that was removed from this program point
+   */
+  @SuppressWarnings("nullness") // restores the fields exactly as they were
+  void restore_state(InferenceState state) {
+    views = state.views;
+    equality_view = state.equality_view;
+    constants = state.constants;
+    mbtracker = state.mbtracker;
+    value_sets = state.value_sets;
+    for (int i = 0; i < var_infos.length; i++) {
+      var_infos[i].equalitySet = state.equality_sets[i];
+    }
+  }
+
   /**
    * Remove the equality invariants added during equality post processing. These are not over
    * leaders and can cause problems in some uses of the ppt. In particular, they cause problems
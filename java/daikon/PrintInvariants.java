@@ -36,6 +36,8 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StreamCorruptedException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -48,6 +50,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -79,15 +86,24 @@ public final class PrintInvariants {
    * program point.
    */
   public static void resetPrestateExpressions() {
-    varNameCounter = 0;
-    exprToVar = new HashMap<>();
+    prestate.set(new PrestateNames());
   }
 
-  // Used to create distinct variable names (see See dkconfig_replace_prestate).
-  private static int varNameCounter = 0;
+  /**
+   * The prestate expressions of the program point being printed, and the variable names that
+   * replace them (see dkconfig_replace_prestate). Each printing thread has its own.
+   */
+  private static final class PrestateNames {
+    // Used to create distinct variable names.
+    int varNameCounter = 0;
 
-  // Maps prestate expressions to variable names (see See dkconfig_replace_prestate)>
-  private static Map<String, String> exprToVar = new HashMap<>();
+    // Maps prestate expressions to variable names.
+    final Map<String, String> exprToVar = new HashMap<>();
+  }
+
+  /** The prestate expressions of the program point being printed by the current thread. */
+  private static final ThreadLocal<PrestateNames> prestate =
+      ThreadLocal.withInitial(PrestateNames::new);
 
   /**
    * See dkconfig_replace_prestate.
@@ -99,11 +115,12 @@ public final class PrintInvariants {
     if (expr == null) {
       throw new IllegalArgumentException(expr);
     }
-    if (exprToVar.containsKey(expr)) {
-      return exprToVar.get(expr);
+    PrestateNames names = prestate.get();
+    String v = names.exprToVar.get(expr);
+    if (v == null) {
+      v = "v" + Integer.toString(names.varNameCounter++);
+      names.exprToVar.put(expr, v);
     }
-    String v = "v" + Integer.toString(varNameCounter++);
-    exprToVar.put(expr, v);
     return v;
   }
 
@@ -180,6 +197,19 @@ public final class PrintInvariants {
    */
   public static boolean dkconfig_print_implementer_entry_ppts = true;
 
+  /**
+   * Positive integer. The number of threads on which the invariants of the program points are
+   * filtered and formatted. Each program point's output is collected separately, and the program
+   * points are still printed in the usual order, so the output does not depend on this option.
+   */
+  public static int dkconfig_threads = 1;
+
+  /**
+   * If true, time each invariant filter, and print how long each took, and how many invariants it
+   * discarded, after the invariants.
+   */
+  public static boolean dkconfig_time_filters = false;
+
   /** Main debug tracer for PrintInvariants (for things unrelated to printing). */
   public static final Logger debug = Logger.getLogger("daikon.PrintInvariants");
 
@@ -479,6 +509,7 @@ public final class PrintInvariants {
     if (out_stream != null) {
       out_stream.flush();
       out_stream.close();
+      out_stream = null;
     }
   }
 
@@ -748,6 +779,9 @@ public final class PrintInvariants {
       // System.out.printf("considering ppt %s%n", ppts[ii-1].name());
     }
 
+    // The program points to print, in order.
+    List<PptTopLevel> to_print = new ArrayList<>();
+
     for (int i = 0; i < ppts.length; i++) {
       PptTopLevel ppt = ppts[i];
 
@@ -759,7 +793,7 @@ public final class PrintInvariants {
       // exit point
       if (enable_exit_swap && !ppt.ppt_name.isExitPoint()) {
         if (combined_exit != null) {
-          print_invariants_maybe(combined_exit, pw, all_ppts);
+          to_print.add(combined_exit);
         }
         combined_exit = null;
       }
@@ -799,12 +833,20 @@ public final class PrintInvariants {
         }
       }
 
-      print_invariants_maybe(ppt, pw, all_ppts);
+      to_print.add(ppt);
     }
 
     // print a last remaining combined exit point (if any)
     if (enable_exit_swap && combined_exit != null) {
-      print_invariants_maybe(combined_exit, pw, all_ppts);
+      to_print.add(combined_exit);
+    }
+
+    if (dkconfig_threads > 1 && to_print.size() > 1) {
+      print_invariants_parallel(to_print, pw, all_ppts);
+    } else {
+      for (PptTopLevel ppt : to_print) {
+        print_invariants_maybe(ppt, pw, all_ppts);
+      }
     }
 
     if (wrap_xml) {
@@ -812,6 +854,68 @@ public final class PrintInvariants {
     }
 
     pw.flush();
+
+    if (dkconfig_time_filters) {
+      System.err.print(InvariantFilters.defaultFilters().timesToString());
+    }
+  }
+
+  /**
+   * Prints the invariants of each of the given program points (see {@link
+   * #print_invariants_maybe}), filtering and formatting them on {@link #dkconfig_threads} threads.
+   * Each program point is printed to a buffer of its own, and the buffers are written to {@code
+   * out} in order. Only a few more program points than there are threads are worked on at once, so
+   * that the buffers do not grow without bound when one program point is slow.
+   *
+   * @param ppts the program points to print, in order
+   * @param out where to print them
+   * @param all_ppts all the program points
+   */
+  @RequiresNonNull("FileIO.new_decl_format")
+  private static void print_invariants_parallel(
+      List<PptTopLevel> ppts, PrintWriter out, PptMap all_ppts) {
+    // Create the shared filters before any thread uses them.
+    InvariantFilters.defaultFilters();
+    AtomicInteger thread_number = new AtomicInteger();
+    ExecutorService pool =
+        Executors.newFixedThreadPool(
+            dkconfig_threads,
+            r -> {
+              Thread t = new Thread(r, "print invariants " + thread_number.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            });
+    try {
+      int window = 4 * dkconfig_threads;
+      ArrayDeque<Future<String>> pending = new ArrayDeque<>(window);
+      int next = 0;
+      while (next < ppts.size() || !pending.isEmpty()) {
+        while (next < ppts.size() && pending.size() < window) {
+          PptTopLevel ppt = ppts.get(next++);
+          pending.add(
+              pool.submit(
+                  () -> {
+                    StringWriter buffer = new StringWriter();
+                    PrintWriter ppt_out = new PrintWriter(buffer);
+                    print_invariants_maybe(ppt, ppt_out, all_ppts);
+                    ppt_out.flush();
+                    return buffer.toString();
+                  }));
+        }
+        out.print(pending.remove().get());
+      }
+    } catch (InterruptedException e) {
+      throw new Error(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else {
+        throw (Error) cause;
+      }
+    } finally {
+      pool.shutdownNow();
+    }
   }
 
   /**
@@ -1054,11 +1158,16 @@ public final class PrintInvariants {
 
   /** Count statistics (via Global) on variables (canonical, missing, etc.) */
   public static void count_global_stats(PptTopLevel ppt) {
+    int derived = 0;
     for (int i = 0; i < ppt.var_infos.length; i++) {
       if (ppt.var_infos[i].isDerived()) {
-        Global.derived_variables++;
+        derived++;
       }
     }
+    // Program points may be printed on several threads.
+    synchronized (Global.class) {
+      Global.derived_variables += derived;
+    }
   }
 
   /** Prints the specified invariant to out. */
@@ -1388,8 +1497,6 @@ public final class PrintInvariants {
     Invariant[] invs_array = invs_vector.toArray(new Invariant[invs_vector.size()]);
     Arrays.sort(invs_array, PptTopLevel.icfp);
 
-    Global.non_falsified_invariants += invs_array.length;
-
     List<Invariant> accepted_invariants = new ArrayList<>();
 
     for (int i = 0; i < invs_array.length; i++) {
@@ -1422,7 +1529,6 @@ public final class PrintInvariants {
       // Never print the guarding predicates themselves, they should only
       // print as part of GuardingImplications
       if (fi_accepted && !inv.isGuardingPredicate) {
-        Global.reported_invariants++;
         accepted_invariants.add(inv);
       } else {
         if (Invariant.logOn() || debugPrint.isLoggable(Level.FINE)) {
@@ -1438,6 +1544,12 @@ public final class PrintInvariants {
       }
     }
 
+    // Program points may be printed on several threads.
+    synchronized (Global.class) {
+      Global.non_falsified_invariants += invs_array.length;
+      Global.reported_invariants += accepted_invariants.size();
+    }
+
     accepted_invariants = InvariantFilters.addEqualityInvariants(accepted_invariants);
 
     if (debugFiltering.isLoggable(Level.FINE)) {
@@ -1482,7 +1594,7 @@ public final class PrintInvariants {
     }
 
     if (dkconfig_replace_prestate) {
-      for (Map.Entry<@KeyFor("exprToVar") String, String> e : exprToVar.entrySet()) {
+      for (Map.Entry<String, String> e : prestate.get().exprToVar.entrySet()) {
         out.println("prestate assignment: " + e.getValue() + "=" + e.getKey());
       }
       resetPrestateExpressions();
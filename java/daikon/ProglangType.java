@@ -15,7 +15,6 @@ import org.checkerframework.checker.lock.qual.GuardSatisfied;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.dataflow.qual.Pure;
 import org.checkerframework.dataflow.qual.SideEffectFree;
-import org.plumelib.util.Intern;
 import org.plumelib.util.UtilPlume;
 
 /**
@@ -176,7 +175,7 @@ public final @Interned class ProglangType implements Serializable {
 
   // THIS CODE IS A HOT SPOT (~33% of runtime) [as of January 2002].
   /** @param t_base must be interned */
-  private static @Nullable ProglangType find(@Interned String t_base, int t_dims) {
+  private static synchronized @Nullable ProglangType find(@Interned String t_base, int t_dims) {
     // Disabled for performance reasons! this assertion is sound though:
     //    assert t_base == t_base.intern();
 
@@ -210,7 +209,8 @@ public final @Interned class ProglangType implements Serializable {
   //   return t;
   // }
 
-  private static ProglangType intern(@Interned String t_base, int t_dims) {
+  // Synchronized because several threads may deserialize invariant files at once (see MergeTree).
+  private static synchronized ProglangType intern(@Interned String t_base, int t_dims) {
     // Disabled for performance reasons! this assertion is sound though:
     //    assert t_base == t_base.intern();
     ProglangType existing = find(t_base, t_dims);
@@ -273,16 +273,16 @@ public final @Interned class ProglangType implements Serializable {
 
   // avoid duplicate allocations
   // No need for the Integer versions; use Long instead.
-  // static final @Interned Integer IntegerZero = Intern.internedInteger(0);
-  // static final @Interned Integer IntegerOne = Intern.internedInteger(1);
-  static final @Interned Long LongZero = Intern.internedLong(0);
-  static final @Interned Long LongOne = Intern.internedLong(1);
-  static final @Interned Double DoubleZero = Intern.internedDouble(0);
-  static final @Interned Double DoubleNaN = Intern.internedDouble(Double.NaN);
+  // static final @Interned Integer IntegerZero = ConcurrentIntern.internedInteger(0);
+  // static final @Interned Integer IntegerOne = ConcurrentIntern.internedInteger(1);
+  static final @Interned Long LongZero = ConcurrentIntern.internedLong(0);
+  static final @Interned Long LongOne = ConcurrentIntern.internedLong(1);
+  static final @Interned Double DoubleZero = ConcurrentIntern.internedDouble(0);
+  static final @Interned Double DoubleNaN = ConcurrentIntern.internedDouble(Double.NaN);
   static final @Interned Double DoublePositiveInfinity =
-      Intern.internedDouble(Double.POSITIVE_INFINITY);
+      ConcurrentIntern.internedDouble(Double.POSITIVE_INFINITY);
   static final @Interned Double DoubleNegativeInfinity =
-      Intern.internedDouble(Double.NEGATIVE_INFINITY);
+      ConcurrentIntern.internedDouble(Double.NEGATIVE_INFINITY);
 
   /*
    *  Now that all other static initialisers are done, it is safe to
@@ -423,11 +423,11 @@ public final @Interned class ProglangType implements Serializable {
         c = UtilPlume.unescapeJava(value).charAt(0);
       } else if ((value.length() == 4) && (value.charAt(0) == '\\')) {
         Byte b = Byte.decode("0" + value.substring(1));
-        return Intern.internedLong(b.longValue());
+        return ConcurrentIntern.internedLong(b.longValue());
       } else {
         throw new IllegalArgumentException("Bad character: " + value);
       }
-      return Intern.internedLong(Character.getNumericValue(c));
+      return ConcurrentIntern.internedLong(Character.getNumericValue(c));
     }
     // When parse_value is called from FileIO.read_ppt_decl, we have
     // not set file_rep_type. Hence, rep_type is still file_rep_type
@@ -448,7 +448,7 @@ public final @Interned class ProglangType implements Serializable {
       if (value.equals("null")) {
         return LongZero;
       }
-      return Intern.internedLong(myParseLong(value));
+      return ConcurrentIntern.internedLong(myParseLong(value));
     } else if (base == BASE_DOUBLE) {
       // Must ignore case, because dfej outputs "NaN", while dfec
       // outputs "nan".  dfec outputs "nan", because this string
@@ -462,7 +462,7 @@ public final @Interned class ProglangType implements Serializable {
       if (value.equalsIgnoreCase("-Infinity") || value.equals("-inf")) {
         return DoubleNegativeInfinity;
       }
-      return Intern.internedDouble(value);
+      return ConcurrentIntern.internedDouble(value);
     } else if ((base == BASE_HASHCODE)
         || (base == BASE_LONG)
         || (base == BASE_LONG_LONG)
@@ -551,7 +551,7 @@ public final @Interned class ProglangType implements Serializable {
           result[i] = myParseLong(value_strings[i]);
         }
       }
-      return Intern.intern(result);
+      return ConcurrentIntern.intern(result);
     } else if (base == BASE_DOUBLE) {
       double[] result = new double[len];
       for (int i = 0; i < len; i++) {
@@ -568,12 +568,13 @@ public final @Interned class ProglangType implements Serializable {
           result[i] = Double.parseDouble(value_strings[i]);
         }
       }
-      return Intern.intern(result);
+      return ConcurrentIntern.intern(result);
     } else if (base == BASE_STRING) {
       // First, intern each String in the array ...
-      @Interned String[] value_strings_elts_interned = Intern.internStrings(value_strings);
+      @Interned String[] value_strings_elts_interned =
+          ConcurrentIntern.internStrings(value_strings);
       // ... then, intern the entire array, and return it
-      return Intern.intern(value_strings_elts_interned);
+      return ConcurrentIntern.intern(value_strings_elts_interned);
     } else {
       throw new Error("Can't yet parse array of base type " + base);
     }
@@ -0,0 +1,257 @@
+package daikon;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A sequence of bits that can only be extended at the end, stored as the positions at which the
+ * bit changes value. Its memory use is proportional to the number of such transitions rather than
+ * to the number of bits, so a long run of identical bits is nearly free. {@link ModBitTracker}
+ * keeps one per equivalence set of variables, and adds a bit for each sample.
+ *
+ * <p>Reading a single bit takes time logarithmic in the number of transitions. Counting the bits
+ * that are set in one sequence takes constant time, and in the intersection of several sequences
+ * takes time linear in their total number of transitions.
+ */
+public final class RunLengthBitSet implements Cloneable {
+  /** The value of the first bit, if there is one. */
+  private boolean first = false;
+
+  /**
+   * The positions at which the bit differs from the bit before it, in increasing order. Only the
+   * first num_flips elements are used.
+   */
+  private int[] flips = new int[0];
+
+  /** The number of transitions; the number of elements of flips that are in use. */
+  private int num_flips = 0;
+
+  /** The number of bits. */
+  private int size = 0;
+
+  /** The number of bits that are set. */
+  private int cardinality = 0;
+
+  /** Creates an empty sequence of bits. */
+  public RunLengthBitSet() {}
+
+  /**
+   * Returns the number of bits, both set and clear.
+   *
+   * @return the number of bits
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of bits that are set.
+   *
+   * @return the number of bits that are set
+   */
+  public int cardinality() {
+    return cardinality;
+  }
+
+  /**
+   * Returns the number of runs of identical bits.
+   *
+   * @return the number of runs of identical bits
+   */
+  public int num_runs() {
+    return (size == 0) ? 0 : num_flips + 1;
+  }
+
+  /**
+   * Returns the value of the last bit, which must exist.
+   *
+   * @return the value of the last bit
+   */
+  private boolean last() {
+    return first ^ ((num_flips & 1) != 0);
+  }
+
+  /**
+   * Appends count copies of a bit.
+   *
+   * @param bit the value of the bits
+   * @param count the number of bits to append; must be non-negative
+   */
+  public void append(boolean bit, int count) {
+    assert count >= 0 : count;
+    if (count == 0) {
+      return;
+    }
+    if (size == 0) {
+      first = bit;
+    } else if (bit != last()) {
+      if (num_flips == flips.length) {
+        flips = Arrays.copyOf(flips, Math.max(4, 2 * flips.length));
+      }
+      flips[num_flips++] = size;
+    }
+    size += count;
+    if (bit) {
+      cardinality += count;
+    }
+  }
+
+  /**
+   * Returns the bit at the given position. As for {@link BitSet#get(int)}, positions at or past the
+   * end are clear.
+   *
+   * @param bitIndex the position of the bit; must be non-negative
+   * @return the bit at bitIndex
+   */
+  public boolean get(int bitIndex) {
+    if (bitIndex < 0) {
+      throw new IndexOutOfBoundsException("bitIndex < 0: " + bitIndex);
+    }
+    if (bitIndex >= size) {
+      return false;
+    }
+    // Find the number of transitions at or before bitIndex.
+    int lo = 0;
+    int hi = num_flips;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (flips[mid] <= bitIndex) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return first ^ ((lo & 1) != 0);
+  }
+
+  /**
+   * Returns the number of positions at which both sequences have a set bit.
+   *
+   * @param b1 a sequence of bits
+   * @param b2 a sequence of bits
+   * @return the cardinality of the intersection of b1 and b2
+   */
+  public static int intersectionCardinality(RunLengthBitSet b1, RunLengthBitSet b2) {
+    return intersectionCardinality(new RunLengthBitSet[] {b1, b2});
+  }
+
+  /**
+   * Returns the number of positions at which all three sequences have a set bit.
+   *
+   * @param b1 a sequence of bits
+   * @param b2 a sequence of bits
+   * @param b3 a sequence of bits
+   * @return the cardinality of the intersection of b1, b2, and b3
+   */
+  public static int intersectionCardinality(
+      RunLengthBitSet b1, RunLengthBitSet b2, RunLengthBitSet b3) {
+    return intersectionCardinality(new RunLengthBitSet[] {b1, b2, b3});
+  }
+
+  /**
+   * Returns the number of positions at which every one of the sequences has a set bit, by walking
+   * their runs together.
+   *
+   * @param sets the sequences of bits
+   * @return the cardinality of the intersection of the sets
+   */
+  private static int intersectionCardinality(RunLengthBitSet[] sets) {
+    int limit = Integer.MAX_VALUE;
+    for (RunLengthBitSet bs : sets) {
+      if (bs.cardinality == 0) {
+        return 0;
+      }
+      limit = Math.min(limit, bs.size);
+    }
+    // For each sequence, the index in flips of the end of its current run, and the value of the
+    // bits in that run.
+    int[] next_flip = new int[sets.length];
+    boolean[] value = new boolean[sets.length];
+    for (int i = 0; i < sets.length; i++) {
+      value[i] = sets[i].first;
+    }
+    int result = 0;
+    int pos = 0;
+    while (pos < limit) {
+      int end = limit;
+      boolean all_set = true;
+      for (int i = 0; i < sets.length; i++) {
+        RunLengthBitSet bs = sets[i];
+        if (next_flip[i] < bs.num_flips) {
+          end = Math.min(end, bs.flips[next_flip[i]]);
+        }
+        all_set &= value[i];
+      }
+      if (all_set) {
+        result += end - pos;
+      }
+      for (int i = 0; i < sets.length; i++) {
+        RunLengthBitSet bs = sets[i];
+        if (next_flip[i] < bs.num_flips && bs.flips[next_flip[i]] == end) {
+          next_flip[i]++;
+          value[i] = !value[i];
+        }
+      }
+      pos = end;
+    }
+    return result;
+  }
+
+  /**
+   * Returns a BitSet with the same bits as this.
+   *
+   * @return a new BitSet whose bits are those of this
+   */
+  public BitSet toBitSet() {
+    BitSet result = new BitSet(size);
+    boolean bit = first;
+    int start = 0;
+    for (int i = 0; i <= num_flips; i++) {
+      int end = (i < num_flips) ? flips[i] : size;
+      if (bit) {
+        result.set(start, end);
+      }
+      bit = !bit;
+      start = end;
+    }
+    return result;
+  }
+
+  /**
+   * Returns a sequence of the given number of bits, whose values are those of the given BitSet.
+   *
+   * @param bits the values of the bits
+   * @param size the number of bits; bits past the end are ignored
+   * @return a new RunLengthBitSet with the first size bits of bits
+   */
+  public static RunLengthBitSet fromBitSet(BitSet bits, int size) {
+    RunLengthBitSet result = new RunLengthBitSet();
+    int start = 0;
+    while (start < size) {
+      boolean bit = bits.get(start);
+      int end = bit ? bits.nextClearBit(start) : bits.nextSetBit(start);
+      if (end == -1 || end > size) {
+        end = size;
+      }
+      result.append(bit, end - start);
+      start = end;
+    }
+    return result;
+  }
+
+  @Override
+  public RunLengthBitSet clone() {
+    try {
+      RunLengthBitSet result = (RunLengthBitSet) super.clone();
+      result.flips = Arrays.copyOf(flips, num_flips);
+      return result;
+    } catch (CloneNotSupportedException e) {
+      throw new Error("This can't happen: ", e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return toBitSet().toString();
+  }
+}
@@ -0,0 +1,198 @@
+package daikon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Combines consecutive identical samples at a program point into one call of {@link
+ * PptTopLevel#add_bottom_up} with a count larger than 1. Loops often produce long runs of identical
+ * samples at a program point, and supplying a run at once costs the same as supplying one sample.
+ *
+ * <p>Each program point holds at most one pending sample and the number of times it has been seen
+ * since it was last supplied (see {@link #add}). A complete sample is interned, so a repeat is
+ * recognized by comparing its values and modified bits by identity. The pending sample is supplied
+ * before a different sample at the same program point, when its count reaches {@link
+ * #dkconfig_window}, and by {@link #flush_all}. Thus the samples of each program point are supplied
+ * in trace order, and the invariants are the same as if each sample were supplied by itself. The
+ * samples of different program points may be supplied in a different order than they were read;
+ * this is harmless because leaf program points do not interact until the hierarchy is merged, so
+ * samples are coalesced only when the dataflow hierarchy is used.
+ *
+ * <p>A run that is supplied late would be reported at the wrong place if supplying it failed, so
+ * the coalescer remembers where the first sample of each pending run was read; see {@link
+ * #supplying_filename}.
+ *
+ * <p>A coalescer must be used by only one thread, and a program point must receive its samples
+ * through only one coalescer.
+ */
+public final class SampleCoalescer {
+
+  /** Debug tracer. */
+  public static final Logger debug = Logger.getLogger("daikon.SampleCoalescer");
+
+  // Variables starting with dkconfig_ should only be set via the
+  // daikon.config.Configuration interface.
+  /**
+   * Integer. The largest number of consecutive identical samples at a program point that are
+   * supplied to it at once. When this is 1, each sample is supplied as soon as it is read.
+   */
+  public static int dkconfig_window = 1024;
+
+  /** The program points that hold a pending sample, in the order they received one. */
+  private final List<PptTopLevel> pending_ppts = new ArrayList<>();
+
+  /** The trace file of the first sample of the run being supplied, or null. */
+  private @Nullable String supplying_filename = null;
+
+  /** The line of the first sample of the run being supplied. */
+  private int supplying_linenum;
+
+  /**
+   * Returns true if samples are coalesced under the current configuration. Without the dataflow
+   * hierarchy, each numbered exit also supplies its samples to the combined exit, so samples of
+   * different program points must be supplied in trace order.
+   *
+   * @return true if samples are coalesced
+   */
+  public static boolean is_enabled() {
+    return dkconfig_window > 1 && Daikon.use_dataflow_hierarchy;
+  }
+
+  /**
+   * Returns the trace file of the first sample of the run being supplied. After a method of this
+   * class throws an error, this is where the run that failed was read, until the next call of
+   * {@link #add} or {@link #flush_all}.
+   *
+   * @return the trace file of the run being supplied, or null if no run is being supplied
+   */
+  public @Nullable String supplying_filename() {
+    return supplying_filename;
+  }
+
+  /**
+   * Returns the line of the first sample of the run being supplied; see {@link
+   * #supplying_filename}.
+   *
+   * @return the line of the run being supplied
+   */
+  public int supplying_linenum() {
+    return supplying_linenum;
+  }
+
+  /**
+   * Supplies a sample to a program point, or holds it until it stops repeating.
+   *
+   * @param ppt the program point
+   * @param vt the complete, interned sample
+   * @param filename the trace file from which the sample was read
+   * @param linenum the line at which the sample ends
+   */
+  public void add(PptTopLevel ppt, ValueTuple vt, String filename, int linenum) {
+    supplying_filename = null;
+    ValueTuple pending = ppt.coalesced_vt;
+    if (pending != null && pending.vals == vt.vals && pending.mods == vt.mods) {
+      if (ppt.coalesced_count == 0) {
+        ppt.coalesced_filename = filename;
+        ppt.coalesced_linenum = linenum;
+      }
+      ppt.coalesced_count++;
+      if (ppt.coalesced_count >= dkconfig_window) {
+        flush(ppt);
+      }
+      return;
+    }
+    if (pending == null) {
+      if (!is_enabled()) {
+        supply(ppt, vt, 1, filename, linenum);
+        return;
+      }
+      pending_ppts.add(ppt);
+    } else {
+      flush(ppt);
+    }
+    ppt.coalesced_vt = vt;
+    ppt.coalesced_count = 1;
+    ppt.coalesced_filename = filename;
+    ppt.coalesced_linenum = linenum;
+  }
+
+  /**
+   * Supplies the pending sample of a program point, if it has been seen since it was last
+   * supplied. The program point keeps the sample, so that a repeat of it is still recognized.
+   *
+   * @param ppt a program point
+   */
+  private void flush(PptTopLevel ppt) {
+    int count = ppt.coalesced_count;
+    ValueTuple vt = ppt.coalesced_vt;
+    String filename = ppt.coalesced_filename;
+    if (count == 0 || vt == null || filename == null) {
+      return;
+    }
+    ppt.coalesced_count = 0;
+    ppt.coalesced_filename = null;
+    if (count > 1 && debug.isLoggable(Level.FINE)) {
+      debug.fine(String.format("Supplying %d identical samples to %s", count, ppt.name()));
+    }
+    supply(ppt, vt, count, filename, ppt.coalesced_linenum);
+  }
+
+  /**
+   * Supplies a run of samples to a program point, remembering where it was read until it has been
+   * supplied.
+   *
+   * @param ppt the program point
+   * @param vt the complete, interned sample
+   * @param count the number of samples in the run
+   * @param filename the trace file from which the first sample of the run was read
+   * @param linenum the line at which the first sample of the run ends
+   */
+  private void supply(PptTopLevel ppt, ValueTuple vt, int count, String filename, int linenum) {
+    supplying_filename = filename;
+    supplying_linenum = linenum;
+    FileIO.add_sample(ppt, vt, count);
+    supplying_filename = null;
+  }
+
+  /**
+   * Supplies every pending sample, so that each program point has received all of the samples
+   * passed to {@link #add}. Must be called before anything else looks at the invariants of the
+   * program points, such as at the end of each trace file.
+   *
+   * <p>If supplying a run throws an error, the runs of the program points that have not been
+   * flushed yet are dropped, as later samples are after a failure, and {@link #supplying_filename}
+   * still tells where the run that failed was read.
+   */
+  public void flush_all() {
+    supplying_filename = null;
+    try {
+      for (PptTopLevel ppt : pending_ppts) {
+        flush(ppt);
+      }
+    } finally {
+      discard_pending();
+    }
+  }
+
+  /**
+   * Drops every pending sample without supplying it. Used when sample processing has failed and the
+   * remaining samples are to be ignored.
+   */
+  public void discard_all() {
+    discard_pending();
+    supplying_filename = null;
+  }
+
+  /** Forgets the pending sample of every program point and empties {@link #pending_ppts}. */
+  private void discard_pending() {
+    for (PptTopLevel ppt : pending_ppts) {
+      ppt.coalesced_vt = null;
+      ppt.coalesced_count = 0;
+      ppt.coalesced_filename = null;
+    }
+    pending_ppts.clear();
+  }
+}
@@ -0,0 +1,522 @@
+package daikon;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The slices of a program point, indexed by the varinfo_index values of their variables. A slice's
+ * key packs its arity and the indices of its (at most three) variables into a long, so that a
+ * lookup allocates nothing and hashes a single primitive. The keys live in an open-addressed
+ * table with linear probing, which maps each key to the slice's position in a dense array.
+ *
+ * <p>The dense array holds the slices in the order in which they were added, which is the order of
+ * {@link #values}; a removed slice leaves a hole that is squeezed out when the array next fills
+ * up. The number of slices of each arity is kept as well.
+ */
+final class SliceIndex implements Serializable {
+  // We are Serializable, so we specify a version to allow changes to
+  // method signatures without breaking serialization.  If you add or
+  // remove fields, you should change this number to the current date.
+  static final long serialVersionUID = 20261018L;
+
+  /** The number of bits of a key given to each variable index. */
+  private static final int INDEX_BITS = 20;
+
+  /** The largest varinfo_index that fits in a key. */
+  static final int MAX_INDEX = (1 << INDEX_BITS) - 1;
+
+  /** The key that marks an empty entry of the table; no slice has it, since arity is at least 1. */
+  private static final long EMPTY = 0L;
+
+  /** Open-addressed table of keys; its length is a power of two. */
+  private transient long[] keys;
+
+  /** For each entry of keys, the position in slices of the slice with that key. */
+  private transient int[] positions;
+
+  /** The slices in the order in which they were added, with null for removed slices. */
+  private transient @Nullable PptSlice[] slices;
+
+  /** The key of each element of slices. */
+  private transient long[] slice_keys;
+
+  /** The number of elements of slices that are in use, including holes. */
+  private transient int used;
+
+  /** The number of slices. */
+  private transient int size;
+
+  /** The number of slices of each arity, indexed by arity. */
+  private transient int[] arity_counts;
+
+  /** Incremented by each change, so that iterators can detect concurrent modification. */
+  private transient int mod_count;
+
+  /** Creates an empty index. */
+  SliceIndex() {
+    init(8);
+  }
+
+  /**
+   * Empties this, with room for the given number of slices.
+   *
+   * @param capacity the number of slices that fit before the arrays grow
+   */
+  @SuppressWarnings("nullness") // the arrays are initialized here
+  private void init(int capacity) {
+    keys = new long[table_size(capacity)];
+    positions = new int[keys.length];
+    slices = new @Nullable PptSlice[capacity];
+    slice_keys = new long[capacity];
+    used = 0;
+    size = 0;
+    arity_counts = new int[4];
+  }
+
+  /**
+   * Returns the length of a table that holds the given number of keys at most half full.
+   *
+   * @param capacity a number of keys
+   * @return a power of two at least twice capacity
+   */
+  private static int table_size(int capacity) {
+    return Integer.highestOneBit(Math.max(capacity, 4) * 2 - 1) << 1;
+  }
+
+  /**
+   * Checks that a varinfo_index fits in a key.
+   *
+   * @param index a varinfo_index
+   * @return index
+   */
+  private static long check(int index) {
+    if (index < 0 || index > MAX_INDEX) {
+      throw new IllegalArgumentException("varinfo_index out of range: " + index);
+    }
+    return index;
+  }
+
+  /**
+   * Returns the key of a unary slice.
+   *
+   * @param i the varinfo_index of the slice's variable
+   * @return the key of the slice
+   */
+  static long key(int i) {
+    return (1L << (3 * INDEX_BITS)) | check(i);
+  }
+
+  /**
+   * Returns the key of a binary slice.
+   *
+   * @param i the varinfo_index of the slice's first variable
+   * @param j the varinfo_index of the slice's second variable
+   * @return the key of the slice
+   */
+  static long key(int i, int j) {
+    return (2L << (3 * INDEX_BITS)) | (check(i) << INDEX_BITS) | check(j);
+  }
+
+  /**
+   * Returns the key of a ternary slice.
+   *
+   * @param i the varinfo_index of the slice's first variable
+   * @param j the varinfo_index of the slice's second variable
+   * @param k the varinfo_index of the slice's third variable
+   * @return the key of the slice
+   */
+  static long key(int i, int j, int k) {
+    return (3L << (3 * INDEX_BITS))
+        | (check(i) << (2 * INDEX_BITS))
+        | (check(j) << INDEX_BITS)
+        | check(k);
+  }
+
+  /**
+   * Returns the key of the slice over the given variables.
+   *
+   * @param vis one to three variables, in the order of the slice
+   * @return the key of the slice over vis
+   */
+  static long key(VarInfo[] vis) {
+    switch (vis.length) {
+      case 1:
+        return key(vis[0].varinfo_index);
+      case 2:
+        return key(vis[0].varinfo_index, vis[1].varinfo_index);
+      case 3:
+        return key(vis[0].varinfo_index, vis[1].varinfo_index, vis[2].varinfo_index);
+      default:
+        throw new RuntimeException("Bad length " + vis.length);
+    }
+  }
+
+  /**
+   * Returns the key of the slice over the variables with the given indices.
+   *
+   * @param indices the varinfo_index values of one to three variables, in the order of the slice
+   * @return the key of the slice over the variables
+   */
+  static long key(List<Integer> indices) {
+    switch (indices.size()) {
+      case 1:
+        return key(indices.get(0));
+      case 2:
+        return key(indices.get(0), indices.get(1));
+      case 3:
+        return key(indices.get(0), indices.get(1), indices.get(2));
+      default:
+        throw new RuntimeException("Bad length " + indices.size());
+    }
+  }
+
+  /**
+   * Returns the arity of the slice with the given key.
+   *
+   * @param key a key
+   * @return the arity of the key's slice
+   */
+  private static int arity(long key) {
+    return (int) (key >>> (3 * INDEX_BITS));
+  }
+
+  /**
+   * Returns the entry of the table at which a search for the key starts.
+   *
+   * @param key a key
+   * @return an index into keys
+   */
+  private int home(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & (keys.length - 1);
+  }
+
+  /**
+   * Returns the entry of the table that holds the key, or the empty entry at which it would go.
+   *
+   * @param key a key
+   * @return an index into keys
+   */
+  private int probe(long key) {
+    int mask = keys.length - 1;
+    int e = home(key);
+    while (keys[e] != EMPTY && keys[e] != key) {
+      e = (e + 1) & mask;
+    }
+    return e;
+  }
+
+  /**
+   * Returns the slice with the given key, or null if there is none.
+   *
+   * @param key a key
+   * @return the slice with the key, or null
+   */
+  @Nullable PptSlice get(long key) {
+    int e = probe(key);
+    return (keys[e] == EMPTY) ? null : slices[positions[e]];
+  }
+
+  /**
+   * Adds a slice, which must not be in this already.
+   *
+   * @param slice the slice to add
+   */
+  void put(PptSlice slice) {
+    put(key(slice.var_infos), slice);
+  }
+
+  /**
+   * Adds a slice with the given key, which must not be in this already.
+   *
+   * @param key the key of the slice, as computed by {@link #key(VarInfo[])}
+   * @param slice the slice to add
+   */
+  void put(long key, PptSlice slice) {
+    if (used == slices.length) {
+      make_room();
+    }
+    int e = probe(key);
+    assert keys[e] == EMPTY : "slice already present: " + slice;
+    keys[e] = key;
+    positions[e] = used;
+    slices[used] = slice;
+    slice_keys[used] = key;
+    used++;
+    size++;
+    arity_counts[arity(key)]++;
+    mod_count++;
+  }
+
+  /**
+   * Removes the slice over the same variables as the given one, if there is one.
+   *
+   * @param slice a slice
+   * @return true if this held a slice over the variables of slice
+   */
+  boolean remove(PptSlice slice) {
+    int e = probe(key(slice.var_infos));
+    if (keys[e] == EMPTY) {
+      return false;
+    }
+    remove_at(e);
+    return true;
+  }
+
+  /**
+   * Removes the slice at an entry of the table.
+   *
+   * @param e an index into keys that holds a key
+   */
+  private void remove_at(int e) {
+    int pos = positions[e];
+    arity_counts[arity(keys[e])]--;
+    slices[pos] = null;
+    size--;
+    mod_count++;
+    // Shift later entries of the probe sequence back, so that no search stops early.
+    int mask = keys.length - 1;
+    int gap = e;
+    for (int i = (e + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+      int h = home(keys[i]);
+      // Move entry i into the gap unless its home lies cyclically within (gap, i].
+      if (((i - h) & mask) >= ((i - gap) & mask)) {
+        keys[gap] = keys[i];
+        positions[gap] = positions[i];
+        gap = i;
+      }
+    }
+    keys[gap] = EMPTY;
+  }
+
+  /**
+   * Makes room at the end of the dense array, by squeezing out its holes if they are at least half
+   * of it, and otherwise by growing it.
+   */
+  private void make_room() {
+    if (size * 2 > slices.length) {
+      int capacity = slices.length * 2;
+      slices = Arrays.copyOf(slices, capacity);
+      slice_keys = Arrays.copyOf(slice_keys, capacity);
+      keys = new long[table_size(capacity)];
+      positions = new int[keys.length];
+    } else {
+      Arrays.fill(keys, EMPTY);
+    }
+    int old_used = used;
+    used = 0;
+    for (int i = 0; i < old_used; i++) {
+      PptSlice slice = slices[i];
+      if (slice != null) {
+        int e = probe(slice_keys[i]);
+        keys[e] = slice_keys[i];
+        positions[e] = used;
+        slices[used] = slice;
+        slice_keys[used] = slice_keys[i];
+        used++;
+      }
+    }
+    Arrays.fill(slices, used, old_used, null);
+  }
+
+  /**
+   * Returns the number of slices.
+   *
+   * @return the number of slices
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of slices of the given arity.
+   *
+   * @param arity 1, 2, or 3
+   * @return the number of slices over arity variables
+   */
+  int size(int arity) {
+    return arity_counts[arity];
+  }
+
+  /**
+   * Returns one more than the largest position that {@link #slot} accepts. Together they visit the
+   * slices without allocating an iterator. Removing a slice leaves the positions of the others
+   * alone, but adding one may renumber them.
+   *
+   * @return the number of positions, including those of removed slices
+   */
+  int slots() {
+    return used;
+  }
+
+  /**
+   * Returns the slice at a position, in the order in which the slices were added.
+   *
+   * @param pos a position less than {@link #slots}
+   * @return the slice at pos, or null if it has been removed
+   */
+  @Nullable PptSlice slot(int pos) {
+    return slices[pos];
+  }
+
+  /**
+   * Removes the slice at a position.
+   *
+   * @param pos a position less than {@link #slots} that holds a slice
+   */
+  void remove_slot(int pos) {
+    assert slices[pos] != null;
+    remove_at(probe(slice_keys[pos]));
+  }
+
+  /**
+   * Checks that each slice is found under its key, and that its key is that of its variables.
+   * Throws an Error if not.
+   */
+  void repCheck() {
+    int count = 0;
+    for (int i = 0; i < used; i++) {
+      PptSlice slice = slices[i];
+      if (slice != null) {
+        assert get(slice_keys[i]) == slice;
+        assert slice_keys[i] == key(slice.var_infos);
+        count++;
+      }
+    }
+    assert count == size;
+  }
+
+  /** The view returned by {@link #values}, created when first needed. */
+  private transient @Nullable AbstractCollection<PptSlice> values;
+
+  /**
+   * Returns the slices, in the order in which they were added. The collection is a view of this:
+   * it changes as this does, and its iterator can remove slices.
+   *
+   * @return the slices
+   */
+  AbstractCollection<PptSlice> values() {
+    if (values == null) {
+      values =
+          new AbstractCollection<PptSlice>() {
+            @Override
+            public Iterator<PptSlice> iterator() {
+              return new SliceIterator();
+            }
+
+            @Override
+            public int size() {
+              return size;
+            }
+          };
+    }
+    return values;
+  }
+
+  /** Iterates over the slices in the dense array, skipping holes. */
+  private final class SliceIterator implements Iterator<PptSlice> {
+    /** The position in slices of the next slice to return, or used if there is none. */
+    private int next = advance(0);
+
+    /** The position of the slice last returned, or -1. */
+    private int last = -1;
+
+    /** The value of mod_count that this iterator expects. */
+    private int expected_mod_count = mod_count;
+
+    /**
+     * Returns the first position at or after the given one that holds a slice, or used.
+     *
+     * @param pos a position in slices
+     * @return the position of the next slice
+     */
+    private int advance(int pos) {
+      while (pos < used && slices[pos] == null) {
+        pos++;
+      }
+      return pos;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < used;
+    }
+
+    @Override
+    @SuppressWarnings("nullness") // advance skips holes
+    public PptSlice next() {
+      if (mod_count != expected_mod_count) {
+        throw new ConcurrentModificationException();
+      }
+      if (next >= used) {
+        throw new NoSuchElementException();
+      }
+      last = next;
+      next = advance(next + 1);
+      return slices[last];
+    }
+
+    @Override
+    public void remove() {
+      if (last < 0) {
+        throw new IllegalStateException();
+      }
+      if (mod_count != expected_mod_count) {
+        throw new ConcurrentModificationException();
+      }
+      remove_at(probe(slice_keys[last]));
+      last = -1;
+      expected_mod_count = mod_count;
+    }
+  }
+
+  /**
+   * Writes the number of slices, and then each slice's key and the slice.
+   *
+   * @param out the stream to write to
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeInt(size);
+    for (int i = 0; i < used; i++) {
+      PptSlice slice = slices[i];
+      if (slice != null) {
+        out.writeLong(slice_keys[i]);
+        out.writeObject(slice);
+      }
+    }
+  }
+
+  /**
+   * Reads what {@link #writeObject} wrote. The keys are read rather than recomputed, because the
+   * slices' VarInfos may not be completely deserialized yet.
+   *
+   * @param in the stream to read from
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    int count = in.readInt();
+    init(Math.max(count, 8));
+    for (int i = 0; i < count; i++) {
+      long key = in.readLong();
+      PptSlice slice = (PptSlice) in.readObject();
+      int e = probe(key);
+      keys[e] = key;
+      positions[e] = used;
+      slices[used] = slice;
+      slice_keys[used] = key;
+      used++;
+      size++;
+      arity_counts[arity(key)]++;
+    }
+  }
+}
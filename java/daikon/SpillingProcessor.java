@@ -0,0 +1,538 @@
+package daikon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.checker.nullness.qual.RequiresNonNull;
+
+/**
+ * A {@link FileIO.Processor} that bounds the memory used while a trace is read, by moving the
+ * inference state of program points out of the heap and into spill files.
+ *
+ * <p>Samples are processed as {@link FileIO.Processor#process_sample} does. In addition, the
+ * processor notes when each program point last received a sample and whether its number of
+ * invariants is still changing. Whenever the heap in use grows past {@link #dkconfig_heap_budget},
+ * the state of program points is written to spill files and dropped from the heap (see {@link
+ * PptTopLevel#release_state}) until the heap in use is estimated to be back within the budget.
+ * Program points that are idle (they have not received a sample recently) are spilled first, and
+ * then those that have converged (their invariants have stopped changing), least recently used
+ * first in each group. The state of a program point's conditional program points goes with it. A
+ * spilled program point is read back from its spill file when it receives its next sample, and
+ * {@link #restore_all} reads back all of them once the trace has been read, so that the hierarchy
+ * can be built and merged as usual. The invariants are the same as those of a run without
+ * spilling.
+ *
+ * <p>The heap in use is measured as of the most recent garbage collection, so that garbage does not
+ * count against the budget. Until the next collection, the sizes of the spill files written and
+ * read back since then are taken as the memory freed and used again.
+ *
+ * <p>A spill file contains only the state of its program points: references to the program points
+ * themselves and to their variables are written as placeholders and resolved against the live
+ * objects when the file is read.
+ */
+public class SpillingProcessor extends FileIO.Processor {
+
+  /** Debug tracer. */
+  public static final Logger debug = Logger.getLogger("daikon.SpillingProcessor");
+
+  /**
+   * Long. The heap usage after a garbage collection, in megabytes, past which program points are
+   * spilled to disk while the trace is read. When this is 0, nothing is spilled. Spilling requires
+   * the dataflow hierarchy, and samples are processed on one thread when it is enabled.
+   */
+  public static long dkconfig_heap_budget = 0;
+
+  /**
+   * String. The directory in which spill files are created. When this is null, the system's
+   * temporary directory is used.
+   */
+  public static @Nullable String dkconfig_spill_directory = null;
+
+  /**
+   * Integer. A program point is idle, and may be spilled, once this many samples have been read
+   * (for any program point) since its most recent sample.
+   */
+  public static int dkconfig_idle_samples = 10000;
+
+  /**
+   * Integer. A program point has converged, and may be spilled, once its number of invariants has
+   * not changed for this many of its own samples.
+   */
+  public static int dkconfig_stable_samples = 1000;
+
+  /** Integer. The number of samples between checks of the heap usage. */
+  public static int dkconfig_check_interval = 1000;
+
+  /** The spilling state of a leaf program point. */
+  private static final class Entry {
+    /** The program point. */
+    final PptTopLevel ppt;
+
+    /** The index, among all samples, of the most recent sample of the program point. */
+    long last_sample = 0;
+
+    /** The number of invariants at the program point and its conditional program points. */
+    int inv_count = -1;
+
+    /** The number of samples of the program point since inv_count last changed. */
+    int stable_samples = 0;
+
+    /** The file that holds the program point's state, or null if the state is in the heap. */
+    @Nullable File spill_file = null;
+
+    /** True if the state could not be written to a spill file; it is never tried again. */
+    boolean unspillable = false;
+
+    /**
+     * Creates an entry.
+     *
+     * @param ppt the program point
+     */
+    Entry(PptTopLevel ppt) {
+      this.ppt = ppt;
+    }
+  }
+
+  /** The spilling state of every program point that has received a sample. */
+  private final Map<PptTopLevel, Entry> entries = new IdentityHashMap<>();
+
+  /** The directory that holds the spill files. */
+  private final File directory;
+
+  /** The number of samples processed. */
+  private long num_samples = 0;
+
+  /** The number of spill files written. */
+  private int num_spills = 0;
+
+  /** The number of spill files read back. */
+  private int num_restores = 0;
+
+  /** The number of program points whose state could not be written to a spill file. */
+  private int num_unspillable = 0;
+
+  /** The number of garbage collections as of {@link #collected_in_use}, or -1 before the first. */
+  private long num_collections = -1;
+
+  /** The number of bytes of heap in use after the garbage collection counted by num_collections. */
+  private long collected_in_use = 0;
+
+  /**
+   * The number of bytes written to spill files, less the number read back, since the garbage
+   * collection counted by num_collections.
+   */
+  private long spilled_bytes = 0;
+
+  /**
+   * Returns true if program points should be spilled: that is, if there is a heap budget.
+   *
+   * @return true if a SpillingProcessor should be used
+   */
+  public static boolean is_enabled() {
+    return dkconfig_heap_budget > 0;
+  }
+
+  /**
+   * Returns true if program points can be spilled under the current configuration. Without the
+   * dataflow hierarchy, each numbered exit also adds its samples to the combined exit, so a sample
+   * can reach a program point other than its own.
+   *
+   * @return true if a SpillingProcessor may be used
+   */
+  public static boolean is_supported() {
+    return Daikon.use_dataflow_hierarchy;
+  }
+
+  /** Creates a processor and the directory for its spill files. */
+  public SpillingProcessor() {
+    try {
+      if (dkconfig_spill_directory == null) {
+        directory = Files.createTempDirectory("daikon-spill").toFile();
+      } else {
+        directory =
+            Files.createTempDirectory(new File(dkconfig_spill_directory).toPath(), "daikon-spill")
+                .toFile();
+      }
+    } catch (IOException e) {
+      throw new Daikon.UserError(e, "Cannot create a directory for spill files");
+    }
+  }
+
+  @Override
+  @RequiresNonNull("FileIO.data_trace_state")
+  public void process_sample(
+      PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, @Nullable Integer nonce) {
+
+    ValueTuple full_vt = FileIO.prepare_sample(all_ppts, ppt, vt, nonce);
+    if (full_vt == null) {
+      return;
+    }
+
+    Entry entry = entries.get(ppt);
+    if (entry == null) {
+      entry = new Entry(ppt);
+      entries.put(ppt, entry);
+    } else if (entry.spill_file != null) {
+      restore(entry, FileIO.data_trace_state);
+    }
+
+    FileIO.ParseState state = FileIO.data_trace_state;
+    coalescer.add(ppt, full_vt, state.filename, state.get_linenum());
+
+    entry.last_sample = num_samples++;
+    int inv_count = inv_count(ppt);
+    if (inv_count != entry.inv_count) {
+      entry.inv_count = inv_count;
+      entry.stable_samples = 0;
+    } else {
+      entry.stable_samples++;
+    }
+
+    if (num_samples % dkconfig_check_interval == 0) {
+      long excess = estimated_in_use() - dkconfig_heap_budget * 1024 * 1024;
+      if (excess > 0) {
+        spill_candidates(excess);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of invariants at a program point and its conditional program points, as of
+   * their most recent samples.
+   *
+   * @param ppt a program point
+   * @return the number of invariants at ppt and its conditional program points
+   */
+  static int inv_count(PptTopLevel ppt) {
+    int result = ppt.instantiated_inv_cnt;
+    for (PptConditional cond : ppt.cond_iterable()) {
+      result += cond.instantiated_inv_cnt;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of bytes of heap in use after the most recent garbage collection, or 0 if
+   * there has been none.
+   *
+   * @return the number of bytes of heap in use after the most recent garbage collection
+   */
+  static long heap_in_use() {
+    long result = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        MemoryUsage usage = pool.getCollectionUsage();
+        if (usage != null) {
+          result += usage.getUsed();
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of garbage collections so far.
+   *
+   * @return the number of garbage collections so far
+   */
+  static long num_collections() {
+    long result = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      result += Math.max(gc.getCollectionCount(), 0);
+    }
+    return result;
+  }
+
+  /**
+   * Returns an estimate of the number of bytes of heap in use, not counting garbage: the heap in
+   * use after the most recent garbage collection, less the spill files written since then, plus
+   * those read back since then.
+   *
+   * @return an estimate of the number of live bytes in the heap
+   */
+  private long estimated_in_use() {
+    long collections = num_collections();
+    if (collections != num_collections) {
+      num_collections = collections;
+      collected_in_use = heap_in_use();
+      spilled_bytes = 0;
+    }
+    return collected_in_use - spilled_bytes;
+  }
+
+  /**
+   * Spills program points until about the given number of bytes has been freed: first those that
+   * are idle, then those that have converged, least recently used first in each group.
+   *
+   * @param excess the number of bytes by which the heap in use exceeds the budget
+   */
+  private void spill_candidates(long excess) {
+    List<Entry> idle = new ArrayList<>();
+    List<Entry> converged = new ArrayList<>();
+    for (Entry entry : entries.values()) {
+      if (entry.spill_file != null || entry.unspillable) {
+        continue;
+      }
+      if (num_samples - entry.last_sample > dkconfig_idle_samples) {
+        idle.add(entry);
+      } else if (entry.stable_samples >= dkconfig_stable_samples) {
+        converged.add(entry);
+      }
+    }
+    if (idle.isEmpty() && converged.isEmpty()) {
+      return;
+    }
+    idle.sort(Comparator.comparingLong(e -> e.last_sample));
+    converged.sort(Comparator.comparingLong(e -> e.last_sample));
+    idle.addAll(converged);
+
+    // A spilled program point must not hold a sample.
+    coalescer.flush_all();
+    int spilled = 0;
+    for (Entry entry : idle) {
+      if (excess <= 0) {
+        break;
+      }
+      long size = spill(entry);
+      if (size > 0) {
+        excess -= size;
+        spilled++;
+      }
+    }
+    if (debug.isLoggable(Level.FINE)) {
+      debug.fine(
+          String.format(
+              "After %d samples: about %d MB in use, spilled %d program points"
+                  + " (%d spills, %d restores, %d unspillable)",
+              num_samples, estimated_in_use() / (1024 * 1024), spilled, num_spills,
+              num_restores, num_unspillable));
+    }
+  }
+
+  /**
+   * Returns a program point and its conditional program points, which are spilled together.
+   *
+   * @param ppt a program point
+   * @return ppt and its conditional program points
+   */
+  static PptTopLevel[] family(PptTopLevel ppt) {
+    List<PptTopLevel> result = new ArrayList<>();
+    result.add(ppt);
+    for (PptConditional cond : ppt.cond_iterable()) {
+      result.add(cond);
+    }
+    return result.toArray(new PptTopLevel[result.size()]);
+  }
+
+  /**
+   * Writes the state of a program point to a spill file and drops it from the heap. If the state
+   * cannot be written, it is left in place and the program point is never spilled again.
+   *
+   * @param entry the program point's entry
+   * @return the size of the spill file, or 0 if the state could not be written
+   */
+  private long spill(Entry entry) {
+    PptTopLevel[] family = family(entry.ppt);
+    PptTopLevel.InferenceState[] states = new PptTopLevel.InferenceState[family.length];
+    for (int i = 0; i < family.length; i++) {
+      states[i] = family[i].release_state();
+    }
+    File file = new File(directory, "ppt" + num_spills + ".spill");
+    try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+        SpillOutputStream oos = new SpillOutputStream(os, family)) {
+      oos.writeObject(states);
+    } catch (IOException e) {
+      for (int i = 0; i < family.length; i++) {
+        family[i].restore_state(states[i]);
+      }
+      file.delete();
+      entry.unspillable = true;
+      num_unspillable++;
+      if (debug.isLoggable(Level.FINE)) {
+        debug.fine(
+            "Cannot spill "
+                + entry.ppt.name()
+                + "; its state stays in the heap, outside the heap budget: "
+                + e);
+      }
+      return 0;
+    }
+    entry.spill_file = file;
+    num_spills++;
+    long size = file.length();
+    spilled_bytes += size;
+    return size;
+  }
+
+  /**
+   * Reads the state of a spilled program point back from its spill file.
+   *
+   * @param entry the program point's entry
+   * @param state the trace file whose sample needs the state, or null if the trace has been read
+   * @throws Daikon.UserError if the spill file cannot be read
+   */
+  private void restore(Entry entry, FileIO.@Nullable ParseState state) {
+    File file = entry.spill_file;
+    assert file != null : entry.ppt.name();
+    PptTopLevel[] family = family(entry.ppt);
+    PptTopLevel.InferenceState[] states;
+    try (InputStream is = new BufferedInputStream(Files.newInputStream(file.toPath()));
+        SpillInputStream ois = new SpillInputStream(is, family)) {
+      states = (PptTopLevel.InferenceState[]) ois.readObject();
+    } catch (IOException | ClassNotFoundException e) {
+      String msg = "Cannot read spill file " + file + " for program point " + entry.ppt.name();
+      if (state != null) {
+        msg = Daikon.UserError.error_at_line_file(state.get_linenum(), state.filename, msg);
+      }
+      throw new Daikon.UserError(e, msg);
+    }
+    for (int i = 0; i < family.length; i++) {
+      family[i].restore_state(states[i]);
+    }
+    spilled_bytes -= file.length();
+    file.delete();
+    entry.spill_file = null;
+    num_restores++;
+  }
+
+  /**
+   * Reads back the state of every spilled program point and deletes the spill directory. Call this
+   * once all of the trace files have been read. The processor may not be used afterward.
+   */
+  public void restore_all() {
+    for (Entry entry : entries.values()) {
+      if (entry.spill_file != null) {
+        restore(entry, null);
+      }
+    }
+    directory.delete();
+    if (debug.isLoggable(Level.FINE)) {
+      debug.fine(
+          String.format(
+              "%d samples at %d program points: %d spills, %d restores, %d unspillable",
+              num_samples, entries.size(), num_spills, num_restores, num_unspillable));
+    }
+  }
+
+  /** A reference to a program point, or to one of its variables, in a spill file. */
+  private static final class Ref implements Serializable {
+    static final long serialVersionUID = 20261018L;
+
+    /** The index of the program point in its family; see {@link #family}. */
+    final int ppt;
+
+    /** The varinfo_index of the variable, or -1 for the program point itself. */
+    final int var;
+
+    /**
+     * Creates a reference.
+     *
+     * @param ppt the index of the program point in its family
+     * @param var the varinfo_index of the variable, or -1 for the program point itself
+     */
+    Ref(int ppt, int var) {
+      this.ppt = ppt;
+      this.var = var;
+    }
+  }
+
+  /** Writes the state of a family of program points, replacing the program points by references. */
+  private static final class SpillOutputStream extends ObjectOutputStream {
+
+    /** The index of each program point in the family. */
+    private final Map<PptTopLevel, Integer> ids = new IdentityHashMap<>();
+
+    /**
+     * Creates a stream that writes the state of a family of program points.
+     *
+     * @param out the underlying stream
+     * @param family the program points
+     * @throws IOException if the stream header cannot be written
+     */
+    SpillOutputStream(OutputStream out, PptTopLevel[] family) throws IOException {
+      super(out);
+      for (int i = 0; i < family.length; i++) {
+        ids.put(family[i], i);
+      }
+      enableReplaceObject(true);
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) throws IOException {
+      if (obj instanceof PptTopLevel) {
+        return new Ref(id((PptTopLevel) obj), -1);
+      } else if (obj instanceof VarInfo) {
+        VarInfo vi = (VarInfo) obj;
+        assert vi.ppt.var_infos[vi.varinfo_index] == vi : vi;
+        return new Ref(id(vi.ppt), vi.varinfo_index);
+      }
+      return obj;
+    }
+
+    /**
+     * Returns the index of a program point in the family.
+     *
+     * @param ppt a program point
+     * @return the index of ppt in the family
+     * @throws NotSerializableException if ppt is not in the family
+     */
+    private int id(PptTopLevel ppt) throws NotSerializableException {
+      Integer id = ids.get(ppt);
+      if (id == null) {
+        throw new NotSerializableException("reference to another program point: " + ppt.name());
+      }
+      return id;
+    }
+  }
+
+  /** Reads the state written by a {@link SpillOutputStream}, resolving its references. */
+  private static final class SpillInputStream extends ObjectInputStream {
+
+    /** The program points. */
+    private final PptTopLevel[] family;
+
+    /**
+     * Creates a stream that reads the state of a family of program points.
+     *
+     * @param in the underlying stream
+     * @param family the program points
+     * @throws IOException if the stream header cannot be read
+     */
+    SpillInputStream(InputStream in, PptTopLevel[] family) throws IOException {
+      super(in);
+      this.family = family;
+      enableResolveObject(true);
+    }
+
+    @Override
+    protected Object resolveObject(Object obj) {
+      if (obj instanceof Ref) {
+        Ref ref = (Ref) obj;
+        PptTopLevel ppt = family[ref.ppt];
+        return (ref.var == -1) ? ppt : ppt.var_infos[ref.var];
+      }
+      return obj;
+    }
+  }
+}
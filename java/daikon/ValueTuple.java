@@ -11,7 +11,6 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.dataflow.qual.Pure;
 import org.checkerframework.dataflow.qual.SideEffectFree;
 import org.plumelib.util.ArraysPlume;
-import org.plumelib.util.Intern;
 import org.plumelib.util.MathPlume;
 
 /**
@@ -28,6 +27,10 @@ public final class ValueTuple implements Cloneable {
 
   // These arrays are interned, and so are their elements.
   // Each element is null only if it is missing (according to the mods array).
+  // Scalars and floats are kept boxed too: equality sets and dynamic
+  // constants compare values by identity, so each value must be a single
+  // interned object.  Unboxed copies alongside vals cost more to build than
+  // they save the invariants.
   public @Nullable @Interned Object @Interned [] vals;
 
   // Could consider putting the mods array in the first slot of "vals", to
@@ -327,8 +330,8 @@ public final class ValueTuple implements Cloneable {
 
   /** Default constructor that interns its argument. */
   public ValueTuple(@Nullable @Interned Object[] vals, int[] mods) {
-    this.vals = Intern.intern(vals);
-    this.mods = Intern.intern(mods);
+    this.vals = ConcurrentIntern.intern(vals);
+    this.mods = ConcurrentIntern.intern(mods);
     checkRep();
   }
 
@@ -341,8 +344,8 @@ public final class ValueTuple implements Cloneable {
    */
   @SuppressWarnings("interning") // interning constructor
   private ValueTuple(@Nullable Object[] vals, int[] mods, boolean check) {
-    assert !check || Intern.isInterned(vals);
-    assert !check || Intern.isInterned(mods);
+    assert !check || ConcurrentIntern.isInterned(vals);
+    assert !check || ConcurrentIntern.isInterned(mods);
     this.vals = vals;
     this.mods = mods;
     checkRep();
@@ -2246,6 +2246,13 @@ public final @Interned class VarInfo implements Cloneable, Serializable {
     }
 
     if (relative_name != null) relative_name = relative_name.intern();
+
+    if (static_constant_value instanceof String[]) {
+      static_constant_value =
+          ConcurrentIntern.intern(ConcurrentIntern.internStrings((String[]) static_constant_value));
+    } else if (static_constant_value != null) {
+      static_constant_value = ConcurrentIntern.intern(static_constant_value);
+    }
   }
 
   // /**
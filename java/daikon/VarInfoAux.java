@@ -340,22 +340,25 @@ public final class VarInfoAux implements Cloneable, Serializable {
       return (@Interned VarInfoAux) this; // cast is redundant (except in JSR 308)
     }
 
-    // Necessary because various static methods call intern(), possibly before static field
-    // interningMap's initializer would be executed.
-    if (interningMap == null) {
-      interningMap = new HashMap<>();
-    }
+    // Several threads may deserialize invariant files at once (see MergeTree).
+    synchronized (VarInfoAux.class) {
+      // Necessary because various static methods call intern(), possibly before static field
+      // interningMap's initializer would be executed.
+      if (interningMap == null) {
+        interningMap = new HashMap<>();
+      }
 
-    @Interned VarInfoAux result;
-    if (interningMap.containsKey(this)) {
-      result = interningMap.get(this);
-    } else {
-      // Intern values in map
-      interningMap.put(this, (@Interned VarInfoAux) this); // cast is redundant (except in JSR 308)
-      result = (@Interned VarInfoAux) this; // cast is redundant (except in JSR 308)
-      this.isInterned = true;
+      @Interned VarInfoAux result;
+      if (interningMap.containsKey(this)) {
+        result = interningMap.get(this);
+      } else {
+        // Intern values in map.  The cast is redundant (except in JSR 308).
+        interningMap.put(this, (@Interned VarInfoAux) this);
+        result = (@Interned VarInfoAux) this; // cast is redundant (except in JSR 308)
+        this.isInterned = true;
+      }
+      return result;
     }
-    return result;
   }
 
   /**
@@ -444,15 +444,18 @@ public abstract @Interned class VarInfoName implements Serializable, Comparable<
   // VarInfoName are themselves interned.  Should it?  (I suspect so...)
   @InternMethod
   public VarInfoName intern() {
-    WeakReference<VarInfoName> ref = internTable.get(this);
-    if (ref != null) {
-      VarInfoName result = ref.get();
-      return result;
-    } else {
-      @SuppressWarnings("interning") // intern method
-      @Interned VarInfoName this_interned = this;
-      internTable.put(this_interned, new WeakReference<>(this_interned));
-      return this_interned;
+    // Invariant files may be read on several threads at once (see MergeTree).
+    synchronized (internTable) {
+      WeakReference<VarInfoName> ref = internTable.get(this);
+      if (ref != null) {
+        VarInfoName result = ref.get();
+        return result;
+      } else {
+        @SuppressWarnings("interning") // intern method
+        @Interned VarInfoName this_interned = this;
+        internTable.put(this_interned, new WeakReference<>(this_interned));
+        return this_interned;
+      }
     }
   }
 
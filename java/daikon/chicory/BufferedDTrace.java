@@ -0,0 +1,224 @@
+package daikon.chicory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import org.checkerframework.checker.lock.qual.GuardedBy;
+
+/**
+ * Writes the samples of a textual dtrace file without making the threads of the target program
+ * wait for one another. Each thread writes its records to a {@link ThreadBuffer} of its own. Once a
+ * buffer holds {@link #BATCH_SIZE} bytes, the batch is handed to a background thread, which writes
+ * it to the dtrace file.
+ *
+ * <p>The records of each thread appear in the dtrace file in the order in which the thread wrote
+ * them, so each method exit follows the matching entry. The records of different threads are
+ * interleaved a batch at a time. A record is always written to its buffer after the declarations
+ * of its program point have been written to the dtrace file, so it follows them in the file.
+ *
+ * <p>The buffer of a thread that has ended is handed off and dropped the next time buffers are
+ * swept (see {@link #new_buffer}), so a program that starts many threads does not keep a buffer
+ * for each of them.
+ */
+final class BufferedDTrace {
+
+  /** The number of bytes of records that a thread accumulates before they are written. */
+  static final int BATCH_SIZE = 1 << 15;
+
+  /**
+   * The initial capacity of a thread's buffer. A buffer grows as needed up to about {@link
+   * #BATCH_SIZE}, so a thread that writes few records does not hold a whole batch.
+   */
+  static final int INITIAL_BUFFER_SIZE = 1 << 8;
+
+  /**
+   * The number of batches that may wait for the background thread. When it falls this far behind,
+   * the threads that hand it batches wait, which bounds the memory used by records in flight.
+   */
+  static final int QUEUE_CAPACITY = 64;
+
+  /** The dtrace file. */
+  private final @GuardedBy("<self>") PrintStream dtrace;
+
+  /**
+   * The batches waiting to be written. Each element is a {@code byte[]}, or a {@link
+   * CountDownLatch} to count down once every earlier batch has been written.
+   */
+  private final BlockingQueue<Object> batches = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+  /**
+   * The buffer of every thread that has written a record, except those of ended threads that have
+   * been swept.
+   */
+  private final @GuardedBy("<self>") List<ThreadBuffer> buffers = new ArrayList<>();
+
+  /** When {@link #buffers} reaches this size, the buffers of ended threads are swept. */
+  private @GuardedBy("buffers") int sweep_size = 16;
+
+  /**
+   * Creates a BufferedDTrace and starts its background thread.
+   *
+   * @param dtrace the dtrace file. Other writers to it, such as the {@link DeclWriter}, must hold
+   *     its lock while writing.
+   */
+  BufferedDTrace(@GuardedBy("<self>") PrintStream dtrace) {
+    this.dtrace = dtrace;
+    Thread writer = new Thread(this::write_batches, "chicory-dtrace-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Creates a buffer for the current thread. If many buffers have been created since the last
+   * sweep, first hands off and drops the buffers of threads that have ended.
+   *
+   * @return a new buffer
+   */
+  ThreadBuffer new_buffer() {
+    ThreadBuffer buffer = new ThreadBuffer(Thread.currentThread());
+    List<ThreadBuffer> ended = null;
+    synchronized (buffers) {
+      if (buffers.size() >= sweep_size) {
+        ended = remove_ended();
+        // Sweep again after as many new buffers as there are live ones, so that sweeping takes
+        // constant amortized time per buffer.
+        sweep_size = Math.max(16, 2 * buffers.size());
+      }
+      buffers.add(buffer);
+    }
+    if (ended != null) {
+      for (ThreadBuffer b : ended) {
+        b.hand_off();
+      }
+    }
+    return buffer;
+  }
+
+  /**
+   * Removes the buffers of threads that have ended from {@link #buffers}. The caller must hand off
+   * the records that remain in them.
+   *
+   * @return the buffers that were removed
+   */
+  @SuppressWarnings("lock") // the caller holds the lock on buffers
+  private List<ThreadBuffer> remove_ended() {
+    List<ThreadBuffer> ended = new ArrayList<>();
+    for (Iterator<ThreadBuffer> i = buffers.iterator(); i.hasNext(); ) {
+      ThreadBuffer b = i.next();
+      if (!b.owner.isAlive()) {
+        ended.add(b);
+        i.remove();
+      }
+    }
+    return ended;
+  }
+
+  /**
+   * Writes the records in every buffer to the dtrace file, and waits until they have been written.
+   * Also drops the buffers of threads that have ended. Must not be called while holding the lock on
+   * the buffer of another thread.
+   */
+  void flush() {
+    List<ThreadBuffer> all;
+    synchronized (buffers) {
+      all = remove_ended();
+      all.addAll(buffers);
+    }
+    for (ThreadBuffer buffer : all) {
+      buffer.hand_off();
+    }
+    CountDownLatch written = new CountDownLatch(1);
+    submit(written);
+    try {
+      written.await();
+    } catch (InterruptedException e) {
+      throw new Error(e);
+    }
+  }
+
+  /**
+   * Hands an element to the background thread, waiting for room if necessary.
+   *
+   * @param element a batch or a latch
+   */
+  private void submit(Object element) {
+    try {
+      batches.put(element);
+    } catch (InterruptedException e) {
+      throw new Error(e);
+    }
+  }
+
+  /** The body of the background thread: writes batches to the dtrace file as they arrive. */
+  @SuppressWarnings("lock") // the lock on dtrace is held while writing to it
+  private void write_batches() {
+    while (true) {
+      Object element;
+      try {
+        element = batches.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (element instanceof CountDownLatch) {
+        synchronized (dtrace) {
+          dtrace.flush();
+        }
+        ((CountDownLatch) element).countDown();
+      } else {
+        byte[] batch = (byte[]) element;
+        synchronized (dtrace) {
+          dtrace.write(batch, 0, batch.length);
+        }
+      }
+    }
+  }
+
+  /**
+   * The records written by one thread that have not yet been handed to the background thread. The
+   * thread holds the lock on its buffer while it writes a record, so that {@link #flush} does not
+   * hand off part of a record.
+   */
+  final class ThreadBuffer {
+
+    /** The thread that writes records to this buffer. */
+    private final Thread owner;
+
+    /** The records. */
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+
+    /** Writes records to this buffer. */
+    final DTraceWriter writer = new DTraceWriter(new PrintStream(bytes));
+
+    /**
+     * Creates an empty buffer.
+     *
+     * @param owner the thread that writes records to this buffer
+     */
+    private ThreadBuffer(Thread owner) {
+      this.owner = owner;
+    }
+
+    /**
+     * Called after a record has been written to this buffer. Hands off the records once they form a
+     * batch.
+     */
+    void end_record() {
+      if (bytes.size() >= BATCH_SIZE) {
+        hand_off();
+      }
+    }
+
+    /** Hands the records in this buffer, if any, to the background thread. */
+    synchronized void hand_off() {
+      if (bytes.size() > 0) {
+        submit(bytes.toByteArray());
+        bytes.reset();
+      }
+    }
+  }
+}
@@ -82,6 +82,7 @@ public class ChicoryPremain {
     }
 
     // Open the dtrace file
+    Runtime.dtrace_binary = Chicory.dtrace_binary;
     if (Chicory.daikon_online) {
       Runtime.setDtraceOnlineMode(daikon_port);
     } else if (Chicory.dtrace_file == null) {
@@ -159,7 +160,7 @@ public class ChicoryPremain {
     // so they don't need to be handled here.
     // (It looks like these can be called even if Runtime.dtrace is null...)
     Runtime.decl_writer = new DeclWriter(Runtime.dtrace);
-    Runtime.dtrace_writer = new DTraceWriter(Runtime.dtrace);
+    Runtime.dtrace_writer = new DTraceWriter(Runtime.dtrace, Runtime.binary_dtrace);
   }
 
   /**
@@ -1,18 +1,22 @@
 package daikon.chicory;
 
+import daikon.BinaryDtrace;
 import daikon.Chicory;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
 import java.lang.reflect.Member;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.checkerframework.checker.lock.qual.GuardSatisfied;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 /**
  * DTraceWriter writes {@code .dtrace} program points to an output stream. It uses the trees created
- * by the {@link DeclWriter}.
+ * by the {@link DeclWriter}. The samples are written as text, or, if the DTraceWriter was given a
+ * {@link BinaryDtrace.Writer}, in Daikon's binary trace format.
  */
 @SuppressWarnings("nullness")
 public class DTraceWriter extends DaikonWriter {
@@ -40,6 +44,18 @@ public class DTraceWriter extends DaikonWriter {
   /** Where to print output. */
   private PrintStream outFile;
 
+  /** Where to write samples if the trace is binary, or null if it is textual. */
+  private BinaryDtrace.@Nullable Writer binary;
+
+  /** For a binary trace, the number of each program point that has been written, by name. */
+  private Map<String, BinaryPpt> binary_ppts = new HashMap<>();
+
+  /** For a binary trace, the types of the variables of the sample being written. */
+  private byte[] binary_types;
+
+  /** For a binary trace, the index of the next variable of the sample being written. */
+  private int binary_var;
+
   /** debug information about daikon variables */
   private boolean debug_vars = false;
 
@@ -49,8 +65,38 @@ public class DTraceWriter extends DaikonWriter {
    * @param writer stream to write to
    */
   public DTraceWriter(PrintStream writer) {
+    this(writer, null);
+  }
+
+  /**
+   * Initializes the DTraceWriter.
+   *
+   * @param writer stream to write to; for a binary trace, the stream for its text
+   * @param binary where to write samples if the trace is binary, or null if it is textual
+   */
+  public DTraceWriter(PrintStream writer, BinaryDtrace.@Nullable Writer binary) {
     super();
     outFile = writer;
+    this.binary = binary;
+  }
+
+  /** A program point of a binary trace. */
+  private static class BinaryPpt {
+    /** The number of the program point in the trace's dictionary. */
+    final int id;
+    /** The types of the variables in the program point's samples. */
+    final byte[] types;
+
+    /**
+     * Creates a BinaryPpt.
+     *
+     * @param id the number of the program point in the trace's dictionary
+     * @param types the types of the variables in the program point's samples
+     */
+    BinaryPpt(int id, byte[] types) {
+      this.id = id;
+      this.types = types;
+    }
   }
 
   /** Prints the method entry program point in the dtrace file. */
@@ -79,11 +125,17 @@ public class DTraceWriter extends DaikonWriter {
       stack.fillInStackTrace();
       stack.printStackTrace(System.out);
     }
-    outFile.println(DaikonWriter.methodEntryName(member));
-    printNonce(nonceVal);
-    traverse(mi, root, args, obj, nonsenseValue);
+    if (binary != null) {
+      writeBinarySample(DaikonWriter.methodEntryName(member), nonceVal, root);
+      traverse(mi, root, args, obj, nonsenseValue);
+      endBinarySample();
+    } else {
+      outFile.println(DaikonWriter.methodEntryName(member));
+      printNonce(nonceVal);
+      traverse(mi, root, args, obj, nonsenseValue);
 
-    outFile.println();
+      outFile.println();
+    }
 
     Runtime.incrementRecords();
   }
@@ -94,9 +146,14 @@ public class DTraceWriter extends DaikonWriter {
     if (Runtime.dtrace_closed) {
       return;
     }
-    outFile.println(pptname);
-    printNonce(nonceVal);
-    outFile.println();
+    if (binary != null) {
+      writeBinarySample(pptname, nonceVal, null);
+      endBinarySample();
+    } else {
+      outFile.println(pptname);
+      printNonce(nonceVal);
+      outFile.println();
+    }
     Runtime.incrementRecords();
   }
 
@@ -134,11 +191,17 @@ public class DTraceWriter extends DaikonWriter {
               + "No exit locations found in exit_locations set!");
     }
 
-    outFile.println(DaikonWriter.methodExitName(member, lineNum));
-    printNonce(nonceVal);
-    traverse(mi, root, args, obj, ret_val);
+    if (binary != null) {
+      writeBinarySample(DaikonWriter.methodExitName(member, lineNum), nonceVal, root);
+      traverse(mi, root, args, obj, ret_val);
+      endBinarySample();
+    } else {
+      outFile.println(DaikonWriter.methodExitName(member, lineNum));
+      printNonce(nonceVal);
+      traverse(mi, root, args, obj, ret_val);
 
-    outFile.println();
+      outFile.println();
+    }
 
     Runtime.incrementRecords();
   }
@@ -149,12 +212,91 @@ public class DTraceWriter extends DaikonWriter {
     if (Runtime.dtrace_closed) {
       return;
     }
-    outFile.println(pptname);
-    printNonce(nonceVal);
-    outFile.println();
+    if (binary != null) {
+      writeBinarySample(pptname, nonceVal, null);
+      endBinarySample();
+    } else {
+      outFile.println(pptname);
+      printNonce(nonceVal);
+      outFile.println();
+    }
     Runtime.incrementRecords();
   }
 
+  /**
+   * Starts a sample of a binary trace. The values are written by {@link #traverse}, and the sample
+   * is finished by {@link #endBinarySample}. The first time a program point is written, it is
+   * entered in the trace's dictionary.
+   *
+   * @param pptname the name of the program point
+   * @param nonceVal the invocation nonce
+   * @param root the root of the program point's tree, or null if it has no variables
+   */
+  private void writeBinarySample(
+      @GuardSatisfied DTraceWriter this, String pptname, int nonceVal, @Nullable RootInfo root) {
+    BinaryPpt bppt = binary_ppts.get(pptname);
+    if (bppt == null) {
+      List<String> names = new ArrayList<>();
+      List<DaikonVariableInfo> vars = new ArrayList<>();
+      if (root != null) {
+        for (DaikonVariableInfo child : root) {
+          collectVars(child, vars);
+        }
+      }
+      byte[] types = new byte[vars.size()];
+      for (int i = 0; i < types.length; i++) {
+        DaikonVariableInfo var = vars.get(i);
+        names.add(var.getName());
+        types[i] = BinaryDtrace.type_of_rep(var.getRepTypeNameOnly());
+        if (types[i] == -1) {
+          throw new RuntimeException(
+              "Cannot write variable "
+                  + var.getName()
+                  + " of type "
+                  + var.getRepTypeNameOnly()
+                  + " to a binary trace");
+        }
+      }
+      try {
+        int id = binary.declare_ppt(pptname, names.toArray(new String[0]), types);
+        bppt = new BinaryPpt(id, types);
+      } catch (IOException e) {
+        throw new Error(e);
+      }
+      binary_ppts.put(pptname, bppt);
+    }
+    binary.begin_sample(bppt.id, nonceVal);
+    binary_types = bppt.types;
+    binary_var = 0;
+  }
+
+  /**
+   * Collects the variables whose values {@link #traverseValue} writes, in the same order.
+   *
+   * @param curInfo a node of a program point's tree
+   * @param vars where to add the variables
+   */
+  private static void collectVars(DaikonVariableInfo curInfo, List<DaikonVariableInfo> vars) {
+    if (curInfo.dTraceShouldPrint() && !(curInfo instanceof StaticObjInfo)) {
+      vars.add(curInfo);
+    }
+    if (curInfo.dTraceShouldPrintChildren()) {
+      for (DaikonVariableInfo child : curInfo) {
+        collectVars(child, vars);
+      }
+    }
+  }
+
+  /** Finishes a sample of a binary trace. */
+  private void endBinarySample(@GuardSatisfied DTraceWriter this) {
+    assert binary_var == binary_types.length;
+    try {
+      binary.end_sample();
+    } catch (IOException e) {
+      throw new Error(e);
+    }
+  }
+
   // prints an invocation nonce entry in the dtrace
   private void printNonce(@GuardSatisfied DTraceWriter this, int val) {
     outFile.println("this_invocation_nonce");
@@ -193,7 +335,9 @@ public class DTraceWriter extends DaikonWriter {
       } else if (child instanceof FieldInfo) {
         // can only occur for static fields
         // non-static fields will appear as children of "this"
-
+        if (writePrimitiveField(child, null)) {
+          continue;
+        }
         val = child.getMyValFromParentVal(null);
       } else if (child instanceof StaticObjInfo) {
         val = null;
@@ -218,8 +362,12 @@ public class DTraceWriter extends DaikonWriter {
 
     if (curInfo.dTraceShouldPrint()) {
       if (!(curInfo instanceof StaticObjInfo)) {
-        outFile.println(curInfo.getName());
-        outFile.println(curInfo.getDTraceValueString(val));
+        if (binary != null) {
+          curInfo.writeBinaryValue(binary, binary_types[binary_var++], val);
+        } else {
+          outFile.println(curInfo.getName());
+          outFile.println(curInfo.getDTraceValueString(val));
+        }
       }
 
       if (debug_vars) {
@@ -234,19 +382,65 @@ public class DTraceWriter extends DaikonWriter {
     // and recurse on their values
     if (curInfo.dTraceShouldPrintChildren()) {
       for (DaikonVariableInfo child : curInfo) {
-        Object childVal = child.getMyValFromParentVal(val);
-        traverseValue(mi, child, childVal);
+        if (!writePrimitiveField(child, val)) {
+          Object childVal = child.getMyValFromParentVal(val);
+          traverseValue(mi, child, childVal);
+        }
       }
     }
   }
 
+  /**
+   * If curInfo is a field of primitive type, writes its value in parentVal directly, without
+   * wrapping it in a {@link Runtime.PrimitiveWrapper}. A primitive field has no children, so this
+   * is all that {@link #traverseValue} would do with it.
+   *
+   * @param curInfo a node of a program point's tree
+   * @param parentVal the value of the parent of curInfo; ignored for a static field
+   * @return true if curInfo was a primitive field and has been written, false if the caller must
+   *     traverse it
+   */
+  private boolean writePrimitiveField(
+      @GuardSatisfied DTraceWriter this, DaikonVariableInfo curInfo, @Nullable Object parentVal) {
+    if (!(curInfo instanceof FieldInfo) || debug_vars) {
+      return false;
+    }
+    FieldInfo field = (FieldInfo) curInfo;
+    if (!field.isPrimitive() || field.isArray || !field.dTraceShouldPrint()) {
+      return false;
+    }
+    assert !field.dTraceShouldPrintChildren() || field.children.isEmpty();
+
+    boolean nonsensical = field.isNonsensicalIn(parentVal);
+    if (binary != null) {
+      byte type = binary_types[binary_var++];
+      if (nonsensical) {
+        binary.write_missing();
+      } else if (type == BinaryDtrace.DOUBLE) {
+        binary.write_double(1, field.getDoubleValue(parentVal));
+      } else {
+        binary.write_long(1, field.getLongValue(parentVal));
+      }
+    } else {
+      outFile.println(field.getName());
+      if (nonsensical) {
+        outFile.println("nonsensical");
+        outFile.println("2");
+      } else {
+        outFile.println(field.getPrimitiveValueString(parentVal));
+        outFile.println("1");
+      }
+    }
+    return true;
+  }
+
   /**
    * Returns a list of values of the field for each Object in theObjects.
    *
-   * @param theObjects list of Objects, each must have the Field field
+   * @param theObjects list of Objects, each must have the field
    * @param field which field of theObjects we are probing
    */
-  public static List<Object> getFieldValues(Field field, List<Object> theObjects) {
+  public static List<Object> getFieldValues(FieldInfo field, List<Object> theObjects) {
     if (theObjects == null || theObjects instanceof NonsensicalList) {
       return nonsenseList;
     }
@@ -265,98 +459,41 @@ public class DTraceWriter extends DaikonWriter {
   }
 
   /**
-   * Get the value of a certain field in theObj.
+   * Get the value of a certain field in theObj. The field is read through a method handle that is
+   * created the first time it is read, rather than by reflection.
    *
-   * @param classField which field we are interested in
+   * @param field which field we are interested in
    * @param theObj the object whose field we are examining. TheoObj must be null, Nonsensical, or of
-   *     a type which contains the field classField.
-   * @return the value of the classField field in theObj
+   *     a type which contains the field. It is ignored if the field is static.
+   * @return the value of the field in theObj, with a primitive value in a {@link
+   *     Runtime.PrimitiveWrapper}
    */
-  @SuppressWarnings("deprecation") // in Java 9+, use canAccess instead of isAccessible
-  public static Object getValue(Field classField, Object theObj) {
+  public static Object getValue(FieldInfo field, Object theObj) {
     // if we don't have a real object, return NonsensicalValue
-    if ((theObj == null) || (theObj instanceof NonsensicalObject)) {
+    if (field.isNonsensicalIn(theObj)) {
       return nonsenseValue;
     }
 
-    Class<?> fieldType = classField.getType();
-
-    if (!classField.isAccessible()) {
-      classField.setAccessible(true);
-    }
-
-    try {
-      if (fieldType.equals(int.class)) {
-        return new Runtime.IntWrap(classField.getInt(theObj));
-      } else if (fieldType.equals(long.class)) {
-        return new Runtime.LongWrap(classField.getLong(theObj));
-      } else if (fieldType.equals(boolean.class)) {
-        return new Runtime.BooleanWrap(classField.getBoolean(theObj));
-      } else if (fieldType.equals(float.class)) {
-        return new Runtime.FloatWrap(classField.getFloat(theObj));
-      } else if (fieldType.equals(byte.class)) {
-        return new Runtime.ByteWrap(classField.getByte(theObj));
-      } else if (fieldType.equals(char.class)) {
-        return new Runtime.CharWrap(classField.getChar(theObj));
-      } else if (fieldType.equals(short.class)) {
-        return new Runtime.ShortWrap(classField.getShort(theObj));
-      } else if (fieldType.equals(double.class)) {
-        return new Runtime.DoubleWrap(classField.getDouble(theObj));
-      } else {
-        return classField.get(theObj);
-      }
-    } catch (IllegalArgumentException e) {
-      throw new Error(e);
-    } catch (IllegalAccessException e) {
-      throw new Error(e);
-    }
-  }
-
-  /**
-   * Similar to {@link DTraceWriter#getValue}, but used for static fields.
-   *
-   * @param classField the field whose static value to return
-   * @return the static value of the field
-   */
-  @SuppressWarnings("deprecation") // in Java 9+, use canAccess instead of isAccessible
-  public static Object getStaticValue(Field classField) {
-    if (!classField.isAccessible()) {
-      classField.setAccessible(true);
-    }
-
-    Class<?> fieldType = classField.getType();
-
-    if (Chicory.checkStaticInit) {
-      // don't force initialization!
-      if (!Runtime.isInitialized(classField.getDeclaringClass().getName())) {
-        return nonsenseValue;
-      }
-    }
-
-    try {
-      if (fieldType.equals(int.class)) {
-        return new Runtime.IntWrap(classField.getInt(null));
-      } else if (fieldType.equals(long.class)) {
-        return new Runtime.LongWrap(classField.getLong(null));
-      } else if (fieldType.equals(boolean.class)) {
-        return new Runtime.BooleanWrap(classField.getBoolean(null));
-      } else if (fieldType.equals(float.class)) {
-        return new Runtime.FloatWrap(classField.getFloat(null));
-      } else if (fieldType.equals(byte.class)) {
-        return new Runtime.ByteWrap(classField.getByte(null));
-      } else if (fieldType.equals(char.class)) {
-        return new Runtime.CharWrap(classField.getChar(null));
-      } else if (fieldType.equals(short.class)) {
-        return new Runtime.ShortWrap(classField.getShort(null));
-      } else if (fieldType.equals(double.class)) {
-        return new Runtime.DoubleWrap(classField.getDouble(null));
-      } else {
-        return classField.get(null);
-      }
-    } catch (IllegalArgumentException e) {
-      throw new Error(e);
-    } catch (IllegalAccessException e) {
-      throw new Error(e);
+    Class<?> fieldType = field.getType();
+
+    if (!fieldType.isPrimitive()) {
+      return field.getObjectValue(theObj);
+    } else if (fieldType.equals(int.class)) {
+      return new Runtime.IntWrap((int) field.getLongValue(theObj));
+    } else if (fieldType.equals(long.class)) {
+      return new Runtime.LongWrap(field.getLongValue(theObj));
+    } else if (fieldType.equals(boolean.class)) {
+      return new Runtime.BooleanWrap(field.getLongValue(theObj) != 0);
+    } else if (fieldType.equals(float.class)) {
+      return new Runtime.FloatWrap((float) field.getDoubleValue(theObj));
+    } else if (fieldType.equals(byte.class)) {
+      return new Runtime.ByteWrap((byte) field.getLongValue(theObj));
+    } else if (fieldType.equals(char.class)) {
+      return new Runtime.CharWrap((char) field.getLongValue(theObj));
+    } else if (fieldType.equals(short.class)) {
+      return new Runtime.ShortWrap((short) field.getLongValue(theObj));
+    } else {
+      return new Runtime.DoubleWrap(field.getDoubleValue(theObj));
     }
   }
 
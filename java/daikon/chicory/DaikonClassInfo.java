@@ -4,6 +4,7 @@
 
 package daikon.chicory;
 
+import daikon.BinaryDtrace;
 import java.util.EnumSet;
 import java.util.List;
 
@@ -52,6 +53,27 @@ public class DaikonClassInfo extends DaikonVariableInfo {
     }
   }
 
+  @Override
+  public void writeBinaryValue(BinaryDtrace.Writer out, byte type, Object val) {
+    if (isArray) {
+      if (val instanceof NonsensicalObject) {
+        out.write_missing();
+        return;
+      }
+      @SuppressWarnings("unchecked")
+      List<String> name_list = DTraceWriter.getTypeNameList((List<Object>) val);
+      if (name_list == null) {
+        out.write_missing();
+        return;
+      }
+      StringInfo.writeBinaryStringList(out, name_list);
+    } else if (val == null || val instanceof NonsensicalObject) {
+      out.write_missing();
+    } else {
+      out.write_string(1, DTraceWriter.stdClassName(val.getClass()));
+    }
+  }
+
   /**
    * Get a String representation of the given Object's runtime type and the corresponding "modified"
    * value.
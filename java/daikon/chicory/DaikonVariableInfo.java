@@ -1,5 +1,6 @@
 package daikon.chicory;
 
+import daikon.BinaryDtrace;
 import daikon.Chicory;
 import daikon.Daikon.BugInDaikon;
 import daikon.plumelib.bcelutil.SimpleLog;
@@ -399,6 +400,101 @@ public abstract class DaikonVariableInfo
     return buf.toString();
   }
 
+  /**
+   * Writes the value of this variable to a binary trace (see {@link BinaryDtrace}). The value
+   * written is the one that {@link #getDTraceValueString} prints, but in binary.
+   *
+   * @param out the binary trace
+   * @param type the type of this variable in the trace, as computed from {@link
+   *     #getRepTypeNameOnly} by {@link BinaryDtrace#type_of_rep}
+   * @param val the object whose value to write
+   */
+  @SuppressWarnings("unchecked")
+  public void writeBinaryValue(BinaryDtrace.Writer out, byte type, Object val) {
+    if (!isArray) {
+      if (val instanceof NonsensicalObject) {
+        out.write_missing();
+      } else if (type == BinaryDtrace.DOUBLE) {
+        out.write_double(1, getDoubleValue(val));
+      } else {
+        out.write_long(1, getLongValue(val));
+      }
+      return;
+    }
+
+    List<Object> theValues = (List<Object>) val; // unchecked cast
+    if (theValues == null || theValues instanceof NonsensicalList) {
+      out.write_missing();
+      return;
+    }
+    int len = theValues.size();
+    if (type == BinaryDtrace.DOUBLE_ARRAY) {
+      double[] result = new double[len];
+      for (int i = 0; i < len; i++) {
+        Object elementVal = theValues.get(i);
+        if (elementVal instanceof NonsensicalObject) {
+          // As in a textual trace, the whole array is nonsensical.
+          out.write_missing();
+          return;
+        }
+        result[i] = getDoubleValue(elementVal);
+      }
+      out.write_double_array(1, result);
+    } else {
+      long[] result = new long[len];
+      for (int i = 0; i < len; i++) {
+        Object elementVal = theValues.get(i);
+        if (elementVal instanceof NonsensicalObject) {
+          out.write_missing();
+          return;
+        }
+        result[i] = getLongValue(elementVal);
+      }
+      out.write_long_array(1, result);
+    }
+  }
+
+  /**
+   * Returns the value that a textual trace gives an object whose representation type is int,
+   * boolean, or hashcode. Null is 0, as when Daikon reads "null".
+   *
+   * @param theValue a primitive wrapper, or an object to be represented by its hash code
+   * @return the value of theValue in a trace
+   */
+  private static long getLongValue(Object theValue) {
+    if (theValue == null) {
+      return 0;
+    } else if (theValue instanceof Runtime.PrimitiveWrapper) {
+      Object wrapped = ((Runtime.PrimitiveWrapper) theValue).getJavaWrapper();
+      if (wrapped instanceof Boolean) {
+        return ((Boolean) wrapped).booleanValue() ? 1 : 0;
+      } else if (wrapped instanceof Character) {
+        return ((Character) wrapped).charValue();
+      } else {
+        return ((Number) wrapped).longValue();
+      }
+    } else {
+      return System.identityHashCode(theValue);
+    }
+  }
+
+  /**
+   * Returns the value that a textual trace gives an object whose representation type is double.
+   *
+   * @param theValue a primitive wrapper, or null
+   * @return the value of theValue in a trace
+   */
+  private static double getDoubleValue(Object theValue) {
+    if (theValue == null) {
+      return 0;
+    } else if (theValue instanceof Runtime.FloatWrap) {
+      // A textual trace contains the float's shortest decimal representation.
+      return Double.parseDouble(theValue.toString());
+    } else {
+      return ((Number) ((Runtime.PrimitiveWrapper) theValue).getJavaWrapper()).doubleValue();
+    }
+  }
+
   ///
   /// Building the tre
   ///
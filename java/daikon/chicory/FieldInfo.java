@@ -1,6 +1,10 @@
 package daikon.chicory;
 
+import daikon.Chicory;
 import daikon.dcomp.DCRuntime;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.EnumSet;
@@ -33,6 +37,12 @@ public class FieldInfo extends DaikonVariableInfo {
   /** whether or not this field is an outer this variable */
   private boolean is_outer_this;
 
+  /**
+   * Reads this field. Its type is (Object)T, where T is the type of the field; for a static field,
+   * the argument is ignored. Created the first time the field is read.
+   */
+  private @MonotonicNonNull MethodHandle getter = null;
+
   /**
    * Class that gets the tags for fields. Used by DynComp. Accessed only by methods
    * DCRuntime.get_field_tag and DCRuntime.get_field_tag_refs_only.
@@ -109,13 +119,148 @@ public class FieldInfo extends DaikonVariableInfo {
     if (isArray) {
       @SuppressWarnings("unchecked")
       List<Object> valAsList = (List<Object>) val;
-      return DTraceWriter.getFieldValues(field, valAsList);
+      return DTraceWriter.getFieldValues(this, valAsList);
     } else {
-      if (Modifier.isStatic(field.getModifiers())) {
-        return DTraceWriter.getStaticValue(field);
+      return DTraceWriter.getValue(this, val);
+    }
+  }
+
+  /**
+   * Returns true if this field has no value in the given object: the object is null or
+   * nonsensical, or, for a static field, its class has not been initialized and {@link
+   * Chicory#checkStaticInit} is set.
+   *
+   * @param obj the object containing the field; ignored for a static field
+   * @return true if this field has no value in obj
+   */
+  boolean isNonsensicalIn(@Nullable Object obj) {
+    if (is_static) {
+      // don't force initialization!
+      return Chicory.checkStaticInit
+          && !Runtime.isInitialized(field.getDeclaringClass().getName());
+    }
+    return (obj == null) || (obj instanceof NonsensicalObject);
+  }
+
+  /**
+   * Returns a method handle that reads this field, creating it if necessary.
+   *
+   * @return a method handle of type (Object)T, where T is the type of the field
+   */
+  @SuppressWarnings("deprecation") // in Java 9+, use canAccess instead of isAccessible
+  private MethodHandle getter() {
+    MethodHandle result = getter;
+    if (result == null) {
+      if (!field.isAccessible()) {
+        field.setAccessible(true);
+      }
+      try {
+        result = MethodHandles.lookup().unreflectGetter(field);
+      } catch (IllegalAccessException e) {
+        throw new Error(e);
+      }
+      if (is_static) {
+        result = MethodHandles.dropArguments(result, 0, Object.class);
+      }
+      Class<?> type = field.getType();
+      result =
+          result.asType(
+              MethodType.methodType(type.isPrimitive() ? type : Object.class, Object.class));
+      // A method handle is immutable, so two threads that create one at the same time do no harm.
+      getter = result;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the value of this field, which must be of reference type, in obj.
+   *
+   * @param obj the object containing the field; ignored for a static field
+   * @return the value of this field in obj
+   */
+  @SuppressWarnings("nullness") // the field may hold null
+  Object getObjectValue(@Nullable Object obj) {
+    try {
+      return (Object) getter().invokeExact(obj);
+    } catch (Throwable e) {
+      throw new Error(e);
+    }
+  }
+
+  /**
+   * Returns the value of this field, which must be of primitive type, in obj, as it is written in a
+   * trace. A boolean is 0 or 1, and a char is its code. A float or double is returned by {@link
+   * #getDoubleValue} instead.
+   *
+   * @param obj the object containing the field; ignored for a static field
+   * @return the value of this field in obj
+   */
+  long getLongValue(@Nullable Object obj) {
+    Class<?> type = field.getType();
+    MethodHandle h = getter();
+    try {
+      if (type == int.class) {
+        return (int) h.invokeExact(obj);
+      } else if (type == long.class) {
+        return (long) h.invokeExact(obj);
+      } else if (type == boolean.class) {
+        return ((boolean) h.invokeExact(obj)) ? 1 : 0;
+      } else if (type == byte.class) {
+        return (byte) h.invokeExact(obj);
+      } else if (type == char.class) {
+        return (char) h.invokeExact(obj);
+      } else if (type == short.class) {
+        return (short) h.invokeExact(obj);
+      } else {
+        throw new Error("Field " + field + " is not of an integral type");
+      }
+    } catch (Throwable e) {
+      throw new Error(e);
+    }
+  }
+
+  /**
+   * Returns the value of this field, which must be of type float or double, in obj.
+   *
+   * @param obj the object containing the field; ignored for a static field
+   * @return the value of this field in obj
+   */
+  double getDoubleValue(@Nullable Object obj) {
+    MethodHandle h = getter();
+    try {
+      if (field.getType() == float.class) {
+        // A textual trace contains the float's shortest decimal representation.
+        return Double.parseDouble(Float.toString((float) h.invokeExact(obj)));
+      } else {
+        return (double) h.invokeExact(obj);
+      }
+    } catch (Throwable e) {
+      throw new Error(e);
+    }
+  }
+
+  /**
+   * Returns the value of this field, which must be of primitive type, in obj, as it is written in a
+   * textual trace.
+   *
+   * @param obj the object containing the field; ignored for a static field
+   * @return the value of this field in obj
+   */
+  String getPrimitiveValueString(@Nullable Object obj) {
+    Class<?> type = field.getType();
+    MethodHandle h = getter();
+    try {
+      if (type == boolean.class) {
+        return Boolean.toString((boolean) h.invokeExact(obj));
+      } else if (type == float.class) {
+        return Float.toString((float) h.invokeExact(obj));
+      } else if (type == double.class) {
+        return Double.toString((double) h.invokeExact(obj));
       } else {
-        return DTraceWriter.getValue(field, val);
+        return Long.toString(getLongValue(obj));
       }
+    } catch (Throwable e) {
+      throw new Error(e);
     }
   }
 
@@ -586,6 +586,7 @@ class Instrument extends InstructionListUtils implements ClassFileTransformer {
       debug_transform.log("Added trace info to class %s%n", class_info);
       synchronized (SharedData.new_classes) {
         SharedData.new_classes.add(class_info);
+        SharedData.has_new_classes = true;
       }
       synchronized (SharedData.all_classes) {
         SharedData.all_classes.add(class_info);
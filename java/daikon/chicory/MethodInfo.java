@@ -6,6 +6,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.checkerframework.checker.lock.qual.GuardSatisfied;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.RequiresNonNull;
@@ -68,11 +69,11 @@ public class MethodInfo {
    */
   public @MonotonicNonNull RootInfo traversalExit = null;
 
-  /** The number of times this method has been called. */
-  public int call_cnt = 0;
+  /** The number of times this method has been called. Threads of the target program update it. */
+  public final AtomicInteger call_cnt = new AtomicInteger();
 
   /** The number of times we have captured the output for this method. */
-  public int capture_cnt = 0;
+  public final AtomicInteger capture_cnt = new AtomicInteger();
 
   /**
    * Whether or not the method is pure (has no side-effects). Will only be set to true if the {@code
@@ -130,39 +130,36 @@ public class PureMethodInfo extends DaikonVariableInfo {
 
   private static @Nullable Object executePureMethod(
       Method meth, Object receiverVal, @Nullable Object[] argVals) {
-    // Between startPure() and endPure(), no output is done to the trace file.
-    // Without this synchronization, other threads would observe that
-    // startPure has been called and wouldn't do any output.
-    synchronized (Runtime.class) {
-      Object retVal;
-      try {
-        // TODO is this the best way to handle this problem?
-        // (when we invoke a pure method, Runtime.Enter should not be
-        // called)
-        Runtime.startPure();
-
-        @SuppressWarnings("nullness") // argVals is declared Nullable
-        @NonNull @Initialized @GuardedBy({}) Object tmp_retVal = meth.invoke(receiverVal, argVals);
-        retVal = tmp_retVal;
-
-        if (meth.getReturnType().isPrimitive()) {
-          retVal = convertWrapper(retVal);
-        }
-
-      } catch (IllegalArgumentException e) {
-        throw new Error(e);
-      } catch (IllegalAccessException e) {
-        throw new Error(e);
-      } catch (InvocationTargetException e) {
-        retVal = NonsensicalObject.getInstance();
-      } catch (Throwable e) {
-        throw new Error(e);
-      } finally {
-        Runtime.endPure();
+    // Between startPure() and endPure(), the current thread does no output to the trace file.
+    // Other threads are not affected.
+    Object retVal;
+    try {
+      // TODO is this the best way to handle this problem?
+      // (when we invoke a pure method, Runtime.Enter should not be
+      // called)
+      Runtime.startPure();
+
+      @SuppressWarnings("nullness") // argVals is declared Nullable
+      @NonNull @Initialized @GuardedBy({}) Object tmp_retVal = meth.invoke(receiverVal, argVals);
+      retVal = tmp_retVal;
+
+      if (meth.getReturnType().isPrimitive()) {
+        retVal = convertWrapper(retVal);
       }
 
-      return retVal;
+    } catch (IllegalArgumentException e) {
+      throw new Error(e);
+    } catch (IllegalAccessException e) {
+      throw new Error(e);
+    } catch (InvocationTargetException e) {
+      retVal = NonsensicalObject.getInstance();
+    } catch (Throwable e) {
+      throw new Error(e);
+    } finally {
+      Runtime.endPure();
     }
+
+    return retVal;
   }
 
   /**
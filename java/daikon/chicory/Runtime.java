@@ -1,5 +1,6 @@
 package daikon.chicory;
 
+import daikon.BinaryDtrace;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -17,11 +18,10 @@ import java.util.ConcurrentModificationException;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
 import org.checkerframework.checker.lock.qual.GuardSatisfied;
@@ -51,13 +51,6 @@ public class Runtime {
   /** debug flag */
   public static boolean debug = false;
 
-  /**
-   * Flag indicating that a dtrace record is currently being written used to prevent a call to
-   * instrumented code that occurs as part of generating a dtrace record (eg, toArray when
-   * processing lists or pure functions) from generating a nested dtrace record.
-   */
-  public static boolean in_dtrace = false;
-
   /** True if ChicoryPremain was unable to load. */
   public static boolean chicoryLoaderInstantiationError = false;
 
@@ -92,7 +85,7 @@ public class Runtime {
   static long dtraceLimit = Long.MAX_VALUE;
 
   /** Number of records printed to date. */
-  static long printedRecords = 0;
+  static final AtomicLong printedRecords = new AtomicLong();
 
   /** Terminate the program when the dtrace limit is reached. */
   static boolean dtraceLimitTerminate = false;
@@ -102,19 +95,38 @@ public class Runtime {
   // instrumentation code that cannot be type-checked by a source code checker.
   static @GuardedBy("<self>") PrintStream dtrace;
 
+  /**
+   * If true, the dtrace file is written in Daikon's binary format (see {@link BinaryDtrace}).
+   * Ignored when writing to Daikon over a socket.
+   */
+  static boolean dtrace_binary = false;
+
+  /**
+   * Where samples are written if the dtrace file is binary; otherwise null. Its text (such as
+   * declarations) is written to {@link #dtrace}.
+   */
+  static BinaryDtrace.@Nullable Writer binary_dtrace = null;
+
+  /**
+   * Where samples are written if the dtrace file is textual; otherwise null. Each thread writes its
+   * samples to a buffer of its own.
+   */
+  static @Nullable BufferedDTrace buffered_dtrace = null;
+
   /** Set to true when the dtrace stream is closed. */
-  static boolean dtrace_closed = false;
+  static volatile boolean dtrace_closed = false;
 
   /** True if no dtrace is being generated. */
   static boolean no_dtrace = false;
 
-  static String method_indent = "";
-
   /** Decl writer setup for writing to the trace file. */
   // Set in ChicoryPremain.premain().
   static DeclWriter decl_writer;
 
-  /** Dtrace writer setup for writing to the trace file. */
+  /**
+   * Dtrace writer setup for writing to the trace file. Used only for a binary trace; the samples of
+   * a textual trace are written by the {@link DTraceWriter} of each thread's buffer.
+   */
   // Set in ChicoryPremain.premain().
   static @GuardedBy("Runtime.class") DTraceWriter dtrace_writer;
 
@@ -131,16 +143,43 @@ public class Runtime {
     /** whether or not the call was captured on enter */
     boolean captured;
 
-    @Holding("Runtime.class")
     public CallInfo(int nonce, boolean captured) {
       this.nonce = nonce;
       this.captured = captured;
     }
   }
 
-  /** Stack of active methods. */
-  private static @GuardedBy("Runtime.class") Map<Thread, Deque<CallInfo>> thread_to_callstack =
-      new LinkedHashMap<>();
+  /** The tracing state of a thread of the target program. */
+  private static class ThreadState {
+    /**
+     * Flag indicating that a dtrace record is currently being written used to prevent a call to
+     * instrumented code that occurs as part of generating a dtrace record (eg, toArray when
+     * processing lists or pure functions) from generating a nested dtrace record.
+     */
+    boolean in_dtrace = false;
+
+    /** True while a pure method is being called to create a value for the trace file. */
+    boolean invoking_pure = false;
+
+    /** Stack of active methods, if sampling. */
+    final Deque<CallInfo> callstack = new ArrayDeque<>();
+
+    /** Where the thread writes samples of a textual trace, or null if it has not written any. */
+    BufferedDTrace.@Nullable ThreadBuffer buffer = null;
+
+    /** The indentation of the thread's debugging output, which shows its active methods. */
+    String method_indent = "";
+  }
+
+  /** The tracing state of each thread. */
+  private static final ThreadLocal<ThreadState> thread_state =
+      ThreadLocal.withInitial(ThreadState::new);
+
+  /**
+   * The elements of {@link SharedData#methods}, which may be read without locking; elements that
+   * have been added to SharedData.methods since this array was last copied are missing.
+   */
+  private static volatile MethodInfo[] method_infos = new MethodInfo[0];
 
   /**
    * Sample count at a call site to begin sampling. All previous calls will be recorded. Sampling
@@ -172,28 +211,67 @@ public class Runtime {
 
   // Whenever a method call occurs in the target program, output
   // information about that call to the trace file.  However, if the
-  // method is a pure method that is being called to create a value for
-  // the trace file, don't record it.
-  // TODO: invokingPure should be annotated with @GuardedByName("Runtime.class")
-  // once that annotation is available.  Currently all the methods that access
-  // invokingPure are annotated with @Holding("Runtime.class"), but annotating
-  // the boolean would prevent any new methods from accessing it without holding
-  // the lock.
-  private static boolean invokingPure = false;
+  // method is a pure method that is being called (by the same thread)
+  // to create a value for the trace file, don't record it.
 
-  @Holding("Runtime.class")
   public static boolean dontProcessPpts() {
-    return invokingPure;
+    return thread_state.get().invoking_pure;
   }
 
-  @Holding("Runtime.class")
   public static void startPure() {
-    invokingPure = true;
+    thread_state.get().invoking_pure = true;
   }
 
-  @Holding("Runtime.class")
   public static void endPure() {
-    invokingPure = false;
+    thread_state.get().invoking_pure = false;
+  }
+
+  /**
+   * Returns the MethodInfo with the given index in {@link SharedData#methods}.
+   *
+   * @param mi_index the index of a method
+   * @return the MethodInfo of the method
+   */
+  @SuppressWarnings("lock") // method_infos is read without locking
+  private static MethodInfo methodInfo(int mi_index) {
+    MethodInfo[] infos = method_infos;
+    if (mi_index < infos.length) {
+      return infos[mi_index];
+    }
+    synchronized (SharedData.methods) {
+      infos = SharedData.methods.toArray(new MethodInfo[0]);
+      method_infos = infos;
+      return infos[mi_index];
+    }
+  }
+
+  /**
+   * Writes out decl information for any new classes. If another thread is doing so, waits until it
+   * is done, so that the caller's method has been declared.
+   */
+  private static void check_new_classes() {
+    if (SharedData.has_new_classes) {
+      synchronized (Runtime.class) {
+        process_new_classes();
+      }
+    }
+  }
+
+  /**
+   * Returns the buffer to which the current thread writes samples of a textual trace.
+   *
+   * @param state the state of the current thread
+   * @param buffered_dtrace the samples of the trace
+   * @return the current thread's buffer
+   */
+  private static BufferedDTrace.ThreadBuffer getBuffer(
+      ThreadState state, BufferedDTrace buffered_dtrace) {
+    BufferedDTrace.ThreadBuffer buffer = state.buffer;
+    if (buffer == null) {
+      buffer = buffered_dtrace.new_buffer();
+      state.buffer = buffer;
+    }
+    return buffer;
   }
 
   /**
@@ -204,20 +282,19 @@ public class Runtime {
    * @param mi_index index in methods of the MethodInfo for this method
    * @param args array of arguments to method
    */
-  public static synchronized void enter(
-      @Nullable Object obj, int nonce, int mi_index, Object[] args) {
+  public static void enter(@Nullable Object obj, int nonce, int mi_index, Object[] args) {
 
+    ThreadState state = thread_state.get();
     MethodInfo mi = null;
     if (debug) {
-      synchronized (SharedData.methods) {
-        mi = SharedData.methods.get(mi_index);
-      }
+      mi = methodInfo(mi_index);
       System.out.printf(
-          "%smethod_entry %s.%s%n", method_indent, mi.class_info.class_name, mi.method_name);
-      method_indent = method_indent.concat("  ");
+          "%smethod_entry %s.%s%n",
+          state.method_indent, mi.class_info.class_name, mi.method_name);
+      state.method_indent = state.method_indent.concat("  ");
     }
 
-    if (dontProcessPpts()) {
+    if (state.invoking_pure) {
       return;
     }
 
@@ -225,56 +302,50 @@ public class Runtime {
     // check_in_dtrace();
 
     // Ignore this call if we are already processing a dtrace record
-    if (in_dtrace) {
+    if (state.in_dtrace) {
       return;
     }
 
     // Note that we are processing a dtrace record until we return
-    in_dtrace = true;
+    state.in_dtrace = true;
     try {
-      int num_new_classes = 0;
-      synchronized (SharedData.new_classes) {
-        num_new_classes = SharedData.new_classes.size();
-      }
-      if (num_new_classes > 0) {
-        process_new_classes();
-      }
+      check_new_classes();
 
-      synchronized (SharedData.methods) {
-        mi = SharedData.methods.get(mi_index);
-      }
-      mi.call_cnt++;
+      mi = methodInfo(mi_index);
+      int call_cnt = mi.call_cnt.incrementAndGet();
 
       // If sampling, check to see if we are capturing this sample
       boolean capture = true;
       if (sample_start > 0) {
-        if (mi.call_cnt <= sample_start) {
+        if (call_cnt <= sample_start) {
           // nothing to do
-        } else if (mi.call_cnt <= (sample_start * 10)) {
-          capture = (mi.call_cnt % 10) == 0;
-        } else if (mi.call_cnt <= (sample_start * 100)) {
-          capture = (mi.call_cnt % 100) == 0;
-        } else if (mi.call_cnt <= (sample_start * 1000)) {
-          capture = (mi.call_cnt % 1000) == 0;
+        } else if (call_cnt <= (sample_start * 10)) {
+          capture = (call_cnt % 10) == 0;
+        } else if (call_cnt <= (sample_start * 100)) {
+          capture = (call_cnt % 100) == 0;
+        } else if (call_cnt <= (sample_start * 1000)) {
+          capture = (call_cnt % 1000) == 0;
         } else {
-          capture = (mi.call_cnt % 10000) == 0;
+          capture = (call_cnt % 10000) == 0;
         }
-        Thread t = Thread.currentThread();
-        Deque<CallInfo> callstack = thread_to_callstack.get(t);
-        if (callstack == null) {
-          callstack = new ArrayDeque<CallInfo>();
-          thread_to_callstack.put(t, callstack);
-        }
-        callstack.push(new CallInfo(nonce, capture));
+        state.callstack.push(new CallInfo(nonce, capture));
       }
 
       if (capture) {
-        mi.capture_cnt++;
+        mi.capture_cnt.incrementAndGet();
         // long start = System.currentTimeMillis();
-        if (mi.member == null) {
-          dtrace_writer.clinitEntry(mi.class_info.class_name + ".<clinit>:::ENTER", nonce);
+        BufferedDTrace buffered_dtrace = Runtime.buffered_dtrace;
+        if (buffered_dtrace == null) {
+          synchronized (Runtime.class) {
+            writeEnter(dtrace_writer, mi, nonce, obj, args);
+          }
         } else {
-          dtrace_writer.methodEntry(mi, nonce, obj, args);
+          BufferedDTrace.ThreadBuffer buffer = getBuffer(state, buffered_dtrace);
+          synchronized (buffer) {
+            writeEnter(buffer.writer, mi, nonce, obj, args);
+            buffer.end_record();
+          }
+          checkRecordLimit();
         }
         // long duration = System.currentTimeMillis() - start;
         // System.out.println ("Enter " + mi + " " + duration + "ms"
@@ -284,7 +355,25 @@ public class Runtime {
         //                 + " " + mi.capture_cnt + "/" + mi.call_cnt);
       }
     } finally {
-      in_dtrace = false;
+      state.in_dtrace = false;
+    }
+  }
+
+  /**
+   * Writes the record of a method entry.
+   *
+   * @param writer where to write the record
+   * @param mi the method that was entered
+   * @param nonce nonce identifying which enter/exit pair this is
+   * @param obj receiver of the method that was entered, or null if method is static
+   * @param args array of arguments to method
+   */
+  private static void writeEnter(
+      DTraceWriter writer, MethodInfo mi, int nonce, @Nullable Object obj, Object[] args) {
+    if (mi.member == null) {
+      writer.clinitEntry(mi.class_info.class_name + ".<clinit>:::ENTER", nonce);
+    } else {
+      writer.methodEntry(mi, nonce, obj, args);
     }
   }
 
@@ -298,7 +387,7 @@ public class Runtime {
    * @param ret_val return value of method, or null if method is void
    * @param exitLineNum the line number at which this method exited
    */
-  public static synchronized void exit(
+  public static void exit(
       @Nullable Object obj,
       int nonce,
       int mi_index,
@@ -306,17 +395,17 @@ public class Runtime {
       Object ret_val,
       int exitLineNum) {
 
+    ThreadState state = thread_state.get();
     MethodInfo mi = null;
     if (debug) {
-      synchronized (SharedData.methods) {
-        mi = SharedData.methods.get(mi_index);
-      }
-      method_indent = method_indent.substring(2);
+      mi = methodInfo(mi_index);
+      state.method_indent = state.method_indent.substring(2);
       System.out.printf(
-          "%smethod_exit  %s.%s%n", method_indent, mi.class_info.class_name, mi.method_name);
+          "%smethod_exit  %s.%s%n",
+          state.method_indent, mi.class_info.class_name, mi.method_name);
     }
 
-    if (dontProcessPpts()) {
+    if (state.invoking_pure) {
       return;
     }
 
@@ -324,27 +413,20 @@ public class Runtime {
     // check_in_dtrace();
 
     // Ignore this call if we are already processing a dtrace record
-    if (in_dtrace) {
+    if (state.in_dtrace) {
       return;
     }
 
     // Note that we are processing a dtrace record until we return
-    in_dtrace = true;
+    state.in_dtrace = true;
     try {
 
-      int num_new_classes = 0;
-      synchronized (SharedData.new_classes) {
-        num_new_classes = SharedData.new_classes.size();
-      }
-      if (num_new_classes > 0) {
-        process_new_classes();
-      }
+      check_new_classes();
 
       // Skip this call if it was not sampled at entry to the method
       if (sample_start > 0) {
         CallInfo ci = null;
-        @SuppressWarnings("nullness") // map: key was put in map by enter()
-        @NonNull Deque<CallInfo> callstack = thread_to_callstack.get(Thread.currentThread());
+        Deque<CallInfo> callstack = state.callstack;
         while (!callstack.isEmpty()) {
           ci = callstack.pop();
           if (ci.nonce == nonce) {
@@ -352,9 +434,7 @@ public class Runtime {
           }
         }
         if (ci == null) {
-          synchronized (SharedData.methods) {
-            mi = SharedData.methods.get(mi_index);
-          }
+          mi = methodInfo(mi_index);
           System.out.printf("no enter for exit %s%n", mi);
           return;
         } else if (!ci.captured) {
@@ -363,20 +443,51 @@ public class Runtime {
       }
 
       // Write out the infromation for this method
-      synchronized (SharedData.methods) {
-        mi = SharedData.methods.get(mi_index);
-      }
+      mi = methodInfo(mi_index);
       // long start = System.currentTimeMillis();
-      if (mi.member == null) {
-        dtrace_writer.clinitExit(
-            mi.class_info.class_name + ".<clinit>:::EXIT" + exitLineNum, nonce);
+      BufferedDTrace buffered_dtrace = Runtime.buffered_dtrace;
+      if (buffered_dtrace == null) {
+        synchronized (Runtime.class) {
+          writeExit(dtrace_writer, mi, nonce, obj, args, ret_val, exitLineNum);
+        }
       } else {
-        dtrace_writer.methodExit(mi, nonce, obj, args, ret_val, exitLineNum);
+        BufferedDTrace.ThreadBuffer buffer = getBuffer(state, buffered_dtrace);
+        synchronized (buffer) {
+          writeExit(buffer.writer, mi, nonce, obj, args, ret_val, exitLineNum);
+          buffer.end_record();
+        }
+        checkRecordLimit();
       }
       // long duration = System.currentTimeMillis() - start;
       // System.out.println ("Exit " + mi + " " + duration + "ms");
     } finally {
-      in_dtrace = false;
+      state.in_dtrace = false;
+    }
+  }
+
+  /**
+   * Writes the record of a method exit.
+   *
+   * @param writer where to write the record
+   * @param mi the method that was exited
+   * @param nonce nonce identifying which enter/exit pair this is
+   * @param obj receiver of the method that was entered, or null if method is static
+   * @param args array of arguments to method
+   * @param ret_val return value of method, or null if method is void
+   * @param exitLineNum the line number at which this method exited
+   */
+  private static void writeExit(
+      DTraceWriter writer,
+      MethodInfo mi,
+      int nonce,
+      @Nullable Object obj,
+      Object[] args,
+      Object ret_val,
+      int exitLineNum) {
+    if (mi.member == null) {
+      writer.clinitExit(mi.class_info.class_name + ".<clinit>:::EXIT" + exitLineNum, nonce);
+    } else {
+      writer.methodExit(mi, nonce, obj, args, ret_val, exitLineNum);
     }
   }
 
@@ -412,6 +523,7 @@ public class Runtime {
    * them from that list.
    */
   @Holding("Runtime.class")
+  @SuppressWarnings("lock") // non-final field
   public static void process_new_classes() {
 
     // Processing of the new_classes list must be
@@ -424,6 +536,8 @@ public class Runtime {
       synchronized (SharedData.new_classes) {
         if (SharedData.new_classes.size() > 0) {
           class_info = SharedData.new_classes.removeFirst();
+        } else {
+          SharedData.has_new_classes = false;
         }
       }
       if (class_info == null) {
@@ -432,7 +546,9 @@ public class Runtime {
 
       if (debug) System.out.println("processing class " + class_info.class_name);
       if (first_class) {
-        decl_writer.printHeaderInfo(class_info.class_name);
+        synchronized (dtrace) {
+          decl_writer.printHeaderInfo(class_info.class_name);
+        }
         first_class = false;
       }
       class_info.initViaReflection();
@@ -444,21 +560,35 @@ public class Runtime {
         mi.traversalExit = RootInfo.exit_process(mi, Runtime.nesting_depth);
       }
 
-      decl_writer.printDeclClass(class_info, comp_info);
+      // Other threads' samples are written to the dtrace file concurrently.
+      synchronized (dtrace) {
+        decl_writer.printDeclClass(class_info, comp_info);
+      }
     }
   }
 
   /** Increment the number of records that have been printed. */
   public static void incrementRecords() {
-    printedRecords++;
+    long printed = printedRecords.incrementAndGet();
 
     // This should only print a percentage if dtraceLimit is not its
     // default value.
-    // if (printedRecords%1000 == 0)
-    //     System.out.printf("printed=%d, percent printed=%f%n", printedRecords,
-    //                       (float)(100.0*(float)printedRecords/(float)dtraceLimit));
+    // if (printed%1000 == 0)
+    //     System.out.printf("printed=%d, percent printed=%f%n", printed,
+    //                       (float)(100.0*(float)printed/(float)dtraceLimit));
 
-    if (printedRecords >= dtraceLimit) {
+    // For a buffered trace, checkRecordLimit() is called once the record is complete.
+    if (printed >= dtraceLimit && buffered_dtrace == null) {
+      noMoreOutput();
+    }
+  }
+
+  /**
+   * Calls {@link #noMoreOutput} if the dtrace limit has been reached. Must not be called while
+   * holding the lock on a thread's buffer.
+   */
+  private static void checkRecordLimit() {
+    if (printedRecords.get() >= dtraceLimit && !dtrace_closed) {
       noMoreOutput();
     }
   }
@@ -483,6 +613,18 @@ public class Runtime {
     // is not effectively final, this would unfortunately mask that error.
     final @GuardedBy("<self>") PrintStream dtrace = Runtime.dtrace;
 
+    // Write the records that other threads have buffered.  This waits for the background
+    // writer, which needs the lock on dtrace.
+    synchronized (Runtime.class) {
+      if (dtrace_closed) {
+        return;
+      }
+      dtrace_closed = true;
+    }
+    if (buffered_dtrace != null) {
+      buffered_dtrace.flush();
+    }
+
     synchronized (dtrace) {
       // The shutdown hook is synchronized on this, so close it up
       // ourselves, lest the call to System.exit cause deadlock.
@@ -494,7 +636,6 @@ public class Runtime {
       // be many attempts to synchronize on it.  (Is that a performance
       // bottleneck, if we continue running?)
       // dtrace = null;
-      dtrace_closed = true;
 
       if (dtraceLimitTerminate) {
         System.out.println("Printed " + printedRecords + " records to dtrace file.  Exiting.");
@@ -535,6 +676,7 @@ public class Runtime {
 
     try {
       dtrace = new PrintStream(daikonSocket.getOutputStream());
+      buffered_dtrace = new BufferedDTrace(dtrace);
     } catch (IOException e) {
       System.out.println("IOException connecting to Daikon : " + e.getMessage() + ". Exiting");
       System.exit(1);
@@ -577,7 +719,19 @@ public class Runtime {
 
       // 8192 is the buffer size in BufferedReader
       BufferedOutputStream bos = new BufferedOutputStream(os, 8192);
-      dtrace = new PrintStream(bos);
+      if (dtrace_binary) {
+        if (append) {
+          throw new Error(
+              "DTRACEAPPEND environment variable is set, "
+                  + "Cannot append to binary dtrace file "
+                  + filename);
+        }
+        binary_dtrace = new BinaryDtrace.Writer(bos);
+        dtrace = binary_dtrace.text();
+      } else {
+        dtrace = new PrintStream(bos);
+        buffered_dtrace = new BufferedDTrace(dtrace);
+      }
     } catch (Exception e) {
       e.printStackTrace();
       throw new Error(e);
@@ -627,11 +781,19 @@ public class Runtime {
               @Override
               @SuppressWarnings("lock") // non-final field
               public void run() {
-                if (!dtrace_closed) {
+                boolean close;
+                synchronized (Runtime.class) {
+                  close = !dtrace_closed;
+                  dtrace_closed = true;
+                }
+                if (close) {
                   // When the program being instrumented exits, the buffers
                   // of the "dtrace" (PrintStream) object are not flushed,
                   // so we miss the tail of the file.
 
+                  if (buffered_dtrace != null) {
+                    buffered_dtrace.flush();
+                  }
                   synchronized (Runtime.dtrace) {
                     dtrace.println();
                     // These are for debugging, I assume. -MDE
@@ -655,7 +817,7 @@ public class Runtime {
                     System.out.println(
                         "Check the --ppt-select-pattern and --ppt-omit-pattern options");
                   }
-                } else if (printedRecords == 0) {
+                } else if (printedRecords.get() == 0) {
                   System.out.println("Chicory warning: no records were printed");
                 }
               }
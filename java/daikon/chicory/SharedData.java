@@ -24,6 +24,12 @@ public class SharedData {
   public static final @GuardedBy("<self>") Deque<ClassInfo> new_classes =
       new ArrayDeque<ClassInfo>();
 
+  /**
+   * True if new_classes may be non-empty. Set while holding the lock on new_classes, but may be read
+   * without it, so that Runtime can tell cheaply whether any classes need to be processed.
+   */
+  public static volatile boolean has_new_classes = false;
+
   /** List of all instrumented classes. */
   public static final @GuardedBy("<self>") List<ClassInfo> all_classes = new ArrayList<>();
 
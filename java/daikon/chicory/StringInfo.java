@@ -1,5 +1,6 @@
 package daikon.chicory;
 
+import daikon.BinaryDtrace;
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
@@ -37,6 +38,50 @@ public class StringInfo extends DaikonVariableInfo {
     }
   }
 
+  @Override
+  public void writeBinaryValue(BinaryDtrace.Writer out, byte type, Object val) {
+    if (isArray) {
+      writeBinaryStringList(out, (List<?>) val);
+    } else if (val == null || val instanceof NonsensicalObject) {
+      // Daikon reads a null string as a missing value.
+      out.write_missing();
+    } else {
+      out.write_string(1, (String) val);
+    }
+  }
+
+  /**
+   * Writes the elements of theValues to a binary trace (see {@link BinaryDtrace}), as {@link
+   * #getStringList} does to a textual trace.
+   *
+   * @param out the binary trace
+   * @param theValues a list of values, each is a String or NonsensicalObject or NonsensicalList
+   */
+  public static void writeBinaryStringList(BinaryDtrace.Writer out, List<?> theValues) {
+    if (theValues == null || NonsensicalList.isNonsensicalList(theValues)) {
+      out.write_missing();
+      return;
+    }
+
+    String[] result = new String[theValues.size()];
+    int i = 0;
+    for (Object str : theValues) {
+      if (str == null) {
+        result[i] = null;
+      } else if (str instanceof String) {
+        result[i] = (String) str;
+      } else if (str instanceof NonsensicalObject || str instanceof NonsensicalList) {
+        // As in a textual trace, the whole array is nonsensical.
+        out.write_missing();
+        return;
+      } else {
+        throw new Error("Impossible");
+      }
+      i++;
+    }
+    out.write_string_array(1, result);
+  }
+
   /**
    * Returns a space-separated String of the elements in theValues. If theValues is null, returns
    * "null." If theValues is nonsensical, returns "nonsensical".
@@ -15,7 +15,6 @@ import daikon.chicory.StaticObjInfo;
 import daikon.chicory.StringInfo;
 import daikon.chicory.ThisObjInfo;
 import daikon.plumelib.bcelutil.SimpleLog;
-import daikon.plumelib.util.WeakIdentityHashMap;
 import java.io.PrintWriter;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
@@ -34,7 +33,6 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.checkerframework.checker.lock.qual.GuardSatisfied;
@@ -114,13 +112,20 @@ public final class DCRuntime {
     }
   }
 
-  /** Map from Thread to ThreadData. */
-  private static Map<Thread, ThreadData> thread_to_data =
-      new ConcurrentHashMap<Thread, ThreadData>();
+  /**
+   * The ThreadData of each thread. Calls that are passed a tag frame find it in the frame instead
+   * (see {@link #frame_data}), which is cheaper.
+   */
+  private static final ThreadLocal<ThreadData> thread_data =
+      new ThreadLocal<ThreadData>() {
+        @Override
+        protected ThreadData initialValue() {
+          return new ThreadData();
+        }
+      };
 
   /** Map from each object to the tags used for each primitive value in the object. */
-  public static WeakIdentityHashMap<Object, Object[]> field_map =
-      new WeakIdentityHashMap<Object, Object[]>();
+  static final WeakIdentityTagMap field_map = new WeakIdentityTagMap();
 
   /** List of all classes encountered. These are the classes that will have comparability output. */
   private static List<ClassInfo> all_classes = new ArrayList<>();
@@ -256,7 +261,7 @@ public final class DCRuntime {
     }
 
     // Push tag for return value, and call the uninstrumented version
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     td.tag_stack.push(new Constant());
     if (debug_tag_frame) System.out.printf("tag stack size: %d%n", td.tag_stack.size());
     return o1.equals(o2);
@@ -339,7 +344,7 @@ public final class DCRuntime {
         return_val = ((Boolean) m.invoke(o1, o2, null));
       } else {
         // Push tag for return value, and call the uninstrumented version
-        ThreadData td = thread_to_data.get(Thread.currentThread());
+        ThreadData td = thread_data.get();
         td.tag_stack.push(new Constant());
         Method m = o1super.getMethod("equals", new Class<?>[] {java_lang_Object_class});
         return_val = ((Boolean) m.invoke(o1, o2));
@@ -613,18 +618,15 @@ public final class DCRuntime {
     }
 
     // create_tag_frame is the first DCRuntime method called for an
-    // instrumented user method.  Since it might be on a new thread
-    // we need to check/set the per-thread data map.
-    Thread t = Thread.currentThread();
-    ThreadData td = thread_to_data.get(t);
-    if (td == null) {
-      td = new ThreadData();
-      thread_to_data.put(t, td);
-    }
+    // instrumented user method.  Look up the per-thread data once, and
+    // keep it in the frame for the calls that are passed the frame.
+    ThreadData td = thread_data.get();
 
     int frame_size = ((int) params.charAt(0)) - '0';
     // Character.digit (params.charAt(0), Character.MAX_RADIX);
-    Object[] tag_frame = new Object[frame_size];
+    // The last element of the frame holds td.
+    Object[] tag_frame = new Object[frame_size + 1];
+    tag_frame[frame_size] = td;
     if (debug_tag_frame) {
       System.out.printf(
           "Creating tag frame of size %d [%s] for %s%n", frame_size, params, caller_name());
@@ -655,6 +657,16 @@ public final class DCRuntime {
     return tag_frame;
   }
 
+  /**
+   * Returns the ThreadData of the thread that created a tag frame, which is the current thread.
+   *
+   * @param tag_frame a tag frame created by {@link #create_tag_frame}
+   * @return the ThreadData of the current thread
+   */
+  private static ThreadData frame_data(Object[] tag_frame) {
+    return (ThreadData) tag_frame[tag_frame.length - 1];
+  }
+
   /**
    * Make sure the tag stack for this method is empty before exit.
    *
@@ -665,7 +677,7 @@ public final class DCRuntime {
       System.out.printf("Begin normal exit from %s%n", caller_name());
     }
 
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = frame_data(tag_frame);
     if (td.tag_stack.peek() != method_marker) {
       // Something has gone wrong.  It's probably an exception that
       // was handled by an exception handler other than one added by
@@ -678,7 +690,7 @@ public final class DCRuntime {
       while (td.tag_stack.peek() != method_marker) td.tag_stack.pop();
     }
 
-    int orig_tag_stack_call_depth = ((Integer) tag_frame[tag_frame.length - 1]).intValue();
+    int orig_tag_stack_call_depth = ((Integer) tag_frame[tag_frame.length - 2]).intValue();
     if (td.tag_stack_call_depth != orig_tag_stack_call_depth) {
       // Something has gone wrong.  It's almost certainly an exception that
       // was handled by an exception handler other than one added by
@@ -719,7 +731,7 @@ public final class DCRuntime {
       System.out.printf("Begin normal exit primitive from %s%n", caller_name());
     }
 
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = frame_data(tag_frame);
     Object ret_tag = td.tag_stack.pop(); // save what we hope is the return value tag
     assert ret_tag != null;
 
@@ -735,7 +747,7 @@ public final class DCRuntime {
       while (td.tag_stack.peek() != method_marker) td.tag_stack.pop();
     }
 
-    int orig_tag_stack_call_depth = ((Integer) tag_frame[tag_frame.length - 1]).intValue();
+    int orig_tag_stack_call_depth = ((Integer) tag_frame[tag_frame.length - 2]).intValue();
     if (td.tag_stack_call_depth != orig_tag_stack_call_depth) {
       // Something has gone wrong.  It's almost certainly an exception that
       // was handled by an exception handler other than one added by
@@ -790,7 +802,7 @@ public final class DCRuntime {
       ((Throwable) throwable).printStackTrace();
     }
 
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     td.tag_stack_call_depth--;
     if (debug_tag_frame) {
       System.out.printf("tag stack call_depth: %d%n", td.tag_stack_call_depth);
@@ -820,7 +832,7 @@ public final class DCRuntime {
       System.out.printf("In throw_op%n");
     }
 
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     while (td.tag_stack.peek() != method_marker) td.tag_stack.pop();
     if (debug_tag_frame) System.out.printf("tag stack size: %d%n", td.tag_stack.size());
   }
@@ -828,7 +840,7 @@ public final class DCRuntime {
   /** Pushes the tag at tag_frame[index] on the tag stack. */
   public static void push_local_tag(Object[] tag_frame, int index) {
 
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = frame_data(tag_frame);
     debug_primitive.log("push_local_tag[%d] %s%n", index, tag_frame[index]);
     assert tag_frame[index] != null : "index " + index;
     td.tag_stack.push(tag_frame[index]);
@@ -838,7 +850,7 @@ public final class DCRuntime {
   /** Pops the top of the tag stack into tag_frame[index] */
   public static void pop_local_tag(Object[] tag_frame, int index) {
 
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = frame_data(tag_frame);
     assert td.tag_stack.peek() != method_marker;
     tag_frame[index] = td.tag_stack.pop();
     assert tag_frame[index] != null : "index " + index;
@@ -849,7 +861,7 @@ public final class DCRuntime {
   /** Pushes the tag associated with the static static_num on the tag stack. */
   public static void push_static_tag(int static_num) {
 
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     Object static_tag = static_tags.get(static_num);
     if (static_tag == null) {
       static_tag = new Object();
@@ -867,7 +879,7 @@ public final class DCRuntime {
    */
   public static void push_array_tag(Object arr_ref) {
 
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     td.tag_stack.push(arr_ref);
     if (debug_arr_index.enabled()) {
       debug_arr_index.log("push_array_tag %s%n", obj_str(arr_ref));
@@ -882,7 +894,7 @@ public final class DCRuntime {
    */
   public static void pop_static_tag(int static_num) {
 
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     assert td.tag_stack.peek() != method_marker;
     static_tags.set(static_num, td.tag_stack.pop());
     assert static_tags.get(static_num) != null;
@@ -901,7 +913,7 @@ public final class DCRuntime {
       System.out.printf("In discard_tag%n");
     }
 
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     // debug_print_call_stack();
     while (--cnt >= 0) {
       assert td.tag_stack.peek() != method_marker;
@@ -926,7 +938,7 @@ public final class DCRuntime {
 
     // This is a helper routine always called as the first step
     // so we can set the per-thread data here.
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
 
     // look for the tag storage for this array
     Object[] obj_tags = field_map.get(arr_ref);
@@ -959,7 +971,7 @@ public final class DCRuntime {
   /** Execute an aastore instruction and mark the array and its index as comparable. */
   public static void aastore(Object[] arr, int index, Object val) {
 
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     // Mark the array and its index as comparable
     assert td.tag_stack.peek() != method_marker;
     Object index_tag = td.tag_stack.pop();
@@ -1098,7 +1110,7 @@ public final class DCRuntime {
       System.out.printf("In multianewarray2%n");
     }
 
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     assert td.tag_stack.peek() != method_marker;
     Object count2tag = td.tag_stack.pop();
     assert td.tag_stack.peek() != method_marker;
@@ -1147,7 +1159,7 @@ public final class DCRuntime {
     }
 
     MethodInfo mi = methods.get(mi_index);
-    mi.call_cnt++;
+    mi.call_cnt.incrementAndGet();
     ClassInfo ci = mi.class_info;
     if (ci.clazz == null) {
       ci.initViaReflection();
@@ -1207,7 +1219,7 @@ public final class DCRuntime {
     }
 
     MethodInfo mi = methods.get(mi_index);
-    mi.call_cnt++;
+    mi.call_cnt.incrementAndGet();
     ClassInfo ci = mi.class_info;
     if (ci.clazz == null) {
       ci.initViaReflection();
@@ -1364,7 +1376,7 @@ public final class DCRuntime {
         merge_comparability(varmap, null, p, pi);
       } else if (dv instanceof ReturnInfo) {
         if (mi.return_type().isPrimitive()) {
-          ThreadData td = thread_to_data.get(Thread.currentThread());
+          ThreadData td = thread_data.get();
           ret_val = td.tag_stack.peek();
         }
         merge_comparability(varmap, null, ret_val, dv);
@@ -1937,7 +1949,7 @@ public final class DCRuntime {
           continue;
         }
         method_cnt++;
-        System.out.printf("  Processing method %s [%d calls]%n", mi, mi.call_cnt);
+        System.out.printf("  Processing method %s [%d calls]%n", mi, mi.call_cnt.get());
         if (mi.traversalEnter == null) {
           System.out.printf("  Skipping method %s%n", mi);
           continue;
@@ -2730,7 +2742,7 @@ public final class DCRuntime {
       System.out.printf("In push_field_tag_null_ok%n");
     }
 
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     Object[] obj_tags = field_map.get(obj);
     if (obj_tags != null) {
       Object tag = obj_tags[field_num];
@@ -2777,7 +2789,7 @@ public final class DCRuntime {
       System.out.printf("In pop_field_tag%n");
     }
 
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     // Look for the tag storage for this object
     Object[] obj_tags = field_map.get(obj);
 
@@ -2825,7 +2837,7 @@ public final class DCRuntime {
    * representative tag pushed back on the stack.
    */
   public static void binary_tag_op() {
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     debug_primitive.log("binary tag op%n");
     assert td.tag_stack.peek() != method_marker;
     Object tag1 = td.tag_stack.pop();
@@ -2840,7 +2852,7 @@ public final class DCRuntime {
    * merged. Very similar to binary_tag_op except that nothing is pushed back on the tag stack.
    */
   public static void cmp_op() {
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     debug_primitive.log("cmp_op%n");
     assert td.tag_stack.peek() != method_marker;
     Object tag1 = td.tag_stack.pop();
@@ -2852,7 +2864,7 @@ public final class DCRuntime {
 
   /** Handles a dup opcode on a primitive. */
   public static void dup() {
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     debug_primitive.log("dup%n");
     assert td.tag_stack.peek() != method_marker;
     td.tag_stack.push(td.tag_stack.peek());
@@ -2861,7 +2873,7 @@ public final class DCRuntime {
 
   /** Handles a dup_x1 opcode on a primitive. */
   public static void dup_x1() {
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     debug_primitive.log("dup_x1%n");
     assert td.tag_stack.peek() != method_marker;
     Object top = td.tag_stack.pop();
@@ -2877,7 +2889,7 @@ public final class DCRuntime {
    * Handles a dup_x2 opcode on a primitive. Currently only support category 1 computational types.
    */
   public static void dup_x2() {
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     debug_primitive.log("dup_x2%n");
     assert td.tag_stack.peek() != method_marker;
     Object top = td.tag_stack.pop();
@@ -2894,7 +2906,7 @@ public final class DCRuntime {
 
   /** Handles a dup2 opcode on a primitive. */
   public static void dup2() {
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     debug_primitive.log("dup2%n");
     assert td.tag_stack.peek() != method_marker;
     Object top = td.tag_stack.pop();
@@ -2909,7 +2921,7 @@ public final class DCRuntime {
 
   /** Handles a dup2_x1 opcode on a primitive. */
   public static void dup2_x1() {
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     debug_primitive.log("dup2_x1%n");
     assert td.tag_stack.peek() != method_marker;
     Object top = td.tag_stack.pop();
@@ -2927,7 +2939,7 @@ public final class DCRuntime {
 
   /** Handles a dup2_x2 opcode on a primitive. */
   public static void dup2_x2() {
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     debug_primitive.log("dup2_x2%n");
     assert td.tag_stack.peek() != method_marker;
     Object top = td.tag_stack.pop();
@@ -2948,7 +2960,7 @@ public final class DCRuntime {
 
   /** swaps the two elements on the top of the tag stack */
   public static void swap() {
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     debug_primitive.log("swap%n");
     assert td.tag_stack.peek() != method_marker;
     Object top = td.tag_stack.pop();
@@ -2985,7 +2997,7 @@ public final class DCRuntime {
    * @param index index into array
    */
   public static void primitive_array_load_null_ok(Object arr_ref, int index) {
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     debug_primitive.log("primitive_array_load_null_ok%n");
     // Get the tag for the index and mark it as comparable with the array
     assert td.tag_stack.peek() != method_marker;
@@ -3033,7 +3045,7 @@ public final class DCRuntime {
    * @param index index into array
    */
   public static void ref_array_load(Object arr_ref, int index) {
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     debug_primitive.log("ref_array_load%n");
     // Get the tag for the index and mark it as comparable with the array
     assert td.tag_stack.peek() != method_marker;
@@ -3055,7 +3067,7 @@ public final class DCRuntime {
    * comparable to each other.
    */
   public static void push_const() {
-    ThreadData td = thread_to_data.get(Thread.currentThread());
+    ThreadData td = thread_data.get();
     Object tag = new Constant();
     debug_primitive.log("push literal constant tag: %s%n", tag);
     td.tag_stack.push(tag);
@@ -3226,7 +3238,7 @@ public final class DCRuntime {
       // assert parent == null && obj == null
       //  : " parent/obj = " + obj_str(parent) + "/" + obj_str(obj);
       try {
-        ThreadData td = thread_to_data.get(Thread.currentThread());
+        ThreadData td = thread_data.get();
         Object ret_val = get_tag.invoke(parent);
         assert ret_val == null;
         assert td.tag_stack.peek() != method_marker;
@@ -2,8 +2,6 @@ package daikon.dcomp;
 
 import daikon.DynComp;
 import daikon.chicory.DaikonVariableInfo;
-import daikon.plumelib.util.WeakIdentityHashMap;
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
@@ -12,81 +10,126 @@ import java.util.StringJoiner;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 /**
- * Union-Find datastructure for Objects without the ranking optimization. All references to the
- * Objects are weak so that they will be removed from the sets when no longer referenced.
+ * Union-Find datastructure for Objects, with union by rank and path compression. All references to
+ * the Objects are weak so that they will be removed from the sets when no longer referenced.
+ *
+ * <p>Each object that has been put in a set has an integer id (see {@link WeakIdentityIds}), and
+ * the tree of each set, as well as the tracer tree, is kept in primitive arrays indexed by id
+ * rather than in an object per element. An element whose object has been garbage collected stays
+ * in the arrays as long as some other element's parent or tracer is it; then its id is reused.
+ *
+ * <p>This class is not thread-safe.
  */
-// TODO: Make TagEntry generic.
 @SuppressWarnings("interning")
-class TagEntry extends WeakReference<Object> {
+public final class TagEntry {
 
-  /** Maps each object to its entry in the Union-Find datastructure. */
-  public static final WeakIdentityHashMap<Object, TagEntry> object_map =
-      new WeakIdentityHashMap<Object, TagEntry>();
+  /** Do not instantiate; all the state is static. */
+  private TagEntry() {
+    throw new Error("do not instantiate");
+  }
 
   // private static SimpleLog debug = new SimpleLog(false);
 
+  /** Gives each element an id, and tells {@link #collected} when an element's object is gone. */
+  private static final WeakIdentityIds ids =
+      new WeakIdentityIds(
+          new WeakIdentityIds.Collector() {
+            @Override
+            public void collected(int id) {
+              TagEntry.collected(id);
+            }
+          });
+
   /**
-   * Parent in the tree that represents the set for this element. If this, this entry is the
-   * representative one.
+   * For each id, the id of its parent in the tree that represents its set. A root is its own
+   * parent. Is -1 for an id that is not in use.
    */
-  private @Nullable TagEntry parent;
+  private static int[] parent = new int[64];
+
+  /** For each root, an upper bound on the height of its tree. */
+  private static byte[] rank = new byte[64];
 
   /**
-   * An element in the tree that this element interacted with. If A trace-points to B, then A and B
-   * have directly interacted (stronger condition than being in the same comparability set).
+   * For each id, the id of an element in the tree that this element interacted with, or -1. If A
+   * trace-points to B, then A and B have directly interacted (stronger condition than being in the
+   * same comparability set).
    *
-   * <p>This is not a symmetric relation; for each interaction, at most one TagEntry's {@code
-   * tracer} field is set.
+   * <p>This is not a symmetric relation; for each interaction, at most one element's tracer is
+   * set.
    *
-   * <p>Is null for the root, and also is null if DynComp.trace_file is null.
+   * <p>Is -1 for the root, and also is -1 if DynComp.trace_file is null.
    *
    * <p>This is not necessarily an interaction with the parent, because {@link #find} sets {@link
    * #parent} but does not set {@link #tracer}.
    */
-  private @Nullable TagEntry tracer;
+  private static int[] tracer = new int[64];
 
   /**
-   * The class name, method name, and line number where the interaction occurred. Is null if {@link
-   * #tracer} is null.
+   * For each id, the class name, method name, and line number where the interaction with its
+   * tracer occurred. Is null if the tracer is -1.
    */
-  protected String tracer_loc = "";
+  private static @Nullable String[] tracer_loc = new String[64];
 
   /**
-   * Create an entry as a separate set. Does not put {@code obj} in {@link object_map}.
-   *
-   * @param obj the object to put in a new set
+   * For each id, the number of other ids whose parent or tracer it is. An id whose object has been
+   * collected is freed when this drops to zero.
    */
-  public TagEntry(Object obj) {
-    super(obj);
-    this.parent = null;
-    this.tracer = null;
-    // System.out.printf("Make %s with parent %s%n", this, this.parent);
-  }
+  private static int[] referrers = new int[64];
+
+  /** For each id, whether its object has been garbage collected. */
+  private static boolean[] dead = new boolean[64];
 
   /**
-   * Create an entry and add it to an existing set. Does not put {@code obj} in {@link object_map}.
+   * For each id whose object has been collected, an object that stands for it, created on demand.
+   * {@link #find(Object)} returns this instead of the representative's object, if that is gone.
+   */
+  private static @Nullable Object[] stand_in = new Object[64];
+
+  /** The ids whose objects were collected but that cannot be freed yet. */
+  private static int[] zombies = new int[16];
+
+  /** The number of elements of zombies in use. */
+  private static int num_zombies = 0;
+
+  /**
+   * Returns the id of the given object, giving it an id (in a set by itself) if it does not have
+   * one yet.
    *
-   * @param obj the object to put in a new set
-   * @param parent the parent of the new set
+   * @param obj an object
+   * @return the id of obj
    */
-  public TagEntry(Object obj, TagEntry parent) {
-    super(obj);
-    this.parent = parent;
-    this.tracer = parent;
-    // System.out.printf("Made %s with parent p%s%n", this, this.parent);
+  private static int get_entry(Object obj) {
+    assert obj != null;
+    int id = ids.get(obj);
+    if (id == -1) {
+      id = ids.add(obj);
+      if (id >= parent.length) {
+        grow(Math.max(2 * parent.length, ids.id_limit()));
+      }
+      parent[id] = id;
+      rank[id] = 0;
+      tracer[id] = -1;
+      tracer_loc[id] = null;
+      referrers[id] = 0;
+      dead[id] = false;
+      stand_in[id] = null;
+    }
+    return id;
   }
 
   /**
-   * Creates a set that only contains obj. Puts {@code obj} in {@link object_map}.
+   * Makes the per-id arrays larger.
    *
-   * @param obj the object to create a new set for
-   * @return a new set containing {@code obj}
+   * @param capacity the new length of the arrays
    */
-  public static TagEntry create(Object obj) {
-    assert !object_map.containsKey(obj);
-    TagEntry entry = new TagEntry(obj);
-    object_map.put(obj, entry);
-    return entry;
+  private static void grow(int capacity) {
+    parent = Arrays.copyOf(parent, capacity);
+    rank = Arrays.copyOf(rank, capacity);
+    tracer = Arrays.copyOf(tracer, capacity);
+    tracer_loc = Arrays.copyOf(tracer_loc, capacity);
+    referrers = Arrays.copyOf(referrers, capacity);
+    dead = Arrays.copyOf(dead, capacity);
+    stand_in = Arrays.copyOf(stand_in, capacity);
   }
 
   /**
@@ -97,60 +140,107 @@ class TagEntry extends WeakReference<Object> {
     assert (obj1 != null) && (obj2 != null);
     // debug.log("union of '%s' and '%s'%n", obj1, obj2);
 
-    TagEntry te1 = get_entry(obj1);
-    TagEntry te2 = get_entry(obj2);
-    TagEntry root1 = te1.find();
-    TagEntry root2 = te2.find();
+    int te1 = get_entry(obj1);
+    int te2 = get_entry(obj2);
+    int root1 = find(te1);
+    int root2 = find(te2);
 
     if (root1 != root2) {
-      root2.parent = root1;
+      if (rank[root1] < rank[root2]) {
+        set_parent(root1, root2);
+      } else {
+        if (rank[root1] == rank[root2]) {
+          rank[root1]++;
+        }
+        set_parent(root2, root1);
+      }
       if (DynComp.trace_file != null) {
-        te1.rootMe();
-        te2.rootMe();
-        te2.tracer = te1;
-        te2.tracer_loc = generateTraceString();
+        rootMe(te1);
+        rootMe(te2);
+        set_tracer(te2, te1, generateTraceString());
       }
     }
   }
 
-  /** Find the entry associated with obj. If an entry does not currently exist, create it. */
-  public static TagEntry get_entry(Object obj) {
-
-    assert obj != null;
-    TagEntry entry = object_map.get(obj);
-    if (entry == null) {
-      entry = create(obj);
+  /**
+   * Sets the parent of an element, keeping {@link #referrers} up to date.
+   *
+   * @param id an element
+   * @param new_parent its new parent
+   */
+  private static void set_parent(int id, int new_parent) {
+    int old_parent = parent[id];
+    if (old_parent != id) {
+      referrers[old_parent]--;
+    }
+    parent[id] = new_parent;
+    if (new_parent != id) {
+      referrers[new_parent]++;
     }
-    return entry;
   }
 
   /**
-   * Find the TagEntry that is the representative of this set. As part of finding the
-   * representative, the path from the specified entry to the representative is compressed.
+   * Sets the tracer of an element, keeping {@link #referrers} up to date.
+   *
+   * @param id an element
+   * @param new_tracer its new tracer, or -1
+   * @param loc where the interaction with new_tracer occurred, or null if new_tracer is -1
    */
-  public TagEntry find() {
-
-    if (parent == null) {
-      return this;
+  private static void set_tracer(int id, int new_tracer, @Nullable String loc) {
+    int old_tracer = tracer[id];
+    if (old_tracer != -1) {
+      referrers[old_tracer]--;
+    }
+    tracer[id] = new_tracer;
+    tracer_loc[id] = loc;
+    if (new_tracer != -1) {
+      referrers[new_tracer]++;
     }
+  }
 
-    // Find the canonical representative
-    TagEntry root = this;
-    while (root.parent != null) {
-      root = root.parent;
+  /**
+   * Find the representative of the set that contains the given element. As part of finding the
+   * representative, the path from the specified element to the representative is compressed.
+   *
+   * @param id an element
+   * @return the id of the representative of its set
+   */
+  private static int find(int id) {
+    int root = id;
+    while (parent[root] != root) {
+      root = parent[root];
     }
 
     // Set everyone to point to the root
-    TagEntry tag = this;
-    while (tag.parent != null) {
-      TagEntry next = tag.parent;
-      tag.parent = root;
+    int tag = id;
+    while (parent[tag] != root) {
+      int next = parent[tag];
+      set_parent(tag, root);
       tag = next;
     }
 
     return root;
   }
 
+  /**
+   * Returns an object that stands for the given element: its own object if that still exists, and
+   * otherwise an object that is unique to the element.
+   *
+   * @param id an element
+   * @return an object that stands for the element
+   */
+  private static Object object(int id) {
+    Object obj = ids.object(id);
+    if (obj == null) {
+      obj = stand_in[id];
+      if (obj == null) {
+        obj = new Object();
+        stand_in[id] = obj;
+      }
+    }
+    return obj;
+  }
+
   /**
    * Given an Object, returns the Object that is the representative for its set. If there is no
    * entry for Object in the map, it must be in a set by itself.
@@ -160,25 +250,112 @@ class TagEntry extends WeakReference<Object> {
    */
   public static Object find(Object obj) {
     assert obj != null;
-    TagEntry entry = object_map.get(obj);
-    if (entry == null) {
+    int id = ids.get(obj);
+    if (id == -1) {
       return obj;
     }
-    TagEntry root = entry.find();
 
     // It shouldn't matter that this isn't a member of the set, only that
-    // it is unique.
-    // return root;
-
-    // If the root object has been garbage collected, just return
-    // a reference to the tag instead.  Since the caller has no references
-    // to the root, it can't matter what we returned.
-    // TODO: In that case, why not return obj?
-    Object root_ref = root.get();
-    if (root_ref == null) {
-      root_ref = root;
+    // it is unique.  If the root object has been garbage collected, just
+    // return an object that stands for it instead.  Since the caller has
+    // no references to the root, it can't matter what we returned.
+    return object(find(id));
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  /// Garbage collection
+  ///
+
+  /**
+   * Called when the object of an element has been garbage collected. Frees the element's id, and
+   * those of any collected elements that were only kept for its sake, or else remembers it so that
+   * it can be freed later.
+   *
+   * @param id the element whose object was collected
+   */
+  private static void collected(int id) {
+    dead[id] = true;
+    if (referrers[id] == 0) {
+      release(id);
+      return;
+    }
+    if (num_zombies == zombies.length) {
+      // Before making room, free the zombies that are no longer referred to.
+      int kept = 0;
+      for (int i = 0; i < num_zombies; i++) {
+        int zombie = zombies[i];
+        if (is_releasable(zombie)) {
+          release(zombie);
+        }
+      }
+      for (int i = 0; i < num_zombies; i++) {
+        int zombie = zombies[i];
+        // An id that was freed may since have been reused for a live object.
+        if (parent[zombie] != -1 && dead[zombie]) {
+          zombies[kept++] = zombie;
+        }
+      }
+      num_zombies = kept;
+      if (2 * num_zombies > zombies.length) {
+        zombies = Arrays.copyOf(zombies, 2 * zombies.length);
+      }
+    }
+    zombies[num_zombies++] = id;
+  }
+
+  /**
+   * Frees the id of an element that is dead and not referred to. Then does the same for its parent
+   * and tracer, and so on, if that leaves them dead and unreferred to.
+   *
+   * @param id a dead element with no referrers
+   */
+  private static void release(int id) {
+    int num_pending = 0;
+    pending[num_pending++] = id;
+    while (num_pending > 0) {
+      int e = pending[--num_pending];
+      int p = parent[e];
+      int t = tracer[e];
+      set_parent(e, e);
+      set_tracer(e, -1, null);
+      parent[e] = -1;
+      stand_in[e] = null;
+      ids.free(e);
+      if (p != e && is_releasable(p)) {
+        num_pending = push_pending(num_pending, p);
+      }
+      if (t != -1 && t != p && is_releasable(t)) {
+        num_pending = push_pending(num_pending, t);
+      }
+    }
+  }
+
+  /**
+   * Returns true if the given element is in use, dead, and not referred to.
+   *
+   * @param id an element
+   * @return true if id can be freed
+   */
+  private static boolean is_releasable(int id) {
+    return parent[id] != -1 && dead[id] && referrers[id] == 0;
+  }
+
+  /** Scratch space for {@link #release}: the elements that remain to be freed. */
+  private static int[] pending = new int[16];
+
+  /**
+   * Adds an element to {@link #pending}.
+   *
+   * @param num_pending the number of elements of pending in use
+   * @param id the element to add
+   * @return the new number of elements of pending in use
+   */
+  private static int push_pending(int num_pending, int id) {
+    if (num_pending == pending.length) {
+      pending = Arrays.copyOf(pending, 2 * pending.length);
     }
-    return root_ref;
+    pending[num_pending] = id;
+    return num_pending + 1;
   }
 
   ///////////////////////////////////////////////////////////////////////////
@@ -192,7 +369,8 @@ class TagEntry extends WeakReference<Object> {
    * @return information about where the given object interacted with some other object in its set
    */
   public static String get_line_trace(Object obj) {
-    return get_entry(obj).tracer_loc;
+    String loc = tracer_loc[get_entry(obj)];
+    return (loc == null) ? "" : loc;
   }
 
   /**
@@ -203,74 +381,50 @@ class TagEntry extends WeakReference<Object> {
    * @return the canonical member of this object's set (based on tracers), or possibly null
    */
   public static @Nullable Object tracer_find(Object obj) {
-    TagEntry entry = object_map.get(obj);
-    if (entry == null) {
+    int id = ids.get(obj);
+    if (id == -1) {
       return obj;
     }
-    TagEntry tracer = entry.getTracer();
-    if (tracer == null) {
+    int tr = tracer[id];
+    if (tr == -1) {
       return null;
     }
-    Object tr_ref = tracer.get();
-    if (tr_ref == null) {
-      tr_ref = tracer;
-    }
-    return tr_ref;
-  }
-
-  public static Object troot_find(Object obj) {
-    TagEntry entry = object_map.get(obj);
-    if (entry == null) {
-      return obj;
-    }
-    TagEntry troot = entry.getTraceRoot();
-    Object tr_ref = troot.get();
-    if (tr_ref == null) {
-      tr_ref = troot;
-    }
-    return tr_ref;
+    return object(tr);
   }
 
   /**
-   * Recursively traces from this object to the root of its tracer tree, and reverses the direction
-   * of every pointer on the path, such that this object is now the root of its tracer tree.
+   * Return the last element in the path created by tracers from the given object.
    *
-   * @param newTracer the new {@code tracer} value for this
-   * @param tloc the new {@code tracer_loc} value for this
+   * @param obj an object that might be in the union-find data structure
+   * @return the root of the tracer tree of {@code obj}
    */
-  public void reroute(@Nullable TagEntry newTracer, String tloc) {
-    TagEntry thisTracer = this.tracer;
-    if (thisTracer != null) {
-      // System.out.println("Tracer not null");
-      thisTracer.reroute(this, tracer_loc);
+  public static Object troot_find(Object obj) {
+    int id = ids.get(obj);
+    if (id == -1) {
+      return obj;
     }
-    this.tracer = newTracer;
-    this.tracer_loc = tloc;
-  }
-
-  public void rootMe() {
-    this.reroute(null, "");
-  }
-
-  /**
-   * Returns the tracer of this node.
-   *
-   * @return the tracer of this node
-   */
-  public @Nullable TagEntry getTracer() {
-    return tracer;
+    while (tracer[id] != -1) {
+      id = tracer[id];
+    }
+    return object(id);
   }
 
   /**
-   * Follow tracer pointers as far as possible.
+   * Traces from the given element to the root of its tracer tree, and reverses the direction of
+   * every pointer on the path, such that the element is now the root of its tracer tree.
    *
-   * @return the last element in the path created by {@link #tracer} fields
+   * @param id an element
    */
-  public TagEntry getTraceRoot() {
-    if (tracer == null) {
-      return this;
-    } else {
-      return tracer.getTraceRoot();
+  private static void rootMe(int id) {
+    int new_tracer = -1;
+    String new_loc = null;
+    while (id != -1) {
+      int next = tracer[id];
+      String next_loc = tracer_loc[id];
+      set_tracer(id, new_tracer, new_loc);
+      new_tracer = id;
+      new_loc = next_loc;
+      id = next;
     }
   }
 
@@ -327,6 +481,42 @@ class TagEntry extends WeakReference<Object> {
   /// Debugging output
   ///
 
+  /**
+   * Returns the number of parent links from the given object's element to the representative of
+   * its set, without compressing the path. Used by the tests of union by rank.
+   *
+   * @param obj an object
+   * @return the depth of obj in the tree of its set, or 0 if it is in no set
+   */
+  public static int depth(Object obj) {
+    int id = ids.get(obj);
+    if (id == -1) {
+      return 0;
+    }
+    int depth = 0;
+    while (parent[id] != id) {
+      id = parent[id];
+      depth++;
+    }
+    return depth;
+  }
+
+  /**
+   * Returns the number of elements whose ids are in use: those whose objects exist, and those whose
+   * objects were collected but that another element still refers to.
+   *
+   * @return the number of elements in use
+   */
+  public static int num_elements() {
+    int num = 0;
+    for (int id = 0; id < ids.id_limit(); id++) {
+      if (parent[id] != -1) {
+        num++;
+      }
+    }
+    return num;
+  }
+
   /**
    * Returns each of the sets with elements in each set on a separate line.
    *
@@ -336,9 +526,15 @@ class TagEntry extends WeakReference<Object> {
 
     LinkedHashMap<Object, List<Object>> sets = new LinkedHashMap<>();
 
-    // Fill sets from object_map by placing every object in an ArrayList
+    // Fill sets with every object that still exists, in an ArrayList
     // whose key is its root.
-    for (Object obj : object_map.keySet()) {
+    int num_objects = 0;
+    for (int id = 0; id < ids.id_limit(); id++) {
+      Object obj = (parent[id] == -1) ? null : ids.object(id);
+      if (obj == null) {
+        continue;
+      }
+      num_objects++;
       Object rep = find(obj);
       List<Object> set = sets.get(rep);
       if (set == null) {
@@ -349,7 +545,7 @@ class TagEntry extends WeakReference<Object> {
     }
 
     StringJoiner result = new StringJoiner(System.lineSeparator());
-    result.add(String.format("%d objects in object_map", object_map.size()));
+    result.add(String.format("%d objects in the sets", num_objects));
     for (Object rep : sets.keySet()) {
       List<Object> set = sets.get(rep);
       StringJoiner line = new StringJoiner(", ");
@@ -0,0 +1,301 @@
+package daikon.dcomp;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Gives each of a set of objects, compared by identity, a small integer id, without keeping the
+ * objects alive. Clients keep their data about the objects in arrays indexed by id, so that there
+ * is no per-object map entry and no boxing.
+ *
+ * <p>The ids are kept in an open-addressing hash table of ints. When an object is garbage
+ * collected, its id is removed from the table, and the client is told by a call to {@link
+ * Collector#collected}; the client then calls {@link #free} when it no longer uses the id, after
+ * which the id may be handed out again. Collected objects are noticed in batches, once every {@link
+ * #EXPUNGE_INTERVAL} calls to {@link #add} and whenever the table would otherwise grow, rather than
+ * on every access as in {@link daikon.plumelib.util.WeakIdentityHashMap}.
+ *
+ * <p>This class is not thread-safe.
+ */
+@SuppressWarnings("interning")
+public final class WeakIdentityIds {
+
+  /** Receives the ids of objects that were garbage collected. */
+  public interface Collector {
+    /**
+     * Called when the object with the given id has been garbage collected. The id is no longer in
+     * the table, but is not reused until it is passed to {@link #free}.
+     *
+     * @param id the id of the collected object
+     */
+    void collected(int id);
+  }
+
+  /** A weak reference to an object in the table, which remembers the object's id. */
+  private static final class Ref extends WeakReference<Object> {
+    /** The id of the referent. */
+    final int id;
+
+    /**
+     * Creates a weak reference to an object.
+     *
+     * @param obj the referent
+     * @param queue where the reference is enqueued when obj is collected
+     * @param id the id of obj
+     */
+    Ref(Object obj, ReferenceQueue<Object> queue, int id) {
+      super(obj, queue);
+      this.id = id;
+    }
+  }
+
+  /** The number of calls to {@link #add} between checks for collected objects. */
+  public static final int EXPUNGE_INTERVAL = 4096;
+
+  /** Told about each collected object. */
+  private final Collector collector;
+
+  /** Where the references to collected objects are enqueued. */
+  private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+  /** For each id, the reference to its object, or null if the id is not in the table. */
+  private @Nullable Ref[] refs = new Ref[64];
+
+  /** For each id in the table, the identity hash code of its object. */
+  private int[] hashes = new int[64];
+
+  /** The hash table: each element is 0 if the slot is empty, or one more than an id. */
+  private int[] table = new int[128];
+
+  /** The number of ids in the table. */
+  private int size = 0;
+
+  /** Ids that were freed and can be handed out again; the first num_free elements are used. */
+  private int[] free_ids = new int[16];
+
+  /** The number of elements of free_ids in use. */
+  private int num_free = 0;
+
+  /** The lowest id that has never been handed out. */
+  private int next_id = 0;
+
+  /** The number of calls to {@link #add} since collected objects were last removed. */
+  private int adds_since_expunge = 0;
+
+  /** The number of objects that have been garbage collected, for statistics. */
+  private long num_collected = 0;
+
+  /**
+   * Creates an empty table.
+   *
+   * @param collector told about each object that is garbage collected
+   */
+  public WeakIdentityIds(Collector collector) {
+    this.collector = collector;
+  }
+
+  /**
+   * Returns the slot at which a search for an object with the given hash code starts.
+   *
+   * @param hash the identity hash code of an object
+   * @return the first slot in table to examine
+   */
+  private int home(int hash) {
+    int h = hash * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & (table.length - 1);
+  }
+
+  /**
+   * Returns the id of the given object, or -1 if it has none.
+   *
+   * @param obj an object, or null
+   * @return the id of obj, or -1
+   */
+  public int get(@Nullable Object obj) {
+    if (obj == null) {
+      return -1;
+    }
+    int mask = table.length - 1;
+    for (int i = home(System.identityHashCode(obj)); ; i = (i + 1) & mask) {
+      int entry = table[i];
+      if (entry == 0) {
+        return -1;
+      }
+      Ref ref = refs[entry - 1];
+      if (ref != null && ref.get() == obj) {
+        return entry - 1;
+      }
+    }
+  }
+
+  /**
+   * Gives an id to an object that does not have one. This may first report collected objects to
+   * the collector.
+   *
+   * @param obj an object that is not in the table
+   * @return the new id of obj
+   */
+  public int add(Object obj) {
+    assert get(obj) == -1;
+    if (++adds_since_expunge >= EXPUNGE_INTERVAL) {
+      expunge();
+    }
+    if (2 * (size + 1) > table.length) {
+      expunge();
+      if (2 * (size + 1) > table.length) {
+        rehash(2 * table.length);
+      }
+    }
+
+    int id;
+    if (num_free > 0) {
+      id = free_ids[--num_free];
+    } else {
+      id = next_id++;
+      if (id == refs.length) {
+        refs = Arrays.copyOf(refs, 2 * refs.length);
+        hashes = Arrays.copyOf(hashes, 2 * hashes.length);
+      }
+    }
+    int hash = System.identityHashCode(obj);
+    refs[id] = new Ref(obj, queue, id);
+    hashes[id] = hash;
+    insert(id);
+    size++;
+    return id;
+  }
+
+  /**
+   * Puts an id into the hash table.
+   *
+   * @param id an id that is not in the table
+   */
+  private void insert(int id) {
+    int mask = table.length - 1;
+    int i = home(hashes[id]);
+    while (table[i] != 0) {
+      i = (i + 1) & mask;
+    }
+    table[i] = id + 1;
+  }
+
+  /**
+   * Replaces the hash table with one of the given size.
+   *
+   * @param capacity the new number of slots, a power of 2
+   */
+  private void rehash(int capacity) {
+    int[] old_table = table;
+    table = new int[capacity];
+    for (int entry : old_table) {
+      if (entry != 0) {
+        insert(entry - 1);
+      }
+    }
+  }
+
+  /**
+   * Removes an id from the hash table, and moves later entries of its probe sequence back so that
+   * searches need no tombstones.
+   *
+   * @param id an id that is in the table
+   */
+  private void remove(int id) {
+    int mask = table.length - 1;
+    int i = home(hashes[id]);
+    while (table[i] != id + 1) {
+      i = (i + 1) & mask;
+    }
+    int j = i;
+    while (true) {
+      j = (j + 1) & mask;
+      int entry = table[j];
+      if (entry == 0) {
+        break;
+      }
+      int k = home(hashes[entry - 1]);
+      // The entry at j can move to i unless its home slot is cyclically in (i, j].
+      boolean stays = (i <= j) ? (i < k && k <= j) : (i < k || k <= j);
+      if (!stays) {
+        table[i] = entry;
+        i = j;
+      }
+    }
+    table[i] = 0;
+    refs[id] = null;
+    size--;
+  }
+
+  /**
+   * Removes the ids of all objects that have been garbage collected from the table, and reports
+   * them to the collector.
+   */
+  public void expunge() {
+    adds_since_expunge = 0;
+    for (Object r; (r = queue.poll()) != null; ) {
+      int id = ((Ref) r).id;
+      // The id may already have been removed, if expunge was called from the collector.
+      if (refs[id] == r) {
+        remove(id);
+        num_collected++;
+        collector.collected(id);
+      }
+    }
+  }
+
+  /**
+   * Makes an id available to be handed out again. The id must not be in the table: its object must
+   * have been reported to the collector.
+   *
+   * @param id an id that is no longer in use
+   */
+  public void free(int id) {
+    assert refs[id] == null : id;
+    if (num_free == free_ids.length) {
+      free_ids = Arrays.copyOf(free_ids, 2 * free_ids.length);
+    }
+    free_ids[num_free++] = id;
+  }
+
+  /**
+   * Returns the object with the given id, or null if it has been garbage collected.
+   *
+   * @param id an id
+   * @return the object with that id, or null
+   */
+  public @Nullable Object object(int id) {
+    Ref ref = refs[id];
+    return (ref == null) ? null : ref.get();
+  }
+
+  /**
+   * Returns one more than the largest id that has been handed out. Clients size their arrays by
+   * this.
+   *
+   * @return an upper bound on the ids
+   */
+  public int id_limit() {
+    return next_id;
+  }
+
+  /**
+   * Returns the number of objects in the table; some of them may have been collected but not yet
+   * removed.
+   *
+   * @return the number of objects in the table
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of objects that have been garbage collected and removed from the table.
+   *
+   * @return the number of objects that have been collected
+   */
+  public long num_collected() {
+    return num_collected;
+  }
+}
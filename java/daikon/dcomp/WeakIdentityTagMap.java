@@ -0,0 +1,72 @@
+package daikon.dcomp;
+
+import java.util.Arrays;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A map from objects, compared by identity, to arrays of tags, that does not keep the objects
+ * alive. It is a replacement for a {@link daikon.plumelib.util.WeakIdentityHashMap} whose values
+ * are {@code Object[]}: the arrays are kept in one array indexed by the id that {@link
+ * WeakIdentityIds} gives each key, so there is no map entry per key, and collected keys are removed
+ * in batches.
+ *
+ * <p>This class is not thread-safe.
+ */
+@SuppressWarnings("interning")
+public final class WeakIdentityTagMap {
+
+  /** Gives each key an id. */
+  private final WeakIdentityIds ids =
+      new WeakIdentityIds(
+          new WeakIdentityIds.Collector() {
+            @Override
+            public void collected(int id) {
+              values[id] = null;
+              ids.free(id);
+            }
+          });
+
+  /** For each id, the value of the key with that id. */
+  private Object @Nullable [][] values = new Object[64][];
+
+  /** Creates an empty map. */
+  public WeakIdentityTagMap() {}
+
+  /**
+   * Returns the tags associated with an object.
+   *
+   * @param key an object, or null
+   * @return the tags associated with key, or null if there are none
+   */
+  public Object @Nullable [] get(@Nullable Object key) {
+    int id = ids.get(key);
+    return (id == -1) ? null : values[id];
+  }
+
+  /**
+   * Associates tags with an object, replacing any that were associated with it.
+   *
+   * @param key an object
+   * @param tags the tags for key
+   */
+  public void put(Object key, Object[] tags) {
+    int id = ids.get(key);
+    if (id == -1) {
+      id = ids.add(key);
+      if (id >= values.length) {
+        values = Arrays.copyOf(values, Math.max(2 * values.length, ids.id_limit()));
+      }
+    }
+    values[id] = tags;
+  }
+
+  /**
+   * Returns the number of objects that have tags. This may include some that have been garbage
+   * collected recently.
+   *
+   * @return the number of objects that have tags
+   */
+  public int size() {
+    return ids.size();
+  }
+}
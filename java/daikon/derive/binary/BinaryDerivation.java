@@ -4,7 +4,9 @@ import daikon.ValueTuple;
 import daikon.VarInfo;
 import daikon.derive.Derivation;
 import daikon.derive.ValueAndModified;
+import org.checkerframework.checker.interning.qual.Interned;
 import org.checkerframework.checker.lock.qual.GuardSatisfied;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.dataflow.qual.Pure;
 import org.checkerframework.dataflow.qual.SideEffectFree;
 import org.plumelib.util.ArraysPlume;
@@ -22,6 +24,29 @@ public abstract class BinaryDerivation extends Derivation {
   /** Original variable 2. */
   public VarInfo base2;
 
+  /** The value of base1 when {@link #last_result} was computed. */
+  private transient @Nullable Object last_val1;
+
+  /** The value of base2 when {@link #last_result} was computed. */
+  private transient @Nullable Object last_val2;
+
+  /** The modified bit of base1 when {@link #last_result} was computed. */
+  private transient int last_mod1;
+
+  /** The modified bit of base2 when {@link #last_result} was computed. */
+  private transient int last_mod2;
+
+  /**
+   * The result of the last call to {@link #computeValueAndModifiedImpl}, or null. Base values are
+   * interned, so if they are the same objects as last time, the derived value is the same too and
+   * need not be computed (and possibly allocated and interned) again.
+   *
+   * <p>Only the most recent base values are remembered. Base values that alternate from sample to
+   * sample (A, B, A, B, ...) therefore miss every time, and the derived value is computed, and
+   * interned, anew for each sample.
+   */
+  private transient @Nullable ValueAndModified last_result;
+
   /**
    * Create a new BinaryDerivation from two varinfos.
    *
@@ -88,7 +113,23 @@ public abstract class BinaryDerivation extends Derivation {
       return ValueAndModified.MISSING_FLOW;
     }
 
-    return computeValueAndModifiedImpl(vt);
+    @Nullable @Interned Object val1 = base1.getValueOrNull(vt);
+    @Nullable @Interned Object val2 = base2.getValueOrNull(vt);
+    ValueAndModified result = last_result;
+    if (result != null
+        && val1 == last_val1
+        && val2 == last_val2
+        && source_mod1 == last_mod1
+        && source_mod2 == last_mod2) {
+      return result;
+    }
+    result = computeValueAndModifiedImpl(vt);
+    last_val1 = val1;
+    last_val2 = val2;
+    last_mod1 = source_mod1;
+    last_mod2 = source_mod2;
+    last_result = result;
+    return result;
   }
 
   /** Actual implementation once mods are handled. */
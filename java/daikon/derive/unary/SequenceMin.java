@@ -1,5 +1,6 @@
 package daikon.derive.unary;
 
+import daikon.ConcurrentIntern;
 import daikon.ValueTuple;
 import daikon.VarInfo;
 import daikon.derive.Derivation;
@@ -7,7 +8,6 @@ import daikon.derive.ValueAndModified;
 import org.checkerframework.dataflow.qual.Pure;
 import org.checkerframework.dataflow.qual.SideEffectFree;
 import org.plumelib.util.ArraysPlume;
-import org.plumelib.util.Intern;
 
 // like SequenceMax; if one changes, change the other, too
 public final class SequenceMin extends UnaryDerivation {
@@ -40,13 +40,15 @@ public final class SequenceMin extends UnaryDerivation {
       if (val_array.length == 0) {
         return ValueAndModified.MISSING_NONSENSICAL;
       }
-      return new ValueAndModified(Intern.internedLong(ArraysPlume.min(val_array)), source_mod);
+      return new ValueAndModified(
+          ConcurrentIntern.internedLong(ArraysPlume.min(val_array)), source_mod);
     } else if (val instanceof double[]) {
       double[] val_array = (double[]) val;
       if (val_array.length == 0) {
         return ValueAndModified.MISSING_NONSENSICAL;
       }
-      return new ValueAndModified(Intern.internedDouble(ArraysPlume.min(val_array)), source_mod);
+      return new ValueAndModified(
+          ConcurrentIntern.internedDouble(ArraysPlume.min(val_array)), source_mod);
 
     } else {
       return ValueAndModified.MISSING_NONSENSICAL;
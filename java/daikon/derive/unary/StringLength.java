@@ -1,5 +1,6 @@
 package daikon.derive.unary;
 
+import daikon.ConcurrentIntern;
 import daikon.ProglangType;
 import daikon.ValueTuple;
 import daikon.VarInfo;
@@ -7,7 +8,6 @@ import daikon.derive.Derivation;
 import daikon.derive.ValueAndModified;
 import org.checkerframework.dataflow.qual.Pure;
 import org.checkerframework.dataflow.qual.SideEffectFree;
-import org.plumelib.util.Intern;
 
 /** Length of String variables. */
 public final class StringLength extends UnaryDerivation {
@@ -40,7 +40,7 @@ public final class StringLength extends UnaryDerivation {
     }
 
     int len = ((String) val).length();
-    return new ValueAndModified(Intern.internedLong(len), source_mod);
+    return new ValueAndModified(ConcurrentIntern.internedLong(len), source_mod);
   }
 
   @Override
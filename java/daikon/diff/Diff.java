@@ -8,12 +8,17 @@ import daikon.PptMap;
 import daikon.PptTopLevel;
 import daikon.inv.Invariant;
 import gnu.getopt.*;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OptionalDataException;
+import java.io.PrintStream;
 import java.io.StreamCorruptedException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -21,6 +26,12 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.NavigableSet;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.checkerframework.checker.initialization.qual.UnknownInitialization;
@@ -70,6 +81,7 @@ public final class Diff {
   private static final String INV_PAIR_COMPARATOR_SWITCH = "invPairComparator";
   private static final String IGNORE_UNJUSTIFIED_SWITCH = "ignore_unjustified";
   private static final String IGNORE_NUMBERED_EXITS_SWITCH = "ignore_exitNN";
+  private static final String THREADS_SWITCH = "threads";
 
   /** Determine which ppts should be paired together in the tree. */
   private static final Comparator<PptTopLevel> PPT_COMPARATOR = new Ppt.NameComparator();
@@ -160,6 +172,7 @@ public final class Diff {
     boolean verbose = false;
     boolean continuousJustification = false;
     boolean logging = false;
+    int threads = 1;
     File outputFile = null;
     @ClassGetName String invSortComparator1Classname = null;
     @ClassGetName String invSortComparator2Classname = null;
@@ -178,6 +191,7 @@ public final class Diff {
           new LongOpt(INV_PAIR_COMPARATOR_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
           new LongOpt(IGNORE_UNJUSTIFIED_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
           new LongOpt(IGNORE_NUMBERED_EXITS_SWITCH, LongOpt.NO_ARGUMENT, null, 0),
+          new LongOpt(THREADS_SWITCH, LongOpt.REQUIRED_ARGUMENT, null, 0),
         };
 
     Getopt g =
@@ -230,6 +244,18 @@ public final class Diff {
           } else if (IGNORE_NUMBERED_EXITS_SWITCH.equals(optionName)) {
             ignoreNumberedExits = true;
             break;
+          } else if (THREADS_SWITCH.equals(optionName)) {
+            String threadsString = Daikon.getOptarg(g);
+            try {
+              threads = Integer.parseInt(threadsString);
+            } catch (NumberFormatException e) {
+              threads = 0;
+            }
+            if (threads < 1) {
+              throw new Daikon.UserError(
+                  "--" + THREADS_SWITCH + " must be a positive integer: " + threadsString);
+            }
+            break;
           } else {
             throw new RuntimeException("Unknown long option received: " + optionName);
           }
@@ -356,8 +382,9 @@ public final class Diff {
     int firstFileIndex = g.getOptind();
     int numFiles = args.length - firstFileIndex;
 
-    InvMap invMap1 = null;
-    InvMap invMap2 = null;
+    // Each is a PptMap or an InvMap
+    Object invs1;
+    Object invs2;
 
     if (logging) {
       System.err.println("Invariant Diff: Reading Files");
@@ -365,13 +392,13 @@ public final class Diff {
 
     if (numFiles == 1) {
       String filename1 = args[firstFileIndex];
-      invMap1 = diff.readInvMap(new File(filename1));
-      invMap2 = new InvMap();
+      invs1 = readInvariants(new File(filename1));
+      invs2 = new PptMap();
     } else if (numFiles == 2) {
       String filename1 = args[firstFileIndex];
       String filename2 = args[firstFileIndex + 1];
-      invMap1 = diff.readInvMap(new File(filename1));
-      invMap2 = diff.readInvMap(new File(filename2));
+      invs1 = readInvariants(new File(filename1));
+      invs2 = readInvariants(new File(filename2));
     } else if (numFiles > 2) {
 
       // The new stuff that allows multiple files -LL
@@ -405,75 +432,104 @@ public final class Diff {
       throw new Daikon.NormalTermination();
     }
 
-    if (logging) {
-      System.err.println("Invariant Diff: Creating Tree");
+    if ((minus || xor || union) && outputFile == null) {
+      throw new Error("no output file specified on command line");
     }
 
     if (logging) {
       System.err.println("Invariant Diff: Visiting Tree");
     }
 
-    RootNode root = diff.diffInvMap(invMap1, invMap2, includeUnjustified);
-
+    // The tree is never built as a whole: each program point's subtree is built once and passed
+    // to every visitor as soon as it is built (see streamPptMap).  The output of a visitor that
+    // prints as it goes, but must follow output that is not printed yet, is kept in a temporary
+    // file and printed after that output.
+
+    DetailedStatisticsVisitor statsVisitor = null;
+    DetailedStatisticsVisitor tabSeparatedStatsVisitor = null;
+    MinusVisitor minusVisitor = null;
+    XorVisitor xorVisitor = null;
+    UnionVisitor unionVisitor = null;
+    List<Visitor> visitors = new ArrayList<>();
     if (stats) {
-      DetailedStatisticsVisitor v = new DetailedStatisticsVisitor(continuousJustification);
-      root.accept(v);
-      System.out.print(v.format());
+      statsVisitor = new DetailedStatisticsVisitor(continuousJustification);
+      visitors.add(statsVisitor);
     }
-
     if (tabSeparatedStats) {
-      DetailedStatisticsVisitor v = new DetailedStatisticsVisitor(continuousJustification);
-      root.accept(v);
-      System.out.print(v.repr());
+      tabSeparatedStatsVisitor = new DetailedStatisticsVisitor(continuousJustification);
+      visitors.add(tabSeparatedStatsVisitor);
     }
-
+    if (minus) {
+      minusVisitor = new MinusVisitor();
+      visitors.add(minusVisitor);
+    }
+    if (xor) {
+      xorVisitor = new XorVisitor();
+      visitors.add(xorVisitor);
+    }
+    if (union) {
+      unionVisitor = new UnionVisitor();
+      visitors.add(unionVisitor);
+    }
+    List<File> deferredFiles = new ArrayList<>();
+    List<PrintStream> deferredStreams = new ArrayList<>();
+    boolean printStats = (statsVisitor != null) || (tabSeparatedStatsVisitor != null);
     if (printDiff) {
-      PrintDifferingInvariantsVisitor v =
-          new PrintDifferingInvariantsVisitor(System.out, verbose, printEmptyPpts);
-      root.accept(v);
+      PrintStream ps = printStats ? deferredOutput(deferredFiles, deferredStreams) : System.out;
+      visitors.add(new PrintDifferingInvariantsVisitor(ps, verbose, printEmptyPpts));
     }
-
     if (printAll) {
-      PrintAllVisitor v = new PrintAllVisitor(System.out, verbose, printEmptyPpts);
-      root.accept(v);
+      PrintStream ps =
+          (printStats || printDiff) ? deferredOutput(deferredFiles, deferredStreams) : System.out;
+      visitors.add(new PrintAllVisitor(ps, verbose, printEmptyPpts));
     }
+    try {
+      if (!visitors.isEmpty()) {
+        diff.stream(invs1, invs2, includeUnjustified, threads, visitors);
+      }
+      for (PrintStream ps : deferredStreams) {
+        ps.close();
+      }
 
-    if (minus) {
-      if (outputFile != null) {
-        MinusVisitor v = new MinusVisitor();
-        root.accept(v);
-        UtilPlume.writeObject(v.getResult(), outputFile);
-        // System.out.println("Output written to: " + outputFile);
-      } else {
-        throw new Error("no output file specified on command line");
+      if (statsVisitor != null) {
+        System.out.print(statsVisitor.format());
       }
-    }
 
-    if (xor) {
-      if (outputFile != null) {
-        XorVisitor v = new XorVisitor();
-        root.accept(v);
-        InvMap resultMap = v.getResult();
-        UtilPlume.writeObject(resultMap, outputFile);
-        if (debug.isLoggable(Level.FINE)) {
-          debug.fine("Result: " + resultMap.toString());
-        }
+      if (tabSeparatedStatsVisitor != null) {
+        System.out.print(tabSeparatedStatsVisitor.repr());
+      }
 
-        // System.out.println("Output written to: " + outputFile);
-      } else {
-        throw new Error("no output file specified on command line");
+      System.out.flush();
+      for (File file : deferredFiles) {
+        Files.copy(file.toPath(), System.out);
+      }
+    } finally {
+      for (PrintStream ps : deferredStreams) {
+        ps.close();
+      }
+      for (File file : deferredFiles) {
+        file.delete();
       }
     }
 
-    if (union) {
-      if (outputFile != null) {
-        UnionVisitor v = new UnionVisitor();
-        root.accept(v);
-        UtilPlume.writeObject(v.getResult(), outputFile);
-        // System.out.println("Output written to: " + outputFile);
-      } else {
-        throw new Error("no output file specified on command line");
+    if (minusVisitor != null) {
+      UtilPlume.writeObject(minusVisitor.getResult(), outputFile);
+      // System.out.println("Output written to: " + outputFile);
+    }
+
+    if (xorVisitor != null) {
+      InvMap resultMap = xorVisitor.getResult();
+      UtilPlume.writeObject(resultMap, outputFile);
+      if (debug.isLoggable(Level.FINE)) {
+        debug.fine("Result: " + resultMap.toString());
       }
+
+      // System.out.println("Output written to: " + outputFile);
+    }
+
+    if (unionVisitor != null) {
+      UtilPlume.writeObject(unionVisitor.getResult(), outputFile);
+      // System.out.println("Output written to: " + outputFile);
     }
 
     if (logging) {
@@ -483,14 +539,69 @@ public final class Diff {
     // finished; return (and end program)
   }
 
-  /** Reads an InvMap from a file that contains a serialized InvMap or PptMap. */
-  private InvMap readInvMap(File file) throws IOException, ClassNotFoundException {
+  /**
+   * Returns a stream that writes to a new temporary file, to be printed once the output that must
+   * come before it has been printed.
+   *
+   * @param files the temporary files; the new one is added
+   * @param streams the streams that write to them; the new one is added
+   * @return a stream that writes to the new file
+   * @throws IOException if the file cannot be created
+   */
+  private static PrintStream deferredOutput(List<File> files, List<PrintStream> streams)
+      throws IOException {
+    File file = File.createTempFile("diff", ".txt");
+    files.add(file);
+    PrintStream ps = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)));
+    streams.add(ps);
+    return ps;
+  }
+
+  /**
+   * Reads the invariants from a file that contains a serialized InvMap or PptMap.
+   *
+   * @param file the file
+   * @return the InvMap or PptMap in the file
+   */
+  private static Object readInvariants(File file) throws IOException, ClassNotFoundException {
     Object o = UtilPlume.readObject(file);
     if (o instanceof InvMap) {
-      return (InvMap) o;
+      return o;
     } else {
-      PptMap pptMap = FileIO.read_serialized_pptmap(file, false);
-      return convertToInvMap(pptMap);
+      return FileIO.read_serialized_pptmap(o, false);
+    }
+  }
+
+  /**
+   * Streams the diff of two sets of invariants to the visitors, as {@link #streamPptMap} does.
+   * Each set is a PptMap or an InvMap; if only one is an InvMap, the other is converted to one.
+   *
+   * @param invs1 the first set of invariants
+   * @param invs2 the second set of invariants
+   * @param includeUnjustified if true, the unjustified invariants are included
+   * @param threads the number of threads on which to build the subtrees
+   * @param visitors the visitors that visit each subtree
+   */
+  private void stream(
+      Object invs1, Object invs2, boolean includeUnjustified, int threads, List<Visitor> visitors) {
+    if (invs1 instanceof PptMap && invs2 instanceof PptMap) {
+      streamPptMap((PptMap) invs1, (PptMap) invs2, includeUnjustified, threads, visitors);
+    } else {
+      streamInvMap(toInvMap(invs1), toInvMap(invs2), includeUnjustified, threads, visitors);
+    }
+  }
+
+  /**
+   * Returns the given set of invariants as an InvMap.
+   *
+   * @param invs a PptMap or an InvMap
+   * @return invs as an InvMap
+   */
+  private InvMap toInvMap(Object invs) {
+    if (invs instanceof InvMap) {
+      return (InvMap) invs;
+    } else {
+      return convertToInvMap((PptMap) invs);
     }
   }
 
@@ -559,7 +670,13 @@ public final class Diff {
       PptTopLevel ppt1 = ppts.a;
       PptTopLevel ppt2 = ppts.b;
       if (shouldAdd(ppt1) || shouldAdd(ppt2)) {
-        PptNode node = diffPptTopLevel(ppt1, ppt2, map1, map2, includeUnjustified);
+        PptNode node =
+            diffPptTopLevel(
+                ppt1,
+                ppt2,
+                (ppt1 == null) ? null : map1.get(ppt1),
+                (ppt2 == null) ? null : map2.get(ppt2),
+                includeUnjustified);
         root.add(node);
       }
     }
@@ -603,32 +720,210 @@ public final class Diff {
   }
 
   /**
-   * Takes a pair of corresponding top-level program points and maps, and returns a tree of the
-   * corresponding invariants. Either of the program points may be null. If includeUnjustied is
+   * Diffs two PptMaps like {@link #diffPptMap(PptMap,PptMap,boolean)}, but without building the
+   * tree, or the InvMaps, for the whole of both maps. Instead, the program points are paired by
+   * name, and the subtree of each pair (a PptNode and its InvNodes) is built on one of {@code
+   * threads} threads and then passed to each visitor, in turn, on the calling thread. The visitors
+   * see the PptNodes in the same order as in the tree that diffPptMap returns, and never see a
+   * RootNode, so this suits visitors that only act on PptNodes and InvNodes.
+   *
+   * @param pptMap1 the first set of invariants
+   * @param pptMap2 the second set of invariants
+   * @param includeUnjustified if true, the unjustified invariants are included
+   * @param threads the number of threads on which to build the subtrees
+   * @param visitors the visitors that visit each subtree
+   */
+  public void streamPptMap(
+      PptMap pptMap1,
+      PptMap pptMap2,
+      boolean includeUnjustified,
+      int threads,
+      List<Visitor> visitors) {
+    stream(
+        sortedPpts(pptMap1),
+        sortedPpts(pptMap2),
+        ppt -> CollectionsPlume.sortList(ppt.getInvariants(), PptTopLevel.icfp),
+        ppt -> CollectionsPlume.sortList(ppt.getInvariants(), PptTopLevel.icfp),
+        includeUnjustified,
+        threads,
+        visitors);
+  }
+
+  /**
+   * Diffs two InvMaps like {@link #diffInvMap(InvMap,InvMap,boolean)}, but passes the subtree of
+   * each pair of program points to the visitors as soon as it is built, as {@link #streamPptMap}
+   * does.
+   *
+   * @param map1 the first set of invariants
+   * @param map2 the second set of invariants
+   * @param includeUnjustified if true, the unjustified invariants are included
+   * @param threads the number of threads on which to build the subtrees
+   * @param visitors the visitors that visit each subtree
+   */
+  public void streamInvMap(
+      InvMap map1, InvMap map2, boolean includeUnjustified, int threads, List<Visitor> visitors) {
+    List<PptTopLevel> ppts1 = new ArrayList<>();
+    map1.pptSortedIterator(PPT_COMPARATOR).forEachRemaining(ppts1::add);
+    List<PptTopLevel> ppts2 = new ArrayList<>();
+    map2.pptSortedIterator(PPT_COMPARATOR).forEachRemaining(ppts2::add);
+    stream(ppts1, ppts2, map1::get, map2::get, includeUnjustified, threads, visitors);
+  }
+
+  /**
+   * Returns the program points of a PptMap that {@link #convertToInvMap} would put in its InvMap,
+   * sorted by name.
+   *
+   * @param pptMap a set of invariants
+   * @return the program points to diff, sorted by name
+   */
+  private List<PptTopLevel> sortedPpts(PptMap pptMap) {
+    NavigableSet<PptTopLevel> ppts = new TreeSet<>(PPT_COMPARATOR);
+    ppts.addAll(pptMap.asCollection());
+
+    List<PptTopLevel> result = new ArrayList<>();
+    for (PptTopLevel ppt : ppts) {
+      if (ignoreNumberedExits && ppt.ppt_name.isNumberedExitPoint()) {
+        continue;
+      }
+      result.add(ppt);
+      if (examineAllPpts) {
+        for (PptConditional pptCond : ppt.cond_iterable()) {
+          result.add(pptCond);
+        }
+      }
+    }
+    Collections.sort(result, PPT_COMPARATOR);
+    return result;
+  }
+
+  /**
+   * Pairs up the program points of two sorted lists, builds the subtree of each pair, and passes it
+   * to each visitor. See {@link #streamPptMap}.
+   *
+   * @param ppts1 the first program points, sorted by name
+   * @param ppts2 the second program points, sorted by name
+   * @param invs1 returns the invariants of a program point in ppts1, as a list the caller may sort
+   * @param invs2 returns the invariants of a program point in ppts2, as a list the caller may sort
+   * @param includeUnjustified if true, the unjustified invariants are included
+   * @param threads the number of threads on which to build the subtrees
+   * @param visitors the visitors that visit each subtree
+   */
+  private void stream(
+      List<PptTopLevel> ppts1,
+      List<PptTopLevel> ppts2,
+      Function<PptTopLevel, List<Invariant>> invs1,
+      Function<PptTopLevel, List<Invariant>> invs2,
+      boolean includeUnjustified,
+      int threads,
+      List<Visitor> visitors) {
+    Iterator<Pair<@Nullable PptTopLevel, @Nullable PptTopLevel>> opi =
+        new OrderedPairIterator<PptTopLevel>(ppts1.iterator(), ppts2.iterator(), PPT_COMPARATOR);
+
+    if (threads <= 1) {
+      while (opi.hasNext()) {
+        Pair<@Nullable PptTopLevel, @Nullable PptTopLevel> ppts = opi.next();
+        if (shouldAdd(ppts.a) || shouldAdd(ppts.b)) {
+          visitAll(diffPptTopLevel(ppts.a, ppts.b, invs1, invs2, includeUnjustified), visitors);
+        }
+      }
+      return;
+    }
+
+    AtomicInteger thread_number = new AtomicInteger();
+    ExecutorService pool =
+        Executors.newFixedThreadPool(
+            threads,
+            r -> {
+              Thread t = new Thread(r, "diff " + thread_number.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            });
+    try {
+      // Only a few more subtrees than there are threads are built ahead of the visitors, so that
+      // they do not pile up when a visitor is slow.
+      int window = 4 * threads;
+      ArrayDeque<Future<PptNode>> pending = new ArrayDeque<>(window);
+      while (opi.hasNext() || !pending.isEmpty()) {
+        while (opi.hasNext() && pending.size() < window) {
+          Pair<@Nullable PptTopLevel, @Nullable PptTopLevel> ppts = opi.next();
+          if (shouldAdd(ppts.a) || shouldAdd(ppts.b)) {
+            pending.add(
+                pool.submit(
+                    () -> diffPptTopLevel(ppts.a, ppts.b, invs1, invs2, includeUnjustified)));
+          }
+        }
+        if (!pending.isEmpty()) {
+          visitAll(pending.remove().get(), visitors);
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new Error(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else {
+        throw (Error) cause;
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Passes a subtree to each of the visitors.
+   *
+   * @param node the subtree
+   * @param visitors the visitors
+   */
+  private static void visitAll(PptNode node, List<Visitor> visitors) {
+    for (Visitor v : visitors) {
+      node.accept(v);
+    }
+  }
+
+  /**
+   * Like {@link #diffPptTopLevel(PptTopLevel,PptTopLevel,List,List,boolean)}, but first finds the
+   * invariants of the program points.
+   */
+  private PptNode diffPptTopLevel(
+      @Nullable PptTopLevel ppt1,
+      @Nullable PptTopLevel ppt2,
+      Function<PptTopLevel, List<Invariant>> invs1,
+      Function<PptTopLevel, List<Invariant>> invs2,
+      boolean includeUnjustified) {
+    return diffPptTopLevel(
+        ppt1,
+        ppt2,
+        (ppt1 == null) ? null : invs1.apply(ppt1),
+        (ppt2 == null) ? null : invs2.apply(ppt2),
+        includeUnjustified);
+  }
+
+  /**
+   * Takes a pair of corresponding top-level program points and their invariants, and returns a tree
+   * of the corresponding invariants. Either of the program points may be null, in which case its
+   * invariants are null too. The lists of invariants are sorted in place. If includeUnjustied is
    * true, the unjustified invariants are included.
    */
   private PptNode diffPptTopLevel(
       @Nullable PptTopLevel ppt1,
       @Nullable PptTopLevel ppt2,
-      InvMap map1,
-      InvMap map2,
+      @Nullable List<Invariant> invs1,
+      @Nullable List<Invariant> invs2,
       boolean includeUnjustified) {
     PptNode pptNode = new PptNode(ppt1, ppt2);
 
     assert ppt1 == null || ppt2 == null || PPT_COMPARATOR.compare(ppt1, ppt2) == 0
         : "Program points do not correspond";
 
-    List<Invariant> invs1;
-    if (ppt1 != null) {
-      invs1 = map1.get(ppt1);
+    if (invs1 != null) {
       Collections.sort(invs1, invSortComparator1);
     } else {
       invs1 = new ArrayList<Invariant>();
     }
 
-    List<Invariant> invs2;
-    if (ppt2 != null) {
-      invs2 = map2.get(ppt2);
+    if (invs2 != null) {
       Collections.sort(invs2, invSortComparator2);
     } else {
       invs2 = new ArrayList<Invariant>();
@@ -11,7 +11,6 @@ import daikon.VarInfo;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
@@ -82,6 +81,9 @@ public final /*(at)Interned*/ class Equality extends Invariant {
    */
   private TreeSet<VarInfo> vars;
 
+  /** The elements of vars, in order, so that {@link #add} need not iterate over the set. */
+  private transient VarInfo @Nullable [] varsArray = null;
+
   /** Returns the number of variables in the set. */
   @Pure
   public int size(@GuardSatisfied Equality this) {
@@ -402,12 +404,17 @@ public final /*(at)Interned*/ class Equality extends Invariant {
       numSamples += count;
     }
 
-    List<VarInfo> result = new ArrayList<>();
+    // Created only when some variable splits off, which is rare after the first few samples.
+    @Nullable List<VarInfo> result = null;
     if (debug.isLoggable(Level.FINE)) {
       debug.fine("Doing add at " + this.ppt.parent.name() + " for " + this);
     }
-    for (Iterator<VarInfo> i = vars.iterator(); i.hasNext(); ) {
-      VarInfo vi = i.next();
+    VarInfo[] vis = varsArray;
+    if (vis == null) {
+      vis = vars.toArray(new VarInfo[0]);
+      varsArray = vis;
+    }
+    for (VarInfo vi : vis) {
       if (vi == leader) {
         continue;
       }
@@ -453,11 +460,15 @@ public final /*(at)Interned*/ class Equality extends Invariant {
                 + "]");
       }
 
+      if (result == null) {
+        result = new ArrayList<>();
+      }
       result.add(vi);
-      i.remove();
+      vars.remove(vi);
+      varsArray = null;
     }
 
-    return result;
+    return (result == null) ? Collections.emptyList() : result;
   }
 
   //  This method isn't going to be called, but it's declared abstract in Invariant.
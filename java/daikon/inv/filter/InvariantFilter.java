@@ -2,11 +2,19 @@ package daikon.inv.filter;
 
 // The template for an invariant filter.
 // Groups of invariant filters are managed by InvariantFilters.
+import daikon.PrintInvariants;
 import daikon.inv.Invariant;
+import java.util.concurrent.atomic.LongAdder;
 
 public abstract class InvariantFilter {
   boolean isOn;
 
+  // Counted only if PrintInvariants.dkconfig_time_filters is set.  Filters
+  // may be applied on several threads at once.
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder discards = new LongAdder();
+  private final LongAdder nanos = new LongAdder();
+
   protected InvariantFilter(boolean isOn) {
     this.isOn = isOn;
   }
@@ -34,10 +42,34 @@ public abstract class InvariantFilter {
   public boolean shouldDiscard(Invariant invariant) {
     if (!isOn) {
       return false;
-    } else {
+    } else if (!PrintInvariants.dkconfig_time_filters) {
       return shouldDiscardInvariant(invariant);
+    } else {
+      long start = System.nanoTime();
+      boolean result = shouldDiscardInvariant(invariant);
+      nanos.add(System.nanoTime() - start);
+      calls.increment();
+      if (result) {
+        discards.increment();
+      }
+      return result;
     }
   }
 
+  // The number of invariants this filter has been applied to.
+  public long getCalls() {
+    return calls.sum();
+  }
+
+  // The number of invariants this filter has discarded.
+  public long getDiscards() {
+    return discards.sum();
+  }
+
+  // The total time this filter has taken, in nanoseconds.
+  public long getNanos() {
+    return nanos.sum();
+  }
+
   abstract boolean shouldDiscardInvariant(Invariant invariant);
 }
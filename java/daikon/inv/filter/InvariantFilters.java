@@ -10,6 +10,7 @@ import daikon.inv.OutputFormat;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.checkerframework.checker.initialization.qual.UnknownInitialization;
@@ -83,7 +84,7 @@ public class InvariantFilters {
 
   private static @MonotonicNonNull InvariantFilters default_filters = null;
 
-  public static InvariantFilters defaultFilters() {
+  public static synchronized InvariantFilters defaultFilters() {
     if (default_filters == null) default_filters = new InvariantFilters();
     return default_filters;
   }
@@ -167,6 +168,26 @@ public class InvariantFilters {
     return (shouldKeepPropFilters(invariant));
   }
 
+  // Returns a table of the time taken by each filter, and the number of
+  // invariants it discarded.  The filters are timed only if
+  // PrintInvariants.dkconfig_time_filters is set.
+  public String timesToString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-36s %12s %12s %10s%n", "Filter", "invariants", "discarded", "ms"));
+    List<InvariantFilter> filters = new ArrayList<>(variableFilters);
+    filters.addAll(propertyFilters);
+    for (InvariantFilter filter : filters) {
+      sb.append(
+          String.format(
+              "%-36s %12d %12d %10d%n",
+              filter.getClass().getSimpleName(),
+              filter.getCalls(),
+              filter.getDiscards(),
+              TimeUnit.NANOSECONDS.toMillis(filter.getNanos())));
+    }
+    return sb.toString();
+  }
+
   public Iterator<InvariantFilter> getPropertyFiltersIterator() {
     return propertyFilters.iterator();
   }
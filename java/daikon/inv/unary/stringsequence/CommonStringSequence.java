@@ -1,5 +1,6 @@
 package daikon.inv.unary.stringsequence;
 
+import daikon.ConcurrentIntern;
 import daikon.PptSlice;
 import daikon.inv.DiscardInfo;
 import daikon.inv.Invariant;
@@ -12,7 +13,6 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.dataflow.qual.Pure;
 import org.checkerframework.dataflow.qual.SideEffectFree;
 import org.plumelib.util.ArraysPlume;
-import org.plumelib.util.Intern;
 import typequals.prototype.qual.Prototype;
 
 /**
@@ -149,7 +149,7 @@ public class CommonStringSequence extends SingleStringSequence {
     if (a == null) {
       return InvariantStatus.FALSIFIED;
     } else if (intersect == null) {
-      intersect = Intern.intern(a);
+      intersect = ConcurrentIntern.intern(a);
       return InvariantStatus.NO_CHANGE;
     } else {
       @Interned String[] tmp = new @Interned String[intersect.length];
@@ -164,7 +164,7 @@ public class CommonStringSequence extends SingleStringSequence {
       if (size == 0) {
         return InvariantStatus.FALSIFIED;
       }
-      intersect = Intern.intern(ArraysPlume.subarray(tmp, 0, size));
+      intersect = ConcurrentIntern.intern(ArraysPlume.subarray(tmp, 0, size));
     }
     elts++;
     return InvariantStatus.NO_CHANGE;
@@ -0,0 +1,310 @@
+package daikon.simplify;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Remembers Simplify's answers to queries, so that a query that was already answered under the
+ * same assumptions need not be sent to Simplify again. The assumptions are treated as a set: their
+ * order, and any duplicates, do not matter. Only definite answers (valid or invalid) are
+ * remembered, never those that Simplify gave up on.
+ *
+ * <p>The cache is used only if {@link #dkconfig_file} is set (see {@link #configured}); a {@link
+ * LemmaStack} is given it explicitly. Then one cache is shared by the stack that checks for
+ * redundant invariants and by those of the sessions of a {@link LemmaStackPool}, and the answers
+ * are saved between runs, so that a run over invariants that have not changed need not start
+ * Simplify at all.
+ *
+ * <p>This class is thread-safe.
+ */
+public final class LemmaCache {
+
+  /**
+   * String. If non-null, the name of a file in which Simplify's answers are saved, and from which
+   * they are read at the start of the next run. If null, answers are not cached at all. The file
+   * only holds digests of the queries; it is safe to delete it at any time.
+   */
+  public static @Nullable String dkconfig_file = null;
+
+  /** The cache named by {@link #dkconfig_file}; created by {@link #shared}. */
+  private static @Nullable LemmaCache shared = null;
+
+  /** The file the answers are saved in, or null if they are only kept for this run. */
+  private final @Nullable File file;
+
+  /** Maps the digest of each query, and the assumptions it was asked under, to its answer. */
+  private final ConcurrentHashMap<String, Boolean> answers = new ConcurrentHashMap<>();
+
+  /** The number of answers added since the file was read or written. */
+  private final AtomicLong unsaved = new AtomicLong();
+
+  /** The number of queries that were answered from the cache. */
+  private final AtomicLong hits = new AtomicLong();
+
+  /** The number of queries that had to be sent to Simplify. */
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a cache, reading any answers already saved in the given file.
+   *
+   * @param file the file the answers are saved in, or null to keep them only for this run
+   * @throws IOException if the file exists but cannot be read
+   */
+  public LemmaCache(@Nullable File file) throws IOException {
+    this.file = file;
+    if (file != null && file.exists()) {
+      try (BufferedReader reader = Files.newBufferedReader(file.toPath(), UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          // Each line is a digest, a space, and T or F.
+          int space = line.indexOf(' ');
+          if (space == -1) {
+            continue;
+          }
+          answers.put(line.substring(0, space), line.endsWith("T"));
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the cache that Daikon's lemma stacks share if {@link #dkconfig_file} is set, or null if
+   * it is not.
+   *
+   * @return the shared cache, or null if answers are not to be cached
+   */
+  public static @Nullable LemmaCache configured() {
+    return (dkconfig_file == null) ? null : shared();
+  }
+
+  /**
+   * Returns the shared cache, creating it on first use, or when {@link #dkconfig_file} has changed
+   * since. It is saved in that file, if it is set.
+   *
+   * @return the shared cache
+   */
+  public static synchronized LemmaCache shared() {
+    File file = (dkconfig_file == null) ? null : new File(dkconfig_file);
+    // Start over if the file was changed, as by a test.
+    if (shared == null || !Objects.equals(file, shared.file)) {
+      try {
+        shared = new LemmaCache(file);
+      } catch (IOException e) {
+        throw new SimplifyError("Could not read lemma cache " + file + ": " + e);
+      }
+    }
+    return shared;
+  }
+
+  /**
+   * A set of assumptions, kept with a digest of the set that is updated as assumptions are added
+   * and removed, so that the key of a query does not depend on reading every assumption. The
+   * digest of the set is the sum, lane by lane, of the SHA-256 digests of its distinct elements, so
+   * it does not depend on their order or on duplicates.
+   *
+   * <p>This class is not thread-safe; each {@link LemmaStack} has its own.
+   */
+  static final class AssumptionSet {
+    /** Computes the digests. */
+    private final MessageDigest md = new_digest();
+
+    /** The number of times each assumption is in the set. */
+    private final HashMap<String, Integer> counts = new HashMap<>();
+
+    /** The digest of the set: the lane-wise sum of the digests of the distinct assumptions. */
+    private final long[] sum = new long[4];
+
+    /**
+     * Adds an assumption.
+     *
+     * @param assumption a formula
+     */
+    void add(String assumption) {
+      if (counts.merge(assumption, 1, Integer::sum) == 1) {
+        update_sum(assumption, 1);
+      }
+    }
+
+    /**
+     * Removes one occurrence of an assumption.
+     *
+     * @param assumption a formula that is in the set
+     */
+    void remove(String assumption) {
+      Integer count = counts.get(assumption);
+      assert count != null : assumption;
+      if (count == 1) {
+        counts.remove(assumption);
+        update_sum(assumption, -1);
+      } else {
+        counts.put(assumption, count - 1);
+      }
+    }
+
+    /** Removes every assumption. */
+    void clear() {
+      counts.clear();
+      Arrays.fill(sum, 0);
+    }
+
+    /**
+     * Adds the digest of an assumption to the digest of the set, or subtracts it.
+     *
+     * @param assumption a formula
+     * @param sign 1 to add, -1 to subtract
+     */
+    private void update_sum(String assumption, int sign) {
+      ByteBuffer digest = ByteBuffer.wrap(md.digest(assumption.getBytes(UTF_8)));
+      for (int i = 0; i < sum.length; i++) {
+        sum[i] += sign * digest.getLong();
+      }
+    }
+  }
+
+  /**
+   * Returns a SHA-256 message digest.
+   *
+   * @return a new message digest
+   */
+  private static MessageDigest new_digest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new Error("SHA-256 is not available", e);
+    }
+  }
+
+  /**
+   * Returns the key of a query: a digest of the query, the set of assumptions, and the settings
+   * that affect Simplify's answers.
+   *
+   * @param assumptions the formulas Simplify assumes
+   * @param query the formula to check
+   * @return the key of the query
+   */
+  static String key(AssumptionSet assumptions, String query) {
+    MessageDigest md = assumptions.md;
+    md.update(
+        (daikon.inv.Invariant.dkconfig_simplify_define_predicates
+                + " "
+                + Session.dkconfig_simplify_max_iterations
+                + " "
+                + Session.dkconfig_simplify_timeout
+                + "\n")
+            .getBytes(UTF_8));
+    ByteBuffer set_digest = ByteBuffer.allocate(8 * assumptions.sum.length);
+    for (long lane : assumptions.sum) {
+      set_digest.putLong(lane);
+    }
+    md.update(set_digest.array());
+    md.update(query.getBytes(UTF_8));
+    StringBuilder result = new StringBuilder();
+    for (byte b : md.digest()) {
+      result.append(String.format("%02x", b));
+    }
+    return result.toString();
+  }
+
+  /**
+   * Returns the answer to a query, if it is known, and counts the lookup.
+   *
+   * @param key the key of the query, from {@link #key}
+   * @return true if the query is valid, false if it is not, or null if the answer is not known
+   */
+  public @Nullable Boolean get(String key) {
+    Boolean result = answers.get(key);
+    if (result == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    return result;
+  }
+
+  /**
+   * Remembers the answer to a query.
+   *
+   * @param key the key of the query, from {@link #key}
+   * @param valid true if Simplify found the query valid, false if it found it invalid
+   */
+  public void put(String key, boolean valid) {
+    if (answers.put(key, valid) == null) {
+      unsaved.incrementAndGet();
+    }
+  }
+
+  /**
+   * Writes the answers to the cache's file, if it has one and there are new answers. The file is
+   * replaced atomically, so that it is never left half-written.
+   *
+   * @throws IOException if the file cannot be written
+   */
+  public synchronized void save() throws IOException {
+    if (file == null || unsaved.get() == 0) {
+      return;
+    }
+    unsaved.set(0);
+    // Sort the answers, so that the file does not depend on the order in which they were found.
+    Map<String, Boolean> sorted = new TreeMap<>(answers);
+    File parent = file.getAbsoluteFile().getParentFile();
+    File tmp = File.createTempFile(file.getName(), ".tmp", parent);
+    try (BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), UTF_8)) {
+      for (Map.Entry<String, Boolean> entry : sorted.entrySet()) {
+        writer.write(entry.getKey() + (entry.getValue() ? " T" : " F"));
+        writer.newLine();
+      }
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Returns the number of queries answered from the cache.
+   *
+   * @return the number of cache hits
+   */
+  public long hits() {
+    return hits.get();
+  }
+
+  /**
+   * Returns the number of queries that were not in the cache.
+   *
+   * @return the number of cache misses
+   */
+  public long misses() {
+    return misses.get();
+  }
+
+  /**
+   * Returns the number of answers in the cache.
+   *
+   * @return the number of answers in the cache
+   */
+  public int size() {
+    return answers.size();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "LemmaCache: %d answers, %d hits, %d misses%s",
+        answers.size(), hits.get(), misses.get(), (file == null) ? "" : ", file " + file);
+  }
+}
@@ -10,11 +10,16 @@ import java.util.Stack;
 import java.util.TreeSet;
 import org.checkerframework.checker.initialization.qual.UnknownInitialization;
 import org.checkerframework.checker.nullness.qual.EnsuresNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 /**
  * A stack of Lemmas that shadows the stack of assumptions that Simplify keeps. Keeping this stack
  * is necessary if we're to be able to restart Simplify from where we left off after it hangs, but
  * it's also a convenient place to hang routines that any Simplify client can use.
+ *
+ * <p>Assumptions are sent to Simplify lazily, when a query needs them, and Simplify is not started
+ * until a query needs it. A stack that is given a {@link LemmaCache} first looks queries up there,
+ * so that with a cache Simplify may never be started at all.
  */
 @SuppressWarnings("JdkObsolete") // Stack has methods that ArrayDeque lacks, such as elementAt()
 public class LemmaStack {
@@ -47,12 +52,33 @@ public class LemmaStack {
   public static boolean dkconfig_synchronous_errors = false;
 
   private Stack<Lemma> lemmas;
-  private SessionManager session;
+
+  /** Our Simplify session, or null if it has not been started yet, or has been closed. */
+  private @Nullable SessionManager session = null;
+
+  /**
+   * The formulas that Simplify should assume, oldest first. They can differ from {@link #lemmas}
+   * while some of them are temporarily retracted, as by {@link #minimizeAssumptions}.
+   */
+  private List<String> assumptions = new ArrayList<>();
+
+  /** The number of the elements of {@link #assumptions}, from the first, that Simplify holds. */
+  private int num_sent = 0;
+
+  /** Simplify's answers to earlier queries, or null to always ask Simplify. */
+  private final @Nullable LemmaCache cache;
+
+  /** The elements of {@link #assumptions} as a set, for the keys of the cache; null if no cache. */
+  private final LemmaCache.@Nullable AssumptionSet assumption_set;
 
   /** Tell Simplify to assume a lemma, which should already be on our stack. */
   private void assume(@UnknownInitialization(LemmaStack.class) LemmaStack this, Lemma lemma)
       throws TimeoutException {
-    session.request(new CmdAssume(lemma.formula));
+    // Sent to Simplify by sendAssumptions, if a query needs it.
+    assumptions.add(lemma.formula);
+    if (assumption_set != null) {
+      assumption_set.add(lemma.formula);
+    }
   }
 
   /** Assume a list of lemmas. */
@@ -65,10 +91,31 @@ public class LemmaStack {
 
   /** Pop a lemma off Simplify's stack. */
   private void unAssume() {
-    try {
-      session.request(CmdUndoAssume.single);
-    } catch (TimeoutException e) {
-      throw new Error("Unexpected timeout on (BG_POP)");
+    String formula = assumptions.remove(assumptions.size() - 1);
+    if (assumption_set != null) {
+      assumption_set.remove(formula);
+    }
+    if (num_sent > assumptions.size()) {
+      assert session != null : "@AssumeAssertion(nullness): num_sent > 0 only once started";
+      try {
+        session.request(CmdUndoAssume.single);
+      } catch (TimeoutException e) {
+        throw new Error("Unexpected timeout on (BG_POP)");
+      }
+      num_sent--;
+    }
+  }
+
+  /** Start Simplify if need be, and tell it every assumption it does not yet hold. */
+  @EnsuresNonNull("session")
+  private void sendAssumptions(@UnknownInitialization(LemmaStack.class) LemmaStack this)
+      throws TimeoutException {
+    if (session == null) {
+      startProver();
+    }
+    while (num_sent < assumptions.size()) {
+      session.request(new CmdAssume(assumptions.get(num_sent)));
+      num_sent++;
     }
   }
 
@@ -90,6 +137,7 @@ public class LemmaStack {
     SessionManager session_try = SessionManager.attemptProverStartup();
     if (session_try != null) {
       session = session_try;
+      num_sent = 0;
     } else {
       throw new SimplifyError("Couldn't start Simplify");
     }
@@ -99,15 +147,31 @@ public class LemmaStack {
   private void restartProver(@UnknownInitialization(LemmaStack.class) LemmaStack this)
       throws SimplifyError {
     startProver();
+    assumptions = new ArrayList<>();
+    if (assumption_set != null) {
+      assumption_set.clear();
+    }
     try {
       assumeAll(lemmas);
+      sendAssumptions();
     } catch (TimeoutException e) {
       throw new SimplifyError("Simplify restart timed out");
     }
   }
 
+  /** Creates an empty stack, which always asks Simplify. */
   public LemmaStack() throws SimplifyError {
-    startProver();
+    this(null);
+  }
+
+  /**
+   * Creates an empty stack.
+   *
+   * @param cache Simplify's answers to earlier queries, or null to always ask Simplify
+   */
+  public LemmaStack(@Nullable LemmaCache cache) throws SimplifyError {
+    this.cache = cache;
+    assumption_set = (cache == null) ? null : new LemmaCache.AssumptionSet();
     lemmas = new Stack<Lemma>();
     if (daikon.inv.Invariant.dkconfig_simplify_define_predicates) pushLemmas(Lemma.lemmasList());
   }
@@ -130,7 +194,7 @@ public class LemmaStack {
         // to Simplify after each lemma, and is useful to figure out
         // which lemma an error message refers to.
         try {
-          checkString("(AND)");
+          askProver("(AND)");
         } catch (SimplifyError err) {
           System.err.println("Error after pushing " + lem.summarize() + " " + lem.formula);
           throw err;
@@ -161,8 +225,27 @@ public class LemmaStack {
   private char checkString(@UnknownInitialization(LemmaStack.class) LemmaStack this, String str)
       throws SimplifyError {
     SimpUtil.assert_well_formed(str);
+    if (cache == null || assumption_set == null) {
+      return askProver(str);
+    }
+    String key = LemmaCache.key(assumption_set, str.trim());
+    Boolean known = cache.get(key);
+    if (known != null) {
+      return known ? 'T' : 'F';
+    }
+    char result = askProver(str);
+    if (result != '?') {
+      cache.put(key, result == 'T');
+    }
+    return result;
+  }
+
+  /** Like {@link #checkString}, but always asks Simplify rather than the cache. */
+  private char askProver(@UnknownInitialization(LemmaStack.class) LemmaStack this, String str)
+      throws SimplifyError {
     CmdCheck cc = new CmdCheck(str);
     try {
+      sendAssumptions();
       session.request(cc);
     } catch (TimeoutException e) {
       restartProver();
@@ -468,11 +551,12 @@ public class LemmaStack {
   private static NavigableSet<Long> ints_seen = new TreeSet<>();
 
   /** Keep track that we've seen this number in formulas, for the sake of pushOrdering. */
-  public static void noticeInt(long i) {
+  public static synchronized void noticeInt(long i) {
+    // Synchronized because invariants may be formatted on several threads (see LemmaStackPool).
     ints_seen.add(i);
   }
 
-  public static void clearInts() {
+  public static synchronized void clearInts() {
     ints_seen = new TreeSet<Long>();
   }
 
@@ -484,8 +568,12 @@ public class LemmaStack {
 
   /** For all the integers we've seen, tell Simplify about the ordering between them. */
   public void pushOrdering() throws SimplifyError {
+    List<Long> ints;
+    synchronized (LemmaStack.class) {
+      ints = new ArrayList<>(ints_seen);
+    }
     long last_long = Long.MIN_VALUE;
-    for (Long ll : ints_seen) {
+    for (Long ll : ints) {
       long l = ll.longValue();
       if (l == Long.MIN_VALUE) {
         continue;
@@ -505,7 +593,15 @@ public class LemmaStack {
     }
   }
 
+  /**
+   * Shut down Simplify. The stack may still be used: Simplify is started again, and told the
+   * assumptions, when a query needs it.
+   */
   public void closeSession() {
+    if (this.session == null) {
+      // Simplify was never started, or was already shut down.
+      return;
+    }
     // this.session should be effectively final in that it refers
     // to the same value throughout the execution of this method.
     // Unfortunately, the Lock Checker cannot verify this,
@@ -518,5 +614,7 @@ public class LemmaStack {
     synchronized (session) {
       session.notifyAll();
     }
+    this.session = null;
+    num_sent = 0;
   }
 }
@@ -0,0 +1,138 @@
+package daikon.simplify;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Runs a job on each of a list of items on several threads, each with its own {@link LemmaStack}
+ * and so its own Simplify process. Daikon uses it to check the program points for redundant
+ * invariants (see {@link
+ * daikon.PptTopLevel#mark_implied_via_simplify(daikon.PptMap, java.util.List)}).
+ *
+ * <p>The items are handed out one at a time, so a thread that finishes a quick item goes on to the
+ * next one rather than waiting for the others. A job should clear its stack when it is done, as
+ * {@link daikon.PptTopLevel#mark_implied_via_simplify(LemmaStack)} does, so that the next item on
+ * that thread starts from an empty stack. If {@link LemmaCache#dkconfig_file} is set, the stacks
+ * share the {@link LemmaCache#configured configured cache}, so a query answered for one session is
+ * not sent to another.
+ */
+public final class LemmaStackPool {
+
+  /**
+   * Positive integer. The number of Simplify processes that are run at once when checking for
+   * redundant invariants (see the {@code --suppress_redundant} option). The program points are
+   * divided among them.
+   */
+  public static int dkconfig_sessions = 1;
+
+  /** Do not instantiate. */
+  private LemmaStackPool() {
+    throw new Error("do not instantiate");
+  }
+
+  /**
+   * A job to run on each item.
+   *
+   * @param <T> the type of the items
+   */
+  public interface Job<T> {
+    /**
+     * Runs the job on an item.
+     *
+     * @param stack the lemma stack to use, which should be left empty
+     * @param item the item
+     * @throws SimplifyError if Simplify fails; the stack is then discarded, and the next item gets
+     *     a new one
+     */
+    void run(LemmaStack stack, T item) throws SimplifyError;
+  }
+
+  /**
+   * Runs a job on each item, on {@link #dkconfig_sessions} threads, and waits for them to finish.
+   *
+   * @param <T> the type of the items
+   * @param items the items
+   * @param job the job to run on each item
+   */
+  public static <T> void forEach(List<T> items, Job<T> job) {
+    int num_threads = Math.max(1, Math.min(dkconfig_sessions, items.size()));
+    AtomicInteger next = new AtomicInteger();
+    AtomicInteger thread_number = new AtomicInteger();
+    ExecutorService pool =
+        Executors.newFixedThreadPool(
+            num_threads,
+            r -> {
+              Thread t = new Thread(r, "simplify session " + thread_number.incrementAndGet());
+              t.setDaemon(true);
+              return t;
+            });
+    try {
+      List<Future<?>> workers = new ArrayList<>(num_threads);
+      for (int i = 0; i < num_threads; i++) {
+        workers.add(pool.submit(() -> work(items, next, job)));
+      }
+      for (Future<?> worker : workers) {
+        worker.get();
+      }
+    } catch (InterruptedException e) {
+      throw new Error(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else {
+        throw (Error) cause;
+      }
+    } finally {
+      pool.shutdown();
+    }
+    if (SessionManager.debug.isLoggable(Level.FINE)) {
+      SessionManager.debug.fine(
+          "Ran "
+              + items.size()
+              + " items on "
+              + num_threads
+              + " sessions; "
+              + LemmaCache.configured());
+    }
+  }
+
+  /**
+   * Runs the job on items until there are none left. Called on each thread of the pool.
+   *
+   * @param <T> the type of the items
+   * @param items the items
+   * @param next the index of the next item that no thread has taken
+   * @param job the job to run on each item
+   */
+  private static <T> void work(List<T> items, AtomicInteger next, Job<T> job) {
+    @Nullable LemmaStack stack = null;
+    try {
+      for (int index; (index = next.getAndIncrement()) < items.size(); ) {
+        try {
+          if (stack == null) {
+            stack = new LemmaStack(LemmaCache.configured());
+          }
+          job.run(stack, items.get(index));
+        } catch (SimplifyError e) {
+          // As when checking on one thread, give up on this item, and start over with the next.
+          if (stack != null) {
+            stack.closeSession();
+            stack = null;
+          }
+        }
+      }
+    } finally {
+      if (stack != null) {
+        stack.closeSession();
+      }
+    }
+  }
+}
@@ -101,9 +101,12 @@ public class Session {
       SessionManager.debugln("Session: exec ok");
 
       if (dkconfig_trace_input) {
-        File f;
-        while ((f = new File("simplify" + trace_count + ".in")).exists()) trace_count++;
-        trace_file = new PrintStream(new FileOutputStream(f));
+        // Several sessions may start at once (see LemmaStackPool).
+        synchronized (Session.class) {
+          File f;
+          while ((f = new File("simplify" + trace_count + ".in")).exists()) trace_count++;
+          trace_file = new PrintStream(new FileOutputStream(f));
+        }
       }
 
       // set up command stream
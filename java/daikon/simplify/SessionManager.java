@@ -97,13 +97,17 @@ public class SessionManager {
   /** Shutdown this session. No further commands may be executed. */
   @SuppressWarnings("nullness") // nulling worker for fast failure (& for GC)
   public void session_done() {
+    if (worker == null) {
+      // Already shut down, as after a timeout.
+      return;
+    }
     worker.session_done();
     worker = null;
   }
 
   private static @MonotonicNonNull String prover_background = null;
 
-  private static String proverBackground() {
+  private static synchronized String proverBackground() {
     if (prover_background == null) {
       try {
         StringBuilder result = new StringBuilder("");
@@ -145,14 +149,16 @@ public class SessionManager {
   public static @Nullable SessionManager attemptProverStartup() {
     SessionManager prover;
 
-    // Limit ourselves to a few tries
-    if (prover_instantiate_count > 5) {
-      return null;
+    // Limit ourselves to a few tries, beyond the first for each session of a pool
+    synchronized (SessionManager.class) {
+      if (prover_instantiate_count > 5 + Math.max(0, LemmaStackPool.dkconfig_sessions - 1)) {
+        return null;
+      }
+      prover_instantiate_count++;
     }
 
     // Start the prover
     try {
-      prover_instantiate_count++;
       prover = new SessionManager();
       if (daikon.Daikon.no_text_output) {
         System.out.print("...");
@@ -192,6 +198,10 @@ public class SessionManager {
           } catch (InterruptedException e) {
             // It's OK for a wait() to be interrupted.
           }
+          if (session == null) {
+            // Woken by LemmaStack.closeSession after session_done.
+            return;
+          }
           assert mgr.pending != null
               : "@AssumeAssertion(nullness): bug? might not be true if interrupted?";
           // session != null && mgr.pending != null;
@@ -141,6 +141,32 @@ public class PptSplitter implements Serializable {
     ppts = new PptTopLevel[] {exit1, exit2};
   }
 
+  /**
+   * Restores the splitters of this and of its conditional program points, which are not serialized,
+   * after this has been deserialized. They are found among the splitters for the parent program
+   * point by their conditions.
+   *
+   * @param splits the uninstantiated splitters for the parent program point
+   * @return false if none of splits is the one this was created for
+   */
+  public boolean restore_splitter(Splitter @Nullable [] splits) {
+    if (!(ppts[0] instanceof PptConditional)) {
+      // Splits over two exit points have no splitter.
+      return true;
+    }
+    if (splits != null) {
+      for (Splitter split : splits) {
+        if (((PptConditional) ppts[0]).restore_splitter(split)) {
+          boolean restored = ((PptConditional) ppts[1]).restore_splitter(split);
+          assert restored : ppts[1].name();
+          splitter = split;
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   /** Returns true if the splitter is valid at this point, false otherwise. */
   public boolean splitter_valid() {
 
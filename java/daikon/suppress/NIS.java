@@ -77,7 +77,9 @@ public class NIS {
   /**
    * Boolean. If true, use antecedent method for NIS processing. If false, use falsified method for
    * processing falsified invariants for NISuppressions. Note this flag is for internal use only and
-   * is controlled by NIS.dkconfig_suppression_processor.
+   * is controlled by NIS.dkconfig_suppression_processor. When {@link #hybrid_method} is set, each
+   * thread chooses the method for each sample instead; see {@link
+   * SuppressionContext#antecedent_method}.
    */
   public static boolean antecedent_method = true;
 
@@ -149,47 +151,32 @@ public class NIS {
   public static @MonotonicNonNull List<@Prototype Invariant> suppressor_proto_invs;
 
   /**
-   * List of invariants that are unsuppressed by the current sample. The {@link #falsified} and
-   * {@link #process_falsified_invs} methods add created invariants to this list. This list is
-   * cleared by {@link #apply_samples}.
+   * The working state of suppression processing on each thread. Suppression processing for a
+   * program point happens entirely on one thread, so samples at different program points may be
+   * processed on different threads (see {@link Daikon#dkconfig_inference_threads}).
    */
-  public static List<Invariant> new_invs = new ArrayList<>();
+  private static final ThreadLocal<SuppressionContext> context = new ThreadLocal<>();
 
   /**
-   * List of invariants that are unsuppressed and then falsified by the current sample. This list is
-   * cleared at the beginning of apply_samples() and falsified invariants are added as the current
-   * sample is applied to invariants in new_invs. The list is only used when the falsified method is
-   * used for processing suppressions.
+   * Incremented by {@link #init_ni_suppression}, which makes every thread start over with a new
+   * context, including the threads of a pool that is reused from one run to the next.
    */
-  public static List<Invariant> newly_falsified = new ArrayList<>();
-
-  // Statistics that are kept during processing.  Some of these are kept
-  // and/or make sense for some approaches and not for others
-
-  /** Whether or not to keep statistics. */
-  public static boolean keep_stats = false;
-  /** Number of falsified invariants in the program point. */
-  public static int false_cnts = 0;
-  /** Number of falsified invariants in the program point that are potential suppressors. */
-  public static int false_invs = 0;
-  /** Number of suppressions processed. */
-  public static int suppressions_processed = 0;
-  /** Number of suppressions processed by the falsified method. */
-  public static int suppressions_processed_falsified = 0;
-  /** Number of invariants that are no longer suppressed by a suppression. */
-  static int new_invs_cnt = 0;
-  /** Number of new_invs_cnt that are falsified by the sample. */
-  public static int false_invs_cnt = 0;
-  /** Number of invariants actually created. */
-  public static int created_invs_cnt = 0;
-  /** Number of invariants that are still suppressed. */
-  static int still_suppressed_cnt = 0;
-
-  /** Total time spent in NIS processing. */
-  public static long duration = 0;
-
-  /** First execution of dump_stats(). Used to dump a header. */
-  static boolean first_time = true;
+  static volatile int generation = 0;
+
+  /**
+   * Returns the working state of suppression processing on the current thread.
+   *
+   * @return the suppression context of the current thread
+   */
+  public static SuppressionContext context() {
+    SuppressionContext ctx = context.get();
+    int current = generation;
+    if (ctx == null || ctx.generation != current) {
+      ctx = new SuppressionContext(current);
+      context.set(ctx);
+    }
+    return ctx;
+  }
 
   /**
    * Sets up non-instantiation suppression. Primarily this includes setting up the map from
@@ -209,6 +196,7 @@ public class NIS {
     suppressor_map_suppression_count = new LinkedHashMap<>(256);
     all_suppressions = new ArrayList<NISuppressionSet>();
     suppressor_proto_invs = new ArrayList<@Prototype Invariant>();
+    generation++;
 
     // This should be the first statement in the method, but put it after the
     // field initalizations so that the Initialization Checker doesn't complain.
@@ -302,7 +290,8 @@ public class NIS {
   @RequiresNonNull("suppressor_map")
   public static void falsified(Invariant inv) {
 
-    if (!dkconfig_enabled || antecedent_method) {
+    SuppressionContext ctx = context();
+    if (!dkconfig_enabled || ctx.antecedent_method()) {
       return;
     }
 
@@ -331,10 +320,10 @@ public class NIS {
 
     long startTime = 0;
     // Count the number of falsified invariants that are antecedents
-    if (keep_stats) {
+    if (ctx.keep_stats) {
       startTime = System.nanoTime();
-      if (PptTopLevel.first_pass_with_sample && suppressor_map.containsKey(inv.getClass())) {
-        false_invs++;
+      if (ctx.first_pass_with_sample && suppressor_map.containsKey(inv.getClass())) {
+        ctx.false_invs++;
       }
     }
 
@@ -344,12 +333,12 @@ public class NIS {
       if (debug.isLoggable(Level.FINE)) {
         debug.fine("processing suppression set " + ss + " over falsified inv " + inv.format());
       }
-      ss.falsified(inv, new_invs);
-      suppressions_processed += ss.suppression_set.length;
+      ss.falsified(inv, ctx.new_invs);
+      ctx.suppressions_processed += ss.suppression_set.length;
     }
 
-    if (keep_stats) {
-      duration += (System.nanoTime() - startTime);
+    if (ctx.keep_stats) {
+      ctx.duration += (System.nanoTime() - startTime);
     }
   }
 
@@ -362,14 +351,20 @@ public class NIS {
    * newly falsified invariant is not itself a possible NI suppressor.
    */
   public static void apply_samples(ValueTuple vt, int count) {
-    newly_falsified.clear();
+    SuppressionContext ctx = context();
+    ctx.newly_falsified.clear();
 
     if (NIS.debug.isLoggable(Level.FINE)) {
-      NIS.debug.fine("Applying samples to " + new_invs.size() + " new invariants");
+      NIS.debug.fine("Applying samples to " + ctx.new_invs.size() + " new invariants");
+    }
+
+    // The usual case; don't make iterators over an empty list.
+    if (ctx.new_invs.isEmpty()) {
+      return;
     }
 
     // Loop through each invariant
-    for (Invariant inv : new_invs) {
+    for (Invariant inv : ctx.new_invs) {
       if (inv.is_false()) {
         assert !inv.is_false()
             : String.format(
@@ -391,7 +386,7 @@ public class NIS {
       if (!missing) {
         InvariantStatus result = inv.add_sample(vt, count);
         if (result == InvariantStatus.FALSIFIED) {
-          if (NIS.antecedent_method) {
+          if (ctx.antecedent_method()) {
             throw new Error(
                 "inv "
                     + inv.format()
@@ -401,7 +396,7 @@ public class NIS {
                     + inv.ppt);
           } else {
             inv.falsify();
-            newly_falsified.add(inv);
+            ctx.newly_falsified.add(inv);
           }
         }
       }
@@ -415,7 +410,7 @@ public class NIS {
         inv.log("%s added to slice", inv.format());
       }
 
-      if (NIS.antecedent_method) created_invs_cnt++;
+      if (ctx.antecedent_method()) ctx.created_invs_cnt++;
     }
 
     // Make a second pass through the new invariants and make sure that
@@ -423,45 +418,40 @@ public class NIS {
     // there are recursive suppressions and the new suppressor wasn't
     // yet created above when the invariant was first checked to see
     // if it was suppressed.
-    for (Iterator<Invariant> i = new_invs.iterator(); i.hasNext(); ) {
+    for (Iterator<Invariant> i = ctx.new_invs.iterator(); i.hasNext(); ) {
       Invariant inv = i.next();
       // inv.log ("Considering whether still suppressed in second pass");
       if (inv.is_ni_suppressed()) {
-        still_suppressed_cnt++;
+        ctx.still_suppressed_cnt++;
         inv.log("removed, still suppressed in second pass");
         inv.ppt.invs.remove(inv);
         i.remove();
       }
     }
 
-    new_invs.clear();
+    ctx.new_invs.clear();
   }
 
   /** Clears the current NIS statistics and enables the keeping of statistics. */
   public static void clear_stats() {
 
-    keep_stats = true;
-    duration = 0;
-    false_invs = 0;
-    false_cnts = 0;
-    suppressions_processed = 0;
-    suppressions_processed_falsified = 0;
-    new_invs_cnt = 0;
-    false_invs_cnt = 0;
-    created_invs_cnt = 0;
-    still_suppressed_cnt = 0;
+    SuppressionContext ctx = context();
+    ctx.keep_stats = true;
+    ctx.duration = 0;
+    clear_sample_stats();
   }
 
   public static void clear_sample_stats() {
-    keep_stats = true;
-    false_invs = 0;
-    false_cnts = 0;
-    suppressions_processed = 0;
-    suppressions_processed_falsified = 0;
-    new_invs_cnt = 0;
-    false_invs_cnt = 0;
-    created_invs_cnt = 0;
-    still_suppressed_cnt = 0;
+    SuppressionContext ctx = context();
+    ctx.keep_stats = true;
+    ctx.false_invs = 0;
+    ctx.false_cnts = 0;
+    ctx.suppressions_processed = 0;
+    ctx.suppressions_processed_falsified = 0;
+    ctx.new_invs_cnt = 0;
+    ctx.false_invs_cnt = 0;
+    ctx.created_invs_cnt = 0;
+    ctx.still_suppressed_cnt = 0;
   }
 
   public static void stats_header(Logger log) {
@@ -480,32 +470,80 @@ public class NIS {
   /** dump statistics on NIS to the specified logger. */
   public static void dump_stats(Logger log, PptTopLevel ppt) {
 
-    if (first_time) {
+    SuppressionContext ctx = context();
+    if (ctx.first_time) {
       stats_header(log);
-      first_time = false;
+      ctx.first_time = false;
     }
 
-    if (false_invs > 0) {
+    if (ctx.false_invs > 0) {
       log.fine(
-          false_invs
+          ctx.false_invs
               + " : "
-              + suppressions_processed
+              + ctx.suppressions_processed
               + " : "
-              + new_invs_cnt
+              + ctx.new_invs_cnt
               + " : "
-              + false_invs_cnt
+              + ctx.false_invs_cnt
               + " : "
-              + created_invs_cnt
+              + ctx.created_invs_cnt
               + " : "
-              + still_suppressed_cnt
+              + ctx.still_suppressed_cnt
               + " : "
-              + TimeUnit.NANOSECONDS.toMillis(duration)
+              + TimeUnit.NANOSECONDS.toMillis(ctx.duration)
               + " msecs "
               // + build_ants_msecs + " " + process_ants_msecs + " : "
               + ppt.name);
     }
   }
 
+  /**
+   * Returns the number of suppressions of the falsified invariants in invs that are suppressors,
+   * which the hybrid method uses to choose how to process suppressions. Also counts the falsified
+   * invariants in ctx.
+   *
+   * @param invs the invariants of a slice
+   * @param ctx the suppression state of the current thread
+   * @return the number of suppressions of the falsified suppressors in invs
+   */
+  @RequiresNonNull({"suppressor_map", "suppressor_map_suppression_count"})
+  private static int falsified_suppression_count(List<Invariant> invs, SuppressionContext ctx) {
+    int count = 0;
+    for (int i = 0; i < invs.size(); i++) {
+      Invariant inv = invs.get(i);
+      if (NIS.dkconfig_skip_hashcode_type) {
+
+        boolean hashFound = false;
+
+        for (VarInfo vi : inv.ppt.var_infos) {
+          if (vi.file_rep_type.isHashcode()) {
+            hashFound = true;
+          }
+        }
+
+        if (hashFound) {
+          continue;
+        }
+      }
+
+      if (inv.is_false()) {
+        ctx.false_cnts++;
+
+        if (suppressor_map.containsKey(inv.getClass())) {
+
+          // use the following count update when splitting the hybrid method by the
+          // number of total suppressions associated with the falsified invariants
+          @SuppressWarnings("nullness") // map:  same keys in suppressor_map and
+          // suppressor_map_suppression_count
+          int map_count = suppressor_map_suppression_count.get(inv.getClass());
+          count += map_count;
+          ctx.suppressions_processed_falsified += map_count;
+        }
+      }
+    }
+    return count;
+  }
+
   /**
    * Creates any invariants that were previously suppressed, but are no longer suppressed. Must be
    * called after the sample has been processed and any invariants falsified by the sample are
@@ -519,52 +557,26 @@ public class NIS {
   })
   public static void process_falsified_invs(PptTopLevel ppt, ValueTuple vt) {
 
+    SuppressionContext ctx = context();
+
     // if using the hybrid method, need to know the number of falsified suppressor
     // invariants before deciding which method to use
     if (NIS.hybrid_method) {
+      // Visit the slices by position rather than with invariants_iterator(), since this runs on
+      // every sample.
       int count = 0;
-      for (Iterator<Invariant> i = ppt.invariants_iterator(); i.hasNext(); ) {
-        Invariant inv = i.next();
-
-        if (NIS.dkconfig_skip_hashcode_type) {
-
-          boolean hashFound = false;
-
-          for (VarInfo vi : inv.ppt.var_infos) {
-            if (vi.file_rep_type.isHashcode()) {
-              hashFound = true;
-            }
-          }
-
-          if (hashFound) {
-            continue;
-          }
-        }
-
-        if (inv.is_false()) {
-          false_cnts++;
-
-          if (suppressor_map.containsKey(inv.getClass())) {
-
-            // use the following count update when splitting the hybrid method by the
-            // number of total suppressions associated with the falsified invariants
-            @SuppressWarnings("nullness") // map:  same keys in suppressor_map and
-            // suppressor_map_suppression_count
-            int map_count = suppressor_map_suppression_count.get(inv.getClass());
-            count += map_count;
-            suppressions_processed_falsified += map_count;
-          }
+      for (int i = 0; i < ppt.views_slot_count(); i++) {
+        PptSlice slice = ppt.views_slot(i);
+        if (slice != null) {
+          count += falsified_suppression_count(slice.invs, ctx);
         }
       }
+      count += falsified_suppression_count(ppt.joiner_view.invs, ctx);
 
-      if (count > NIS.dkconfig_hybrid_threshhold) {
-        antecedent_method = true;
-      } else {
-        antecedent_method = false;
-      }
+      ctx.hybrid_chose_antecedent = (count > NIS.dkconfig_hybrid_threshhold);
     }
 
-    if (!dkconfig_enabled || !antecedent_method) {
+    if (!dkconfig_enabled || !ctx.antecedent_method()) {
       return;
     }
 
@@ -678,7 +690,7 @@ public class NIS {
     Set<SupInv> unsuppressed_invs = new LinkedHashSet<>();
     for (NISuppressionSet ss : all_suppressions) {
       for (NISuppression sup : ss) {
-        suppressions_processed++;
+        ctx.suppressions_processed++;
         for (Antecedents ants : comp_ants.values()) {
           sup.find_unsuppressed_invs(unsuppressed_invs, ants);
         }
@@ -695,15 +707,15 @@ public class NIS {
     // the sample.  Checking the sample is faster than checking suppression
     // and removes the invariant more often, so it is checked first
     for (SupInv supinv : unsuppressed_invs) {
-      new_invs_cnt++;
+      ctx.new_invs_cnt++;
       if (supinv.check(vt) == InvariantStatus.FALSIFIED) {
         supinv.log("unsuppressed inv falsified by sample");
-        false_invs_cnt++;
+        ctx.false_invs_cnt++;
         continue;
       }
       if (supinv.is_ni_suppressed()) {
         supinv.log("unsuppresed inv still suppressed");
-        still_suppressed_cnt++;
+        ctx.still_suppressed_cnt++;
         continue;
       }
       Invariant inv = supinv.instantiate(ppt);
@@ -714,7 +726,7 @@ public class NIS {
             throw new Error("inv " + inv.format() + " already exists in ppt " + ppt.name);
           }
         }
-        new_invs.add(inv);
+        ctx.new_invs.add(inv);
       }
     }
   }
@@ -805,6 +817,7 @@ public class NIS {
   static void store_antecedents_by_comparability(
       Iterator<PptSlice> slice_iterator, Map<VarComparability, Antecedents> comp_ants) {
 
+    SuppressionContext ctx = context();
     for (Iterator<PptSlice> i = slice_iterator; i.hasNext(); ) {
       PptSlice slice = i.next();
 
@@ -829,7 +842,7 @@ public class NIS {
         }
 
         if (inv.is_false()) {
-          false_invs++;
+          ctx.false_invs++;
         }
 
         VarComparability vc = inv.get_comparability();
@@ -100,11 +100,12 @@ public class NISuppression {
    */
   public NIS.SuppressState check(PptTopLevel ppt, VarInfo[] vis, @Nullable Invariant inv) {
 
+    SuppressionContext ctx = NIS.context();
     NIS.SuppressState status = NIS.SuppressState.VALID;
     boolean set = false;
     for (int i = 0; i < suppressors.length; i++) {
       NISuppressor ssor = suppressors[i];
-      NIS.SuppressState st = ssor.check(ppt, vis, inv);
+      NIS.SuppressState st = ssor.check(ctx, ppt, vis, inv);
 
       if (!set) {
         if (st == NIS.SuppressState.NONSENSICAL) {
@@ -140,13 +141,14 @@ public class NISuppression {
     // suppressor due to reflexive (x, x, x) invariants.  In this
     // code, the suppressor should never be nonsensical, since we should
     // have never looked at a slice with nonsensical variables.
+    SuppressionContext ctx = NIS.context();
     boolean inv_match = false;
     for (int i = 0; i < suppressors.length; i++) {
-      NISuppressor ssor = suppressors[i];
-      assert ssor.state != NIS.SuppressState.NONSENSICAL;
-      if (ssor.state == NIS.SuppressState.MATCH) {
+      NIS.SuppressState state = ctx.get_state(suppressors[i]);
+      assert state != NIS.SuppressState.NONSENSICAL;
+      if (state == NIS.SuppressState.MATCH) {
         inv_match = true;
-      } else if (ssor.state != NIS.SuppressState.VALID) {
+      } else if (state != NIS.SuppressState.VALID) {
         return false;
       }
     }
@@ -13,6 +13,7 @@ import daikon.inv.binary.BinaryInvariant;
 import daikon.inv.unary.UnaryInvariant;
 import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.checkerframework.checker.lock.qual.GuardSatisfied;
@@ -47,17 +48,14 @@ public class NISuppressor {
   /** True if invariant permutes by changing its class. */
   boolean swap_class = false;
 
-  /**
-   * State of the suppressor for the current check. The state must be one of the defined above. They
-   * can always be compared with ==.
-   */
-  NIS.SuppressState state = NIS.SuppressState.NONE;
+  /** The id of the next suppressor that is created. */
+  private static final AtomicInteger next_id = new AtomicInteger();
 
   /**
-   * information about the suppressor for the current check. This is just used for debugging
-   * purposes.
+   * Identifies this suppressor within a {@link SuppressionContext}, which holds the state of the
+   * suppressor for the current check on each thread.
    */
-  @Nullable String current_state_str = null;
+  final int id = next_id.getAndIncrement();
 
   /**
    * Sample invariant - used to check the suppressor over constants. this is a prototype invariant;
@@ -210,6 +208,21 @@ public class NISuppressor {
    *     NIS.SuppressState.VALID, NIS.SuppressState.INVALID, NIS.SuppressState.NONSENSICAL)
    */
   public NIS.SuppressState check(PptTopLevel ppt, VarInfo[] vis, @Nullable Invariant inv) {
+    return check(NIS.context(), ppt, vis, inv);
+  }
+
+  /**
+   * Like {@link #check(PptTopLevel, VarInfo[], Invariant)}, but records the state of this
+   * suppressor in the specified context, which must be the context of the current thread.
+   *
+   * @param ctx the suppression context of the current thread
+   * @param ppt the top level program point
+   * @param vis the slice of the suppressee
+   * @param inv the falsified invariant
+   * @return the state of this suppressor
+   */
+  NIS.SuppressState check(
+      SuppressionContext ctx, PptTopLevel ppt, VarInfo[] vis, @Nullable Invariant inv) {
 
     // Currently we only support unary and binary suppressors
     assert v3_index == -1;
@@ -217,7 +230,7 @@ public class NISuppressor {
 
     // If the underlying invariant is not enabled, we can't possibly be true
     if (!is_enabled()) {
-      return (state = NIS.SuppressState.INVALID);
+      return ctx.set_state(this, NIS.SuppressState.INVALID);
     }
 
     if (Debug.logDetail() && NIS.debug.isLoggable(Level.FINE)) {
@@ -242,15 +255,15 @@ public class NISuppressor {
       if (!instantiate_ok(new VarInfo[] {v1})) {
         // System.out.printf("suppressor %s invalid over variable %s%n",
         //                   this, v1);
-        return (state = NIS.SuppressState.INVALID);
+        return ctx.set_state(this, NIS.SuppressState.INVALID);
       }
 
       // Check to see if inv matches this suppressor.  The invariant class
       // and variables must match for this to be true.  This check is only
       // needed for the falsified method.
-      if (!NIS.antecedent_method) {
+      if (!ctx.antecedent_method()) {
         if ((inv != null) && (inv.getClass() == inv_class) && (v1 == inv.ppt.var_infos[0])) {
-          return (state = NIS.SuppressState.MATCH);
+          return ctx.set_state(this, NIS.SuppressState.MATCH);
         }
       }
 
@@ -268,17 +281,17 @@ public class NISuppressor {
         }
         if (NIS.debug.isLoggable(Level.FINE)) NIS.debug.fine("constant args - " + valid);
         if (valid) {
-          current_state_str = "true over constant " + ppt.constants.constant_value(v1);
+          ctx.set_state_str(this, "true over constant " + ppt.constants.constant_value(v1));
         } else {
-          current_state_str = "invalid over constant " + ppt.constants.constant_value(v1);
+          ctx.set_state_str(this, "invalid over constant " + ppt.constants.constant_value(v1));
         }
-        return (state = (valid ? NIS.SuppressState.VALID : NIS.SuppressState.INVALID));
+        return ctx.set_state(this, valid ? NIS.SuppressState.VALID : NIS.SuppressState.INVALID);
       }
 
       // Check to see the variable is missing
       if (ppt.is_prev_missing(v1)) {
-        current_state_str = "nonsensical";
-        return (state = NIS.SuppressState.NONSENSICAL);
+        ctx.set_state_str(this, "nonsensical");
+        return ctx.set_state(this, NIS.SuppressState.NONSENSICAL);
       }
 
       // Check to see if this suppressor is true.  Note that we don't check
@@ -290,13 +303,13 @@ public class NISuppressor {
       if (slice != null) {
         for (Invariant slice_inv : slice.invs) {
           if (match_true(slice_inv)) {
-            current_state_str = "invariant " + slice_inv.format();
-            return (state = NIS.SuppressState.VALID);
+            ctx.set_state_str(this, "invariant " + slice_inv.format());
+            return ctx.set_state(this, NIS.SuppressState.VALID);
           }
         }
       }
-      current_state_str = "invariant not found";
-      return (state = NIS.SuppressState.INVALID);
+      ctx.set_state_str(this, "invariant not found");
+      return ctx.set_state(this, NIS.SuppressState.INVALID);
 
     } else /* must be binary */ {
       if (v1_index >= vis.length || v2_index >= vis.length) {
@@ -315,13 +328,13 @@ public class NISuppressor {
       if (!instantiate_ok(new VarInfo[] {v1, v2})) {
         // System.out.printf("suppressor %s invalid over variables %s & %s%n",
         //                  this, v1, v2);
-        return (state = NIS.SuppressState.INVALID);
+        return ctx.set_state(this, NIS.SuppressState.INVALID);
       }
 
       // Check to see if inv matches this suppressor.  The invariant class,
       // variables, and swap must match for this to be true.  This check is
       // only needed in the falsified method.
-      if (!NIS.antecedent_method) {
+      if (!ctx.antecedent_method()) {
         if ((inv != null)
             && match(inv)
             && (v1 == inv.ppt.var_infos[0])
@@ -329,7 +342,7 @@ public class NISuppressor {
           if (NIS.debug.isLoggable(Level.FINE)) {
             NIS.debug.fine("Matches falsified inv " + inv.format());
           }
-          return (state = NIS.SuppressState.MATCH);
+          return ctx.set_state(this, NIS.SuppressState.MATCH);
         }
       }
 
@@ -360,16 +373,16 @@ public class NISuppressor {
         }
         Object const1 = ppt.constants.constant_value(v1);
         Object const2 = ppt.constants.constant_value(v2);
-        current_state_str =
+        String state_str =
             "true over constants " + Debug.toString(const1) + " and " + Debug.toString(const2);
-        if (!valid) current_state_str = "not " + current_state_str;
-        return (state = (valid ? NIS.SuppressState.VALID : NIS.SuppressState.INVALID));
+        ctx.set_state_str(this, valid ? state_str : "not " + state_str);
+        return ctx.set_state(this, valid ? NIS.SuppressState.VALID : NIS.SuppressState.INVALID);
       }
 
       // Check to see if either variable is missing
       if (ppt.is_prev_missing(v1) || ppt.is_prev_missing(v2)) {
-        current_state_str = "nonsensical";
-        return (state = NIS.SuppressState.NONSENSICAL);
+        ctx.set_state_str(this, "nonsensical");
+        return ctx.set_state(this, NIS.SuppressState.NONSENSICAL);
       }
 
       // Check to see if this suppressor is true.  Note that we don't check
@@ -386,13 +399,13 @@ public class NISuppressor {
               NIS.debug.fine(
                   "suppressor matches inv " + slice_inv.format() + " " + !slice_inv.is_false());
             }
-            current_state_str = "invariant " + slice_inv.format();
-            return (state = NIS.SuppressState.VALID);
+            ctx.set_state_str(this, "invariant " + slice_inv.format());
+            return ctx.set_state(this, NIS.SuppressState.VALID);
           }
         }
       }
       NIS.debug.fine("suppressor not found");
-      return (state = NIS.SuppressState.INVALID);
+      return ctx.set_state(this, NIS.SuppressState.INVALID);
     }
   }
 
@@ -402,7 +415,7 @@ public class NISuppressor {
    * @see #match(Invariant)
    */
   public boolean match_true(Invariant inv) {
-    if (NIS.antecedent_method) {
+    if (NIS.context().antecedent_method()) {
       return (match(inv) && !inv.is_false());
     } else {
       return (match(inv));
@@ -487,8 +500,9 @@ public class NISuppressor {
 
   /** clears the state of this suppressor to NIS.none */
   public void clear_state() {
-    state = NIS.SuppressState.NONE;
-    current_state_str = null;
+    SuppressionContext ctx = NIS.context();
+    ctx.set_state(this, NIS.SuppressState.NONE);
+    ctx.set_state_str(this, null);
   }
 
   static String[] varname = new String[] {"x", "y", "z"};
@@ -503,6 +517,8 @@ public class NISuppressor {
 
     String cname = inv_class.getCanonicalName();
 
+    SuppressionContext ctx = NIS.context();
+    NIS.SuppressState state = ctx.get_state(this);
     String status;
     if (state == NIS.SuppressState.NONE) {
       status = "";
@@ -510,6 +526,7 @@ public class NISuppressor {
       status = state.toString().toLowerCase();
     }
 
+    String current_state_str = ctx.get_state_str(this);
     if (current_state_str != null) {
       status = status + " [" + current_state_str + "]";
     }
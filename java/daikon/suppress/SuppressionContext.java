@@ -0,0 +1,176 @@
+package daikon.suppress;
+
+import daikon.inv.Invariant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The working state of non-instantiating suppression processing. The suppressions themselves (see
+ * {@link NIS#init_ni_suppression}) are shared and never change while samples are processed, but
+ * processing a sample at a program point also needs the lists of invariants that the sample
+ * unsuppressed, the state of each suppressor as it is checked, and some statistics. That state is
+ * kept here, one SuppressionContext per thread (see {@link NIS#context}), so that samples at
+ * different program points can be processed on different threads.
+ */
+public final class SuppressionContext {
+
+  /**
+   * List of invariants that are unsuppressed by the current sample. The {@link NIS#falsified} and
+   * {@link NIS#process_falsified_invs} methods add created invariants to this list. This list is
+   * cleared by {@link NIS#apply_samples}.
+   */
+  public final List<Invariant> new_invs = new ArrayList<>();
+
+  /**
+   * List of invariants that are unsuppressed and then falsified by the current sample. This list is
+   * cleared at the beginning of apply_samples() and falsified invariants are added as the current
+   * sample is applied to invariants in new_invs. The list is only used when the falsified method is
+   * used for processing suppressions.
+   */
+  public final List<Invariant> newly_falsified = new ArrayList<>();
+
+  /**
+   * The method that {@link NIS#process_falsified_invs} chose for the latest sample on this thread
+   * when {@link NIS#hybrid_method} is set: true for the antecedent method. Before the first
+   * sample, it is {@link NIS#antecedent_method}. See {@link #antecedent_method}.
+   */
+  boolean hybrid_chose_antecedent;
+
+  /** The value of {@link NIS#generation} when this context was created. */
+  final int generation;
+
+  /**
+   * Needed by the NIS.falsified method when keeping stats to figure out how many falsified
+   * invariants are antecedents. Only the first pass of processing with the sample is counted toward
+   * the stats.
+   */
+  public boolean first_pass_with_sample = true;
+
+  // Statistics that are kept during processing.  Some of these are kept
+  // and/or make sense for some approaches and not for others
+
+  /** Whether or not to keep statistics. */
+  public boolean keep_stats = false;
+  /** Number of falsified invariants in the program point. */
+  public int false_cnts = 0;
+  /** Number of falsified invariants in the program point that are potential suppressors. */
+  public int false_invs = 0;
+  /** Number of suppressions processed. */
+  public int suppressions_processed = 0;
+  /** Number of suppressions processed by the falsified method. */
+  public int suppressions_processed_falsified = 0;
+  /** Number of invariants that are no longer suppressed by a suppression. */
+  int new_invs_cnt = 0;
+  /** Number of new_invs_cnt that are falsified by the sample. */
+  public int false_invs_cnt = 0;
+  /** Number of invariants actually created. */
+  public int created_invs_cnt = 0;
+  /** Number of invariants that are still suppressed. */
+  int still_suppressed_cnt = 0;
+
+  /** Total time spent in NIS processing. */
+  public long duration = 0;
+
+  /** First execution of dump_stats(). Used to dump a header. */
+  boolean first_time = true;
+
+  /**
+   * The state of each suppressor for the current check, indexed by {@link NISuppressor#id}. A null
+   * element means {@link NIS.SuppressState#NONE}.
+   */
+  private NIS.@Nullable SuppressState[] states = new NIS.SuppressState[256];
+
+  /**
+   * Information about each suppressor for the current check, indexed by {@link NISuppressor#id}.
+   * This is just used for debugging purposes.
+   */
+  private @Nullable String[] state_strs = new String[256];
+
+  /**
+   * Creates the context of a thread.
+   *
+   * @param generation the current value of {@link NIS#generation}
+   */
+  SuppressionContext(int generation) {
+    this.generation = generation;
+    this.hybrid_chose_antecedent = NIS.antecedent_method;
+  }
+
+  /**
+   * Returns true if the antecedent method (rather than the falsified method) is being used to
+   * process the current sample. When {@link NIS#hybrid_method} is set, {@link
+   * NIS#process_falsified_invs} chooses the method anew for each sample on each thread. Otherwise
+   * this is {@link NIS#antecedent_method}, which is read each time so that every thread sees a
+   * change to it.
+   *
+   * @return true if the antecedent method is being used
+   */
+  public boolean antecedent_method() {
+    return NIS.hybrid_method ? hybrid_chose_antecedent : NIS.antecedent_method;
+  }
+
+  /**
+   * Returns the state of the suppressor for the current check.
+   *
+   * @param ssor a suppressor
+   * @return the state of ssor
+   */
+  NIS.SuppressState get_state(NISuppressor ssor) {
+    if (ssor.id >= states.length) {
+      return NIS.SuppressState.NONE;
+    }
+    NIS.SuppressState state = states[ssor.id];
+    return (state == null) ? NIS.SuppressState.NONE : state;
+  }
+
+  /**
+   * Sets the state of the suppressor for the current check.
+   *
+   * @param ssor a suppressor
+   * @param state the new state of ssor
+   * @return state
+   */
+  NIS.SuppressState set_state(NISuppressor ssor, NIS.SuppressState state) {
+    if (ssor.id >= states.length) {
+      grow(ssor.id);
+    }
+    states[ssor.id] = state;
+    return state;
+  }
+
+  /**
+   * Returns the debugging information about the suppressor for the current check.
+   *
+   * @param ssor a suppressor
+   * @return the information recorded by {@link #set_state_str}, or null
+   */
+  @Nullable String get_state_str(NISuppressor ssor) {
+    return (ssor.id < state_strs.length) ? state_strs[ssor.id] : null;
+  }
+
+  /**
+   * Records debugging information about the suppressor for the current check.
+   *
+   * @param ssor a suppressor
+   * @param str information about the state of ssor, or null
+   */
+  void set_state_str(NISuppressor ssor, @Nullable String str) {
+    if (ssor.id >= state_strs.length) {
+      grow(ssor.id);
+    }
+    state_strs[ssor.id] = str;
+  }
+
+  /**
+   * Makes room for the state of the suppressor with the specified id.
+   *
+   * @param id a suppressor id
+   */
+  private void grow(int id) {
+    int new_length = Math.max(id + 1, 2 * states.length);
+    states = Arrays.copyOf(states, new_length);
+    state_strs = Arrays.copyOf(state_strs, new_length);
+  }
+}
@@ -33,6 +33,24 @@ import org.junit.runners.Suite;
   daikon.test.TestQuant.class,
   daikon.test.TestAnnotate.class,
   daikon.test.DtraceDiffTester.class,
+  daikon.test.ParallelInferenceTest.class,
+  daikon.test.ParallelMergeTest.class,
+  daikon.test.BinaryDtraceTest.class,
+  daikon.test.DtracePipelineTest.class,
+  daikon.test.MappedDtraceTest.class,
+  daikon.test.MergeTreeTest.class,
+  daikon.test.SimplifyPoolTest.class,
+  daikon.test.ParallelPrintTest.class,
+  daikon.test.CheckpointTest.class,
+  daikon.test.SpillingProcessorTest.class,
+  daikon.test.SliceIndexTest.class,
+  daikon.test.InvFileFormatTest.class,
+  daikon.test.SampleAllocationTest.class,
+  daikon.test.DerivedValueCacheTest.class,
+  daikon.test.SampleCoalescerTest.class,
+  daikon.test.ConcurrentInternTest.class,
+  daikon.test.TagEntryTest.class,
+  daikon.test.WeakIdentityIdsTest.class,
   //       ,
   //       // I'm having trouble with this; need to fix, reinstate, and not call
   //       // specially from Makefile.  -MDE 7/8/2005
@@ -0,0 +1,210 @@
+package daikon.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import daikon.*;
+import daikon.tools.DtraceConvert;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the binary dtrace format ({@link BinaryDtrace}) and its converter ({@link DtraceConvert}).
+ */
+public class BinaryDtraceTest {
+
+  /** A temporary directory for the traces. */
+  static File tmpdir;
+
+  @BeforeClass
+  public static void setUpClass() throws IOException {
+    tmpdir = Files.createTempDirectory("BinaryDtraceTest").toFile();
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    File[] files = tmpdir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    tmpdir.delete();
+  }
+
+  /** Checks that every kind of record and value survives a write and a read. */
+  @Test
+  public void testRecords() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (BinaryDtrace.Writer w = new BinaryDtrace.Writer(bytes)) {
+      PrintStream text = w.text();
+      text.println("decl-version 2.0");
+      int id =
+          w.declare_ppt(
+              "p:::ENTER",
+              new String[] {"x", "d", "s", "xs", "ds", "ss", "m"},
+              new byte[] {
+                BinaryDtrace.LONG,
+                BinaryDtrace.DOUBLE,
+                BinaryDtrace.STRING,
+                BinaryDtrace.LONG_ARRAY,
+                BinaryDtrace.DOUBLE_ARRAY,
+                BinaryDtrace.STRING_ARRAY,
+                BinaryDtrace.LONG
+              });
+      w.begin_sample(id, 17);
+      w.write_long(1, -5);
+      w.write_double(0, 2.5);
+      w.write_string(1, "a \"quoted\"\nstring");
+      w.write_long_array(1, new long[] {1, Long.MAX_VALUE});
+      w.write_double_array(1, new double[] {Double.NaN});
+      w.write_string_array(1, new String[] {"x", null});
+      w.write_missing();
+      w.end_sample();
+      w.begin_sample(id);
+      for (int i = 0; i < 7; i++) {
+        w.write_missing();
+      }
+      w.end_sample();
+    }
+
+    BinaryDtrace.Reader r = new BinaryDtrace.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(BinaryDtrace.TEXT, r.next_record());
+    assertEquals("decl-version 2.0" + System.lineSeparator(), r.read_text());
+    assertEquals(BinaryDtrace.PPT, r.next_record());
+    BinaryDtrace.PptEntry entry = r.read_ppt();
+    assertEquals("p:::ENTER", entry.name);
+    assertEquals(7, entry.var_names.length);
+    assertEquals("ss", entry.var_names[5]);
+
+    assertEquals(BinaryDtrace.SAMPLE, r.next_record());
+    r.read_sample_header();
+    assertEquals(entry.id, r.sample_ppt());
+    assertEquals(Integer.valueOf(17), r.sample_nonce());
+    assertEquals(1, r.read_mod());
+    assertEquals(-5L, r.read_value(BinaryDtrace.LONG));
+    assertEquals(0, r.read_mod());
+    assertEquals(2.5, r.read_value(BinaryDtrace.DOUBLE));
+    assertEquals(1, r.read_mod());
+    assertEquals("a \"quoted\"\nstring", r.read_value(BinaryDtrace.STRING));
+    assertEquals(1, r.read_mod());
+    assertArrayEquals(
+        new long[] {1, Long.MAX_VALUE}, (long[]) r.read_value(BinaryDtrace.LONG_ARRAY));
+    assertEquals(1, r.read_mod());
+    assertArrayEquals(
+        new double[] {Double.NaN}, (double[]) r.read_value(BinaryDtrace.DOUBLE_ARRAY), 0);
+    assertEquals(1, r.read_mod());
+    assertArrayEquals(
+        new String[] {"x", null}, (String[]) r.read_value(BinaryDtrace.STRING_ARRAY));
+    assertEquals(BinaryDtrace.MISSING, r.read_mod());
+
+    assertEquals(BinaryDtrace.SAMPLE, r.next_record());
+    r.read_sample_header();
+    assertNull(r.sample_nonce());
+    for (int i = 0; i < 7; i++) {
+      assertEquals(BinaryDtrace.MISSING, r.read_mod());
+    }
+    assertEquals(-1, r.next_record());
+  }
+
+  /**
+   * Checks that corrupt lengths are reported as malformed records rather than causing enormous
+   * allocations.
+   */
+  @Test
+  public void testCorruptLengths() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (BinaryDtrace.Writer w = new BinaryDtrace.Writer(bytes)) {
+      w.text().println("decl-version 2.0");
+    }
+    byte[] array_types = {
+      BinaryDtrace.LONG_ARRAY, BinaryDtrace.DOUBLE_ARRAY, BinaryDtrace.STRING_ARRAY
+    };
+    DataOutputStream out = new DataOutputStream(bytes);
+    for (int i = 0; i < array_types.length; i++) {
+      // A sample whose only value claims to be an array of Integer.MAX_VALUE elements.
+      out.writeByte(BinaryDtrace.SAMPLE);
+      out.writeInt(10);
+      out.writeInt(0); // program point
+      out.writeByte(0); // no nonce
+      out.writeByte(1); // modified
+      out.writeInt(Integer.MAX_VALUE);
+    }
+    // A record that claims to be almost 2GB long, in a trace that ends right after it.
+    out.writeByte(BinaryDtrace.TEXT);
+    out.writeInt(Integer.MAX_VALUE - 8);
+    out.writeBytes("text");
+    out.flush();
+
+    BinaryDtrace.Reader r = new BinaryDtrace.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(BinaryDtrace.TEXT, r.next_record());
+    r.read_text();
+    for (byte type : array_types) {
+      assertEquals(BinaryDtrace.SAMPLE, r.next_record());
+      r.read_sample_header();
+      assertEquals(1, r.read_mod());
+      try {
+        r.read_value(type);
+        fail("array length was not checked");
+      } catch (IOException e) {
+        assertTrue(e.getMessage(), e.getMessage().contains("too large"));
+      }
+    }
+    try {
+      r.next_record();
+      fail("truncated record was not detected");
+    } catch (EOFException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("middle of record"));
+    }
+  }
+
+  /**
+   * Checks that Daikon finds the same invariants in a text trace, in its binary conversion, and in
+   * the text trace converted back from the binary one.
+   */
+  @Test
+  public void testRoundTrip() throws IOException {
+    File text = new File(tmpdir, "nis.dtrace");
+    try (PrintWriter pw =
+        new PrintWriter(Files.newBufferedWriter(text.toPath(), StandardCharsets.UTF_8))) {
+      ParallelInferenceTest.write_trace(pw, 0, ParallelInferenceTest.NUM_CALLS);
+    }
+    File binary = new File(tmpdir, "nis.bin.dtrace.gz");
+    File back = new File(tmpdir, "nis.back.dtrace");
+    List<File> no_decls = Collections.emptyList();
+    DtraceConvert.text_to_binary(no_decls, text.getPath(), binary.getPath());
+    DtraceConvert.binary_to_text(binary.getPath(), back.getPath());
+
+    String expected = infer(text);
+    assertTrue("unexpected result: " + expected, expected.contains("a <= b"));
+    assertEquals(expected, infer(binary));
+    assertEquals(expected, infer(back));
+  }
+
+  /**
+   * Runs Daikon on a trace and returns every invariant it found, formatted and in a deterministic
+   * order.
+   *
+   * @param dtrace the trace file
+   * @return a description of the invariants at every program point
+   */
+  static String infer(File dtrace) {
+    return Common.inferInvariants(dtrace);
+  }
+}
@@ -0,0 +1,92 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import daikon.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that a run that resumes from a checkpoint (see {@link Daikon#checkpoint_file} and {@link
+ * Daikon#resume_file}) finds exactly the invariants that a single run over the whole trace finds.
+ * The trace is that of {@link ParallelInferenceTest}, split between two files.
+ */
+public class CheckpointTest {
+
+  /** The first half of the trace. */
+  static File first;
+
+  /** The second half of the trace. */
+  static File second;
+
+  /** The checkpoint written after the first half of the trace. */
+  static File checkpoint;
+
+  /** A temporary directory for the traces and the checkpoint. */
+  static File tmpdir;
+
+  @BeforeClass
+  public static void setUpClass() throws IOException {
+    tmpdir = Files.createTempDirectory("CheckpointTest").toFile();
+    first = new File(tmpdir, "first.dtrace");
+    second = new File(tmpdir, "second.dtrace");
+    checkpoint = new File(tmpdir, "first.ckpt");
+    int middle = ParallelInferenceTest.NUM_CALLS / 2;
+    write_trace(first, 0, middle);
+    write_trace(second, middle, ParallelInferenceTest.NUM_CALLS);
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    File[] files = tmpdir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    tmpdir.delete();
+  }
+
+  /**
+   * Writes some of the calls of the synthetic trace, with all of its declarations.
+   *
+   * @param file where to write the trace
+   * @param first_call the index of the first call to write
+   * @param end_call one more than the index of the last call to write
+   */
+  static void write_trace(File file, int first_call, int end_call) throws IOException {
+    try (PrintWriter pw =
+        new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+      ParallelInferenceTest.write_trace(pw, first_call, end_call);
+    }
+  }
+
+  /**
+   * Runs Daikon and returns every invariant it found, formatted and in a deterministic order.
+   *
+   * @param args the arguments to Daikon, other than those that suppress its output
+   * @return a description of the invariants at every program point
+   */
+  static String infer(String... args) {
+    return Common.inferInvariants(Common::describeInvariants, args);
+  }
+
+  @Test
+  public void testResume() {
+    String whole = infer(first.getPath(), second.getPath());
+    assertTrue("unexpected result: " + whole, whole.contains("a <= b"));
+
+    String before = infer("--checkpoint", checkpoint.getPath(), first.getPath());
+    assertTrue("no checkpoint was written", checkpoint.length() > 0);
+    assertNotEquals(whole, before);
+    assertEquals(whole, infer("--resume", checkpoint.getPath(), second.getPath()));
+  }
+}
@@ -1,8 +1,13 @@
 package daikon.test;
 
 import daikon.*;
+import daikon.inv.Invariant;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Function;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 /** A collection of useful helper methods that are common to many different individual tests. */
 public class Common {
@@ -69,4 +74,109 @@ public class Common {
     PptTopLevel ppt = new PptTopLevel(pptname, vars);
     return ppt;
   }
+
+  /**
+   * Runs Daikon on a trace without printing anything, and returns every invariant it found; see
+   * {@link #describeInvariants}.
+   *
+   * @param dtrace the trace file
+   * @return a description of the invariants at every program point
+   */
+  public static String inferInvariants(File dtrace) {
+    return inferInvariants(Common::describeInvariants, dtrace.getPath());
+  }
+
+  /**
+   * Runs Daikon quietly and returns a description of the program points it produced. Afterward,
+   * restores the settings that running Daikon changes: {@link Daikon#dkconfig_quiet}, {@link
+   * FileIO#new_decl_format}, and {@link Daikon#no_text_output}.
+   *
+   * @param describe describes {@link Daikon#all_ppts}; called before the declaration format, which
+   *     formatting invariants depends on, is restored
+   * @param args the arguments to Daikon, other than those that suppress its output
+   * @return the description of the program points
+   */
+  public static String inferInvariants(Function<PptMap, String> describe, String... args) {
+    boolean saved_quiet = Daikon.dkconfig_quiet;
+    Boolean saved_decl_format = FileIO.new_decl_format;
+    String[] all_args = new String[args.length + 2];
+    all_args[0] = "--noversion";
+    all_args[1] = "--no_text_output";
+    System.arraycopy(args, 0, all_args, 2, args.length);
+    try {
+      Daikon.dkconfig_quiet = true;
+      // Other tests may have read a trace in the old format.
+      FileIO.resetNewDeclFormat();
+      Daikon.mainHelper(all_args);
+      return describe.apply(Daikon.all_ppts);
+    } finally {
+      Daikon.dkconfig_quiet = saved_quiet;
+      Daikon.no_text_output = false;
+      restoreDeclFormat(saved_decl_format);
+    }
+  }
+
+  /**
+   * Runs Daikon quietly, as {@link #inferInvariants(Function, String...)} does, for the files it
+   * writes.
+   *
+   * @param args the arguments to Daikon, other than those that suppress its output
+   */
+  public static void runDaikon(String... args) {
+    inferInvariants(all_ppts -> "", args);
+  }
+
+  /**
+   * Restores {@link FileIO#new_decl_format} to a value saved before a tool read a trace or an
+   * invariant file.
+   *
+   * @param saved_decl_format the saved value
+   */
+  public static void restoreDeclFormat(@Nullable Boolean saved_decl_format) {
+    if (saved_decl_format == null) {
+      FileIO.resetNewDeclFormat();
+    } else {
+      FileIO.new_decl_format = saved_decl_format;
+    }
+  }
+
+  /**
+   * Returns every invariant in a map of program points, with its class and confidence, in a
+   * deterministic order.
+   *
+   * @param all_ppts the program points
+   * @return a description of the invariants at every program point
+   */
+  public static String describeInvariants(PptMap all_ppts) {
+    StringBuilder sb = new StringBuilder();
+    for (PptTopLevel ppt : sortedPpts(all_ppts)) {
+      sb.append(ppt.name() + " " + ppt.num_samples() + " samples\n");
+      List<String> invs = new ArrayList<>();
+      for (Invariant inv : ppt.getInvariants()) {
+        invs.add(
+            String.format(
+                "  %s (%s) %s%n",
+                inv.format(), inv.getClass().getSimpleName(), inv.getConfidence()));
+      }
+      invs.sort(null);
+      for (String inv : invs) {
+        sb.append(inv);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the program points of a map, including the conditional ones, sorted by name.
+   *
+   * @param all_ppts the program points
+   * @return the program points in order of their names
+   */
+  public static Iterable<PptTopLevel> sortedPpts(PptMap all_ppts) {
+    TreeMap<String, PptTopLevel> sorted = new TreeMap<>();
+    for (PptTopLevel ppt : all_ppts.ppt_all_iterable()) {
+      sorted.put(ppt.name(), ppt);
+    }
+    return sorted.values();
+  }
 }
@@ -0,0 +1,203 @@
+package daikon.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import daikon.ConcurrentIntern;
+import daikon.ConcurrentIntern.TableStatistics;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.plumelib.util.Intern;
+
+/**
+ * Tests {@link ConcurrentIntern}: equal values have one interned representative, which is also
+ * plume's, doubles are compared as plume's {@code Intern} compares them, subsequences are interned
+ * like copies of themselves, and threads that intern the same values concurrently agree on the
+ * representatives.
+ */
+public class ConcurrentInternTest {
+
+  /** The number of threads that intern values concurrently. */
+  static final int NUM_THREADS = 8;
+
+  /** The number of distinct values each thread interns. */
+  static final int NUM_VALUES = 5000;
+
+  @Test
+  public void testBoxes() {
+    // Values unlikely to be interned by another test.
+    Long l = ConcurrentIntern.intern(Long.valueOf(7_012_345_678L));
+    assertSame(l, ConcurrentIntern.intern(Long.valueOf(7_012_345_678L)));
+    assertSame(l, ConcurrentIntern.internedLong(7_012_345_678L));
+    assertSame(l, ConcurrentIntern.internedLong("7012345678"));
+    assertTrue(ConcurrentIntern.isInterned(l));
+    assertTrue(!ConcurrentIntern.isInterned(Long.valueOf(7_012_345_678L)));
+
+    Double d = ConcurrentIntern.intern(Double.valueOf(70123.45678));
+    assertSame(d, ConcurrentIntern.internedDouble(70123.45678));
+    assertSame(d, ConcurrentIntern.internedDouble("70123.45678"));
+
+    Integer i = (Integer) ConcurrentIntern.intern((Object) Integer.valueOf(70_123_456));
+    assertSame(i, ConcurrentIntern.intern((Object) Integer.valueOf(70_123_456)));
+
+    String s = ConcurrentIntern.intern(new String("ConcurrentInternTest"));
+    assertSame("ConcurrentInternTest", s);
+  }
+
+  @Test
+  public void testSpecialDoubles() {
+    assertSame(ConcurrentIntern.internedDouble(0.0), ConcurrentIntern.internedDouble(-0.0));
+    assertSame(
+        ConcurrentIntern.internedDouble(Double.NaN),
+        ConcurrentIntern.intern(Double.valueOf(0.0 / 0.0)));
+
+    double[] a = ConcurrentIntern.intern(new double[] {1.5, 0.0, Double.NaN});
+    assertSame(a, ConcurrentIntern.intern(new double[] {1.5, -0.0, Double.NaN}));
+    assertNotSame(a, ConcurrentIntern.intern(new double[] {1.5, 0.0, 2.5}));
+  }
+
+  @Test
+  public void testArrays() {
+    long[] l = ConcurrentIntern.intern(new long[] {3, 1, 4, 1, 5, 9, 2, 6});
+    assertSame(l, ConcurrentIntern.intern(new long[] {3, 1, 4, 1, 5, 9, 2, 6}));
+    assertSame(l, ConcurrentIntern.intern((Object) new long[] {3, 1, 4, 1, 5, 9, 2, 6}));
+    assertNotSame(l, ConcurrentIntern.intern(new long[] {3, 1, 4, 1, 5, 9, 2}));
+
+    int[] i = ConcurrentIntern.intern(new int[] {2, 7, 1, 8});
+    assertSame(i, ConcurrentIntern.intern(new int[] {2, 7, 1, 8}));
+
+    // internStrings interns the elements, not the array.
+    String[] s = new String[] {new String("x"), null, new String("yy")};
+    assertSame(s, ConcurrentIntern.internStrings(s));
+    assertSame("x", s[0]);
+    assertSame("yy", s[2]);
+    String[] s_interned = ConcurrentIntern.intern(s);
+    assertSame(s_interned, ConcurrentIntern.intern(new String[] {"x", null, "yy"}));
+    assertTrue(ConcurrentIntern.isInterned(s_interned));
+
+    Object[] o = ConcurrentIntern.intern(new Object[] {"x", null, "yy"});
+    assertNotSame(s_interned, o);
+    assertSame(o, ConcurrentIntern.intern(new Object[] {"x", null, "yy"}));
+  }
+
+  @Test
+  public void testSameAsPlume() {
+    // Values interned through either class are identical, whichever interned them first.
+    long[] l = Intern.intern(new long[] {-7, 20261018L, 1});
+    assertSame(l, ConcurrentIntern.intern(new long[] {-7, 20261018L, 1}));
+    assertTrue(ConcurrentIntern.isInterned(l));
+    double[] d = ConcurrentIntern.intern(new double[] {-7.5, 20261018.5});
+    assertSame(d, Intern.intern(new double[] {-7.5, 20261018.5}));
+    String[] s = ConcurrentIntern.intern(new String[] {"plume", "daikon"});
+    assertSame(s, Intern.intern(new String[] {"plume", "daikon"}));
+    int[] i = Intern.intern(new int[] {-7, 2026});
+    assertTrue(ConcurrentIntern.isInterned(i));
+    assertSame(i, ConcurrentIntern.intern((Object) new int[] {-7, 2026}));
+
+    Long boxed = Intern.internedLong(-7_020_261_018L);
+    assertSame(boxed, ConcurrentIntern.internedLong(-7_020_261_018L));
+    assertSame(Intern.internedDouble(Double.NaN), ConcurrentIntern.internedDouble(Double.NaN));
+    assertSame(Intern.internedDouble(-0.0), ConcurrentIntern.internedDouble(0.0));
+
+    assertSame(Intern.internSubsequence(l, 1, 3), ConcurrentIntern.internSubsequence(l, 1, 3));
+  }
+
+  @Test
+  public void testSubsequences() {
+    long[] l = ConcurrentIntern.intern(new long[] {10, 20, 30, 40, 50, 60});
+    long[] sub = ConcurrentIntern.internSubsequence(l, 1, 4);
+    assertArrayEquals(new long[] {20, 30, 40}, sub);
+    assertSame(sub, ConcurrentIntern.intern(new long[] {20, 30, 40}));
+    assertSame(sub, ConcurrentIntern.internSubsequence(l, 1, 4));
+    assertSame(l, ConcurrentIntern.internSubsequence(l, 0, l.length));
+    assertEquals(0, ConcurrentIntern.internSubsequence(l, 3, 3).length);
+
+    double[] d = ConcurrentIntern.intern(new double[] {0.5, -0.0, Double.NaN, 4.5});
+    assertSame(
+        ConcurrentIntern.intern(new double[] {0.0, Double.NaN}),
+        ConcurrentIntern.internSubsequence(d, 1, 3));
+
+    String[] s = ConcurrentIntern.intern(new String[] {"p", "q", "r"});
+    String[] s_sub = ConcurrentIntern.internSubsequence(s, 1, 3);
+    assertArrayEquals(new String[] {"q", "r"}, s_sub);
+    assertSame(s_sub, ConcurrentIntern.intern(new String[] {"q", "r"}));
+  }
+
+  /**
+   * Returns the interned arrays of the values that one thread interns. Each thread interns the same
+   * values, in a different order.
+   *
+   * @param seed which thread this is
+   * @return the interned arrays, by value
+   */
+  static long[][] intern_all(int seed) {
+    long[][] result = new long[NUM_VALUES][];
+    for (int n = 0; n < NUM_VALUES; n++) {
+      int v = (n * 7919 + seed * 104729) % NUM_VALUES;
+      result[v] = ConcurrentIntern.intern(new long[] {v, -v, 20261018L});
+      ConcurrentIntern.internedLong(v + 1_000_000_000L);
+    }
+    return result;
+  }
+
+  @Test
+  public void testConcurrentInterning() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+    try {
+      List<Future<long[][]>> futures = new ArrayList<>();
+      for (int t = 0; t < NUM_THREADS; t++) {
+        int seed = t;
+        futures.add(pool.submit(() -> intern_all(seed)));
+      }
+      long[][] first = futures.get(0).get();
+      for (Future<long[][]> future : futures) {
+        long[][] result = future.get();
+        for (int v = 0; v < NUM_VALUES; v++) {
+          assertSame(first[v], result[v]);
+        }
+      }
+      for (int v = 0; v < NUM_VALUES; v++) {
+        assertSame(first[v], ConcurrentIntern.intern(new long[] {v, -v, 20261018L}));
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Returns the statistics of one table.
+   *
+   * @param name the type of the values in the table
+   * @return the statistics of the table
+   */
+  static TableStatistics statistics(String name) {
+    for (TableStatistics stats : ConcurrentIntern.table_statistics()) {
+      if (stats.name.equals(name)) {
+        return stats;
+      }
+    }
+    throw new AssertionError("no table " + name);
+  }
+
+  @Test
+  public void testStatistics() {
+    TableStatistics before = statistics("long[]");
+    long[] keep = ConcurrentIntern.intern(new long[] {-20261018L, 1, 2, 3});
+    ConcurrentIntern.intern(new long[] {-20261018L, 1, 2, 3});
+    ConcurrentIntern.intern(new long[] {-20261018L, 1, 2, 3});
+    TableStatistics after = statistics("long[]");
+    assertEquals(before.misses + 1, after.misses);
+    assertEquals(before.hits + 2, after.hits);
+    assertTrue(after.bytes > 0);
+    assertTrue(after.hit_rate() > 0 && after.hit_rate() < 1);
+    assertTrue(ConcurrentIntern.statistics().contains("long[]"));
+    assertEquals(4, keep.length);
+  }
+}
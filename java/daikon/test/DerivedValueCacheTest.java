@@ -0,0 +1,132 @@
+package daikon.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import daikon.*;
+import daikon.derive.ValueAndModified;
+import daikon.derive.binary.BinaryDerivation;
+import daikon.derive.binary.SequenceScalarIntersection;
+import daikon.derive.binary.SequenceScalarIntersectionFactory;
+import daikon.derive.binary.SequenceScalarUnion;
+import daikon.derive.binary.SequenceScalarUnionFactory;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that a binary derivation returns the same value for the same base values without computing
+ * it again, and the right value when the base values change. Values of {@link SequenceScalarUnion}
+ * and {@link SequenceScalarIntersection} are checked against sets.
+ */
+public class DerivedValueCacheTest {
+
+  /** The length of the longest random sequence. */
+  static final int MAX_LENGTH = 12;
+
+  private Random r = new Random(20261018L);
+
+  @BeforeClass
+  public static void setUpClass() {
+    daikon.LogHelper.setupLogs(LogHelper.INFO);
+    FileIO.new_decl_format = true;
+  }
+
+  /**
+   * Returns a random interned sequence with duplicate elements.
+   *
+   * @return a random sequence of small numbers
+   */
+  long[] randomSequence() {
+    long[] result = new long[r.nextInt(MAX_LENGTH + 1)];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = r.nextInt(MAX_LENGTH);
+    }
+    return ConcurrentIntern.intern(result);
+  }
+
+  /**
+   * Returns the union or intersection of two sequences, in order of first appearance.
+   *
+   * @param a the first sequence
+   * @param b the second sequence
+   * @param union true for the union, false for the intersection
+   * @return the elements of a and/or b, without duplicates
+   */
+  static long[] expected(long[] a, long[] b, boolean union) {
+    Set<Long> in_b = new LinkedHashSet<>();
+    for (long v : b) {
+      in_b.add(v);
+    }
+    Set<Long> result = new LinkedHashSet<>();
+    for (long v : a) {
+      if (union || in_b.contains(v)) {
+        result.add(v);
+      }
+    }
+    if (union) {
+      result.addAll(in_b);
+    }
+    long[] array = new long[result.size()];
+    int i = 0;
+    for (long v : result) {
+      array[i++] = v;
+    }
+    return array;
+  }
+
+  @Test
+  public void testUnionAndIntersection() {
+    boolean saved_union = SequenceScalarUnion.dkconfig_enabled;
+    boolean saved_intersection = SequenceScalarIntersection.dkconfig_enabled;
+    try {
+      SequenceScalarUnion.dkconfig_enabled = true;
+      SequenceScalarIntersection.dkconfig_enabled = true;
+      VarInfo a = Common.makeIntArrayVarInfo("a");
+      VarInfo b = Common.makeIntArrayVarInfo("b");
+      Common.makePptTopLevel("DerivedValueCacheTest.m():::ENTER", new VarInfo[] {a, b});
+      BinaryDerivation[] unions = new SequenceScalarUnionFactory().instantiate(a, b);
+      BinaryDerivation[] intersections = new SequenceScalarIntersectionFactory().instantiate(a, b);
+      assertNotNull(unions);
+      assertNotNull(intersections);
+      check(unions[0], true);
+      check(intersections[0], false);
+    } finally {
+      SequenceScalarUnion.dkconfig_enabled = saved_union;
+      SequenceScalarIntersection.dkconfig_enabled = saved_intersection;
+    }
+  }
+
+  /**
+   * Checks a derivation on random samples, each of which is supplied twice.
+   *
+   * @param d a union or intersection of two sequences
+   * @param union true if d is a union, false if it is an intersection
+   */
+  void check(BinaryDerivation d, boolean union) {
+    for (int n = 0; n < 1000; n++) {
+      long[] a = randomSequence();
+      long[] b = randomSequence();
+      int mod = (n % 3 == 0) ? ValueTuple.UNMODIFIED : ValueTuple.MODIFIED;
+      ValueTuple vt = ValueTuple.makeUninterned(new Object[] {a, b}, new int[] {mod, mod});
+      ValueAndModified vm = d.computeValueAndModified(vt);
+      assertArrayEquals(expected(a, b, union), (long[]) vm.value);
+      assertSame(ConcurrentIntern.intern((long[]) vm.value), vm.value);
+      assertEquals(mod, vm.modified);
+
+      // The same base values in a new sample give the same result.
+      ValueTuple again = ValueTuple.makeUninterned(new Object[] {a, b}, new int[] {mod, mod});
+      assertSame(vm, d.computeValueAndModified(again));
+
+      // A missing base gives a missing result, not the cached one.
+      ValueTuple missing =
+          ValueTuple.makeUninterned(
+              new Object[] {a, null}, new int[] {mod, ValueTuple.MISSING_NONSENSICAL});
+      assertSame(ValueAndModified.MISSING_NONSENSICAL, d.computeValueAndModified(missing));
+    }
+  }
+}
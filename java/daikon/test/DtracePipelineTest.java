@@ -0,0 +1,122 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import daikon.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that reading a trace file on separate threads (see {@link
+ * FileIO#dkconfig_pipeline_capacity}) gives the same invariants, and reports errors at the same
+ * lines, as reading it on the main thread.
+ */
+public class DtracePipelineTest {
+
+  /** A temporary directory for the traces. */
+  static File tmpdir;
+
+  /** The synthetic trace of {@link ParallelInferenceTest}, compressed. */
+  static File dtrace;
+
+  @BeforeClass
+  public static void setUpClass() throws IOException {
+    tmpdir = Files.createTempDirectory("DtracePipelineTest").toFile();
+    dtrace = new File(tmpdir, "nis.dtrace.gz");
+    try (PrintWriter pw =
+        new PrintWriter(
+            new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(dtrace.toPath())),
+                StandardCharsets.UTF_8))) {
+      ParallelInferenceTest.write_trace(pw, 0, ParallelInferenceTest.NUM_CALLS);
+    }
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    File[] files = tmpdir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    tmpdir.delete();
+  }
+
+  /**
+   * Runs Daikon on a trace, reading it with a pipeline of the given capacity.
+   *
+   * @param file the trace
+   * @param capacity the capacity of the pipeline, or 0 to read on the main thread
+   * @return a description of the invariants at every program point
+   */
+  static String infer(File file, int capacity) {
+    int saved_capacity = FileIO.dkconfig_pipeline_capacity;
+    try {
+      FileIO.dkconfig_pipeline_capacity = capacity;
+      return BinaryDtraceTest.infer(file);
+    } finally {
+      FileIO.dkconfig_pipeline_capacity = saved_capacity;
+    }
+  }
+
+  @Test
+  public void testSameInvariants() {
+    String serial = infer(dtrace, 0);
+    assertTrue(serial.contains("a <= b"));
+    assertEquals(serial, infer(dtrace, 1));
+    assertEquals(serial, infer(dtrace, 16));
+  }
+
+  @Test
+  public void testErrorLine() throws IOException {
+    // A trace whose 40th sample has a bad modbit.
+    File bad = new File(tmpdir, "bad.dtrace");
+    String good_text;
+    try (PrintWriter pw =
+        new PrintWriter(Files.newBufferedWriter(bad.toPath(), StandardCharsets.UTF_8))) {
+      ParallelInferenceTest.write_trace(pw, 0, ParallelInferenceTest.NUM_CALLS);
+    }
+    good_text = new String(Files.readAllBytes(bad.toPath()), StandardCharsets.UTF_8);
+    int pos = -1;
+    for (int i = 0; i < 40; i++) {
+      pos = good_text.indexOf("\nthis_invocation_nonce\n", pos + 1);
+    }
+    int modbit = good_text.indexOf("\n1\n", pos) + 1;
+    String bad_text = good_text.substring(0, modbit) + "7" + good_text.substring(modbit + 1);
+    Files.write(bad.toPath(), bad_text.getBytes(StandardCharsets.UTF_8));
+
+    String serial = error_message(bad, 0);
+    assertTrue(serial, serial.contains("Bad modbit"));
+    assertEquals(serial, error_message(bad, 2));
+  }
+
+  /**
+   * Runs Daikon on a trace that contains an error, and returns the message of the error.
+   *
+   * @param file the trace
+   * @param capacity the capacity of the pipeline, or 0 to read on the main thread
+   * @return the message of the error
+   */
+  static String error_message(File file, int capacity) {
+    try {
+      infer(file, capacity);
+    } catch (Daikon.UserError e) {
+      @SuppressWarnings("nullness") // UserError always has a message
+      String result = e.getMessage();
+      return result;
+    }
+    fail("No error for " + file);
+    throw new Error("unreachable");
+  }
+}
@@ -0,0 +1,84 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import daikon.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that the serialized form of the program points has not changed, by reading an invariant
+ * file that Daikon 5.8.5 wrote from {@code dtracediff/Hanoi.dtrace.gz}. The goal file holds the
+ * invariants in it, as described by {@link Common#describeInvariants}.
+ */
+public class InvFileFormatTest {
+
+  @BeforeClass
+  public static void setUpClass() {
+    daikon.LogHelper.setupLogs(LogHelper.INFO);
+  }
+
+  /**
+   * Returns the URL of the specified test file.
+   *
+   * @param file the name of the file, relative to the daikon/test directory
+   * @return the location of the file
+   */
+  private static URL find(String file) {
+    String name = "daikon/test/" + file;
+    URL location = ClassLoader.getSystemResource(name);
+    if (location == null) {
+      throw new Error("Cannot find " + name);
+    }
+    return location;
+  }
+
+  /**
+   * Reads a serialized invariant file and returns its invariants.
+   *
+   * @param location the invariant file
+   * @return a description of the invariants in the file
+   */
+  private static String readInvariants(URL location) throws IOException, ClassNotFoundException {
+    Boolean saved_decl_format = FileIO.new_decl_format;
+    try (InputStream raw = location.openStream();
+        ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(raw))) {
+      PptMap all_ppts = FileIO.read_serialized_pptmap(in.readObject(), false);
+      return Common.describeInvariants(all_ppts);
+    } finally {
+      Common.restoreDeclFormat(saved_decl_format);
+    }
+  }
+
+  @Test
+  public void testReadOldFile() throws IOException, ClassNotFoundException, URISyntaxException {
+    String old_invs = readInvariants(find("invfile/Hanoi.inv.gz"));
+    assertTrue("unexpected result: " + old_invs, old_invs.contains("fromPeg != toPeg"));
+
+    byte[] goal = Files.readAllBytes(Paths.get(find("invfile/Hanoi.inv.goal").toURI()));
+    assertEquals(new String(goal, StandardCharsets.UTF_8), old_invs);
+  }
+
+  @Test
+  public void testRewrite() throws IOException, ClassNotFoundException {
+    File dtrace = new File(find("dtracediff/Hanoi.dtrace.gz").getPath());
+    File inv = File.createTempFile("InvFileFormatTest", ".inv.gz");
+    try {
+      Common.runDaikon("-o", inv.getPath(), dtrace.getPath());
+      assertEquals(Common.inferInvariants(dtrace), readInvariants(inv.toURI().toURL()));
+    } finally {
+      inv.delete();
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package daikon.test;
+
+import daikon.plumelib.util.WeakIdentityHashMap;
+import java.lang.ref.WeakReference;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The union-find part of {@link daikon.dcomp.TagEntry} as it was before it kept its sets in
+ * primitive arrays: a weak reference per element, found through a {@link WeakIdentityHashMap},
+ * with path compression but no union by rank. {@link TagEntryTest} checks that the two put objects
+ * in the same sets, and the JMH benchmark {@code daikon.dcomp.TagEntryBenchmark} compares their
+ * speed.
+ */
+@SuppressWarnings("interning")
+public class LegacyTagEntry extends WeakReference<Object> {
+
+  /** Maps each object to its entry in the Union-Find datastructure. */
+  public static final WeakIdentityHashMap<Object, LegacyTagEntry> object_map =
+      new WeakIdentityHashMap<Object, LegacyTagEntry>();
+
+  /** Parent in the tree that represents the set for this element, or null for the root. */
+  private @Nullable LegacyTagEntry parent;
+
+  /**
+   * Create an entry as a separate set.
+   *
+   * @param obj the object to put in a new set
+   */
+  LegacyTagEntry(Object obj) {
+    super(obj);
+  }
+
+  /**
+   * Merge the sets that contain the specified objects.
+   *
+   * @param obj1 an object
+   * @param obj2 an object
+   */
+  public static void union(Object obj1, Object obj2) {
+    LegacyTagEntry root1 = get_entry(obj1).find();
+    LegacyTagEntry root2 = get_entry(obj2).find();
+    if (root1 != root2) {
+      root2.parent = root1;
+    }
+  }
+
+  /**
+   * Find the entry associated with obj, creating it if it does not exist.
+   *
+   * @param obj an object
+   * @return the entry of obj
+   */
+  public static LegacyTagEntry get_entry(Object obj) {
+    LegacyTagEntry entry = object_map.get(obj);
+    if (entry == null) {
+      entry = new LegacyTagEntry(obj);
+      object_map.put(obj, entry);
+    }
+    return entry;
+  }
+
+  /**
+   * Find the representative of this set, compressing the path to it.
+   *
+   * @return the root of the tree that contains this
+   */
+  LegacyTagEntry find() {
+    LegacyTagEntry root = this;
+    while (root.parent != null) {
+      root = root.parent;
+    }
+    LegacyTagEntry tag = this;
+    while (tag.parent != null) {
+      LegacyTagEntry next = tag.parent;
+      tag.parent = root;
+      tag = next;
+    }
+    return root;
+  }
+
+  /**
+   * Returns the representative of the set containing obj.
+   *
+   * @param obj an object
+   * @return the representative of the set containing obj
+   */
+  public static Object find(Object obj) {
+    LegacyTagEntry entry = object_map.get(obj);
+    if (entry == null) {
+      return obj;
+    }
+    LegacyTagEntry root = entry.find();
+    Object root_ref = root.get();
+    return (root_ref == null) ? root : root_ref;
+  }
+}
@@ -0,0 +1,187 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import daikon.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.TreeSet;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that parsing a trace file in byte ranges on several threads (see {@link
+ * FileIO#dkconfig_parse_threads}) gives the same invariants, and reports errors at the same lines,
+ * as reading it on the main thread.
+ */
+public class MappedDtraceTest {
+
+  /** A temporary directory for the traces. */
+  static File tmpdir;
+
+  /** The synthetic trace of {@link ParallelInferenceTest}, uncompressed. */
+  static File dtrace;
+
+  @BeforeClass
+  public static void setUpClass() throws IOException {
+    tmpdir = Files.createTempDirectory("MappedDtraceTest").toFile();
+    dtrace = new File(tmpdir, "nis.dtrace");
+    try (PrintWriter pw =
+        new PrintWriter(Files.newBufferedWriter(dtrace.toPath(), StandardCharsets.UTF_8))) {
+      ParallelInferenceTest.write_trace(pw, 0, ParallelInferenceTest.NUM_CALLS);
+    }
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    File[] files = tmpdir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    tmpdir.delete();
+  }
+
+  /**
+   * Runs Daikon on a trace, parsing it on the given number of threads.
+   *
+   * @param file the trace
+   * @param threads the number of threads, or 0 to read on the main thread
+   * @param range_size the number of bytes in each range
+   * @return a description of the invariants at every program point
+   */
+  static String infer(File file, int threads, int range_size) {
+    int saved_threads = FileIO.dkconfig_parse_threads;
+    int saved_range_size = FileIO.dkconfig_parse_range_size;
+    try {
+      FileIO.dkconfig_parse_threads = threads;
+      FileIO.dkconfig_parse_range_size = range_size;
+      return BinaryDtraceTest.infer(file);
+    } finally {
+      FileIO.dkconfig_parse_threads = saved_threads;
+      FileIO.dkconfig_parse_range_size = saved_range_size;
+    }
+  }
+
+  @Test
+  public void testSameInvariants() {
+    String serial = infer(dtrace, 0, FileIO.dkconfig_parse_range_size);
+    assertTrue(serial.contains("a <= b"));
+    // With 1-byte ranges, each range holds one record, so every entry is in a different range
+    // than its exit.
+    assertEquals(serial, infer(dtrace, 3, 1));
+    assertEquals(serial, infer(dtrace, 3, 1000));
+    assertEquals(serial, infer(dtrace, 2, 1 << 22));
+  }
+
+  @Test
+  public void testDeclarationsInTrace() throws IOException {
+    // The declarations of the second trace follow every sample of the first.
+    File both = new File(tmpdir, "both.dtrace");
+    StringWriter second = new StringWriter();
+    try (PrintWriter pw = new PrintWriter(second)) {
+      ParallelMergeTest.write_trace(pw);
+    }
+    String second_text = second.toString();
+    try (PrintWriter pw =
+        new PrintWriter(Files.newBufferedWriter(both.toPath(), StandardCharsets.UTF_8))) {
+      ParallelInferenceTest.write_trace(pw, 0, ParallelInferenceTest.NUM_CALLS);
+      // Omit the second trace's header, which a trace may only have at its start.
+      pw.print(second_text.substring(second_text.indexOf("\n\n") + 2));
+    }
+
+    String serial = infer(both, 0, FileIO.dkconfig_parse_range_size);
+    assertTrue(serial, serial.contains("this.x <= this.y"));
+    assertEquals(serial, infer(both, 3, 1));
+    assertEquals(serial, infer(both, 3, 4000));
+  }
+
+  @Test
+  public void testMissingValues() throws IOException {
+    // A trace in which the first value of every 10th sample is nonsensical.
+    List<String> lines = Files.readAllLines(dtrace.toPath(), StandardCharsets.UTF_8);
+    int samples = 0;
+    for (int i = 0; i < lines.size(); i++) {
+      if (lines.get(i).equals("this_invocation_nonce") && samples++ % 10 == 0) {
+        // The nonce, then the first variable's name, value, and modbit.
+        lines.set(i + 3, "nonsensical");
+        lines.set(i + 4, "2");
+      }
+    }
+    File missing = new File(tmpdir, "missing.dtrace");
+    Files.write(missing.toPath(), lines, StandardCharsets.UTF_8);
+
+    String serial = infer(missing, 0, FileIO.dkconfig_parse_range_size);
+    String serial_missing = missing_variables();
+    assertTrue(serial_missing, !serial_missing.isEmpty());
+    assertEquals(serial, infer(missing, 3, 1));
+    assertEquals(serial_missing, missing_variables());
+    assertEquals(serial, infer(missing, 2, 3000));
+    assertEquals(serial_missing, missing_variables());
+  }
+
+  /**
+   * Returns the variables of {@link Daikon#all_ppts} that can be missing.
+   *
+   * @return the names of the variables that can be missing, with their program points
+   */
+  static String missing_variables() {
+    TreeSet<String> result = new TreeSet<>();
+    for (PptTopLevel ppt : Daikon.all_ppts.ppt_all_iterable()) {
+      for (VarInfo vi : ppt.var_infos) {
+        if (vi.canBeMissing) {
+          result.add(ppt.name() + " " + vi.str_name());
+        }
+      }
+    }
+    return result.toString();
+  }
+
+  @Test
+  public void testErrorLine() throws IOException {
+    // A trace whose 40th sample has a bad modbit.
+    String good_text = new String(Files.readAllBytes(dtrace.toPath()), StandardCharsets.UTF_8);
+    int pos = -1;
+    for (int i = 0; i < 40; i++) {
+      pos = good_text.indexOf("\nthis_invocation_nonce\n", pos + 1);
+    }
+    int modbit = good_text.indexOf("\n1\n", pos) + 1;
+    String bad_text = good_text.substring(0, modbit) + "7" + good_text.substring(modbit + 1);
+    File bad = new File(tmpdir, "bad.dtrace");
+    Files.write(bad.toPath(), bad_text.getBytes(StandardCharsets.UTF_8));
+
+    String serial = error_message(bad, 0, FileIO.dkconfig_parse_range_size);
+    assertTrue(serial, serial.contains("Bad modbit"));
+    assertEquals(serial, error_message(bad, 2, 1));
+    assertEquals(serial, error_message(bad, 2, 3000));
+  }
+
+  /**
+   * Runs Daikon on a trace that contains an error, and returns the message of the error.
+   *
+   * @param file the trace
+   * @param threads the number of threads, or 0 to read on the main thread
+   * @param range_size the number of bytes in each range
+   * @return the message of the error
+   */
+  static String error_message(File file, int threads, int range_size) {
+    int saved_threads = FileIO.dkconfig_parse_threads;
+    int saved_range_size = FileIO.dkconfig_parse_range_size;
+    try {
+      FileIO.dkconfig_parse_threads = threads;
+      FileIO.dkconfig_parse_range_size = range_size;
+      return DtracePipelineTest.error_message(file, 0);
+    } finally {
+      FileIO.dkconfig_parse_threads = saved_threads;
+      FileIO.dkconfig_parse_range_size = saved_range_size;
+    }
+  }
+}
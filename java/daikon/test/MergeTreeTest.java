@@ -0,0 +1,105 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import daikon.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that merging invariant files pairwise in a tree on several threads (see {@link
+ * MergeInvariants#dkconfig_threads}) gives the same invariants as merging them all at once.
+ */
+public class MergeTreeTest {
+
+  /** The number of parts into which the synthetic trace of {@link ParallelInferenceTest} is split. */
+  static final int NUM_PARTS = 7;
+
+  /** A temporary directory for the traces and invariant files. */
+  static File tmpdir;
+
+  /** The invariant files of the parts of the trace. */
+  static List<String> inv_files = new ArrayList<>();
+
+  @BeforeClass
+  public static void setUpClass() throws IOException {
+    tmpdir = Files.createTempDirectory("MergeTreeTest").toFile();
+    for (int i = 0; i < NUM_PARTS; i++) {
+      File dtrace = new File(tmpdir, "part" + i + ".dtrace");
+      try (PrintWriter pw =
+          new PrintWriter(Files.newBufferedWriter(dtrace.toPath(), StandardCharsets.UTF_8))) {
+        ParallelInferenceTest.write_trace(
+            pw,
+            i * ParallelInferenceTest.NUM_CALLS / NUM_PARTS,
+            (i + 1) * ParallelInferenceTest.NUM_CALLS / NUM_PARTS);
+      }
+      File inv = new File(tmpdir, "part" + i + ".inv.gz");
+      Common.runDaikon("-o", inv.getPath(), dtrace.getPath());
+      inv_files.add(inv.getPath());
+    }
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    File[] files = tmpdir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    tmpdir.delete();
+  }
+
+  /**
+   * Merges some of the invariant files, on the given number of threads.
+   *
+   * @param num_files the number of invariant files to merge, starting with the first
+   * @param threads the number of threads, or 0 to merge every file at once
+   * @return a description of the merged invariants at every program point
+   */
+  static String merge(int num_files, int threads) throws IOException, ClassNotFoundException {
+    int saved_threads = MergeInvariants.dkconfig_threads;
+    Boolean saved_decl_format = FileIO.new_decl_format;
+    try {
+      MergeInvariants.dkconfig_threads = threads;
+      // The output file of the previous merge.
+      MergeInvariants.output_inv_file = null;
+      File merged = new File(tmpdir, "merged.inv.gz");
+      List<String> args = new ArrayList<>();
+      args.add("-o");
+      args.add(merged.getPath());
+      args.addAll(inv_files.subList(0, num_files));
+      MergeInvariants.mainHelper(args.toArray(new String[0]));
+      // Formatting invariants depends on the declaration format of the file.
+      return Common.describeInvariants(FileIO.read_serialized_pptmap(merged, false));
+    } finally {
+      MergeInvariants.dkconfig_threads = saved_threads;
+      Common.restoreDeclFormat(saved_decl_format);
+    }
+  }
+
+  @Test
+  public void testSameInvariants() throws IOException, ClassNotFoundException {
+    String flat = merge(NUM_PARTS, 0);
+    assertTrue(flat, flat.contains("a <= b"));
+    assertEquals(flat, merge(NUM_PARTS, 3));
+    assertEquals(flat, merge(NUM_PARTS, 2));
+  }
+
+  @Test
+  public void testFewFiles() throws IOException, ClassNotFoundException {
+    // With three files, the third is passed up to the top of the tree unmerged.
+    assertEquals(merge(3, 0), merge(3, 4));
+    // With two files, there is nothing to merge in a tree.
+    assertEquals(merge(2, 0), merge(2, 4));
+  }
+}
@@ -3,11 +3,17 @@ package daikon.test;
 import static org.junit.Assert.assertEquals;
 
 import daikon.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.BitSet;
 import java.util.Random;
 import junit.framework.*;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.plumelib.util.UtilPlume;
 
 public class ModBitTrackerTest {
 
@@ -116,4 +122,75 @@ public class ModBitTrackerTest {
     oneModBitTrackerTest(5, 10, 0.0);
     oneModBitTrackerTest(100, 1000, 5.0);
   }
+
+  @Test
+  public void testCardinality() {
+    BitSet[] bitsets = makeBitSets(6, 500, 1.0);
+    ModBitTracker mbt = makeModBitTracker(bitsets);
+    for (int i = 0; i < bitsets.length; i++) {
+      assertEquals(bitsets[i].cardinality(), mbt.cardinality(i));
+      for (int j = 0; j < bitsets.length; j++) {
+        assertEquals(
+            UtilPlume.intersectionCardinality(bitsets[i], bitsets[j]),
+            mbt.intersectionCardinality(i, j));
+        for (int k = 0; k < bitsets.length; k++) {
+          assertEquals(
+              UtilPlume.intersectionCardinality(bitsets[i], bitsets[j], bitsets[k]),
+              mbt.intersectionCardinality(i, j, k));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCount() {
+    // Long runs, added a few samples at a time
+    int numvars = 3;
+    ModBitTracker mbt = new ModBitTracker(numvars);
+    BitSet[] bitsets = new BitSet[numvars];
+    for (int var = 0; var < numvars; var++) {
+      bitsets[var] = new BitSet();
+    }
+    Object[] vals = new Object[numvars];
+    int[] mods = new int[numvars];
+    ValueTuple vt = ValueTuple.makeUninterned(vals, mods);
+    int sampleno = 0;
+    for (int step = 0; step < 200; step++) {
+      int count = 1 + r.nextInt(1000);
+      for (int var = 0; var < numvars; var++) {
+        boolean bit = (var == 0) || (r.nextInt(10 * var) != 0);
+        mods[var] = booleanToModBit(bit);
+        bitsets[var].set(sampleno, sampleno + count, bit);
+      }
+      mbt.add(vt, count);
+      sampleno += count;
+    }
+    assertEquals(sampleno, mbt.num_samples());
+    for (int var = 0; var < numvars; var++) {
+      assertEquals(bitsets[var], mbt.get(var));
+      assertEquals(bitsets[var].cardinality(), mbt.cardinality(var));
+      for (int i = 0; i < sampleno; i += 97) {
+        assertEquals(bitsets[var].get(i), mbt.get(var, i));
+      }
+    }
+  }
+
+  @Test
+  public void testSerialization() throws IOException, ClassNotFoundException {
+    BitSet[] bitsets = makeBitSets(10, 300, 1.0);
+    ModBitTracker mbt = makeModBitTracker(bitsets);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(mbt);
+    }
+    ModBitTracker copy;
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      copy = (ModBitTracker) in.readObject();
+    }
+    copy.checkRep();
+    checkModBitTracker(copy, bitsets);
+    assertEquals(mbt.num_sets(), copy.num_sets());
+  }
 }
@@ -0,0 +1,253 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import daikon.*;
+import daikon.suppress.NIS;
+import daikon.suppress.NIS.SuppressionProcessor;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that inference on several threads (see {@link Daikon#dkconfig_inference_threads}) finds
+ * exactly the invariants that a serial run finds. The trace is synthetic and is built to exercise
+ * non-instantiating suppressions: its variables start out equal and are then separated a few at a
+ * time, so that each stage falsifies suppressors and unsuppresses many invariants.
+ */
+public class ParallelInferenceTest {
+
+  /** The number of procedures in the trace. Each has its own ENTER and EXIT program points. */
+  static final int NUM_PROCS = 6;
+
+  /** The number of calls to each procedure. */
+  static final int NUM_CALLS = 120;
+
+  /** The synthetic trace (declarations and samples). */
+  static File dtrace;
+
+  /** A temporary directory for the trace. */
+  static File tmpdir;
+
+  @BeforeClass
+  public static void setUpClass() throws IOException {
+    tmpdir = Files.createTempDirectory("ParallelInferenceTest").toFile();
+    dtrace = new File(tmpdir, "nis.dtrace");
+    try (PrintWriter pw =
+        new PrintWriter(Files.newBufferedWriter(dtrace.toPath(), StandardCharsets.UTF_8))) {
+      write_trace(pw);
+    }
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    File[] files = tmpdir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    tmpdir.delete();
+  }
+
+  /**
+   * Writes the declarations and samples of the synthetic trace.
+   *
+   * @param pw where to write the trace
+   */
+  static void write_trace(PrintWriter pw) {
+    write_trace(pw, 0, NUM_CALLS);
+  }
+
+  /**
+   * Writes the declarations of the synthetic trace, and the samples of some of its calls.
+   *
+   * @param pw where to write the trace
+   * @param first_call the index of the first call to write
+   * @param end_call one more than the index of the last call to write
+   */
+  static void write_trace(PrintWriter pw, int first_call, int end_call) {
+    pw.println("decl-version 2.0");
+    pw.println("var-comparability none");
+    pw.println();
+    for (int p = 0; p < NUM_PROCS; p++) {
+      write_decl(pw, proc_name(p) + ":::ENTER", "enter", false);
+      write_decl(pw, proc_name(p) + ":::EXIT9", "subexit", true);
+    }
+
+    Random r = new Random(20200813L);
+    int nonce = 0;
+    for (int call = 0; call < NUM_CALLS; call++) {
+      for (int p = 0; p < NUM_PROCS; p++) {
+        // Each procedure leaves the all-equal stage at a different time, and then moves through
+        // stages in which fewer and fewer relationships among its variables hold.
+        int stage = Math.max(0, (call - 10 * p) / 20);
+        long a = r.nextInt(50);
+        long b;
+        long c;
+        long d;
+        switch (stage) {
+          case 0:
+            b = a;
+            c = a;
+            d = a;
+            break;
+          case 1:
+            b = a;
+            c = a + 1;
+            d = 2 * a;
+            break;
+          case 2:
+            b = a + r.nextInt(3);
+            c = b + 1;
+            d = 2 * a;
+            break;
+          case 3:
+            b = a + r.nextInt(3);
+            c = b * a;
+            d = a - r.nextInt(5);
+            break;
+          default:
+            b = r.nextInt(50);
+            c = r.nextInt(50) - 25;
+            d = r.nextInt(50) - 25;
+            break;
+        }
+        long result = (stage < 2) ? a + b : a * b - c;
+        nonce++;
+        if (call < first_call || call >= end_call) {
+          continue;
+        }
+        write_sample(pw, proc_name(p) + ":::ENTER", nonce, new long[] {a, b, c, d});
+        write_sample(pw, proc_name(p) + ":::EXIT9", nonce, new long[] {a, b, c, d, result});
+      }
+    }
+  }
+
+  /**
+   * Returns the name of a procedure in the synthetic trace.
+   *
+   * @param p the index of the procedure
+   * @return the name of procedure p, without a program point suffix
+   */
+  static String proc_name(int p) {
+    return "nis.Proc" + p + ".m(int,int,int,int)";
+  }
+
+  /** The names of the parameters of every procedure. */
+  static final String[] params = {"a", "b", "c", "d"};
+
+  /**
+   * Writes the declaration of a program point.
+   *
+   * @param pw where to write the declaration
+   * @param ppt_name the name of the program point
+   * @param ppt_type the type of the program point
+   * @param has_return whether the program point has a return value
+   */
+  static void write_decl(PrintWriter pw, String ppt_name, String ppt_type, boolean has_return) {
+    pw.println("ppt " + ppt_name);
+    pw.println("ppt-type " + ppt_type);
+    for (String param : params) {
+      write_var(pw, param, "variable", true);
+    }
+    if (has_return) {
+      write_var(pw, "return", "return", false);
+    }
+    pw.println();
+  }
+
+  /**
+   * Writes the declaration of an int variable.
+   *
+   * @param pw where to write the declaration
+   * @param name the name of the variable
+   * @param kind the kind of the variable
+   * @param is_param whether the variable is a parameter
+   */
+  static void write_var(PrintWriter pw, String name, String kind, boolean is_param) {
+    pw.println("variable " + name);
+    pw.println("  var-kind " + kind);
+    pw.println("  dec-type int");
+    pw.println("  rep-type int");
+    if (is_param) {
+      pw.println("  flags is_param");
+    }
+    pw.println("  comparability 1");
+  }
+
+  /**
+   * Writes one sample.
+   *
+   * @param pw where to write the sample
+   * @param ppt_name the name of the program point
+   * @param nonce the invocation nonce
+   * @param values the values of the variables, in the order they were declared
+   */
+  static void write_sample(PrintWriter pw, String ppt_name, int nonce, long[] values) {
+    pw.println(ppt_name);
+    pw.println("this_invocation_nonce");
+    pw.println(nonce);
+    for (int i = 0; i < values.length; i++) {
+      pw.println((i < params.length) ? params[i] : "return");
+      pw.println(values[i]);
+      pw.println(1);
+    }
+    pw.println();
+  }
+
+  /**
+   * Runs Daikon on a trace and returns every invariant it found, formatted and in a deterministic
+   * order.
+   *
+   * @param dtrace the trace file
+   * @param threads the number of inference threads
+   * @param processor the algorithm that processes suppressions
+   * @return a description of the invariants at every program point
+   */
+  static String infer(File dtrace, int threads, SuppressionProcessor processor) {
+    int saved_threads = Daikon.dkconfig_inference_threads;
+    SuppressionProcessor saved_processor = NIS.dkconfig_suppression_processor;
+    try {
+      Daikon.dkconfig_inference_threads = threads;
+      NIS.dkconfig_suppression_processor = processor;
+      return Common.inferInvariants(dtrace);
+    } finally {
+      Daikon.dkconfig_inference_threads = saved_threads;
+      NIS.dkconfig_suppression_processor = saved_processor;
+    }
+  }
+
+  /**
+   * Checks that the invariants found by a parallel run are the same as those of a serial run.
+   *
+   * @param processor the algorithm that processes suppressions
+   */
+  static void check_parallel(SuppressionProcessor processor) {
+    String serial = infer(dtrace, 1, processor);
+    assertTrue("unexpected serial result: " + serial, serial.contains("a <= b"));
+    assertEquals(serial, infer(dtrace, 4, processor));
+  }
+
+  @Test
+  public void testHybrid() {
+    check_parallel(SuppressionProcessor.HYBRID);
+  }
+
+  @Test
+  public void testAntecedent() {
+    check_parallel(SuppressionProcessor.ANTECEDENT);
+  }
+
+  @Test
+  public void testFalsified() {
+    check_parallel(SuppressionProcessor.FALSIFIED);
+  }
+}
@@ -0,0 +1,214 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import daikon.*;
+import daikon.suppress.NIS.SuppressionProcessor;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that merging the dataflow hierarchy on several threads (see {@link ParallelMerge}) finds
+ * exactly the invariants that a serial merge finds. In the trace, several classes' methods share
+ * their class's OBJECT program point as a parent, so each OBJECT program point merges several
+ * children, and each combined exit has two parents: its OBJECT program point and its ENTER.
+ */
+public class ParallelMergeTest {
+
+  /** The number of classes in the trace. */
+  static final int NUM_CLASSES = 3;
+
+  /** The number of methods of each class. */
+  static final int NUM_METHODS = 4;
+
+  /** The number of calls to each method. */
+  static final int NUM_CALLS = 60;
+
+  /** The synthetic trace (declarations and samples). */
+  static File dtrace;
+
+  /** A temporary directory for the trace. */
+  static File tmpdir;
+
+  @BeforeClass
+  public static void setUpClass() throws IOException {
+    tmpdir = Files.createTempDirectory("ParallelMergeTest").toFile();
+    dtrace = new File(tmpdir, "merge.dtrace");
+    try (PrintWriter pw =
+        new PrintWriter(Files.newBufferedWriter(dtrace.toPath(), StandardCharsets.UTF_8))) {
+      write_trace(pw);
+    }
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    dtrace.delete();
+    tmpdir.delete();
+  }
+
+  /**
+   * Writes the declarations and samples of the synthetic trace.
+   *
+   * @param pw where to write the trace
+   */
+  static void write_trace(PrintWriter pw) {
+    pw.println("decl-version 2.0");
+    pw.println("var-comparability none");
+    pw.println();
+    for (int c = 0; c < NUM_CLASSES; c++) {
+      String object = class_name(c) + ":::OBJECT";
+      pw.println("ppt " + object);
+      pw.println("ppt-type object");
+      write_fields(pw, null);
+      pw.println();
+      for (int m = 0; m < NUM_METHODS; m++) {
+        write_decl(pw, method_name(c, m) + ":::ENTER", "enter", object, false);
+        write_decl(pw, method_name(c, m) + ":::EXIT9", "subexit", object, true);
+      }
+    }
+
+    Random r = new Random(20261018L);
+    int nonce = 0;
+    for (int call = 0; call < NUM_CALLS; call++) {
+      for (int c = 0; c < NUM_CLASSES; c++) {
+        for (int m = 0; m < NUM_METHODS; m++) {
+          // Every method keeps x <= y, and some methods also keep other relationships.
+          long x = r.nextInt(20);
+          long y = (m % 2 == 0) ? x : x + r.nextInt(5);
+          long a = (m < 2) ? y - x : r.nextInt(10) - 5;
+          long result = x + a;
+          nonce++;
+          String name = method_name(c, m);
+          write_sample(pw, name + ":::ENTER", nonce, new long[] {x, y, a}, false);
+          write_sample(pw, name + ":::EXIT9", nonce, new long[] {x, y, a, result}, true);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the name of a class in the synthetic trace.
+   *
+   * @param c the index of the class
+   * @return the name of class c
+   */
+  static String class_name(int c) {
+    return "merge.C" + c;
+  }
+
+  /**
+   * Returns the name of a method in the synthetic trace.
+   *
+   * @param c the index of the method's class
+   * @param m the index of the method
+   * @return the name of method m of class c, without a program point suffix
+   */
+  static String method_name(int c, int m) {
+    return class_name(c) + ".m" + m + "(int)";
+  }
+
+  /**
+   * Writes the declarations of {@code this} and its fields.
+   *
+   * @param pw where to write the declarations
+   * @param object the OBJECT program point that is the parent of the variables, or null
+   */
+  static void write_fields(PrintWriter pw, String object) {
+    pw.println("variable this");
+    pw.println("  var-kind variable");
+    pw.println("  dec-type merge.C");
+    pw.println("  rep-type hashcode");
+    pw.println("  flags is_param non_null");
+    pw.println("  comparability 1");
+    if (object != null) {
+      pw.println("  parent " + object + " 1");
+    }
+    for (String field : new String[] {"x", "y"}) {
+      pw.println("variable this." + field);
+      pw.println("  var-kind field " + field);
+      pw.println("  enclosing-var this");
+      pw.println("  dec-type int");
+      pw.println("  rep-type int");
+      pw.println("  comparability 1");
+      if (object != null) {
+        pw.println("  parent " + object + " 1");
+      }
+    }
+  }
+
+  /**
+   * Writes the declaration of a method's program point.
+   *
+   * @param pw where to write the declaration
+   * @param ppt_name the name of the program point
+   * @param ppt_type the type of the program point
+   * @param object the OBJECT program point that is the program point's parent
+   * @param has_return whether the program point has a return value
+   */
+  static void write_decl(
+      PrintWriter pw, String ppt_name, String ppt_type, String object, boolean has_return) {
+    pw.println("ppt " + ppt_name);
+    pw.println("ppt-type " + ppt_type);
+    pw.println("parent parent " + object + " 1");
+    write_fields(pw, object);
+    ParallelInferenceTest.write_var(pw, "a", "variable", true);
+    if (has_return) {
+      ParallelInferenceTest.write_var(pw, "return", "return", false);
+    }
+    pw.println();
+  }
+
+  /**
+   * Writes one sample.
+   *
+   * @param pw where to write the sample
+   * @param ppt_name the name of the program point
+   * @param nonce the invocation nonce
+   * @param values the values of x, y, a, and (at an exit) the return value
+   * @param has_return whether the program point has a return value
+   */
+  static void write_sample(
+      PrintWriter pw, String ppt_name, int nonce, long[] values, boolean has_return) {
+    pw.println(ppt_name);
+    pw.println("this_invocation_nonce");
+    pw.println(nonce);
+    pw.println("this");
+    pw.println(1000 + nonce % 7);
+    pw.println(1);
+    String[] names = {"this.x", "this.y", "a", "return"};
+    for (int i = 0; i < (has_return ? 4 : 3); i++) {
+      pw.println(names[i]);
+      pw.println(values[i]);
+      pw.println(1);
+    }
+    pw.println();
+  }
+
+  @Test
+  public void testParallelMerge() {
+    String serial = ParallelInferenceTest.infer(dtrace, 1, SuppressionProcessor.HYBRID);
+    assertTrue(serial, serial.contains("this.x <= this.y"));
+    for (int i = 0; i < 3; i++) {
+      assertEquals(serial, ParallelInferenceTest.infer(dtrace, 4, SuppressionProcessor.HYBRID));
+    }
+
+    // Every program point with children was merged once, and no merge is still in progress.
+    PptTopLevel object = Daikon.all_ppts.get(class_name(0) + ":::OBJECT");
+    assertTrue(object != null && object.children.size() == 2 * NUM_METHODS);
+    for (PptTopLevel ppt : Daikon.all_ppts.ppt_all_iterable()) {
+      assertFalse(ppt.name(), ppt.in_merge);
+      if (ppt.children.size() > 0) {
+        assertTrue(ppt.name(), ppt.invariants_merged);
+      }
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import daikon.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that filtering and formatting invariants on several threads (see {@link
+ * PrintInvariants#dkconfig_threads}) prints the same output, in the same order, as on one.
+ */
+public class ParallelPrintTest {
+
+  /** A temporary directory for the trace, invariants, and output. */
+  static File tmpdir;
+
+  /** The invariants of the synthetic trace of {@link ParallelInferenceTest}. */
+  static File inv_file;
+
+  @BeforeClass
+  public static void setUpClass() throws IOException {
+    tmpdir = Files.createTempDirectory("ParallelPrintTest").toFile();
+    File dtrace = new File(tmpdir, "calls.dtrace");
+    try (PrintWriter pw =
+        new PrintWriter(Files.newBufferedWriter(dtrace.toPath(), StandardCharsets.UTF_8))) {
+      ParallelInferenceTest.write_trace(pw, 0, ParallelInferenceTest.NUM_CALLS);
+    }
+    inv_file = new File(tmpdir, "calls.inv.gz");
+    Common.runDaikon("-o", inv_file.getPath(), dtrace.getPath());
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    File[] files = tmpdir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    tmpdir.delete();
+  }
+
+  /**
+   * Prints the invariants in the given format, on the given number of threads.
+   *
+   * @param format the output format
+   * @param threads the number of threads
+   * @return the output of PrintInvariants
+   */
+  static String print(String format, int threads) throws IOException, ClassNotFoundException {
+    int saved_threads = PrintInvariants.dkconfig_threads;
+    Boolean saved_decl_format = FileIO.new_decl_format;
+    try {
+      PrintInvariants.dkconfig_threads = threads;
+      File output = new File(tmpdir, "output.txt");
+      PrintInvariants.mainHelper(
+          new String[] {"--format", format, "--output", output.getPath(), inv_file.getPath()});
+      return new String(Files.readAllBytes(output.toPath()), StandardCharsets.UTF_8);
+    } finally {
+      PrintInvariants.dkconfig_threads = saved_threads;
+      Daikon.output_format = daikon.inv.OutputFormat.DAIKON;
+      Common.restoreDeclFormat(saved_decl_format);
+    }
+  }
+
+  @Test
+  public void testSameOutput() throws IOException, ClassNotFoundException {
+    String serial = print("daikon", 1);
+    assertTrue(serial, serial.contains("a <= b"));
+    assertEquals(serial, print("daikon", 3));
+  }
+
+  @Test
+  public void testSameJavaOutput() throws IOException, ClassNotFoundException {
+    assertEquals(print("java", 1), print("java", 4));
+  }
+}
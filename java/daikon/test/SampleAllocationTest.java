@@ -0,0 +1,181 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import daikon.*;
+import daikon.inv.Invariant;
+import daikon.inv.unary.scalar.NonModulus;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Checks that {@link PptTopLevel#add_bottom_up} allocates nothing for a sample that changes no
+ * invariant, slice, or constant. The samples of the trace of {@link ParallelInferenceTest} are
+ * supplied once to instantiate and weaken the invariants. After that, a pass over {@link
+ * #REPEATS} copies of the samples must allocate no more than a pass over one copy, give or take
+ * {@link #SLACK} bytes that the JVM may allocate on its own. Allocation is measured with {@link
+ * com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}.
+ */
+public class SampleAllocationTest {
+
+  /** The number of calls of each procedure in the trace. */
+  static final int NUM_CALLS = 50;
+
+  /** The number of copies of the samples in the longer pass. */
+  static final int REPEATS = 8;
+
+  /**
+   * The largest number of passes of each length; the least that any of them allocates is compared.
+   * Early passes may allocate a few bytes when the JIT deoptimizes a method and materializes
+   * objects it had eliminated.
+   */
+  static final int MAX_PASSES = 100;
+
+  /**
+   * The number of bytes by which the longer pass may exceed the shorter one. The JVM may allocate
+   * a little in the measured thread on its own, depending on its version and flags; a sample that
+   * allocated would exceed this many times over.
+   */
+  static final long SLACK = 1024;
+
+  @Test
+  public void testSteadyStateAllocatesNothing() throws IOException {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) bean;
+    assumeTrue(mx.isThreadAllocatedMemorySupported());
+    mx.setThreadAllocatedMemoryEnabled(true);
+
+    File dtrace = File.createTempFile("SampleAllocationTest", ".dtrace");
+    boolean saved_quiet = Daikon.dkconfig_quiet;
+    boolean saved_nonmodulus = NonModulus.dkconfig_enabled;
+    PptMap saved_all_ppts = Daikon.all_ppts;
+    List<Invariant> saved_proto_invs = new ArrayList<>(Daikon.proto_invs);
+    Boolean saved_decl_format = FileIO.new_decl_format;
+    try {
+      try (PrintWriter pw =
+          new PrintWriter(Files.newBufferedWriter(dtrace.toPath(), StandardCharsets.UTF_8))) {
+        ParallelInferenceTest.write_trace(pw, 0, NUM_CALLS);
+      }
+      Daikon.dkconfig_quiet = true;
+      // NonModulus keeps every distinct value it sees, so it allocates for each new value.  It is
+      // off by default, but other tests turn it on.
+      NonModulus.dkconfig_enabled = false;
+      // The prototypes depend on which invariants are enabled.
+      Daikon.proto_invs.clear();
+      Daikon.setup_proto_invs();
+      Daikon.setup_NISuppression();
+      // Other tests may have read a trace in the old format.
+      FileIO.resetNewDeclFormat();
+
+      // Read the trace, keeping each complete sample instead of supplying it.
+      PptMap all_ppts = new PptMap();
+      Daikon.all_ppts = all_ppts;
+      List<PptTopLevel> ppts = new ArrayList<>();
+      List<ValueTuple> samples = new ArrayList<>();
+      FileIO.read_data_trace_files(
+          Collections.singletonList(dtrace.getPath()),
+          all_ppts,
+          new FileIO.Processor() {
+            @Override
+            public void process_sample(
+                PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, Integer nonce) {
+              ValueTuple full_vt = FileIO.prepare_sample(all_ppts, ppt, vt, nonce);
+              if (full_vt != null) {
+                ppts.add(ppt);
+                samples.add(full_vt);
+              }
+            }
+          },
+          true);
+      assertTrue("no samples were recorded", samples.size() > 0);
+
+      PptTopLevel[] ppt_array = ppts.toArray(new PptTopLevel[0]);
+      ValueTuple[] sample_array = samples.toArray(new ValueTuple[0]);
+      add_all(ppt_array, sample_array);
+      int inv_cnt = invariant_cnt(all_ppts);
+
+      PptTopLevel[] many_ppts = new PptTopLevel[REPEATS * ppt_array.length];
+      ValueTuple[] many_samples = new ValueTuple[REPEATS * sample_array.length];
+      for (int i = 0; i < REPEATS; i++) {
+        System.arraycopy(ppt_array, 0, many_ppts, i * ppt_array.length, ppt_array.length);
+        System.arraycopy(
+            sample_array, 0, many_samples, i * sample_array.length, sample_array.length);
+      }
+      long few = least_allocated(mx, ppt_array, sample_array);
+      long many = least_allocated(mx, many_ppts, many_samples);
+      assertTrue(
+          String.format(
+              "%d bytes allocated for %d samples, %d for %d",
+              few, sample_array.length, many, many_samples.length),
+          many <= few + SLACK);
+      // The samples seen again changed nothing.
+      assertEquals(inv_cnt, invariant_cnt(all_ppts));
+    } finally {
+      dtrace.delete();
+      Daikon.dkconfig_quiet = saved_quiet;
+      NonModulus.dkconfig_enabled = saved_nonmodulus;
+      Daikon.all_ppts = saved_all_ppts;
+      Daikon.proto_invs.clear();
+      Daikon.proto_invs.addAll(saved_proto_invs);
+      Common.restoreDeclFormat(saved_decl_format);
+    }
+  }
+
+  /**
+   * Supplies the samples to their program points repeatedly, and returns the least number of bytes
+   * that the current thread allocated in one pass.
+   *
+   * @param mx the bean that measures allocation
+   * @param ppts the program point of each sample
+   * @param samples the samples
+   * @return the fewest bytes allocated by a pass over the samples
+   */
+  static long least_allocated(
+      com.sun.management.ThreadMXBean mx, PptTopLevel[] ppts, ValueTuple[] samples) {
+    long tid = Thread.currentThread().getId();
+    long result = Long.MAX_VALUE;
+    for (int pass = 0; pass < MAX_PASSES && result != 0; pass++) {
+      long before = mx.getThreadAllocatedBytes(tid);
+      add_all(ppts, samples);
+      result = Math.min(result, mx.getThreadAllocatedBytes(tid) - before);
+    }
+    return result;
+  }
+
+  /**
+   * Supplies each sample to its program point.
+   *
+   * @param ppts the program point of each sample
+   * @param samples the samples
+   */
+  static void add_all(PptTopLevel[] ppts, ValueTuple[] samples) {
+    for (int i = 0; i < samples.length; i++) {
+      ppts[i].add_bottom_up(samples[i], 1);
+    }
+  }
+
+  /**
+   * Returns the number of invariants at all program points.
+   *
+   * @param all_ppts the program points
+   * @return the number of invariants in their slices
+   */
+  static int invariant_cnt(PptMap all_ppts) {
+    int result = 0;
+    for (PptTopLevel ppt : all_ppts.pptIterable()) {
+      result += ppt.invariant_cnt();
+    }
+    return result;
+  }
+}
@@ -0,0 +1,175 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import daikon.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that supplying runs of identical samples at once (see {@link SampleCoalescer}) finds
+ * exactly the invariants, with the same sample counts and confidences, as supplying each sample by
+ * itself. The trace uses the declarations of {@link ParallelInferenceTest}, but each call is
+ * repeated a random number of times, and the calls of different procedures are interleaved.
+ */
+public class SampleCoalescerTest {
+
+  /** The number of distinct calls to each procedure. */
+  static final int NUM_CALLS = 60;
+
+  /** The largest number of times a call is repeated. */
+  static final int MAX_REPEATS = 40;
+
+  /** The synthetic trace (declarations and samples). */
+  static File dtrace;
+
+  /** A temporary directory for the trace. */
+  static File tmpdir;
+
+  /** The message that {@link SampleCoalescer#debug} logs when it supplies a run of samples. */
+  static final Pattern RUN_MESSAGE = Pattern.compile("Supplying (\\d+) identical samples");
+
+  @BeforeClass
+  public static void setUpClass() throws IOException {
+    tmpdir = Files.createTempDirectory("SampleCoalescerTest").toFile();
+    dtrace = new File(tmpdir, "repeats.dtrace");
+    try (PrintWriter pw =
+        new PrintWriter(Files.newBufferedWriter(dtrace.toPath(), StandardCharsets.UTF_8))) {
+      write_trace(pw);
+    }
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    File[] files = tmpdir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    tmpdir.delete();
+  }
+
+  /**
+   * Writes the synthetic trace. Each procedure's variables start out equal and then drift apart,
+   * as in {@link ParallelInferenceTest#write_trace}, so that the repeated samples falsify and
+   * unsuppress invariants.
+   *
+   * @param pw where to write the trace
+   */
+  static void write_trace(PrintWriter pw) {
+    pw.println("decl-version 2.0");
+    pw.println("var-comparability none");
+    pw.println();
+    for (int p = 0; p < ParallelInferenceTest.NUM_PROCS; p++) {
+      String name = ParallelInferenceTest.proc_name(p);
+      ParallelInferenceTest.write_decl(pw, name + ":::ENTER", "enter", false);
+      ParallelInferenceTest.write_decl(pw, name + ":::EXIT9", "subexit", true);
+    }
+
+    Random r = new Random(20261018L);
+    int nonce = 0;
+    for (int call = 0; call < NUM_CALLS; call++) {
+      for (int p = 0; p < ParallelInferenceTest.NUM_PROCS; p++) {
+        int stage = Math.max(0, (call - 5 * p) / 10);
+        long a = r.nextInt(20);
+        long b = (stage == 0) ? a : a + r.nextInt(3);
+        long c = (stage < 2) ? b : r.nextInt(20);
+        long d = (stage < 3) ? 2 * a : r.nextInt(20) - 10;
+        long result = (stage < 2) ? a + b : a * b - c;
+        int repeats = 1 + r.nextInt(MAX_REPEATS);
+        for (int i = 0; i < repeats; i++) {
+          nonce++;
+          String name = ParallelInferenceTest.proc_name(p);
+          ParallelInferenceTest.write_sample(pw, name + ":::ENTER", nonce, new long[] {a, b, c, d});
+          ParallelInferenceTest.write_sample(
+              pw, name + ":::EXIT9", nonce, new long[] {a, b, c, d, result});
+        }
+      }
+    }
+  }
+
+  /**
+   * Runs Daikon on the trace and returns every invariant it found, with its confidence.
+   *
+   * @param window the value of {@link SampleCoalescer#dkconfig_window}
+   * @param threads the number of inference threads
+   * @param run_lengths where to put the number of samples in each run of more than one sample that
+   *     was supplied at once
+   * @return a description of the invariants at every program point
+   */
+  static String infer(int window, int threads, List<Integer> run_lengths) {
+    int saved_window = SampleCoalescer.dkconfig_window;
+    int saved_threads = Daikon.dkconfig_inference_threads;
+    Level saved_level = SampleCoalescer.debug.getLevel();
+    boolean saved_use_parent = SampleCoalescer.debug.getUseParentHandlers();
+    Handler handler =
+        new Handler() {
+          @Override
+          public void publish(LogRecord record) {
+            Matcher m = RUN_MESSAGE.matcher(record.getMessage());
+            if (m.lookingAt()) {
+              run_lengths.add(Integer.parseInt(m.group(1)));
+            }
+          }
+
+          @Override
+          public void flush() {}
+
+          @Override
+          public void close() {}
+        };
+    try {
+      SampleCoalescer.dkconfig_window = window;
+      Daikon.dkconfig_inference_threads = threads;
+      SampleCoalescer.debug.setLevel(Level.FINE);
+      SampleCoalescer.debug.setUseParentHandlers(false);
+      SampleCoalescer.debug.addHandler(handler);
+      return Common.inferInvariants(dtrace);
+    } finally {
+      SampleCoalescer.dkconfig_window = saved_window;
+      Daikon.dkconfig_inference_threads = saved_threads;
+      SampleCoalescer.debug.setLevel(saved_level);
+      SampleCoalescer.debug.setUseParentHandlers(saved_use_parent);
+      SampleCoalescer.debug.removeHandler(handler);
+    }
+  }
+
+  @Test
+  public void testSameInvariants() {
+    List<Integer> runs = Collections.synchronizedList(new ArrayList<>());
+    String expected = infer(1, 1, runs);
+    assertTrue("unexpected result: " + expected, expected.contains("a <= b"));
+    assertEquals("samples coalesced with a window of 1", 0, runs.size());
+
+    assertEquals(expected, infer(SampleCoalescer.dkconfig_window, 1, runs));
+    assertTrue("no samples were coalesced", runs.size() > 0);
+    assertTrue(runs.toString(), Collections.max(runs) > 3);
+
+    // Runs longer than the window are supplied in several parts.
+    runs.clear();
+    assertEquals(expected, infer(3, 1, runs));
+    assertTrue("no samples were coalesced", runs.size() > 0);
+    assertTrue(runs.toString(), Collections.max(runs) <= 3);
+
+    runs.clear();
+    assertEquals(expected, infer(SampleCoalescer.dkconfig_window, 4, runs));
+    assertTrue("no samples were coalesced", runs.size() > 0);
+  }
+}
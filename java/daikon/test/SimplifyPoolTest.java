@@ -0,0 +1,181 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import daikon.*;
+import daikon.inv.Invariant;
+import daikon.simplify.LemmaCache;
+import daikon.simplify.LemmaStackPool;
+import daikon.simplify.SessionManager;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that finding redundant invariants with several Simplify sessions (see {@link
+ * LemmaStackPool#dkconfig_sessions}) gives the same result as with one, and that a saved {@link
+ * LemmaCache} lets a later run skip the prover, but only if one is configured. Uses {@link
+ * SimplifyStandIn} in place of Simplify.
+ */
+public class SimplifyPoolTest {
+
+  /** A temporary directory for the trace, logs, and caches. */
+  static File tmpdir;
+
+  /** The synthetic trace of {@link ParallelInferenceTest}. */
+  static File dtrace;
+
+  /** The log of the stand-in prover. */
+  static File log;
+
+  /** The value of the simplify.path property before the tests. */
+  static @Nullable String saved_simplify_path;
+
+  @BeforeClass
+  public static void setUpClass() throws IOException {
+    tmpdir = Files.createTempDirectory("SimplifyPoolTest").toFile();
+    dtrace = new File(tmpdir, "nis.dtrace");
+    try (PrintWriter pw =
+        new PrintWriter(Files.newBufferedWriter(dtrace.toPath(), StandardCharsets.UTF_8))) {
+      ParallelInferenceTest.write_trace(pw, 0, ParallelInferenceTest.NUM_CALLS);
+    }
+    log = new File(tmpdir, "prover.log");
+    String java =
+        System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    saved_simplify_path = System.getProperty("simplify.path");
+    System.setProperty(
+        "simplify.path",
+        java
+            + " -cp "
+            + System.getProperty("java.class.path")
+            + " daikon.test.SimplifyStandIn "
+            + log.getPath());
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    if (saved_simplify_path == null) {
+      System.clearProperty("simplify.path");
+    } else {
+      System.setProperty("simplify.path", saved_simplify_path);
+    }
+    File[] files = tmpdir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    tmpdir.delete();
+  }
+
+  /**
+   * Runs Daikon on the trace, finding redundant invariants with the given number of Simplify
+   * sessions.
+   *
+   * @param sessions the number of sessions
+   * @param cache_file the file in which to keep the prover's answers; a file that does not exist
+   *     yet starts an empty cache, and null means not to cache them
+   * @return a description of the redundant invariants at every program point
+   */
+  static String suppress(int sessions, @Nullable File cache_file) throws IOException {
+    int saved_sessions = LemmaStackPool.dkconfig_sessions;
+    @Nullable String saved_cache_file = LemmaCache.dkconfig_file;
+    try {
+      LemmaStackPool.dkconfig_sessions = sessions;
+      LemmaCache.dkconfig_file = (cache_file == null) ? null : cache_file.getPath();
+      Files.deleteIfExists(log.toPath());
+      // Each run may start as many provers as a new process could.
+      SessionManager.prover_instantiate_count = 0;
+      return Common.inferInvariants(
+          SimplifyPoolTest::describe_redundant, "--suppress_redundant", dtrace.getPath());
+    } finally {
+      LemmaStackPool.dkconfig_sessions = saved_sessions;
+      LemmaCache.dkconfig_file = saved_cache_file;
+    }
+  }
+
+  /**
+   * Returns the redundant invariants at every program point of a map, formatted and in a
+   * deterministic order.
+   *
+   * @param all_ppts the program points
+   * @return a description of the redundant invariants
+   */
+  static String describe_redundant(PptMap all_ppts) {
+    StringBuilder sb = new StringBuilder();
+    for (PptTopLevel ppt : Common.sortedPpts(all_ppts)) {
+      sb.append(ppt.name() + "\n");
+      List<String> invs = new ArrayList<>();
+      for (Invariant inv : ppt.redundant_invs) {
+        invs.add("  " + inv.format() + "\n");
+      }
+      for (VarInfo leader : ppt.redundant_invs_equality) {
+        invs.add("  equality of " + leader.name() + "\n");
+      }
+      invs.sort(null);
+      for (String inv : invs) {
+        sb.append(inv);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the lines of the stand-in prover's log that start with the given word.
+   *
+   * @param word "start" or "check"
+   * @return the number of such lines
+   */
+  static long count_log(String word) throws IOException {
+    if (!log.exists()) {
+      return 0;
+    }
+    return Files.readAllLines(log.toPath(), StandardCharsets.UTF_8).stream()
+        .filter(line -> line.startsWith(word))
+        .count();
+  }
+
+  @Test
+  public void testSessionsAgree() throws IOException {
+    String serial = suppress(1, new File(tmpdir, "serial.cache"));
+    assertTrue(serial, serial.contains("  "));
+    assertEquals(1, count_log("start"));
+    String pooled = suppress(3, new File(tmpdir, "pooled.cache"));
+    assertEquals(serial, pooled);
+    assertEquals(3, count_log("start"));
+  }
+
+  @Test
+  public void testSavedAnswers() throws IOException {
+    File first = new File(tmpdir, "first.cache");
+    String result = suppress(2, first);
+    assertTrue(first.exists());
+    assertTrue(count_log("check") > 0);
+
+    // A new cache, read from a copy of the file, as in a later run.
+    File second = new File(tmpdir, "second.cache");
+    Files.copy(first.toPath(), second.toPath());
+    assertEquals(result, suppress(2, second));
+    assertEquals(0, count_log("start"));
+    assertFalse(log.exists());
+  }
+
+  @Test
+  public void testNoCacheByDefault() throws IOException {
+    String result = suppress(2, null);
+    assertTrue(count_log("check") > 0);
+    assertEquals(result, suppress(2, null));
+    assertTrue(count_log("check") > 0);
+    assertEquals(2, count_log("start"));
+  }
+}
@@ -0,0 +1,116 @@
+package daikon.test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A stand-in for the Simplify theorem prover, for tests that run without it. It speaks enough of
+ * Simplify's protocol for {@link daikon.simplify.Session}: it keeps a stack of assumptions, and
+ * answers each query. A query is valid if it is one of the assumptions, or {@code (AND)}; {@code
+ * (OR)} is never valid; otherwise the answer is an arbitrary, but deterministic, function of the
+ * query and the set of assumptions. It appends a line for each start and each query to a log
+ * file, so that tests can tell how often it was used.
+ *
+ * <p>Usage: {@code java daikon.test.SimplifyStandIn LOGFILE [-nosc]}
+ */
+public class SimplifyStandIn {
+
+  /** Do not instantiate. */
+  private SimplifyStandIn() {
+    throw new Error("do not instantiate");
+  }
+
+  public static void main(String[] args) throws IOException {
+    try (PrintStream log = new PrintStream(new FileOutputStream(args[0], true), true, "UTF-8")) {
+      log.println("start");
+      PrintStream out = new PrintStream(System.out, false, "UTF-8");
+      out.print(">\t");
+      out.flush();
+
+      Reader in = new InputStreamReader(System.in, UTF_8);
+      List<String> assumptions = new ArrayList<>();
+      int num_queries = 0;
+      String expr;
+      while ((expr = read_expression(in)) != null) {
+        if (expr.equals("(PROMPT_OFF)") || expr.startsWith("(DEFPRED")) {
+          continue;
+        }
+        if (expr.startsWith("(BG_PUSH")) {
+          assumptions.add(expr.substring("(BG_PUSH".length(), expr.length() - 1).trim());
+          continue;
+        }
+        if (expr.equals("(BG_POP)")) {
+          assumptions.remove(assumptions.size() - 1);
+          continue;
+        }
+        log.println("check " + expr);
+        num_queries++;
+        out.print(num_queries + ": " + (is_valid(assumptions, expr) ? "Valid." : "Invalid."));
+        out.print("\n\n");
+        out.flush();
+      }
+    }
+  }
+
+  /**
+   * Returns the stand-in's answer to a query.
+   *
+   * @param assumptions the formulas assumed
+   * @param query the formula to check
+   * @return true if the query is deemed valid
+   */
+  static boolean is_valid(List<String> assumptions, String query) {
+    if (query.equals("(AND)") || assumptions.contains(query)) {
+      return true;
+    }
+    if (query.equals("(OR)")) {
+      return false;
+    }
+    int hash = query.hashCode();
+    for (String assumption : new HashSet<String>(assumptions)) {
+      hash += assumption.hashCode();
+    }
+    return Math.floorMod(hash, 5) == 0;
+  }
+
+  /**
+   * Reads a parenthesized expression, skipping anything before it.
+   *
+   * @param in the input
+   * @return the expression, or null at the end of the input
+   */
+  static @Nullable String read_expression(Reader in) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    int depth = 0;
+    boolean in_symbol = false;
+    int c;
+    while ((c = in.read()) != -1) {
+      if (depth == 0 && c != '(') {
+        continue;
+      }
+      sb.append((char) c);
+      if (c == '|') {
+        in_symbol = !in_symbol;
+      } else if (in_symbol) {
+        continue;
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+        if (depth == 0) {
+          return sb.toString();
+        }
+      }
+    }
+    return null;
+  }
+}
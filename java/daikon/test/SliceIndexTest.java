@@ -0,0 +1,176 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import daikon.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the index of a program point's slices, through {@link PptTopLevel#findSlice(VarInfo[])},
+ * {@link PptTopLevel#get_or_instantiate_slice(VarInfo[])}, {@link PptTopLevel#removeSlice}, and
+ * {@link PptTopLevel#views_iterator}. Random additions and removals are checked against a {@link
+ * LinkedHashMap} keyed by lists of variable indices, which is how the slices used to be stored.
+ */
+public class SliceIndexTest {
+
+  /** The number of variables of the program point. */
+  static final int NUM_VARS = 40;
+
+  private Random r = new Random(20261018L);
+
+  @BeforeClass
+  public static void setUpClass() {
+    daikon.LogHelper.setupLogs(LogHelper.INFO);
+    FileIO.new_decl_format = true;
+  }
+
+  /**
+   * Returns a program point over NUM_VARS int variables.
+   *
+   * @return a program point with no slices
+   */
+  static PptTopLevel makePpt() {
+    VarInfo[] vars = new VarInfo[NUM_VARS];
+    for (int i = 0; i < NUM_VARS; i++) {
+      vars[i] = Common.newIntVarInfo("x" + i);
+    }
+    return Common.makePptTopLevel("SliceIndexTest.m():::ENTER", vars);
+  }
+
+  /**
+   * Returns one to three variables of a program point, in order of varinfo_index.
+   *
+   * @param ppt the program point
+   * @return some of the variables of ppt
+   */
+  VarInfo[] randomVars(PptTopLevel ppt) {
+    int[] indices = new int[1 + r.nextInt(3)];
+    for (int i = 0; i < indices.length; i++) {
+      indices[i] = r.nextInt(NUM_VARS);
+    }
+    Arrays.sort(indices);
+    VarInfo[] result = new VarInfo[indices.length];
+    for (int i = 0; i < indices.length; i++) {
+      result[i] = ppt.var_infos[indices[i]];
+    }
+    return result;
+  }
+
+  /**
+   * Returns the key of a slice in the model.
+   *
+   * @param vis the variables of the slice
+   * @return their indices
+   */
+  static List<Integer> key(VarInfo[] vis) {
+    List<Integer> result = new ArrayList<>();
+    for (VarInfo vi : vis) {
+      result.add(vi.varinfo_index);
+    }
+    return result;
+  }
+
+  /**
+   * Checks that a program point has exactly the slices of the model, in the same order.
+   *
+   * @param model the expected slices
+   * @param ppt the program point
+   */
+  static void checkSame(Map<List<Integer>, PptSlice> model, PptTopLevel ppt) {
+    assertEquals(model.size(), ppt.numViews());
+    Iterator<PptSlice> expected = model.values().iterator();
+    for (Iterator<PptSlice> i = ppt.views_iterator(); i.hasNext(); ) {
+      PptSlice slice = i.next();
+      assertSame(expected.next(), slice);
+      assertSame(slice, ppt.findSlice(slice.var_infos));
+    }
+  }
+
+  @Test
+  public void testAgreesWithMap() {
+    PptTopLevel ppt = makePpt();
+    Map<List<Integer>, PptSlice> model = new LinkedHashMap<>();
+    for (int op = 0; op < 20000; op++) {
+      VarInfo[] vis = randomVars(ppt);
+      List<Integer> key = key(vis);
+      PptSlice slice = model.get(key);
+      assertSame(slice, ppt.findSlice(vis));
+      if (slice == null) {
+        slice = ppt.get_or_instantiate_slice(vis);
+        assertEquals(key, key(slice.var_infos));
+        model.put(key, slice);
+      } else if (r.nextBoolean()) {
+        ppt.removeSlice(slice);
+        model.remove(key);
+        assertNull(ppt.findSlice(vis));
+      } else {
+        assertSame(slice, ppt.get_or_instantiate_slice(vis));
+      }
+
+      if (op % 1000 == 999) {
+        // Remove some slices during iteration, as add_bottom_up does.
+        Iterator<PptSlice> expected = model.values().iterator();
+        for (Iterator<PptSlice> i = ppt.views_iterator(); i.hasNext(); ) {
+          PptSlice s = i.next();
+          assertSame(expected.next(), s);
+          if (r.nextInt(4) == 0) {
+            i.remove();
+            expected.remove();
+          }
+        }
+        checkSame(model, ppt);
+      }
+    }
+    checkSame(model, ppt);
+  }
+
+  @Test
+  public void testSerialization() throws IOException, ClassNotFoundException {
+    PptTopLevel ppt = makePpt();
+    for (int op = 0; op < 1000; op++) {
+      VarInfo[] vis = randomVars(ppt);
+      PptSlice slice = ppt.findSlice(vis);
+      if (slice == null) {
+        ppt.get_or_instantiate_slice(vis);
+      } else if (r.nextInt(3) == 0) {
+        ppt.removeSlice(slice);
+      }
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(ppt);
+    }
+    PptTopLevel copy;
+    try (ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      copy = (PptTopLevel) in.readObject();
+    }
+    copy.repCheck();
+
+    assertEquals(ppt.numViews(), copy.numViews());
+    Iterator<PptSlice> expected = ppt.views_iterator();
+    for (PptSlice slice : copy.views_iterable()) {
+      assertEquals(key(expected.next().var_infos), key(slice.var_infos));
+      VarInfo[] vis = slice.var_infos;
+      assertNotNull(copy.findSlice_unordered(vis));
+      assertSame(slice, copy.findSlice(vis));
+    }
+  }
+}
@@ -0,0 +1,205 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import daikon.*;
+import daikon.suppress.NIS.SuppressionProcessor;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that a run that spills program points to disk (see {@link SpillingProcessor}) finds
+ * exactly the invariants that a run without spilling finds. The heap budget is tiny and the
+ * program points are spilled every few samples, so that most samples go to a program point that
+ * has just been read back from its spill file.
+ */
+public class SpillingProcessorTest {
+
+  /** The trace of {@link ParallelInferenceTest}, whose program points are all leaves. */
+  static File flat;
+
+  /** The trace of {@link ParallelMergeTest}, whose program points have OBJECT parents. */
+  static File hierarchy;
+
+  /** A temporary directory for the traces. */
+  static File tmpdir;
+
+  @BeforeClass
+  public static void setUpClass() throws IOException {
+    tmpdir = Files.createTempDirectory("SpillingProcessorTest").toFile();
+    flat = new File(tmpdir, "flat.dtrace");
+    try (PrintWriter pw =
+        new PrintWriter(Files.newBufferedWriter(flat.toPath(), StandardCharsets.UTF_8))) {
+      ParallelInferenceTest.write_trace(pw, 0, ParallelInferenceTest.NUM_CALLS);
+    }
+    hierarchy = new File(tmpdir, "hierarchy.dtrace");
+    try (PrintWriter pw =
+        new PrintWriter(Files.newBufferedWriter(hierarchy.toPath(), StandardCharsets.UTF_8))) {
+      ParallelMergeTest.write_trace(pw);
+    }
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    flat.delete();
+    hierarchy.delete();
+    tmpdir.delete();
+  }
+
+  /**
+   * Runs Daikon on a trace, spilling program points as often as possible, and returns every
+   * invariant it found.
+   *
+   * @param dtrace the trace file
+   * @param messages where to put the messages logged by the processor
+   * @return a description of the invariants at every program point
+   */
+  static String infer_spilling(File dtrace, List<String> messages) {
+    return infer_spilling(dtrace, messages::add);
+  }
+
+  /**
+   * Runs Daikon on a trace, spilling program points as often as possible, and returns every
+   * invariant it found.
+   *
+   * @param dtrace the trace file
+   * @param listener receives each message logged by the processor, as it is logged
+   * @return a description of the invariants at every program point
+   */
+  static String infer_spilling(File dtrace, Consumer<String> listener) {
+    long saved_budget = SpillingProcessor.dkconfig_heap_budget;
+    int saved_interval = SpillingProcessor.dkconfig_check_interval;
+    int saved_idle = SpillingProcessor.dkconfig_idle_samples;
+    int saved_stable = SpillingProcessor.dkconfig_stable_samples;
+    Level saved_level = SpillingProcessor.debug.getLevel();
+    boolean saved_use_parent = SpillingProcessor.debug.getUseParentHandlers();
+    Handler handler =
+        new Handler() {
+          @Override
+          public void publish(LogRecord record) {
+            listener.accept(record.getMessage());
+          }
+
+          @Override
+          public void flush() {}
+
+          @Override
+          public void close() {}
+        };
+    try {
+      SpillingProcessor.dkconfig_heap_budget = 1;
+      SpillingProcessor.dkconfig_check_interval = 7;
+      SpillingProcessor.dkconfig_idle_samples = 20;
+      SpillingProcessor.dkconfig_stable_samples = 3;
+      SpillingProcessor.debug.setLevel(Level.FINE);
+      SpillingProcessor.debug.setUseParentHandlers(false);
+      SpillingProcessor.debug.addHandler(handler);
+      // The budget is judged on the heap in use after a collection; make sure there has been one.
+      System.gc();
+      return ParallelInferenceTest.infer(dtrace, 1, SuppressionProcessor.HYBRID);
+    } finally {
+      SpillingProcessor.dkconfig_heap_budget = saved_budget;
+      SpillingProcessor.dkconfig_check_interval = saved_interval;
+      SpillingProcessor.dkconfig_idle_samples = saved_idle;
+      SpillingProcessor.dkconfig_stable_samples = saved_stable;
+      SpillingProcessor.debug.setLevel(saved_level);
+      SpillingProcessor.debug.setUseParentHandlers(saved_use_parent);
+      SpillingProcessor.debug.removeHandler(handler);
+    }
+  }
+
+  /**
+   * Checks that spilling does not change the invariants found for a trace.
+   *
+   * @param dtrace the trace file
+   */
+  static void check_spilling(File dtrace) {
+    String expected = ParallelInferenceTest.infer(dtrace, 1, SuppressionProcessor.HYBRID);
+    List<String> messages = new ArrayList<>();
+    assertEquals(expected, infer_spilling(dtrace, messages));
+    String summary = messages.get(messages.size() - 1);
+    assertTrue(summary, !summary.contains(" 0 spills"));
+  }
+
+  @Test
+  public void testSpilling() {
+    check_spilling(flat);
+  }
+
+  @Test
+  public void testSpillingWithHierarchy() {
+    check_spilling(hierarchy);
+  }
+
+  /**
+   * Checks that a spill file that cannot be read back is reported with the spill file, the program
+   * point, and the position in the trace.
+   */
+  @Test
+  public void testCorruptSpillFile() throws IOException {
+    String saved_directory = SpillingProcessor.dkconfig_spill_directory;
+    File spill_root = Files.createTempDirectory(tmpdir.toPath(), "spill").toFile();
+    try {
+      SpillingProcessor.dkconfig_spill_directory = spill_root.getPath();
+      // Truncate every spill file as soon as it has been written.
+      Consumer<String> corrupt =
+          message -> {
+            if (message.startsWith("After ")) {
+              for (File dir : list(spill_root)) {
+                for (File f : list(dir)) {
+                  try {
+                    Files.write(f.toPath(), new byte[] {1, 2, 3});
+                  } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                  }
+                }
+              }
+            }
+          };
+      try {
+        infer_spilling(flat, corrupt);
+        fail("corrupt spill file was not detected");
+      } catch (Daikon.UserError e) {
+        String msg = e.getMessage();
+        assertTrue(msg, msg.contains("Cannot read spill file " + spill_root.getPath()));
+        assertTrue(msg, msg.contains(" for program point "));
+        assertTrue(msg, msg.contains(" in file " + flat.getPath()));
+      }
+    } finally {
+      SpillingProcessor.dkconfig_spill_directory = saved_directory;
+      for (File dir : list(spill_root)) {
+        for (File f : list(dir)) {
+          f.delete();
+        }
+        dir.delete();
+      }
+      spill_root.delete();
+    }
+  }
+
+  /**
+   * Returns the files in a directory.
+   *
+   * @param dir a directory
+   * @return the files in dir, or none if it cannot be read
+   */
+  static File[] list(File dir) {
+    File[] files = dir.listFiles();
+    return (files == null) ? new File[0] : files;
+  }
+}
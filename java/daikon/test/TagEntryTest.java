@@ -0,0 +1,229 @@
+package daikon.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import daikon.DynComp;
+import daikon.dcomp.TagEntry;
+import daikon.dcomp.WeakIdentityIds;
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Tests {@link TagEntry}, DynComp's union-find structure: it puts objects in the same sets as
+ * {@link LegacyTagEntry}, union by rank keeps its trees shallow, the tracers record which objects
+ * interacted, and the elements of collected objects are reclaimed.
+ *
+ * <p>TagEntry is static, so these tests share it with each other; each uses its own objects.
+ */
+@SuppressWarnings("interning")
+public class TagEntryTest {
+
+  @Test
+  public void testSameSetsAsLegacy() {
+    Object[] objs = new Object[2000];
+    for (int i = 0; i < objs.length; i++) {
+      objs[i] = new Object();
+    }
+    Random random = new Random(20261018L);
+    for (int i = 0; i < 1500; i++) {
+      Object obj1 = objs[random.nextInt(objs.length)];
+      Object obj2 = objs[random.nextInt(objs.length)];
+      TagEntry.union(obj1, obj2);
+      LegacyTagEntry.union(obj1, obj2);
+    }
+    assertSameSets(objs);
+
+    // An object in no set is its own representative.
+    Object loner = new Object();
+    assertSame(loner, TagEntry.find(loner));
+  }
+
+  @Test
+  public void testUnionByRank() {
+    // Without union by rank, merging each new object with the set makes the set a chain.
+    Object first = new Object();
+    List<Object> set = new ArrayList<>();
+    set.add(first);
+    for (int i = 0; i < 1000; i++) {
+      Object obj = new Object();
+      TagEntry.union(obj, first);
+      set.add(obj);
+    }
+    Object rep = TagEntry.find(first);
+    for (Object obj : set) {
+      assertTrue(TagEntry.depth(obj) <= 1);
+      assertSame(rep, TagEntry.find(obj));
+    }
+
+    // Merging sets pairwise gives trees of height at most log2 of their size.
+    Object[] objs = new Object[1024];
+    for (int i = 0; i < objs.length; i++) {
+      objs[i] = new Object();
+    }
+    for (int width = 1; width < objs.length; width *= 2) {
+      for (int i = 0; i < objs.length; i += 2 * width) {
+        TagEntry.union(objs[i + width], objs[i]);
+      }
+    }
+    for (Object obj : objs) {
+      assertTrue(TagEntry.depth(obj) <= 10);
+      assertSame(TagEntry.find(objs[0]), TagEntry.find(obj));
+    }
+    // find compresses the paths.
+    for (Object obj : objs) {
+      assertTrue(TagEntry.depth(obj) <= 1);
+    }
+  }
+
+  @Test
+  public void testTracers() {
+    File old_trace_file = DynComp.trace_file;
+    DynComp.trace_file = new File("TagEntryTest.trace");
+    try {
+      Object a = new Object();
+      Object b = new Object();
+      Object c = new Object();
+      TagEntry.union(a, b);
+      assertSame(a, TagEntry.tracer_find(b));
+      assertNull(TagEntry.tracer_find(a));
+      assertSame(a, TagEntry.troot_find(b));
+      assertTrue(TagEntry.get_line_trace(b), TagEntry.get_line_trace(b).contains("testTracers"));
+      assertEquals("", TagEntry.get_line_trace(a));
+
+      // The tracer path from b is reversed so that b can point to c.
+      TagEntry.union(c, b);
+      assertSame(b, TagEntry.tracer_find(a));
+      assertSame(c, TagEntry.tracer_find(b));
+      assertSame(c, TagEntry.troot_find(a));
+      assertNull(TagEntry.tracer_find(c));
+
+      // Objects that are already in one set do not change the tracers.
+      TagEntry.union(a, c);
+      assertSame(c, TagEntry.troot_find(a));
+
+      // An element that is some element's tracer outlives its object.
+      WeakReference<Object> c_ref = new WeakReference<>(c);
+      c = null;
+      collect(Collections.singletonList(c_ref));
+      Object stand_in = TagEntry.troot_find(a);
+      assertNotNull(stand_in);
+      assertTrue(stand_in != a && stand_in != b);
+      assertSame(stand_in, TagEntry.tracer_find(b));
+      assertSame(stand_in, TagEntry.troot_find(b));
+      assertSame(TagEntry.find(a), TagEntry.find(b));
+    } finally {
+      DynComp.trace_file = old_trace_file;
+    }
+  }
+
+  @Test
+  public void testReclaim() {
+    // The survivors stay in the sets they were in.
+    Object[] objs = new Object[3000];
+    for (int i = 0; i < objs.length; i++) {
+      objs[i] = new Object();
+    }
+    for (int i = 100; i < objs.length; i++) {
+      TagEntry.union(objs[i], objs[i % 100]);
+      LegacyTagEntry.union(objs[i], objs[i % 100]);
+    }
+    List<WeakReference<Object>> dropped = new ArrayList<>();
+    for (int i = 0; i < objs.length; i += 2) {
+      dropped.add(new WeakReference<>(objs[i]));
+      objs[i] = null;
+    }
+    collect(dropped);
+    Object[] survivors = new Object[objs.length / 2];
+    for (int i = 1; i < objs.length; i += 2) {
+      survivors[i / 2] = objs[i];
+    }
+    assertSameSets(survivors);
+    for (int i = 1; i < objs.length; i += 2) {
+      assertSame(TagEntry.find(objs[i % 100]), TagEntry.find(objs[i]));
+    }
+
+    // The elements of sets that are gone entirely are freed, rather than accumulating.
+    int before = TagEntry.num_elements();
+    for (int round = 0; round < 5; round++) {
+      WeakReference<Object> last = null;
+      Object prev = new Object();
+      for (int i = 0; i < 10000; i++) {
+        Object obj = new Object();
+        TagEntry.union(prev, obj);
+        prev = obj;
+        last = new WeakReference<>(obj);
+      }
+      prev = null;
+      collect(Collections.singletonList(last));
+    }
+    int after = TagEntry.num_elements();
+    int bound = before + 10000 + 2 * WeakIdentityIds.EXPUNGE_INTERVAL;
+    assertTrue(before + " elements grew to " + after, after < bound);
+  }
+
+  /**
+   * Checks that {@link TagEntry} and {@link LegacyTagEntry} put the given objects in the same
+   * sets.
+   *
+   * @param objs objects that are in both structures
+   */
+  static void assertSameSets(Object[] objs) {
+    IdentityHashMap<Object, Object> legacy_rep = new IdentityHashMap<>();
+    IdentityHashMap<Object, Object> rep = new IdentityHashMap<>();
+    for (Object obj : objs) {
+      Object new_rep = TagEntry.find(obj);
+      Object old_rep = LegacyTagEntry.find(obj);
+      Object seen_old = legacy_rep.put(new_rep, old_rep);
+      Object seen_new = rep.put(old_rep, new_rep);
+      assertTrue(seen_old == null || seen_old == old_rep);
+      assertTrue(seen_new == null || seen_new == new_rep);
+    }
+  }
+
+  /**
+   * Waits until the referents of the given references have been garbage collected, and then
+   * creates enough elements that {@link TagEntry} notices.
+   *
+   * @param refs references to objects that are no longer strongly reachable
+   */
+  static void collect(List<WeakReference<Object>> refs) {
+    await_collection(refs);
+    for (int i = 0; i < WeakIdentityIds.EXPUNGE_INTERVAL; i++) {
+      TagEntry.union(new Object(), new Object());
+    }
+  }
+
+  /**
+   * Waits until the referents of the given references have been garbage collected, and a little
+   * longer so that the weak references to them have been enqueued.
+   *
+   * @param refs references to objects that are no longer strongly reachable
+   */
+  static void await_collection(List<WeakReference<Object>> refs) {
+    try {
+      for (WeakReference<Object> ref : refs) {
+        for (int i = 0; ref.get() != null; i++) {
+          if (i == 100) {
+            fail("object was not garbage collected");
+          }
+          System.gc();
+          Thread.sleep(10);
+        }
+      }
+      Thread.sleep(100);
+    } catch (InterruptedException e) {
+      throw new Error(e);
+    }
+  }
+}
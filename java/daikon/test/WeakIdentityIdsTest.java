@@ -0,0 +1,133 @@
+package daikon.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import daikon.dcomp.WeakIdentityIds;
+import daikon.dcomp.WeakIdentityTagMap;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * Tests {@link WeakIdentityIds} and {@link WeakIdentityTagMap}: ids survive the growth of the
+ * table, removing collected objects leaves every other object findable, and ids and map entries
+ * are reclaimed.
+ */
+@SuppressWarnings("interning")
+public class WeakIdentityIdsTest {
+
+  /** The ids reported to the collector of {@link #ids}. */
+  List<Integer> collected = new ArrayList<>();
+
+  /** The table under test. */
+  WeakIdentityIds ids = new WeakIdentityIds(collected::add);
+
+  @Test
+  public void testGrowth() {
+    Object[] objs = new Object[10000];
+    for (int i = 0; i < objs.length; i++) {
+      objs[i] = new Object();
+      assertEquals(i, ids.add(objs[i]));
+    }
+    assertEquals(objs.length, ids.size());
+    assertEquals(objs.length, ids.id_limit());
+    for (int i = 0; i < objs.length; i++) {
+      assertEquals(i, ids.get(objs[i]));
+      assertSame(objs[i], ids.object(i));
+    }
+    assertEquals(-1, ids.get(new Object()));
+    assertEquals(-1, ids.get(null));
+  }
+
+  @Test
+  public void testRemoval() {
+    // The table is at most half full, so many objects are not in their home slots, and removing
+    // an object must move later objects of its probe sequence back.
+    Object[] objs = new Object[20000];
+    for (int i = 0; i < objs.length; i++) {
+      objs[i] = new Object();
+      ids.add(objs[i]);
+    }
+    List<WeakReference<Object>> dropped = new ArrayList<>();
+    Set<Integer> dropped_ids = new HashSet<>();
+    for (int i = 0; i < objs.length; i += 2) {
+      dropped.add(new WeakReference<>(objs[i]));
+      dropped_ids.add(i);
+      objs[i] = null;
+    }
+    TagEntryTest.await_collection(dropped);
+    ids.expunge();
+
+    assertEquals(dropped_ids, new HashSet<>(collected));
+    assertEquals(dropped_ids.size(), collected.size());
+    assertEquals(dropped_ids.size(), ids.num_collected());
+    assertEquals(objs.length / 2, ids.size());
+    for (int i = 1; i < objs.length; i += 2) {
+      assertEquals(i, ids.get(objs[i]));
+    }
+    for (int id : dropped_ids) {
+      assertNull(ids.object(id));
+    }
+
+    // Freed ids are handed out again, and the table still finds every object.
+    for (int id : collected) {
+      ids.free(id);
+    }
+    Set<Integer> reused = new HashSet<>();
+    for (int i = 0; i < objs.length; i += 2) {
+      objs[i] = new Object();
+      int id = ids.add(objs[i]);
+      assertTrue(dropped_ids.contains(id));
+      assertTrue(reused.add(id));
+    }
+    assertEquals(objs.length, ids.id_limit());
+    for (Object obj : objs) {
+      assertSame(obj, ids.object(ids.get(obj)));
+    }
+  }
+
+  @Test
+  public void testTagMap() {
+    WeakIdentityTagMap map = new WeakIdentityTagMap();
+    Object[] keys = new Object[1000];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = new Object();
+      map.put(keys[i], new Object[] {i});
+    }
+    Object[] replacement = new Object[] {"replacement"};
+    map.put(keys[7], replacement);
+    assertEquals(keys.length, map.size());
+    assertSame(replacement, map.get(keys[7]));
+    for (int i = 0; i < keys.length; i++) {
+      if (i != 7) {
+        assertArrayEquals(new Object[] {i}, map.get(keys[i]));
+      }
+    }
+    assertNull(map.get(new Object()));
+    assertNull(map.get(null));
+
+    // The entries of collected keys are removed once enough keys have been added.
+    List<WeakReference<Object>> dropped = new ArrayList<>();
+    for (int i = 0; i < keys.length; i++) {
+      dropped.add(new WeakReference<>(keys[i]));
+      keys[i] = null;
+    }
+    TagEntryTest.await_collection(dropped);
+    Object[] new_keys = new Object[WeakIdentityIds.EXPUNGE_INTERVAL];
+    for (int i = 0; i < new_keys.length; i++) {
+      new_keys[i] = new Object();
+      map.put(new_keys[i], new Object[] {i});
+    }
+    assertEquals(new_keys.length, map.size());
+    for (int i = 0; i < new_keys.length; i++) {
+      assertArrayEquals(new Object[] {i}, map.get(new_keys[i]));
+    }
+  }
+}
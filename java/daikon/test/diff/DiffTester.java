@@ -532,6 +532,40 @@ public class DiffTester {
     assertEquals(printTree(ref), printTree(diff));
   }
 
+  @Test
+  public void testStreamSameAsTree() {
+    PptMap[][] pairs = {
+      {empty, ppts1}, {ppts1, empty}, {ppts1, ppts2}, {ppts1, ppts3}, {ppts1, ppts4},
+      {invs1, invs2}, {invs1, invs3}, {invs3, invs1}, {ppts1, pptsCond}
+    };
+    for (Diff diff : new Diff[] {diffSome, diffAll}) {
+      for (PptMap[] pair : pairs) {
+        String tree = printTree(diff.diffPptMap(pair[0], pair[1]));
+        assertEquals(tree, printStream(diff, pair[0], pair[1], 1));
+        assertEquals(tree, printStream(diff, pair[0], pair[1], 3));
+      }
+    }
+  }
+
+  /**
+   * Prints the diff of two PptMaps as {@link #printTree} does, but without building the tree.
+   *
+   * @param diff the Diff to use
+   * @param map1 the first set of invariants
+   * @param map2 the second set of invariants
+   * @param threads the number of threads on which to diff the program points
+   * @return the printed diff
+   */
+  private static String printStream(Diff diff, PptMap map1, PptMap map2, int threads) {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    PrintStream ps = new PrintStream(baos);
+    PrintAllVisitor v = new PrintAllVisitor(ps, false, true);
+    List<Visitor> visitors = new ArrayList<>();
+    visitors.add(v);
+    diff.streamPptMap(map1, map2, true, threads, visitors);
+    return baos.toString();
+  }
+
   private static String printTree(RootNode root) {
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
     PrintStream ps = new PrintStream(baos);
@@ -0,0 +1,500 @@
+// DtraceConvert.java
+
+package daikon.tools;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import daikon.BinaryDtrace;
+import daikon.Daikon;
+import daikon.FileIO;
+import daikon.PptMap;
+import daikon.PptTopLevel;
+import daikon.ValueTuple;
+import daikon.VarInfo;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.LineNumberReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.plumelib.util.UtilPlume;
+
+/**
+ * Converts a data trace file between Daikon's textual format and its binary format (see {@link
+ * BinaryDtrace}). A textual trace is converted to a binary one, and a binary trace to a textual
+ * one. A file whose name ends in ".gz" is compressed.
+ *
+ * <p>The declarations of a trace may be in separate {@code .decls} files, which are needed to
+ * convert a textual trace to a binary one; they are not copied to the output. Declarations and
+ * other text in the trace itself are copied verbatim. Samples are converted value by value: the
+ * values are those that Daikon reads from the input, so the output of a conversion gives Daikon the
+ * same samples as the input, though not necessarily the same text. For instance, a modified bit of
+ * 0 in a textual trace remains 0 only where Daikon would also treat the value as unmodified.
+ *
+ * <p>With the {@code --benchmark} option, DtraceConvert also reports how long Daikon takes to read
+ * each of the two files (without performing inference), to measure the speedup of the binary
+ * format.
+ */
+public class DtraceConvert {
+
+  private static String usage =
+      UtilPlume.joinLines(
+          "Usage: DtraceConvert [--benchmark] [DECLS]... INPUT OUTPUT",
+          "Converts data trace file INPUT from textual to binary format, or from binary",
+          "to textual format, and writes the result to OUTPUT.  Files whose names end",
+          "in \".gz\" are compressed.  If INPUT does not contain its declarations,",
+          "give the DECLS files that do.",
+          "  --benchmark",
+          "      Afterward, report how long Daikon takes to read INPUT and OUTPUT");
+
+  /** The number of times that each file is read by {@code --benchmark}. */
+  static final int BENCHMARK_RUNS = 5;
+
+  public static void main(String[] args) {
+    try {
+      mainHelper(args);
+    } catch (Daikon.DaikonTerminationException e) {
+      Daikon.handleDaikonTerminationException(e);
+    }
+  }
+
+  /**
+   * This does the work of {@link #main(String[])}, but it never calls System.exit, so it is
+   * appropriate to be called progrmmatically.
+   *
+   * @param args command-line arguments, like those of {@link #main}
+   */
+  public static void mainHelper(final String[] args) {
+    boolean benchmark = false;
+    List<String> files = new ArrayList<>();
+    for (String arg : args) {
+      if (arg.equals("--benchmark")) {
+        benchmark = true;
+      } else if (arg.equals("-h") || arg.equals("--help")) {
+        System.out.println(usage);
+        throw new Daikon.NormalTermination();
+      } else if (arg.startsWith("-")) {
+        throw new Daikon.UserError("Unknown option " + arg + Daikon.lineSep + usage);
+      } else {
+        files.add(arg);
+      }
+    }
+    if (files.size() < 2) {
+      throw new Daikon.UserError(usage);
+    }
+    List<File> decls = new ArrayList<>();
+    for (String file : files.subList(0, files.size() - 2)) {
+      decls.add(new File(file));
+    }
+    String input = files.get(files.size() - 2);
+    String output = files.get(files.size() - 1);
+
+    try {
+      boolean binary_input;
+      try (BufferedInputStream in = open_input(input)) {
+        binary_input = BinaryDtrace.is_binary(in);
+      }
+      if (binary_input) {
+        binary_to_text(input, output);
+      } else {
+        text_to_binary(decls, input, output);
+      }
+      if (benchmark) {
+        report(decls, input);
+        report(decls, output);
+      }
+    } catch (IOException e) {
+      throw new Daikon.UserError(e);
+    }
+  }
+
+  /**
+   * Converts a textual trace to a binary one.
+   *
+   * @param decls declaration files for the trace; may be empty
+   * @param input the name of the textual trace
+   * @param output the name of the binary trace to create
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  public static void text_to_binary(List<File> decls, String input, String output)
+      throws IOException {
+    FileIO.resetNewDeclFormat();
+    PptMap all_ppts = FileIO.read_declaration_files(decls);
+    FileIO.ParseState state = new FileIO.ParseState(input, false, true, all_ppts);
+    if (state.binary != null) {
+      throw new Daikon.UserError(input + " is already a binary trace");
+    }
+    // Capture the text of each record, so that records other than samples can be copied.
+    CapturingReader capture = new CapturingReader(state.reader);
+    state.reader = capture;
+
+    Map<PptTopLevel, Integer> ppt_ids = new HashMap<>();
+    try (BinaryDtrace.Writer out = new BinaryDtrace.Writer(open_output(output))) {
+      while (true) {
+        capture.clear();
+        FileIO.read_data_trace_record_setstate(state);
+        if (state.rtype == FileIO.RecordType.SAMPLE) {
+          assert state.ppt != null
+              : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
+          assert state.vt != null : "@AssumeAssertion(nullness): dependent: RecordType.SAMPLE";
+          PptTopLevel ppt = state.ppt;
+          VarInfo[] vars = trace_vars(ppt);
+          Integer id = ppt_ids.get(ppt);
+          if (id == null) {
+            String[] names = new String[vars.length];
+            byte[] types = new byte[vars.length];
+            for (int i = 0; i < vars.length; i++) {
+              names[i] = vars[i].str_name();
+              types[i] = binary_type(vars[i]);
+            }
+            id = out.declare_ppt(ppt.name(), names, types);
+            ppt_ids.put(ppt, id);
+          }
+          if (state.nonce == null) {
+            out.begin_sample(id);
+          } else {
+            out.begin_sample(id, state.nonce);
+          }
+          ValueTuple vt = state.vt;
+          for (VarInfo vi : vars) {
+            out.write_value(binary_type(vi), vt.mods[vi.value_index], vt.vals[vi.value_index]);
+          }
+          out.end_sample();
+        } else {
+          out.text().print(capture.text());
+          if (state.rtype == FileIO.RecordType.EOF) {
+            break;
+          }
+        }
+      }
+    } finally {
+      state.reader.close();
+    }
+  }
+
+  /**
+   * Returns the variables of a program point whose values appear in a trace, in order.
+   *
+   * @param ppt a program point
+   * @return the variables of ppt whose values appear in a trace
+   */
+  static VarInfo[] trace_vars(PptTopLevel ppt) {
+    VarInfo[] result = new VarInfo[ppt.num_tracevars];
+    for (VarInfo vi : ppt.var_infos) {
+      if (!vi.is_static_constant && vi.value_index < ppt.num_tracevars) {
+        result[vi.value_index] = vi;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the type of a variable in a binary trace.
+   *
+   * @param vi a variable
+   * @return the type of vi in a binary trace
+   */
+  static byte binary_type(VarInfo vi) {
+    byte type = BinaryDtrace.type_of_rep(vi.rep_type.format());
+    if (type == -1) {
+      throw new Daikon.UserError(
+          "Variable " + vi.name() + " of type " + vi.rep_type + " cannot be stored in binary");
+    }
+    return type;
+  }
+
+  /**
+   * Converts a binary trace to a textual one.
+   *
+   * @param input the name of the binary trace
+   * @param output the name of the textual trace to create
+   * @throws IOException if there is trouble reading or writing a file
+   */
+  public static void binary_to_text(String input, String output) throws IOException {
+    List<BinaryDtrace.@Nullable PptEntry> ppts = new ArrayList<>();
+    // Program point names are escaped only in the version 2 declaration format.
+    boolean new_decl_format = false;
+    try (BinaryDtrace.Reader in = new BinaryDtrace.Reader(open_input(input));
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(open_output(output), UTF_8))) {
+      for (int kind = in.next_record(); kind != -1; kind = in.next_record()) {
+        switch (kind) {
+          case BinaryDtrace.TEXT:
+            String text = in.read_text();
+            for (String line : text.split("\n", -1)) {
+              if (line.startsWith("decl-version")) {
+                new_decl_format = line.trim().endsWith("2.0");
+              }
+            }
+            out.print(text);
+            break;
+          case BinaryDtrace.PPT:
+            BinaryDtrace.PptEntry entry = in.read_ppt();
+            while (ppts.size() <= entry.id) {
+              ppts.add(null);
+            }
+            ppts.set(entry.id, entry);
+            break;
+          case BinaryDtrace.SAMPLE:
+            in.read_sample_header();
+            int id = in.sample_ppt();
+            BinaryDtrace.PptEntry ppt = (id >= 0 && id < ppts.size()) ? ppts.get(id) : null;
+            if (ppt == null) {
+              throw new Daikon.UserError(
+                  "Sample for undefined program point number "
+                      + id
+                      + " at record "
+                      + in.record_number()
+                      + " of "
+                      + input);
+            }
+            out.println(new_decl_format ? FileIO.escape_decl(ppt.name) : ppt.name);
+            Integer nonce = in.sample_nonce();
+            if (nonce != null) {
+              out.println("this_invocation_nonce");
+              out.println(nonce);
+            }
+            for (int i = 0; i < ppt.var_names.length; i++) {
+              out.println(FileIO.escape_decl(ppt.var_names[i]));
+              int mod = in.read_mod();
+              if (mod == ValueTuple.MISSING_NONSENSICAL) {
+                out.println("nonsensical");
+              } else {
+                out.println(format_value(in.read_value(ppt.var_types[i])));
+              }
+              out.println(mod);
+            }
+            out.println();
+            break;
+          default:
+            throw new Daikon.UserError(
+                "Unknown kind of record " + kind + " at record " + in.record_number());
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the text of a value in a textual trace.
+   *
+   * @param val a value read from a binary trace
+   * @return the text of val
+   */
+  static String format_value(Object val) {
+    if (val instanceof String) {
+      return quote((String) val);
+    } else if (val instanceof long[]) {
+      long[] a = (long[]) val;
+      StringBuilder sb = new StringBuilder("[");
+      for (int i = 0; i < a.length; i++) {
+        if (i > 0) {
+          sb.append(' ');
+        }
+        sb.append(a[i]);
+      }
+      return sb.append(']').toString();
+    } else if (val instanceof double[]) {
+      double[] a = (double[]) val;
+      StringBuilder sb = new StringBuilder("[");
+      for (int i = 0; i < a.length; i++) {
+        if (i > 0) {
+          sb.append(' ');
+        }
+        sb.append(a[i]);
+      }
+      return sb.append(']').toString();
+    } else if (val instanceof String[]) {
+      @Nullable String[] a = (String[]) val;
+      StringBuilder sb = new StringBuilder("[");
+      for (int i = 0; i < a.length; i++) {
+        if (i > 0) {
+          sb.append(' ');
+        }
+        sb.append(a[i] == null ? "null" : quote(a[i]));
+      }
+      return sb.append(']').toString();
+    } else {
+      // Long or Double
+      return val.toString();
+    }
+  }
+
+  /**
+   * Quotes a string for a textual trace. Only the escapes that Daikon understands both in strings
+   * and in arrays of strings are used.
+   *
+   * @param s a string
+   * @return s in quotes, with quotes, backslashes, and line terminators escaped
+   */
+  static String quote(String s) {
+    StringBuilder sb = new StringBuilder(s.length() + 2);
+    sb.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"':
+        case '\\':
+          sb.append('\\').append(c);
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        default:
+          sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+  /**
+   * Opens a file for reading, uncompressing it if its name ends in ".gz".
+   *
+   * @param filename the name of the file
+   * @return a stream that reads the file
+   * @throws IOException if the file cannot be opened
+   */
+  static BufferedInputStream open_input(String filename) throws IOException {
+    InputStream in = new FileInputStream(filename);
+    if (filename.endsWith(".gz")) {
+      in = new GZIPInputStream(in);
+    }
+    return new BufferedInputStream(in);
+  }
+
+  /**
+   * Opens a file for writing, compressing it if its name ends in ".gz".
+   *
+   * @param filename the name of the file
+   * @return a stream that writes the file
+   * @throws IOException if the file cannot be created
+   */
+  static OutputStream open_output(String filename) throws IOException {
+    OutputStream out = new FileOutputStream(filename);
+    if (filename.endsWith(".gz")) {
+      out = new GZIPOutputStream(out);
+    }
+    return new BufferedOutputStream(out);
+  }
+
+  /**
+   * Prints how long Daikon takes to read a trace.
+   *
+   * @param decls declaration files for the trace; may be empty
+   * @param filename the trace
+   * @throws IOException if there is trouble reading the trace
+   */
+  static void report(List<File> decls, String filename) throws IOException {
+    long[] times = new long[BENCHMARK_RUNS];
+    for (int i = 0; i < BENCHMARK_RUNS; i++) {
+      times[i] = time_reading(decls, filename);
+    }
+    Arrays.sort(times);
+    System.out.printf(
+        "%s: %d bytes, read in %.1f ms (median of %d runs, fastest %.1f ms)%n",
+        filename,
+        new File(filename).length(),
+        times[BENCHMARK_RUNS / 2] / 1e6,
+        BENCHMARK_RUNS,
+        times[0] / 1e6);
+  }
+
+  /**
+   * Returns how long Daikon takes to read a trace: to parse its declarations and samples, without
+   * processing the samples. The time to read separate declaration files is not counted.
+   *
+   * @param decls declaration files for the trace; may be empty
+   * @param filename the trace
+   * @return the time taken, in nanoseconds
+   * @throws IOException if there is trouble reading the trace
+   */
+  public static long time_reading(List<File> decls, String filename) throws IOException {
+    FileIO.resetNewDeclFormat();
+    PptMap all_ppts = FileIO.read_declaration_files(decls);
+    long start = System.nanoTime();
+    FileIO.read_data_trace_file(
+        filename,
+        all_ppts,
+        new FileIO.Processor() {
+          @Override
+          public void process_sample(
+              PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, @Nullable Integer nonce) {}
+        },
+        false,
+        true);
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * A reader that remembers the lines read since {@link #clear} was last called. Lines that are
+   * read and then un-read by {@link #reset} are forgotten.
+   */
+  static class CapturingReader extends LineNumberReader {
+
+    /** The lines read since {@link #clear} was last called, each followed by a newline. */
+    private final StringBuilder captured = new StringBuilder();
+
+    /** The length of {@link #captured} when {@link #mark} was last called. */
+    private int marked_length = 0;
+
+    /**
+     * Creates a CapturingReader.
+     *
+     * @param in the reader to read from
+     */
+    CapturingReader(Reader in) {
+      super(in);
+    }
+
+    /** Forgets the lines that have been read. */
+    void clear() {
+      captured.setLength(0);
+      marked_length = 0;
+    }
+
+    /**
+     * Returns the lines read since {@link #clear} was last called.
+     *
+     * @return the lines read since {@link #clear} was last called
+     */
+    String text() {
+      return captured.toString();
+    }
+
+    @Override
+    public @Nullable String readLine() throws IOException {
+      String line = super.readLine();
+      if (line != null) {
+        captured.append(line).append('\n');
+      }
+      return line;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+      super.mark(readAheadLimit);
+      marked_length = captured.length();
+    }
+
+    @Override
+    public void reset() throws IOException {
+      super.reset();
+      captured.setLength(marked_length);
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package daikon;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The samples of a trace, read and prepared (with their orig and derived variables) once, so that a
+ * benchmark can supply them to fresh program points again and again without measuring the cost of
+ * reading them.
+ *
+ * <p>A trace is named by a benchmark parameter: "synthetic" (or "synthetic-N", for N variables per
+ * program point) is a trace written by {@link SyntheticTrace}, and any other name is a trace in the
+ * directory given by the system property {@code daikon.jmh.traces} (by default {@code
+ * daikon/test/dtracediff}, relative to the {@code java} directory). For example, "Hanoi" is {@code
+ * daikon/test/dtracediff/Hanoi.dtrace.gz}.
+ */
+final class BenchmarkWorkload {
+
+  /** Whether Daikon's global state (prototype invariants and suppressions) has been set up. */
+  private static boolean initialized = false;
+
+  /** The trace file. */
+  final String filename;
+
+  /** The program point of each sample, as a name so that it can be found in a fresh map. */
+  final List<String> ppt_names = new ArrayList<>();
+
+  /** The samples, complete and interned, in trace order. */
+  final List<ValueTuple> samples = new ArrayList<>();
+
+  /**
+   * Reads a trace.
+   *
+   * @param trace the name of the trace; see the class comment
+   * @return the samples of the trace
+   */
+  static BenchmarkWorkload load(String trace) {
+    initialize();
+    try {
+      String filename;
+      if (trace.startsWith("synthetic")) {
+        File file = Files.createTempFile("daikon-jmh", ".dtrace").toFile();
+        file.deleteOnExit();
+        SyntheticTrace.write(file, SyntheticTrace.num_vars(trace));
+        filename = file.getPath();
+      } else {
+        String dir = System.getProperty("daikon.jmh.traces", "daikon/test/dtracediff");
+        filename = new File(dir, trace + ".dtrace.gz").getPath();
+      }
+      return new BenchmarkWorkload(filename);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Reads and prepares the samples of a trace.
+   *
+   * @param filename the trace file
+   * @throws IOException if the trace cannot be read
+   */
+  private BenchmarkWorkload(String filename) throws IOException {
+    this.filename = filename;
+    FileIO.resetNewDeclFormat();
+    PptMap all_ppts = new PptMap();
+    Daikon.all_ppts = all_ppts;
+    FileIO.read_data_trace_files(
+        Collections.singletonList(filename),
+        all_ppts,
+        new FileIO.Processor() {
+          @Override
+          public void process_sample(
+              PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, @Nullable Integer nonce) {
+            ValueTuple full_vt = FileIO.prepare_sample(all_ppts, ppt, vt, nonce);
+            if (full_vt != null) {
+              ppt_names.add(ppt.name());
+              samples.add(full_vt);
+            }
+          }
+        },
+        true);
+  }
+
+  /** Sets up Daikon's global state, as {@code Daikon.mainHelper} does, the first time it is used. */
+  static synchronized void initialize() {
+    if (initialized) {
+      return;
+    }
+    Daikon.dkconfig_quiet = true;
+    Daikon.dkconfig_progress_delay = -1;
+    Daikon.setup_proto_invs();
+    Daikon.setup_NISuppression();
+    initialized = true;
+  }
+
+  /**
+   * Reads the declarations of the trace into a new map, whose program points have seen no samples,
+   * and makes it {@link Daikon#all_ppts}.
+   *
+   * @return the program points of the trace
+   */
+  PptMap fresh_ppts() {
+    FileIO.resetNewDeclFormat();
+    PptMap all_ppts = new PptMap();
+    Daikon.all_ppts = all_ppts;
+    try {
+      // A processor that ignores the samples
+      FileIO.read_data_trace_files(
+          Collections.singletonList(filename),
+          all_ppts,
+          new FileIO.Processor() {
+            @Override
+            public void process_sample(
+                PptMap all_ppts, PptTopLevel ppt, ValueTuple vt, @Nullable Integer nonce) {}
+          },
+          true);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return all_ppts;
+  }
+
+  /**
+   * Returns the program points of the samples, in a map returned by {@link #fresh_ppts}.
+   *
+   * @param all_ppts the program points
+   * @return the program point of each sample, in the same order as {@link #samples}
+   */
+  PptTopLevel[] ppts_of_samples(PptMap all_ppts) {
+    PptTopLevel[] result = new PptTopLevel[ppt_names.size()];
+    for (int i = 0; i < result.length; i++) {
+      PptTopLevel ppt = all_ppts.get(ppt_names.get(i));
+      if (ppt == null) {
+        throw new Error("No program point " + ppt_names.get(i) + " in " + filename);
+      }
+      result[i] = ppt;
+    }
+    return result;
+  }
+
+  /**
+   * Supplies samples to their program points, as Daikon does while it reads the trace.
+   *
+   * @param ppts the program point of each sample, from {@link #ppts_of_samples}
+   * @param from the index of the first sample to supply
+   * @param to the index after the last sample to supply
+   */
+  @SuppressWarnings("nullness:contracts.precondition.not.satisfied") // NIS is set up
+  void add_bottom_up(PptTopLevel[] ppts, int from, int to) {
+    for (int i = from; i < to; i++) {
+      ppts[i].add_bottom_up(samples.get(i), 1);
+    }
+  }
+
+  /**
+   * Does the part of {@link PptTopLevel#add_bottom_up} that precedes the processing of
+   * suppressions: adds a sample to the equality sets, to the dynamic constants, and to every slice.
+   * Afterward, the invariants that the sample falsifies are marked as false but not yet removed.
+   *
+   * @param ppt a program point
+   * @param vt a sample of ppt
+   */
+  static void add_to_slices(PptTopLevel ppt, ValueTuple vt) {
+    if (ppt.equality_view != null) {
+      ppt.equality_view.add(vt, 1);
+    }
+    if (ppt.constants != null) {
+      ppt.constants.add(vt, 1);
+    }
+    for (PptSlice slice : ppt.views_iterable()) {
+      if (slice.invs.size() != 0) {
+        slice.add(vt, 1);
+      }
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package daikon;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link DynamicConstants#add}: the time to supply every sample of a trace to the dynamic
+ * constants of fresh program points, including the views and invariants created for variables
+ * that stop being constant.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class DynamicConstantsBenchmark {
+
+  /** The trace; see {@link BenchmarkWorkload}. */
+  @Param({"synthetic", "Hanoi", "AllTypes"})
+  public String trace;
+
+  /** The samples of the trace. */
+  BenchmarkWorkload workload;
+
+  /** The program point of each sample, which have seen no samples before the benchmark. */
+  PptTopLevel[] ppts;
+
+  @Setup(Level.Trial)
+  public void load() {
+    workload = BenchmarkWorkload.load(trace);
+  }
+
+  @Setup(Level.Invocation)
+  public void fresh_ppts() {
+    ppts = workload.ppts_of_samples(workload.fresh_ppts());
+  }
+
+  @Benchmark
+  public void add() {
+    for (int i = 0; i < ppts.length; i++) {
+      PptTopLevel ppt = ppts[i];
+      if (ppt.constants == null) {
+        ppt.constants = new DynamicConstants(ppt);
+      }
+      ppt.constants.add(workload.samples.get(i), 1);
+    }
+  }
+}
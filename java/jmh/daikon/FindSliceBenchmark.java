@@ -0,0 +1,134 @@
+package daikon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link PptTopLevel#findSlice(VarInfo)} and its binary and ternary versions, and {@link
+ * PptTopLevel#removeSlice} followed by {@link PptTopLevel#addSlice}, on the program point of a
+ * trace that has the most variables. The program point gets a unary slice for each variable, a
+ * binary slice for each pair of variables at most {@link #WIDTH} apart, and a ternary slice for
+ * each three consecutive variables. Every unary lookup finds a slice, and half of the binary
+ * and ternary lookups do.
+ *
+ * <p>The default trace is synthetic, with 500 parameters per procedure, so that its exit points
+ * have over 1000 variables.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FindSliceBenchmark {
+
+  /** The largest difference between the indices of the variables of a binary slice. */
+  static final int WIDTH = 32;
+
+  /** The number of lookups in each invocation. */
+  static final int NUM_LOOKUPS = 1024;
+
+  /** The trace; see {@link BenchmarkWorkload}. */
+  @Param({"synthetic-500", "synthetic-100"})
+  public String trace;
+
+  /** The program point with the most variables, and its slices. */
+  PptTopLevel ppt;
+
+  /** The variables of each lookup, indexed by lookup and then by position in the slice. */
+  VarInfo[][] lookups;
+
+  /** Slices of ppt of each arity, to remove and add back. */
+  List<PptSlice> some_slices = new ArrayList<>();
+
+  @Setup(Level.Trial)
+  public void load() {
+    BenchmarkWorkload workload = BenchmarkWorkload.load(trace);
+    for (PptTopLevel p : workload.fresh_ppts().pptIterable()) {
+      if (ppt == null || p.var_infos.length > ppt.var_infos.length) {
+        ppt = p;
+      }
+    }
+    VarInfo[] vis = ppt.var_infos;
+    int n = vis.length;
+    for (int i = 0; i < n; i++) {
+      ppt.addSlice(new PptSlice1(ppt, vis[i]));
+      for (int j = i + 1; j < n && j - i <= WIDTH; j++) {
+        ppt.addSlice(new PptSlice2(ppt, vis[i], vis[j]));
+      }
+      if (i + 2 < n) {
+        ppt.addSlice(new PptSlice3(ppt, vis[i], vis[i + 1], vis[i + 2]));
+      }
+    }
+
+    Random random = new Random(20261018L);
+    lookups = new VarInfo[NUM_LOOKUPS][];
+    for (int k = 0; k < NUM_LOOKUPS; k++) {
+      boolean hit = (k % 2 == 0);
+      int i = random.nextInt(n - 2 * WIDTH - 2);
+      switch (k % 3) {
+        case 0:
+          // Every variable has a unary slice.
+          lookups[k] = new VarInfo[] {vis[i]};
+          break;
+        case 1:
+          int j = hit ? i + 1 + random.nextInt(WIDTH) : i + WIDTH + 1 + random.nextInt(WIDTH);
+          lookups[k] = new VarInfo[] {vis[i], vis[j]};
+          break;
+        default:
+          lookups[k] =
+              hit
+                  ? new VarInfo[] {vis[i], vis[i + 1], vis[i + 2]}
+                  : new VarInfo[] {vis[i], vis[i + 1], vis[i + 3]};
+          break;
+      }
+    }
+    some_slices.add(ppt.findSlice(vis[n / 2]));
+    some_slices.add(ppt.findSlice(vis[n / 2], vis[n / 2 + 1]));
+    some_slices.add(ppt.findSlice(vis[n / 2], vis[n / 2 + 1], vis[n / 2 + 2]));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_LOOKUPS)
+  public void findSlice(Blackhole bh) {
+    for (VarInfo[] vis : lookups) {
+      switch (vis.length) {
+        case 1:
+          bh.consume(ppt.findSlice(vis[0]));
+          break;
+        case 2:
+          bh.consume(ppt.findSlice(vis[0], vis[1]));
+          break;
+        default:
+          bh.consume(ppt.findSlice(vis[0], vis[1], vis[2]));
+          break;
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_LOOKUPS)
+  public void findSlice_unordered(Blackhole bh) {
+    for (VarInfo[] vis : lookups) {
+      bh.consume(ppt.findSlice_unordered(vis));
+    }
+  }
+
+  @Benchmark
+  public void remove_and_add() {
+    for (PptSlice slice : some_slices) {
+      ppt.removeSlice(slice);
+      ppt.addSlice(slice);
+    }
+  }
+}
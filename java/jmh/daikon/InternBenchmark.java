@@ -0,0 +1,82 @@
+package daikon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link ConcurrentIntern#intern(Object)} on uninterned copies of the values of a trace,
+ * as a parser does, from one thread and from four. Almost every lookup finds an existing value.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class InternBenchmark {
+
+  /** The trace; see {@link BenchmarkWorkload}. */
+  @Param({"synthetic", "Hanoi", "AllTypes"})
+  public String trace;
+
+  /** Copies of the values of every sample, so that interning one looks up an equal value. */
+  List<Object> values = new ArrayList<>();
+
+  @Setup(Level.Trial)
+  public void load() {
+    BenchmarkWorkload workload = BenchmarkWorkload.load(trace);
+    for (ValueTuple vt : workload.samples) {
+      for (Object val : vt.vals) {
+        if (val != null) {
+          values.add(copy(val));
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns an equal copy of a value. Small Longs are shared by the JVM and are not copied.
+   *
+   * @param val a value of a sample
+   * @return a copy of val
+   */
+  static Object copy(Object val) {
+    if (val instanceof long[]) {
+      return ((long[]) val).clone();
+    } else if (val instanceof double[]) {
+      return ((double[]) val).clone();
+    } else if (val instanceof String[]) {
+      return ((String[]) val).clone();
+    } else if (val instanceof Long) {
+      return Long.valueOf((Long) val);
+    } else if (val instanceof Double) {
+      return Double.valueOf((Double) val);
+    } else {
+      return val;
+    }
+  }
+
+  @Benchmark
+  public void intern(Blackhole bh) {
+    for (Object val : values) {
+      bh.consume(ConcurrentIntern.intern(val));
+    }
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void intern4Threads(Blackhole bh) {
+    for (Object val : values) {
+      bh.consume(ConcurrentIntern.intern(val));
+    }
+  }
+}
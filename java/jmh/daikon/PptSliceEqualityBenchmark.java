@@ -0,0 +1,54 @@
+package daikon;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link PptSliceEquality#add}: the time to supply every sample of a trace to the equality
+ * sets of fresh program points, including the slices and invariants created for the new leaders
+ * when a set is broken.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class PptSliceEqualityBenchmark {
+
+  /** The trace; see {@link BenchmarkWorkload}. */
+  @Param({"synthetic", "Hanoi", "AllTypes"})
+  public String trace;
+
+  /** The samples of the trace. */
+  BenchmarkWorkload workload;
+
+  /** The program point of each sample, which have seen no samples before the benchmark. */
+  PptTopLevel[] ppts;
+
+  @Setup(Level.Trial)
+  public void load() {
+    workload = BenchmarkWorkload.load(trace);
+  }
+
+  @Setup(Level.Invocation)
+  public void fresh_ppts() {
+    ppts = workload.ppts_of_samples(workload.fresh_ppts());
+  }
+
+  @Benchmark
+  public void add(Blackhole bh) {
+    for (int i = 0; i < ppts.length; i++) {
+      PptSliceEquality equality_view = ppts[i].equality_view;
+      if (equality_view != null) {
+        bh.consume(equality_view.add(workload.samples.get(i), 1));
+      }
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package daikon;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link FileIO#read_data_trace_record}: the time to parse every record of a trace,
+ * including its declarations, without doing any inference.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class ReadTraceBenchmark {
+
+  /** The trace; see {@link BenchmarkWorkload}. */
+  @Param({"synthetic", "Hanoi", "AllTypes"})
+  public String trace;
+
+  /** The trace file. */
+  String filename;
+
+  @Setup
+  public void load() {
+    filename = BenchmarkWorkload.load(trace).filename;
+  }
+
+  @Benchmark
+  public void read_data_trace_record(Blackhole bh) throws IOException {
+    FileIO.resetNewDeclFormat();
+    PptMap all_ppts = new PptMap();
+    Daikon.all_ppts = all_ppts;
+    FileIO.ParseState state = new FileIO.ParseState(filename, false, true, all_ppts);
+    FileIO.data_trace_state = state;
+    try {
+      do {
+        FileIO.read_data_trace_record(state);
+        bh.consume(state.vt);
+      } while (state.rtype != FileIO.RecordType.EOF);
+    } finally {
+      state.reader.close();
+    }
+  }
+}
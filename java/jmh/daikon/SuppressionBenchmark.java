@@ -0,0 +1,124 @@
+package daikon;
+
+import daikon.inv.Invariant;
+import daikon.suppress.NIS;
+import daikon.suppress.NIS.SuppressionProcessor;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link NIS#process_falsified_invs} on a sample that falsifies suppressors. Before each
+ * invocation, fresh program points are given the samples of the trace up to the first such sample
+ * after the middle of the trace, and then that sample is added to the slices of its program point
+ * (see {@link BenchmarkWorkload#add_to_slices}). The invocation creates the invariants that the
+ * sample unsuppresses.
+ *
+ * <p>Under the default, hybrid, algorithm, {@link NIS#process_falsified_invs} does the work only
+ * when the sample falsifies many suppressors, and otherwise leaves it to {@link NIS#apply_samples};
+ * the "processor" parameter can force the antecedent algorithm instead.
+ *
+ * <p>An invocation is short and its setup is long, so each one is timed on its own.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 50)
+@State(Scope.Thread)
+public class SuppressionBenchmark {
+
+  /** The trace; see {@link BenchmarkWorkload}. */
+  @Param({"synthetic", "Hanoi", "AllTypes"})
+  public String trace;
+
+  /** The algorithm that processes suppressions: a {@link SuppressionProcessor}. */
+  @Param({"ANTECEDENT", "HYBRID"})
+  public String processor;
+
+  /** The samples of the trace. */
+  BenchmarkWorkload workload;
+
+  /** The index of the sample that falsifies suppressors. */
+  int falsifying;
+
+  /** The program point of the falsifying sample, which is ready for its suppressions. */
+  PptTopLevel ppt;
+
+  @Setup(Level.Trial)
+  public void load() {
+    // As Daikon.mainHelper does
+    NIS.dkconfig_suppression_processor = SuppressionProcessor.valueOf(processor);
+    NIS.hybrid_method = (NIS.dkconfig_suppression_processor == SuppressionProcessor.HYBRID);
+    NIS.antecedent_method =
+        (NIS.dkconfig_suppression_processor != SuppressionProcessor.FALSIFIED);
+    workload = BenchmarkWorkload.load(trace);
+    falsifying = find_falsifying_sample();
+  }
+
+  /**
+   * Returns the index of the first sample after the middle of the trace that falsifies a
+   * suppressor, or of the last sample if there is none.
+   *
+   * @return the index of a sample
+   */
+  @SuppressWarnings("nullness:contracts.precondition.not.satisfied") // NIS is set up
+  int find_falsifying_sample() {
+    PptTopLevel[] ppts = workload.ppts_of_samples(workload.fresh_ppts());
+    int middle = ppts.length / 2;
+    workload.add_bottom_up(ppts, 0, middle);
+    for (int i = middle; i < ppts.length; i++) {
+      Set<Invariant> suppressors = suppressors(ppts[i]);
+      workload.add_bottom_up(ppts, i, i + 1);
+      suppressors.removeAll(suppressors(ppts[i]));
+      if (!suppressors.isEmpty()) {
+        return i;
+      }
+    }
+    return ppts.length - 1;
+  }
+
+  /**
+   * Returns the invariants of a program point that can suppress other invariants.
+   *
+   * @param ppt a program point
+   * @return the suppressor invariants of ppt
+   */
+  @SuppressWarnings("nullness:dereference.of.nullable") // NIS is set up
+  static Set<Invariant> suppressors(PptTopLevel ppt) {
+    Set<Invariant> result = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Iterator<Invariant> i = ppt.invariants_iterator(); i.hasNext(); ) {
+      Invariant inv = i.next();
+      if (NIS.suppressor_map.containsKey(inv.getClass())) {
+        result.add(inv);
+      }
+    }
+    return result;
+  }
+
+  @Setup(Level.Invocation)
+  public void prepare() {
+    PptTopLevel[] ppts = workload.ppts_of_samples(workload.fresh_ppts());
+    workload.add_bottom_up(ppts, 0, falsifying);
+    ppt = ppts[falsifying];
+    BenchmarkWorkload.add_to_slices(ppt, workload.samples.get(falsifying));
+  }
+
+  @Benchmark
+  @SuppressWarnings("nullness:contracts.precondition.not.satisfied") // NIS is set up
+  public void process_falsified_invs() {
+    NIS.process_falsified_invs(ppt, workload.samples.get(falsifying));
+  }
+}
@@ -0,0 +1,185 @@
+package daikon;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Writes a synthetic trace for the benchmarks. Each procedure has int parameters {@code x0}, {@code
+ * x1}, ..., a double parameter {@code ratio}, and an int return value. The parameters start out
+ * equal and are then separated a few at a time, so that the trace breaks equality sets, falsifies
+ * suppressors, and unsuppresses invariants throughout, as real traces do.
+ */
+final class SyntheticTrace {
+
+  /** The number of procedures. Each has its own ENTER and EXIT program points. */
+  static final int NUM_PROCS = 4;
+
+  /** The number of calls to each procedure. */
+  static final int NUM_CALLS = 250;
+
+  /** The number of int parameters of each procedure, unless the trace name gives another. */
+  static final int DEFAULT_NUM_VARS = 8;
+
+  /** Do not instantiate. */
+  private SyntheticTrace() {
+    throw new Error("do not instantiate");
+  }
+
+  /**
+   * Returns the number of int parameters of each procedure in a synthetic trace. The trace
+   * "synthetic" has {@link #DEFAULT_NUM_VARS}; the trace "synthetic-N" has N.
+   *
+   * @param trace the name of the trace
+   * @return the number of int parameters of each procedure
+   */
+  static int num_vars(String trace) {
+    int dash = trace.indexOf('-');
+    return (dash == -1) ? DEFAULT_NUM_VARS : Integer.parseInt(trace.substring(dash + 1));
+  }
+
+  /**
+   * Writes the declarations and samples of a synthetic trace.
+   *
+   * @param file where to write the trace
+   * @param num_vars the number of int parameters of each procedure
+   * @throws IOException if the file cannot be written
+   */
+  static void write(File file, int num_vars) throws IOException {
+    try (PrintWriter pw =
+        new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+      write(pw, num_vars);
+    }
+  }
+
+  /**
+   * Writes the declarations and samples of a synthetic trace.
+   *
+   * @param pw where to write the trace
+   * @param num_vars the number of int parameters of each procedure
+   */
+  static void write(PrintWriter pw, int num_vars) {
+    pw.println("decl-version 2.0");
+    pw.println("var-comparability none");
+    pw.println();
+    for (int p = 0; p < NUM_PROCS; p++) {
+      write_decl(pw, proc_name(p) + ":::ENTER", "enter", num_vars, false);
+      write_decl(pw, proc_name(p) + ":::EXIT9", "subexit", num_vars, true);
+    }
+
+    Random r = new Random(20201018L);
+    long[] x = new long[num_vars];
+    int nonce = 0;
+    for (int call = 0; call < NUM_CALLS; call++) {
+      for (int p = 0; p < NUM_PROCS; p++) {
+        // In stage s, the first s quarters of the parameters vary independently of x0.
+        int stage = Math.max(0, (call - 10 * p) / 40);
+        int separated = Math.min(num_vars - 1, stage * num_vars / 4);
+        x[0] = r.nextInt(50);
+        long result = x[0];
+        for (int i = 1; i < num_vars; i++) {
+          if (i > separated) {
+            x[i] = (stage == 0) ? x[0] : x[0] + i;
+          } else if (i % 2 == 0) {
+            x[i] = x[i - 1] + r.nextInt(3);
+          } else {
+            x[i] = r.nextInt(100) - 50;
+          }
+          result += x[i];
+        }
+        double ratio = x[0] / 2.0;
+        nonce++;
+        write_sample(pw, proc_name(p) + ":::ENTER", nonce, x, ratio, null);
+        write_sample(pw, proc_name(p) + ":::EXIT9", nonce, x, ratio, result);
+      }
+    }
+  }
+
+  /**
+   * Returns the name of a procedure in the synthetic trace.
+   *
+   * @param p the index of the procedure
+   * @return the name of procedure p, without a program point suffix
+   */
+  static String proc_name(int p) {
+    return "synthetic.Proc" + p + ".m()";
+  }
+
+  /**
+   * Writes the declaration of a program point.
+   *
+   * @param pw where to write the declaration
+   * @param ppt_name the name of the program point
+   * @param ppt_type the type of the program point
+   * @param num_vars the number of int parameters
+   * @param has_return whether the program point has a return value
+   */
+  static void write_decl(
+      PrintWriter pw, String ppt_name, String ppt_type, int num_vars, boolean has_return) {
+    pw.println("ppt " + ppt_name);
+    pw.println("ppt-type " + ppt_type);
+    for (int i = 0; i < num_vars; i++) {
+      write_var(pw, "x" + i, "variable", "int", true);
+    }
+    write_var(pw, "ratio", "variable", "double", true);
+    if (has_return) {
+      write_var(pw, "return", "return", "int", false);
+    }
+    pw.println();
+  }
+
+  /**
+   * Writes the declaration of a variable.
+   *
+   * @param pw where to write the declaration
+   * @param name the name of the variable
+   * @param kind the kind of the variable
+   * @param type the declared and representation type of the variable
+   * @param is_param whether the variable is a parameter
+   */
+  static void write_var(PrintWriter pw, String name, String kind, String type, boolean is_param) {
+    pw.println("variable " + name);
+    pw.println("  var-kind " + kind);
+    pw.println("  dec-type " + type);
+    pw.println("  rep-type " + type);
+    if (is_param) {
+      pw.println("  flags is_param");
+    }
+    pw.println("  comparability 1");
+  }
+
+  /**
+   * Writes one sample.
+   *
+   * @param pw where to write the sample
+   * @param ppt_name the name of the program point
+   * @param nonce the invocation nonce
+   * @param x the values of the int parameters
+   * @param ratio the value of the double parameter
+   * @param result the return value, or null for an entry
+   */
+  static void write_sample(
+      PrintWriter pw, String ppt_name, int nonce, long[] x, double ratio, @Nullable Long result) {
+    pw.println(ppt_name);
+    pw.println("this_invocation_nonce");
+    pw.println(nonce);
+    for (int i = 0; i < x.length; i++) {
+      pw.println("x" + i);
+      pw.println(x[i]);
+      pw.println(1);
+    }
+    pw.println("ratio");
+    pw.println(ratio);
+    pw.println(1);
+    if (result != null) {
+      pw.println("return");
+      pw.println(result);
+      pw.println(1);
+    }
+    pw.println();
+  }
+}
@@ -0,0 +1,111 @@
+package daikon.dcomp;
+
+import daikon.test.LegacyTagEntry;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the union-find structure that DynComp keeps its value tags in: {@link TagEntry}, which
+ * keeps the sets in primitive arrays, against {@link LegacyTagEntry}, which kept them in weak
+ * references found through a WeakIdentityHashMap.
+ *
+ * <p>The operations are those that an instrumented program such as {@link DcompTest} makes: each
+ * simulated call creates tags for a few constants and intermediate values, merges them with each
+ * other and with the tags of long-lived variables, and then drops them; at each program point exit
+ * the representatives of the variables are looked up, and the sets of some variables are merged.
+ * Most of the tags become garbage, so the cost of removing them from the structure is included.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class TagEntryBenchmark {
+
+  /** The number of simulated calls per benchmark invocation. */
+  @Param({"100000"})
+  public int calls;
+
+  /** The number of long-lived variables, whose tags stay reachable. */
+  @Param({"100", "10000"})
+  public int vars;
+
+  /** The number of short-lived tags created in each call. */
+  static final int TAGS_PER_CALL = 6;
+
+  /** The number of variables looked up at each exit. */
+  static final int VARS_PER_EXIT = 8;
+
+  /** The tags of the long-lived variables. */
+  Object[] var_tags;
+
+  /** For each call, the variables it uses, TAGS_PER_CALL + VARS_PER_EXIT per call. */
+  int[] var_indices;
+
+  @Setup(Level.Trial)
+  public void make_workload() {
+    var_tags = new Object[vars];
+    for (int i = 0; i < vars; i++) {
+      var_tags[i] = new Object();
+    }
+    Random random = new Random(20261018L);
+    var_indices = new int[calls * (TAGS_PER_CALL + VARS_PER_EXIT)];
+    for (int i = 0; i < var_indices.length; i++) {
+      var_indices[i] = random.nextInt(vars);
+    }
+  }
+
+  @Benchmark
+  public void tagEntry(Blackhole bh) {
+    int v = 0;
+    for (int call = 0; call < calls; call++) {
+      Object prev = new Object();
+      for (int i = 0; i < TAGS_PER_CALL; i++) {
+        Object tag = new Object();
+        TagEntry.union(prev, tag);
+        if ((i & 1) == 0) {
+          TagEntry.union(var_tags[var_indices[v]], tag);
+        }
+        v++;
+        prev = tag;
+      }
+      for (int i = 0; i < VARS_PER_EXIT; i++) {
+        bh.consume(TagEntry.find(var_tags[var_indices[v++]]));
+      }
+      if (call % 64 == 0) {
+        TagEntry.union(var_tags[var_indices[v - 1]], var_tags[var_indices[v - 2]]);
+      }
+    }
+  }
+
+  @Benchmark
+  public void legacyTagEntry(Blackhole bh) {
+    int v = 0;
+    for (int call = 0; call < calls; call++) {
+      Object prev = new Object();
+      for (int i = 0; i < TAGS_PER_CALL; i++) {
+        Object tag = new Object();
+        LegacyTagEntry.union(prev, tag);
+        if ((i & 1) == 0) {
+          LegacyTagEntry.union(var_tags[var_indices[v]], tag);
+        }
+        v++;
+        prev = tag;
+      }
+      for (int i = 0; i < VARS_PER_EXIT; i++) {
+        bh.consume(LegacyTagEntry.find(var_tags[var_indices[v++]]));
+      }
+      if (call % 64 == 0) {
+        LegacyTagEntry.union(var_tags[var_indices[v - 1]], var_tags[var_indices[v - 2]]);
+      }
+    }
+  }
+}